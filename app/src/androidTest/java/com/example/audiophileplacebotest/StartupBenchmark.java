@@ -0,0 +1,95 @@
+//----------------------------------------------------
+//
+// Filename:    StartupBenchmark.java
+// Author:      Daniel Walther
+// Brief:       Launches the app with its sample
+//              files and reports time to first frame
+//              and time until the first file plays.
+//              Run it on its own, in a fresh process:
+//              ./gradlew connectedAndroidTest
+//              -Pandroid.testInstrumentationRunnerArguments.class=com.example.audiophileplacebotest.StartupBenchmark
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark
+{
+    private static final String LOG_TAG = StartupBenchmark.class.getSimpleName();
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    // Marks are only set once per process, -1 if not reached in time
+    private static long await(boolean isPlayable)
+    {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (SystemClock.uptimeMillis() < deadline)
+        {
+            long mark = isPlayable ? StartupTrace.getPlayableUptimeMillis() : StartupTrace.getFirstFrameUptimeMillis();
+            if (mark >= 0)
+                return mark;
+
+            SystemClock.sleep(1);
+        }
+
+        return -1;
+    }
+
+    @Test
+    public void firstFrameAndPlayable()
+    {
+        // Samples are only loaded by the first launch in a process
+        Assume.assumeTrue(StartupTrace.getFirstFrameUptimeMillis() < 0);
+
+        long launchMillis = SystemClock.uptimeMillis();
+        ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class);
+        try
+        {
+            long firstFrameMillis = await(false);
+            assertTrue("No frame drawn", firstFrameMillis >= 0);
+
+            // Press play on the first sample as soon as it can be seen, players are only prepared then
+            long tapMillis = SystemClock.uptimeMillis();
+            scenario.onActivity(activity ->
+            {
+                RecyclerView list = activity.findViewById(R.id.recyclerViewAudioFiles);
+                RecyclerView.ViewHolder row = list.findViewHolderForAdapterPosition(0);
+                assertNotNull("Sample files not shown", row);
+                row.itemView.findViewById(R.id.buttonPlayPause).performClick();
+            });
+
+            long playableMillis = await(true);
+            assertTrue("First file never became playable", playableMillis >= 0);
+
+            Bundle results = new Bundle();
+            results.putLong("timeToFirstFrameMillis", firstFrameMillis - launchMillis);
+            results.putLong("timeToPlayableMillis", playableMillis - launchMillis);
+            results.putLong("tapToPlayableMillis", playableMillis - tapMillis);
+            InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+
+            Log.i(LOG_TAG, String.format(Locale.US, "First frame %d ms, playable %d ms (%d ms after the tap)",
+                    firstFrameMillis - launchMillis, playableMillis - launchMillis, playableMillis - tapMillis));
+        }
+        finally
+        {
+            scenario.close();
+        }
+    }
+}
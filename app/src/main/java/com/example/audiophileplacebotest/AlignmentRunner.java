@@ -0,0 +1,157 @@
+//----------------------------------------------------
+//
+// Filename:    AlignmentRunner.java
+// Author:      Daniel Walther
+// Brief:       Lines the loaded AudioFiles up with
+//              each other in the background and
+//              reports back on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.dsp.TrackAligner;
+import com.example.audiophileplacebotest.playback.PcmSource;
+import com.example.audiophileplacebotest.playback.PositionMath;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class AlignmentRunner
+{
+    private static final String LOG_TAG = AlignmentRunner.class.getSimpleName();
+
+    // Used to implement alignment completion in MainActivity
+    public interface AlignCallbacks
+    {
+        void onTracksAligned();
+    }
+
+    private final DocumentTrackStorage storage;
+    private final Handler handler;
+    private final AlignCallbacks mAlignCallbacks;
+
+    // One coordinating thread, the decoding and FFTs of each track are spread over the pool
+    private final ExecutorService executor;
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors(), 1));
+    private final TrackAligner aligner = new TrackAligner(pool);
+
+    // Only accessed from the UI thread. Results of older runs are dropped.
+    private Future<?> pendingAlignment = null;
+    private int generation = 0;
+
+    public AlignmentRunner(Context context, AlignCallbacks callbacks)
+    {
+        storage = new DocumentTrackStorage(context);
+        handler = new Handler(context.getMainLooper());
+        mAlignCallbacks = callbacks;
+
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "AlignmentRunner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Aligns all files against the first one, replacing any alignment still running.
+    // Offsets are stored on the files before the callback is fired.
+    public void align(List<AudioFile> audioFiles)
+    {
+        cancel();
+
+        // Nothing to line up against
+        if (audioFiles.size() < 2)
+        {
+            for (AudioFile a : audioFiles)
+                a.setAlignmentOffsetFlicks(0);
+            return;
+        }
+
+        AudioFile[] files = audioFiles.toArray(new AudioFile[0]);
+        int runGeneration = generation;
+
+        pendingAlignment = executor.submit(() ->
+        {
+            PcmSource[] sources = new PcmSource[files.length];
+            for (int i = 0; i < files.length; ++i)
+                sources[i] = storage.openPcm(files[i]);
+
+            long startMillis = SystemClock.elapsedRealtime();
+
+            try
+            {
+                long[] offsets = aligner.align(sources);
+
+                Log.d(LOG_TAG, String.format(Locale.getDefault(), "Aligned %d tracks in %d ms",
+                        files.length, SystemClock.elapsedRealtime() - startMillis));
+
+                handler.post(() -> onAlignmentFinished(runGeneration, files, offsets));
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "align ERROR: " + e.getMessage());
+            }
+            finally
+            {
+                for (PcmSource source : sources)
+                    source.close();
+            }
+        });
+    }
+
+    // No callback will be fired for an alignment that is still running
+    public void cancel()
+    {
+        ++generation;
+
+        if (pendingAlignment != null)
+            pendingAlignment.cancel(true);
+
+        pendingAlignment = null;
+    }
+
+    // Runner cannot be used afterwards
+    public void shutdown()
+    {
+        cancel();
+        executor.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    private void onAlignmentFinished(int runGeneration, AudioFile[] files, long[] offsets)
+    {
+        if (runGeneration != generation)
+            return;
+
+        pendingAlignment = null;
+
+        for (int i = 0; i < files.length; ++i)
+        {
+            files[i].setAlignmentOffsetFlicks(offsets[i]);
+
+            if (offsets[i] != 0)
+                Log.d(LOG_TAG, String.format(Locale.getDefault(), "%s starts %.2f ms late",
+                        files[i].getFilename(), offsets[i] / (double) PositionMath.FLICKS_PER_MILLI));
+        }
+
+        mAlignCallbacks.onTracksAligned();
+    }
+}
@@ -0,0 +1,67 @@
+//----------------------------------------------------
+//
+// Filename:    AudioFileDiffCallback.java
+// Author:      Daniel Walther
+// Brief:       Compares two orderings of the list so
+//              a shuffle only moves and relabels
+//              rows instead of rebinding them all
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AudioFileDiffCallback extends DiffUtil.Callback
+{
+    private final List<AudioFile> oldList;
+    private final boolean[] oldHidden;
+    private final List<AudioFile> newList;
+
+    // Hidden flags are changed in place, so the old ones are copied before changing anything
+    public AudioFileDiffCallback(List<AudioFile> oldList_, List<AudioFile> newList_)
+    {
+        oldList = new ArrayList<>(oldList_);
+        newList = newList_;
+
+        oldHidden = new boolean[oldList.size()];
+        for (int i = 0; i < oldHidden.length; ++i)
+            oldHidden[i] = oldList.get(i).isHidden();
+    }
+
+    @Override
+    public int getOldListSize()
+    {
+        return oldList.size();
+    }
+
+    @Override
+    public int getNewListSize()
+    {
+        return newList.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldPosition, int newPosition)
+    {
+        return oldList.get(oldPosition) == newList.get(newPosition);
+    }
+
+    // Hidden rows are labelled by position, so they change when they move as well
+    @Override
+    public boolean areContentsTheSame(int oldPosition, int newPosition)
+    {
+        boolean isHidden = newList.get(newPosition).isHidden();
+
+        return oldHidden[oldPosition] == isHidden && (!isHidden || oldPosition == newPosition);
+    }
+
+    @Override
+    public Object getChangePayload(int oldPosition, int newPosition)
+    {
+        return AudioFileListAdapter.PAYLOAD_HIDDEN;
+    }
+}
@@ -11,9 +11,6 @@ package com.example.audiophileplacebotest;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.media.MediaPlayer;
-import android.net.Uri;
-import android.os.Handler;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -27,19 +24,31 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.SimpleDateFormat;
+import com.example.audiophileplacebotest.dsp.EffectiveSpecAnalyzer;
+import com.example.audiophileplacebotest.model.Track;
+import com.example.audiophileplacebotest.playback.TimeFormatter;
+import com.example.audiophileplacebotest.session.ComparisonSession;
+
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdapter.AudioFileViewHolder>
 {
     private static final String LOG_TAG = AudioFileListAdapter.class.getSimpleName();
 
+    // Partial update payloads for notifyItemChanged()
+    public static final Object PAYLOAD_METADATA = new Object();
+    public static final Object PAYLOAD_PREPARED = new Object();
+    public static final Object PAYLOAD_HIDDEN = new Object();
+    public static final Object PAYLOAD_GLOBAL_CONTROLS = new Object();
+    public static final Object PAYLOAD_WAVEFORM = new Object();
+
     private final LayoutInflater mInflater;
     private final ArrayList<AudioFile> mAudioFileList;
+    private final PlaybackSessionManager mSessionManager;
     public final Context mContext;
 
     // Used to implement onClick in MainActivity
@@ -49,14 +58,20 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
         void onDragButtonTouched(AudioFileViewHolder holder, MotionEvent event);
         void onItemChecked(int index, AudioFileViewHolder holder);
         void onItemAdded(int index, AudioFileViewHolder holder);
+        void onItemPlaybackStarted(AudioFileViewHolder holder);
     }
 
     private static ListItemCallbacks mListItemCallbacks;
 
+    // Bind timing, to keep an eye on rebind cost
+    private int bindCount = 0;
+    private long totalBindNanos = 0;
+
     class AudioFileViewHolder extends RecyclerView.ViewHolder
     {
         private final ImageButton buttonPlayPause;
         private final SeekBar seekBarPosition;
+        private final WaveformView waveformOverview;
         private final TextView textViewFilename;
         private final TextView textViewFileProperties;
         private final TextView textViewTotalTime;
@@ -65,8 +80,13 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
         private final ImageButton dragHandle;
         protected final RadioButton radioSelected;
 
-        protected MediaPlayer mPlayer;
-        private final Handler handler;
+        // Playback state lives in the session, the row only shows it
+        protected TrackSession session;
+
+        // Reused by tick(), which runs every frame while playing and must not allocate
+        private final char[] timeBuffer = new char[TimeFormatter.MAX_LENGTH];
+        private long shownSecond = -1;
+        private boolean isShowingPause = false;
 
         Context mContext;
 
@@ -77,10 +97,10 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
             super(itemView);
             mContext = context;
             mAdapter = adapter;
-            handler = new Handler(mContext.getMainLooper());
 
             buttonPlayPause = itemView.findViewById(R.id.buttonPlayPause);
             seekBarPosition = itemView.findViewById(R.id.seekBarPosition);
+            waveformOverview = itemView.findViewById(R.id.waveformOverview);
             textViewFilename = itemView.findViewById(R.id.textViewFilename);
             textViewFileProperties = itemView.findViewById(R.id.textViewFileProperties);
             textViewTotalTime = itemView.findViewById(R.id.textViewTotalTime);
@@ -89,32 +109,27 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
             dragHandle = itemView.findViewById(R.id.dragHandle);
             radioSelected = itemView.findViewById(R.id.radioSelected);
 
-            mPlayer = new MediaPlayer();
-            Log.d(LOG_TAG, "New MediaPlayer created.");
-
             // region Listeners
             // Called when user clicks play/pause button
             buttonPlayPause.setOnClickListener(v ->
             {
                 // Switch from playing/not playing
-                if (mPlayer.isPlaying())
-                {
-                    mPlayer.pause();
-                    buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(mContext, R.drawable.ic_play));
-                }
+                if (session.isPlaying())
+                    session.pause();
                 else
                 {
-                    mPlayer.start();
-                    buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(mContext, R.drawable.ic_pause));
-                    updateSeekBar();
+                    session.play();
+                    mListItemCallbacks.onItemPlaybackStarted(this);
                 }
+
+                tick();
             });
 
             // Called when user clicks delete button
             buttonDelete.setOnClickListener(v ->
             {
-                // Stop media player
-                mPlayer.stop();
+                // Stop playback
+                session.pause();
 
                 // Handle list updating in MainActivity
                 mListItemCallbacks.onListItemDeleted(getAdapterPosition(), this);
@@ -127,9 +142,9 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
                 public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser)
                 {
                     if (fromUser)
-                        mPlayer.seekTo(progress);
+                        session.seekTo(progress);
 
-                    textViewCurrentTime.setText(MainActivity.formatter.format(mPlayer.getCurrentPosition()));
+                    showCurrentTime(session.getPositionMillis());
                 }
 
                 @Override
@@ -138,9 +153,16 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
                 public void onStopTrackingTouch(SeekBar seekBar) {}
             });
 
-            // Change to play button when playback finishes
-            mPlayer.setOnCompletionListener(mp -> buttonPlayPause.setImageDrawable
-                    (ContextCompat.getDrawable(mContext, R.drawable.ic_play)));
+            // Tapping the waveform seeks like the seekbar, which global controls hide
+            waveformOverview.setSeekListener(millis ->
+            {
+                int index = getAdapterPosition();
+                if (index == RecyclerView.NO_POSITION || mAudioFileList.get(index).isGlobalControlsEnabled())
+                    return;
+
+                session.seekTo((int) millis);
+                tick();
+            });
 
             // Allows user to reorder list with dragButton
             dragHandle.setOnTouchListener((v, event) ->
@@ -158,23 +180,45 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
             // endregion
         }
 
-        protected void updateSeekBar()
+        // Called once per frame by MainActivity's ticker, returns whether the row still needs ticks
+        protected boolean tick()
+        {
+            int position = session.getPositionMillis();
+            seekBarPosition.setProgress(position);
+            waveformOverview.setPositionMillis(position);
+            showCurrentTime(position);
+
+            // Only swap the icon when the state actually changed, e.g. when playback finishes
+            boolean playing = session.isPlaying();
+            if (playing != isShowingPause)
+            {
+                isShowingPause = playing;
+                buttonPlayPause.setImageResource(playing ? R.drawable.ic_pause : R.drawable.ic_play);
+            }
+
+            return playing;
+        }
+
+        // Text only changes once a second, skip the relayout on the other frames
+        private void showCurrentTime(int millis)
         {
-            seekBarPosition.setProgress(mPlayer.getCurrentPosition());
-            textViewCurrentTime.setText(MainActivity.formatter.format(mPlayer.getCurrentPosition()));
+            long second = millis / 1000;
+            if (second == shownSecond)
+                return;
 
-            // Update seekbar every second while playing
-            handler.removeCallbacksAndMessages(null);
-            if (mPlayer.isPlaying())
-                handler.postDelayed(this::updateSeekBar, MainActivity.UPDATE_RATE_MILLIS);
+            shownSecond = second;
+            int length = TimeFormatter.format(millis, timeBuffer, 0);
+            textViewCurrentTime.setText(timeBuffer, 0, length);
         }
     }
 
-    public AudioFileListAdapter(Context context, ArrayList<AudioFile> audioFileList, ListItemCallbacks listener)
+    public AudioFileListAdapter(Context context, ArrayList<AudioFile> audioFileList,
+                                PlaybackSessionManager sessionManager, ListItemCallbacks listener)
     {
         mContext = context;
         mInflater = LayoutInflater.from(context);
         mAudioFileList = audioFileList;
+        mSessionManager = sessionManager;
         mListItemCallbacks = listener;
     }
 
@@ -186,38 +230,78 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
         return new AudioFileViewHolder(mItemView, this, mContext);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull AudioFileListAdapter.AudioFileViewHolder holder, int position,
+                                 @NonNull List<Object> payloads)
+    {
+        if (payloads.isEmpty())
+        {
+            onBindViewHolder(holder, position);
+            return;
+        }
+
+        AudioFile mCurrent = mAudioFileList.get(position);
+
+        // Only labels need updating once a file has been probed, or hidden/unhidden
+        if (payloads.contains(PAYLOAD_METADATA) || payloads.contains(PAYLOAD_HIDDEN))
+            bindFileLabels(holder, mCurrent, position);
+
+        if (payloads.contains(PAYLOAD_WAVEFORM) || payloads.contains(PAYLOAD_HIDDEN))
+            bindWaveform(holder, mCurrent);
+
+        if (payloads.contains(PAYLOAD_GLOBAL_CONTROLS))
+            bindControlsMode(holder, mCurrent);
+
+        // Duration is known once the player is ready
+        if (payloads.contains(PAYLOAD_PREPARED))
+            bindPlaybackState(holder);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull AudioFileListAdapter.AudioFileViewHolder holder, int position)
     {
+        long startNanos = System.nanoTime();
+
         AudioFile mCurrent = mAudioFileList.get(position);
-        Uri uri = mCurrent.getUriPath();
+        TrackSession session = mSessionManager.getSession(mCurrent);
 
-        Log.d(LOG_TAG, "onBindViewHolder()");
+        // Players are only prepared once the track is played, durations come from probing
+        holder.session = session;
 
-        // Set source to new file
-        try
-        {
-            holder.mPlayer.reset();
-            holder.mPlayer.setDataSource(mContext, uri);
-            holder.mPlayer.prepare();
-        }
-        catch (Exception e)
-        {
-            Log.d(LOG_TAG, "onBindViewHolder ERROR: " + e.getMessage());
-        }
+        bindControlsMode(holder, mCurrent);
+        bindPlaybackState(holder);
+        bindFileLabels(holder, mCurrent, position);
+        bindWaveform(holder, mCurrent);
+
+        mListItemCallbacks.onItemAdded(position, holder);
+
+        long bindNanos = System.nanoTime() - startNanos;
+        ++bindCount;
+        totalBindNanos += bindNanos;
+
+        Log.d(LOG_TAG, String.format(Locale.getDefault(), "Bound row %d in %.2f ms (average %.2f ms)",
+                position, bindNanos / 1000000f, getAverageBindTimeMillis()));
+    }
+
+    public float getAverageBindTimeMillis()
+    {
+        if (bindCount == 0)
+            return 0;
+
+        return totalBindNanos / (bindCount * 1000000f);
+    }
 
-        // Change views to exclude separate controls if global controls enabled
+    // Change views to exclude separate controls if global controls enabled
+    private void bindControlsMode(AudioFileViewHolder holder, AudioFile mCurrent)
+    {
         if (mCurrent.isGlobalControlsEnabled())
         {
             holder.radioSelected.setVisibility(View.VISIBLE);
             holder.buttonPlayPause.setVisibility(View.GONE);
             holder.seekBarPosition.setVisibility(View.GONE);
 
-            // Mute player if separate controls enabled
-            holder.mPlayer.setVolume(0, 0);
-
-            // Select first element automatically
-            holder.radioSelected.setChecked(position == 0);
+            // Playback goes through MainActivity's mixer, the row's own player stays idle
+            holder.radioSelected.setChecked(mCurrent.isSelected());
         }
         else
         {
@@ -225,24 +309,43 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
             holder.radioSelected.setChecked(false);
             holder.buttonPlayPause.setVisibility(View.VISIBLE);
             holder.seekBarPosition.setVisibility(View.VISIBLE);
-
-            // Unmute player
-            holder.mPlayer.setVolume(1, 1);
         }
+    }
 
-        // Set initial controls/seekbar/timer values
-        holder.seekBarPosition.setMax(holder.mPlayer.getDuration());
-        holder.seekBarPosition.setProgress(0);
-        String totalTime = "/  " + MainActivity.formatter.format(holder.mPlayer.getDuration());
+    // Sets controls/seekbar/timer values from the session
+    private void bindPlaybackState(AudioFileViewHolder holder)
+    {
+        // Unknown until prepared or probed
+        int duration = Math.max(holder.session.getDurationMillis(), 0);
+
+        holder.seekBarPosition.setMax(duration);
+        String totalTime = "/  " + TimeFormatter.format(duration);
         holder.textViewTotalTime.setText(totalTime);
-        holder.buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(mContext, R.drawable.ic_play));
 
-        // Filename/properties
+        // Forces the icon and time to be refreshed, the holder may have shown another session
+        holder.isShowingPause = !holder.session.isPlaying();
+        holder.shownSecond = -1;
+        holder.tick();
+    }
+
+    // Levels and clipping can give a track away, so hidden rows don't show their waveform
+    private void bindWaveform(AudioFileViewHolder holder, AudioFile mCurrent)
+    {
+        holder.waveformOverview.setPyramid(mCurrent.isHidden() ? null : mCurrent.getWaveform());
+        holder.waveformOverview.setVisibility(mCurrent.isHidden() ? View.INVISIBLE : View.VISIBLE);
+    }
+
+    // Sets filename/properties text of a row
+    private void bindFileLabels(AudioFileViewHolder holder, AudioFile mCurrent, int position)
+    {
         String fileProperties;
         String filename;
 
+        // Placeholder until metadata has been read
+        if (!mCurrent.isProbed())
+            fileProperties = mContext.getString(R.string.loadingFileProperties);
         // Lossy compression
-        if (mCurrent.getBitdepth() == null)
+        else if (mCurrent.getBitdepth() == null)
         {
             fileProperties = mCurrent.getFileformat() +
                     " " +
@@ -258,17 +361,35 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
                     mCurrent.getBitdepth() +
                     " @ " +
                     mCurrent.getSamplerate();
+
+            // What the audio really uses, once measured
+            EffectiveSpecAnalyzer.Result specs = mCurrent.getEffectiveSpecs();
+            if (specs != null)
+            {
+                String bits = specs.getEffectiveBits() > 0 ? specs.getEffectiveBits() + "-bit" : mCurrent.getBitdepth();
+                fileProperties += mContext.getString(R.string.effectiveSpecs, bits,
+                        Track.formatSampleRate(specs.getEffectiveSampleRate()));
+
+                if (specs.isLikelyLossy())
+                    fileProperties += mContext.getString(R.string.effectiveSpecsLossy, specs.getCutoffHz() / 1000);
+            }
         }
 
         // Don't show filename/properties if hidden
         if (mCurrent.isHidden())
         {
             // Set filename so as not to reveal file itself
-            filename = mContext.getString(R.string.hiddenFilename) + (position + 1);
+            filename = mContext.getString(R.string.hiddenFilename) + ComparisonSession.getBlindNumber(position);
 
             // Hide properties
             holder.textViewFileProperties.setVisibility(View.GONE);
         }
+        else if (!mCurrent.isProbed())
+        {
+            // Filename is not known yet
+            filename = mContext.getString(R.string.loadingFilename);
+            holder.textViewFileProperties.setVisibility(View.VISIBLE);
+        }
         else
         {
             // Show filename
@@ -280,8 +401,6 @@ public class AudioFileListAdapter extends RecyclerView.Adapter<AudioFileListAdap
 
         holder.textViewFilename.setText(filename);
         holder.textViewFileProperties.setText(fileProperties);
-
-        mListItemCallbacks.onItemAdded(position, holder);
     }
 
     @Override
@@ -0,0 +1,179 @@
+//----------------------------------------------------
+//
+// Filename:    AudioFileProber.java
+// Author:      Daniel Walther
+// Brief:       Reads AudioFile metadata on a small
+//              pool of background threads and
+//              reports back on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.cache.MetadataCache;
+import com.example.audiophileplacebotest.parser.ContainerParser;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class AudioFileProber
+{
+    private static final String LOG_TAG = AudioFileProber.class.getSimpleName();
+
+    // Probing is mostly I/O bound, a couple of threads is plenty
+    private static final int MAX_PROBE_THREADS = 2;
+
+    // Used to implement probe completion in MainActivity
+    public interface ProbeCallbacks
+    {
+        void onAudioFileProbed(AudioFile audioFile);
+    }
+
+    private final DocumentTrackStorage storage;
+    private final Handler handler;
+    private final ProbeCallbacks mProbeCallbacks;
+    private final ExecutorService executor;
+    private final MetadataCache metadataCache;
+
+    // Saves run apart from probes, so shutting down the probes can't drop a queued save
+    private final ExecutorService saveExecutor;
+
+    // Parsers keep a read buffer around, one per probe thread
+    private final ThreadLocal<ContainerParser> parsers = new ThreadLocal<ContainerParser>()
+    {
+        @Override
+        protected ContainerParser initialValue()
+        {
+            return new ContainerParser();
+        }
+    };
+
+    // Only accessed from the UI thread
+    private final Map<AudioFile, Future<?>> pendingProbes = new HashMap<>();
+    private int probeCount = 0;
+    private long totalProbeTimeNanos = 0;
+
+    public AudioFileProber(Context context, ProbeCallbacks callbacks, MetadataCache cache)
+    {
+        storage = new DocumentTrackStorage(context);
+        handler = new Handler(context.getMainLooper());
+        mProbeCallbacks = callbacks;
+        metadataCache = cache;
+
+        executor = new ThreadPoolExecutor(MAX_PROBE_THREADS, MAX_PROBE_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "AudioFileProber");
+            t.setDaemon(true);
+            return t;
+        });
+
+        saveExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "AudioFileProber-save");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Queues a file for probing, callback is fired on the UI thread once done
+    public void submit(AudioFile audioFile)
+    {
+        if (audioFile.isProbed() || pendingProbes.containsKey(audioFile))
+            return;
+
+        Future<?> future = executor.submit(() ->
+        {
+            audioFile.probe(storage, parsers.get(), metadataCache);
+            handler.post(() -> onProbeFinished(audioFile));
+        });
+
+        pendingProbes.put(audioFile, future);
+    }
+
+    // Stops a queued or running probe, no callback will be fired for it
+    public void cancel(AudioFile audioFile)
+    {
+        Future<?> future = pendingProbes.remove(audioFile);
+
+        if (future != null)
+            future.cancel(true);
+    }
+
+    // Writes the entries probed so far to disk in the background, without waiting for pending probes
+    public void saveCache()
+    {
+        saveExecutor.execute(() ->
+        {
+            try
+            {
+                metadataCache.save();
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "saveCache ERROR: " + e.getMessage());
+            }
+        });
+    }
+
+    // Cancels all pending probes, prober cannot be used afterwards. Queued saves still finish.
+    public void shutdown()
+    {
+        pendingProbes.clear();
+        executor.shutdownNow();
+        saveExecutor.shutdown();
+    }
+
+    public boolean isPending(AudioFile audioFile)
+    {
+        return pendingProbes.containsKey(audioFile);
+    }
+
+    public float getAverageProbeTimeMillis()
+    {
+        if (probeCount == 0)
+            return 0;
+
+        return totalProbeTimeNanos / (probeCount * 1000000f);
+    }
+
+    private void onProbeFinished(AudioFile audioFile)
+    {
+        // File was deleted while probing
+        if (pendingProbes.remove(audioFile) == null)
+            return;
+
+        ++probeCount;
+        totalProbeTimeNanos += audioFile.getProbeTimeNanos();
+
+        if (audioFile.getProbeError() != null)
+            Log.d(LOG_TAG, "probe ERROR: " + audioFile.getProbeError().getMessage());
+
+        Log.d(LOG_TAG, String.format(Locale.getDefault(),
+                "Probed %s in %.1f ms (average %.1f ms, cache hits %d, misses %d)", audioFile.getFilename(),
+                audioFile.getProbeTimeNanos() / 1000000f, getAverageProbeTimeMillis(),
+                metadataCache.getHitCount(), metadataCache.getMissCount()));
+
+        mProbeCallbacks.onAudioFileProbed(audioFile);
+    }
+}
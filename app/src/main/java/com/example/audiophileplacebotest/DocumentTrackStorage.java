@@ -0,0 +1,212 @@
+//--------------------------------------------------
+//
+// Filename:    DocumentTrackStorage.java
+// Author:      Daniel Walther
+// Brief:       Reads AudioFiles through the content
+//              resolver, for probing in the core
+//              Track model
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import androidx.documentfile.provider.DocumentFile;
+
+import com.example.audiophileplacebotest.codec.PcmFileSource;
+import com.example.audiophileplacebotest.model.Track;
+import com.example.audiophileplacebotest.model.TrackStorage;
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+import com.example.audiophileplacebotest.playback.MediaCodecSource;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class DocumentTrackStorage implements TrackStorage
+{
+    private static final String LOG_TAG = DocumentTrackStorage.class.getSimpleName();
+
+    private static final String[] FILE_INFO_COLUMNS =
+    {
+            OpenableColumns.DISPLAY_NAME,
+            OpenableColumns.SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    private final Context mContext;
+
+    public DocumentTrackStorage(Context context)
+    {
+        mContext = context.getApplicationContext();
+    }
+
+    // Name, size and modification date in a single provider round trip.
+    // Skipped if a folder listing already filled them in.
+    @Override
+    public void queryFileInfo(Track track)
+    {
+        if (track.getFilename() != null)
+            return;
+
+        Uri uri = uriOf(track);
+
+        // Rendered variants are plain files in app storage, there is no provider to ask
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null)
+        {
+            File file = new File(uri.getPath());
+            track.setFileInfo(file.getName(), file.length(), file.lastModified());
+            return;
+        }
+
+        try
+        {
+            Cursor cursor = mContext.getContentResolver().query(uri, FILE_INFO_COLUMNS,
+                    null, null, null);
+
+            if (cursor != null)
+            {
+                try
+                {
+                    if (cursor.moveToFirst())
+                    {
+                        track.setFileInfo(cursor.getString(0),
+                                cursor.isNull(1) ? -1 : cursor.getLong(1),
+                                cursor.isNull(2) ? 0 : cursor.getLong(2));
+                        return;
+                    }
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            Log.d(LOG_TAG, "queryFileInfo ERROR: " + e.getMessage());
+        }
+
+        // Provider doesn't support the query, settle for the name
+        track.setFileInfo(DocumentFile.fromSingleUri(mContext, uri).getName(), -1, 0);
+    }
+
+    // Closing the stream closes the descriptor as well
+    @Override
+    public InputStream open(Track track) throws IOException
+    {
+        AssetFileDescriptor afd = mContext.getContentResolver().openAssetFileDescriptor(uriOf(track), "r");
+        if (afd == null)
+            throw new IOException("Cannot open " + track.getKey());
+
+        return afd.createInputStream();
+    }
+
+    // Maps the whole file read-only. The mapping stays valid after the descriptor is closed.
+    // Fails for providers that only hand out pipes, and for files over 2 GB.
+    public ByteBuffer map(Track track) throws IOException
+    {
+        ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uriOf(track), "r");
+        if (pfd == null)
+            throw new IOException("Cannot open " + track.getKey());
+
+        try
+        {
+            FileChannel channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+
+            // A single buffer can't hold more, map() would throw an IllegalArgumentException
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(track.getKey() + " is too large to map");
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        finally
+        {
+            pfd.close();
+        }
+    }
+
+    // Uncompressed files are served straight from a mapping, everything else is decoded by MediaCodec.
+    // Nothing is opened until the source is first read.
+    public PcmSource openPcm(Track track)
+    {
+        if (isMappable(track))
+            return new PcmFileSource(() -> openChannel(track));
+
+        return new MediaCodecSource(mContext, uriOf(track));
+    }
+
+    // WAV and AIFF with integer samples wider than a byte, or 32 bit float
+    public static boolean isMappable(Track track)
+    {
+        AudioMetadata metadata = track.getMetadata();
+        if (metadata == null)
+            return false;
+
+        String format = metadata.getFormat();
+        int bitDepth = metadata.getBitDepth();
+        return ("WAV".equals(format) || "AIFF".equals(format)) && bitDepth > 8 && bitDepth <= 32;
+    }
+
+    // Closing the channel closes the descriptor as well
+    private FileChannel openChannel(Track track) throws IOException
+    {
+        ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uriOf(track), "r");
+        if (pfd == null)
+            throw new IOException("Cannot open " + track.getKey());
+
+        return new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel();
+    }
+
+    // Use MediaExtractor/MediaFormat for file properties
+    @Override
+    public AudioMetadata extractMetadata(Track track) throws IOException
+    {
+        MediaExtractor extractor = new MediaExtractor();
+
+        try
+        {
+            extractor.setDataSource(mContext, uriOf(track), null);
+            MediaFormat mf = extractor.getTrackFormat(0);
+
+            int sampleRate = mf.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channels = mf.containsKey(MediaFormat.KEY_CHANNEL_COUNT)
+                    ? mf.getInteger(MediaFormat.KEY_CHANNEL_COUNT) : AudioMetadata.UNKNOWN;
+            int bitRate = mf.containsKey(MediaFormat.KEY_BIT_RATE)
+                    ? mf.getInteger(MediaFormat.KEY_BIT_RATE) : AudioMetadata.UNKNOWN;
+            long totalSamples = mf.containsKey(MediaFormat.KEY_DURATION)
+                    ? mf.getLong(MediaFormat.KEY_DURATION) * sampleRate / 1000000 : AudioMetadata.UNKNOWN;
+
+            return new AudioMetadata(null, sampleRate, 0, channels, totalSamples, bitRate);
+        }
+        finally
+        {
+            // Extractor holds native resources until released
+            extractor.release();
+        }
+    }
+
+    private static Uri uriOf(Track track)
+    {
+        if (track instanceof AudioFile)
+            return ((AudioFile) track).getUriPath();
+
+        return Uri.parse(track.getKey());
+    }
+}
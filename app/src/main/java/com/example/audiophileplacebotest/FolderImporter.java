@@ -0,0 +1,302 @@
+//----------------------------------------------------
+//
+// Filename:    FolderImporter.java
+// Author:      Daniel Walther
+// Brief:       Lists a picked folder tree, probes
+//              the audio files in it on a pool of
+//              background threads and hands the
+//              matching ones to the UI in batches
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.cache.MetadataCache;
+import com.example.audiophileplacebotest.parser.ContainerParser;
+import com.example.audiophileplacebotest.session.ImportFilter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class FolderImporter
+{
+    private static final String LOG_TAG = FolderImporter.class.getSimpleName();
+
+    // Probing is mostly I/O bound, providers cope well with a few requests at once
+    private static final int MAX_PROBE_THREADS = 4;
+
+    // Probes queued ahead of the listing, keeps memory flat in huge folders
+    private static final int MAX_IN_FLIGHT = MAX_PROBE_THREADS * 4;
+
+    // Found files are handed over when either limit is reached, so the list fills in
+    // steadily without an adapter update per file
+    private static final int BATCH_SIZE = 8;
+    private static final long BATCH_INTERVAL_MILLIS = 200;
+
+    private static final String[] CHILD_COLUMNS =
+    {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    // Used to implement import progress in MainActivity
+    public interface ImportCallbacks
+    {
+        void onFolderBatchImported(List<AudioFile> batch);
+        void onFolderImportFinished(int foundCount, int importedCount);
+    }
+
+    private final Context mContext;
+    private final Handler handler;
+    private final ImportCallbacks mImportCallbacks;
+    private final MetadataCache metadataCache;
+    private final DocumentTrackStorage storage;
+
+    // Lists the tree and collects results, probes run on the pool
+    private final ExecutorService coordinator;
+    private final ExecutorService probePool;
+
+    // Parsers keep a read buffer around, one per probe thread
+    private final ThreadLocal<ContainerParser> parsers = new ThreadLocal<ContainerParser>()
+    {
+        @Override
+        protected ContainerParser initialValue()
+        {
+            return new ContainerParser();
+        }
+    };
+
+    // Only accessed from the UI thread. Batches of older imports are dropped.
+    private Future<?> pendingImport = null;
+    private int generation = 0;
+
+    public FolderImporter(Context context, ImportCallbacks callbacks, MetadataCache cache)
+    {
+        mContext = context.getApplicationContext();
+        handler = new Handler(context.getMainLooper());
+        mImportCallbacks = callbacks;
+        metadataCache = cache;
+        storage = new DocumentTrackStorage(context);
+
+        coordinator = newExecutor(1, "FolderImporter");
+        probePool = newExecutor(MAX_PROBE_THREADS, "FolderImporterProbe");
+    }
+
+    private static ExecutorService newExecutor(int threads, String name)
+    {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Imports up to maxFiles audio files from the tree, replacing any import still running.
+    // Without a reference on the filter, the first audio file found becomes the reference.
+    public void start(Uri treeUri, ImportFilter filter, int maxFiles)
+    {
+        cancel();
+
+        if (maxFiles <= 0)
+            return;
+
+        int runGeneration = generation;
+        pendingImport = coordinator.submit(() -> importTree(runGeneration, treeUri, filter, maxFiles));
+    }
+
+    // No more callbacks will be fired for an import that is still running
+    public void cancel()
+    {
+        ++generation;
+
+        if (pendingImport != null)
+            pendingImport.cancel(true);
+
+        pendingImport = null;
+    }
+
+    // Importer cannot be used afterwards
+    public void shutdown()
+    {
+        cancel();
+        coordinator.shutdownNow();
+        probePool.shutdownNow();
+    }
+
+    // region Background
+    private void importTree(int runGeneration, Uri treeUri, ImportFilter filter, int maxFiles)
+    {
+        long startMillis = SystemClock.elapsedRealtime();
+        ContentResolver resolver = mContext.getContentResolver();
+
+        CompletionService<AudioFile> probes = new ExecutorCompletionService<>(probePool);
+        int inFlight = 0;
+        int found = 0;
+        int imported = 0;
+
+        List<AudioFile> batch = new ArrayList<>();
+        long lastBatchMillis = SystemClock.elapsedRealtime();
+
+        ArrayDeque<String> folders = new ArrayDeque<>();
+        folders.add(DocumentsContract.getTreeDocumentId(treeUri));
+
+        try
+        {
+            while (!folders.isEmpty() && imported < maxFiles)
+            {
+                Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, folders.poll());
+                Cursor cursor = resolver.query(childrenUri, CHILD_COLUMNS, null, null, null);
+                if (cursor == null)
+                    continue;
+
+                try
+                {
+                    while (cursor.moveToNext() && imported < maxFiles)
+                    {
+                        String documentId = cursor.getString(0);
+                        String mimeType = cursor.getString(2);
+
+                        if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType))
+                        {
+                            folders.add(documentId);
+                            continue;
+                        }
+                        if (mimeType == null || !mimeType.startsWith("audio/"))
+                            continue;
+
+                        // Listing already has what a probe would query for
+                        AudioFile audioFile = new AudioFile(DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId));
+                        audioFile.setFileInfo(cursor.getString(1), cursor.isNull(3) ? -1 : cursor.getLong(3),
+                                cursor.isNull(4) ? 0 : cursor.getLong(4));
+                        ++found;
+
+                        // Everything else is compared against the first file, so it is probed right away
+                        if (filter.needsReference() && !filter.hasReference())
+                        {
+                            probe(audioFile);
+                            filter.setReference(audioFile.getMetadata());
+                            imported += accept(audioFile, filter, batch, maxFiles - imported);
+                            continue;
+                        }
+
+                        probes.submit(() -> probe(audioFile));
+                        ++inFlight;
+
+                        // Collect finished probes, only waiting if too many are queued
+                        while (inFlight > 0)
+                        {
+                            Future<AudioFile> done = inFlight >= MAX_IN_FLIGHT ? probes.take() : probes.poll();
+                            if (done == null)
+                                break;
+
+                            imported += accept(done.get(), filter, batch, maxFiles - imported);
+                            --inFlight;
+                        }
+
+                        lastBatchMillis = flushBatch(runGeneration, batch, lastBatchMillis, false);
+                    }
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+
+            // Files past the limit are still probed, but not imported
+            for (; inFlight > 0; --inFlight)
+            {
+                imported += accept(probes.take().get(), filter, batch, maxFiles - imported);
+                lastBatchMillis = flushBatch(runGeneration, batch, lastBatchMillis, false);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            return;
+        }
+        catch (ExecutionException | RuntimeException e)
+        {
+            Log.d(LOG_TAG, "importTree ERROR: " + e.getMessage());
+        }
+
+        flushBatch(runGeneration, batch, lastBatchMillis, true);
+
+        Log.d(LOG_TAG, String.format(Locale.getDefault(), "Imported %d of %d files in %d ms",
+                imported, found, SystemClock.elapsedRealtime() - startMillis));
+
+        int foundCount = found;
+        int importedCount = imported;
+        handler.post(() ->
+        {
+            if (runGeneration == generation)
+            {
+                pendingImport = null;
+                mImportCallbacks.onFolderImportFinished(foundCount, importedCount);
+            }
+        });
+    }
+
+    private AudioFile probe(AudioFile audioFile)
+    {
+        audioFile.probe(storage, parsers.get(), metadataCache);
+        return audioFile;
+    }
+
+    // Adds the file to the batch if it matches and there is room. Returns the number of files added.
+    private static int accept(AudioFile audioFile, ImportFilter filter, List<AudioFile> batch, int room)
+    {
+        if (room <= 0 || !filter.matches(audioFile.getMetadata()))
+            return 0;
+
+        batch.add(audioFile);
+        return 1;
+    }
+
+    // Posts the batch if it is full, old enough or force is set. Returns when the last batch went out.
+    private long flushBatch(int runGeneration, List<AudioFile> batch, long lastBatchMillis, boolean force)
+    {
+        long now = SystemClock.elapsedRealtime();
+
+        if (batch.isEmpty() || (!force && batch.size() < BATCH_SIZE && now - lastBatchMillis < BATCH_INTERVAL_MILLIS))
+            return lastBatchMillis;
+
+        List<AudioFile> ready = new ArrayList<>(batch);
+        batch.clear();
+
+        handler.post(() ->
+        {
+            if (runGeneration == generation)
+                mImportCallbacks.onFolderBatchImported(ready);
+        });
+
+        return now;
+    }
+    // endregion
+}
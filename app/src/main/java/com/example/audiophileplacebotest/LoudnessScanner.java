@@ -0,0 +1,159 @@
+//----------------------------------------------------
+//
+// Filename:    LoudnessScanner.java
+// Author:      Daniel Walther
+// Brief:       Decodes AudioFiles once in the
+//              background to measure their
+//              loudness, several at a time, and
+//              reports back on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.dsp.LoudnessAnalyzer;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class LoudnessScanner
+{
+    private static final String LOG_TAG = LoudnessScanner.class.getSimpleName();
+
+    // Each track is independent, so one per core. Runs at background priority behind playback.
+    private static final int MAX_SCAN_THREADS = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+
+    // Used to implement scan completion in MainActivity
+    public interface ScanCallbacks
+    {
+        void onLoudnessMeasured(AudioFile audioFile);
+    }
+
+    private final DocumentTrackStorage storage;
+    private final Handler handler;
+    private final ScanCallbacks mScanCallbacks;
+    private final ExecutorService executor;
+
+    // Only accessed from the UI thread
+    private final Map<AudioFile, Future<?>> pendingScans = new HashMap<>();
+
+    public LoudnessScanner(Context context, ScanCallbacks callbacks)
+    {
+        storage = new DocumentTrackStorage(context);
+        handler = new Handler(context.getMainLooper());
+        mScanCallbacks = callbacks;
+
+        executor = new ThreadPoolExecutor(MAX_SCAN_THREADS, MAX_SCAN_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "LoudnessScanner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Queues a file for measuring, callback is fired on the UI thread once it is done.
+    // Files that have already been measured are skipped.
+    public void submit(AudioFile audioFile)
+    {
+        if (audioFile.getLoudness() != null || pendingScans.containsKey(audioFile))
+            return;
+
+        Future<?> future = executor.submit(() ->
+        {
+            boolean isMeasured = false;
+
+            try
+            {
+                isMeasured = measure(audioFile);
+            }
+            finally
+            {
+                // Failures are posted as well, or the file would stay pending for good
+                if (isMeasured)
+                    handler.post(() -> onScanFinished(audioFile));
+                else
+                    handler.post(() -> onScanFailed(audioFile));
+            }
+        });
+
+        pendingScans.put(audioFile, future);
+    }
+
+    // Stops a queued or running scan, no callback will be fired for it
+    public void cancel(AudioFile audioFile)
+    {
+        Future<?> future = pendingScans.remove(audioFile);
+
+        if (future != null)
+            future.cancel(true);
+    }
+
+    // Cancels all pending scans, scanner cannot be used afterwards
+    public void shutdown()
+    {
+        pendingScans.clear();
+        executor.shutdownNow();
+    }
+
+    // Sets the loudness of audioFile, false if it couldn't be decoded
+    private boolean measure(AudioFile audioFile)
+    {
+        PcmSource decoder = storage.openPcm(audioFile);
+        long startMillis = SystemClock.elapsedRealtime();
+
+        try
+        {
+            LoudnessAnalyzer.Result result = LoudnessAnalyzer.analyze(decoder);
+            audioFile.setLoudness(result);
+
+            Log.d(LOG_TAG, String.format(Locale.getDefault(),
+                    "Measured %s: %.1f LUFS, %.1f dBTP, %.1f dBFS RMS in %d ms", audioFile.getFilename(),
+                    result.getIntegratedLufs(), result.getTruePeakDbtp(), result.getRmsDbfs(),
+                    SystemClock.elapsedRealtime() - startMillis));
+            return true;
+        }
+        catch (IOException e)
+        {
+            Log.d(LOG_TAG, "measure ERROR: " + e.getMessage());
+            return false;
+        }
+        finally
+        {
+            decoder.close();
+        }
+    }
+
+    private void onScanFinished(AudioFile audioFile)
+    {
+        // File was deleted while scanning
+        if (pendingScans.remove(audioFile) == null)
+            return;
+
+        mScanCallbacks.onLoudnessMeasured(audioFile);
+    }
+
+    // Still unmeasured, so the next submit tries again
+    private void onScanFailed(AudioFile audioFile)
+    {
+        pendingScans.remove(audioFile);
+    }
+}
@@ -11,8 +11,9 @@ package com.example.audiophileplacebotest;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -21,12 +22,13 @@ import android.app.Activity;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.ImageButton;
@@ -34,26 +36,53 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.text.SimpleDateFormat;
+import com.example.audiophileplacebotest.abx.AbxSession;
+import com.example.audiophileplacebotest.cache.MetadataCache;
+import com.example.audiophileplacebotest.cache.PcmCache;
+import com.example.audiophileplacebotest.cache.WaveformCache;
+import com.example.audiophileplacebotest.dsp.LevelMatcher;
+import com.example.audiophileplacebotest.dsp.LoudnessAnalyzer;
+import com.example.audiophileplacebotest.dsp.NullTest;
+import com.example.audiophileplacebotest.dsp.ResidualSource;
+import com.example.audiophileplacebotest.playback.AudioTrackSink;
+import com.example.audiophileplacebotest.playback.MappedPcmSource;
+import com.example.audiophileplacebotest.playback.MixerEngine;
+import com.example.audiophileplacebotest.playback.PcmSource;
+import com.example.audiophileplacebotest.playback.SyncMonitor;
+import com.example.audiophileplacebotest.results.ComparisonStats;
+import com.example.audiophileplacebotest.results.TrialLog;
+import com.example.audiophileplacebotest.results.TrialRecord;
+import com.example.audiophileplacebotest.session.ComparisonSession;
+import com.example.audiophileplacebotest.session.ImportFilter;
+
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 
-public class MainActivity extends AppCompatActivity implements AudioFileListAdapter.ListItemCallbacks
+public class MainActivity extends AppCompatActivity implements AudioFileListAdapter.ListItemCallbacks,
+        AudioFileProber.ProbeCallbacks, PcmCacheLoader.LoadCallbacks, PlaybackSessionManager.SessionCallbacks,
+        UiTicker.TickCallbacks, LoudnessScanner.ScanCallbacks, AlignmentRunner.AlignCallbacks,
+        FolderImporter.ImportCallbacks, WaveformLoader.WaveformCallbacks, NullTestRunner.NullTestCallbacks,
+        SpecScanner.ScanCallbacks, VariantRunner.VariantCallbacks, TrialRecorder.RecordCallbacks
 {
     private static final String LOG_TAG = MainActivity.class.getSimpleName();
     protected static final int SELECT_FILE = 10;
+    protected static final int SELECT_FOLDER = 11;
+    protected static final int EXPORT_RESULTS = 12;
     private static final int SEEK_AMOUNT_MILLIS = 5000;
 
     private static boolean alreadyLoaded = false; // Keeps track of whether to show sample audio files
-    private final int MAX_LOADED_AUDIO_FILES = 5;
-    private static ArrayList<AudioFile> audioFileList = new ArrayList<>();
+    private final int MAX_LOADED_AUDIO_FILES = 50;
 
-    protected static final SimpleDateFormat formatter = new SimpleDateFormat("m:ss", Locale.getDefault());
-    private Handler handler;
-    protected static final int UPDATE_RATE_MILLIS = 250;
+    // Order, selection and blind state of the loaded files. The list is shared with the adapter.
+    private static final ComparisonSession<AudioFile> comparison = new ComparisonSession<>();
+    private static final ArrayList<AudioFile> audioFileList = comparison.getTracks();
 
-    private boolean filesHidden = false;
+    // Updates the global seekbar and all visible rows once per display frame while anything plays
+    private UiTicker ticker;
+    private boolean isGlobalShowingPause = false;
 
     private TextView textViewEmptyListIndicator;
     private Button buttonToggleHide;
@@ -62,6 +91,12 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
     private ImageButton buttonSeekBackward;
     private SeekBar seekBarPosition;
 
+    // Debug overlay with the mixer's drift stats
+    private TextView textViewSyncStats;
+    private static boolean syncStatsShown = false;
+    private static final long SYNC_STATS_INTERVAL_NANOS = 250000000L;
+    private long lastSyncStatsNanos = 0;
+
     private CheckBox checkBoxGlobalControls;
     private int globalDuration = -1;
 
@@ -69,25 +104,142 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
     private AudioFileListAdapter mAdapter;
     private ItemTouchHelper itemTouchHelper;
 
+    private AudioFileProber prober;
+    private static MetadataCache metadataCache;
+    private static final int MAX_CACHED_METADATA = 1000;
+
+    // Optional pre-decoding, makes seeks and switches in the mixer instant
+    private PcmCacheLoader pcmLoader;
+    private static PcmCache pcmCache;
+    private static boolean predecodeEnabled = false;
+    private static final long PCM_CACHE_BUDGET_BYTES = 1L << 30;
+
+    // Every track is measured once, and played back at the level of the quietest one
+    private LoudnessScanner loudnessScanner;
+    private static boolean levelMatchEnabled = true;
+
+    // Effective bit depth and bandwidth of lossless tracks, shown next to what the header claims
+    private SpecScanner specScanner;
+
+    // Only exists while global controls are enabled
+    private MixerEngine mixer;
+
+    // Opens tracks for the mixer, WAV and AIFF are read straight from a mapping of the file
+    private DocumentTrackStorage trackStorage;
+
+    // Lines tracks up against each other for the mixer, rerun whenever tracks are added or removed
+    private AlignmentRunner alignmentRunner;
+
+    // Bulk import of a folder tree, optionally only files matching the first track
+    private FolderImporter folderImporter;
+    private static final boolean[] folderFilterChoices = { false, false, true };
+
+    // Overviews are built once per file and kept next to the metadata, drawing never decodes
+    private WaveformLoader waveformLoader;
+    private static WaveformCache waveformCache;
+    private static final long WAVEFORM_CACHE_BUDGET_BYTES = 64L << 20;
+
+    // Null test between the first two tracks, the residual plays through its own mixer
+    private NullTestRunner nullTestRunner;
+    private MixerEngine residualPlayer = null;
+
+    // Lower bit depth and other rate copies of a lossless track, loaded once rendered
+    private VariantRunner variantRunner;
+    private static final boolean[] variantChoices = { false, true, false, true, false };
+
+    // Every answered ABX trial and blind guess, with totals per set of compared tracks
+    private TrialRecorder trialRecorder;
+    private static TrialLog trialLog;
+    private ComparisonStats abxHistory = null;
+
+    // Track that was first before hiding, the listener names it again on unhiding
+    private static AudioFile blindReference = null;
+    private static long blindStartMillis = 0;
+    private static int blindSwitchCount = 0;
+
+    // ABX test between the first two tracks, runs on the mixer with both kept in lockstep
+    private AbxSession abxSession = null;
+    private final AudioFile[] abxFiles = new AudioFile[2];
+    private long abxTrialStartMillis = 0;
+    private int abxSlot = AbxSession.SLOT_A;
+    private View layoutAbx;
+    private TextView textViewAbxStatus;
+    private Button buttonAbxA;
+    private Button buttonAbxB;
+    private Button buttonAbxX;
+    private Button buttonAbxAnswerA;
+    private Button buttonAbxAnswerB;
+
+    // Owns playback state and players, rows only display it
+    private static PlaybackSessionManager sessionManager;
+
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+        StartupTrace.markStart();
         setContentView(R.layout.activity_main);
 
         setSupportActionBar(findViewById(R.id.toolbarMain));
-        handler = new Handler(getMainLooper());
+        ticker = new UiTicker(this);
+        trackStorage = new DocumentTrackStorage(this);
 
         // Init recyclerview components
         recyclerViewAudioFiles = findViewById(R.id.recyclerViewAudioFiles);
-        mAdapter = new AudioFileListAdapter(this, audioFileList, this);
+        if (sessionManager == null)
+            sessionManager = new PlaybackSessionManager(this);
+        sessionManager.setSessionCallbacks(this);
+        mAdapter = new AudioFileListAdapter(this, audioFileList, sessionManager, this);
         recyclerViewAudioFiles.setAdapter(mAdapter);
         recyclerViewAudioFiles.setLayoutManager(new LinearLayoutManager(this));
 
+        // List size is fixed by the layout, not by its contents
+        recyclerViewAudioFiles.setHasFixedSize(true);
+
         // Attach itemTouchHelper
         itemTouchHelper = new ItemTouchHelper(simpleCallback);
         itemTouchHelper.attachToRecyclerView(recyclerViewAudioFiles);
 
+        // Finish probing any files left over from a previous instance
+        if (metadataCache == null)
+            metadataCache = new MetadataCache(new File(getCacheDir(), "metadata.idx"), MAX_CACHED_METADATA);
+        prober = new AudioFileProber(this, this, metadataCache);
+        folderImporter = new FolderImporter(this, this, metadataCache);
+        for (AudioFile a : audioFileList)
+            prober.submit(a);
+
+        if (pcmCache == null)
+            pcmCache = new PcmCache(new File(getCacheDir(), "pcm"), PCM_CACHE_BUDGET_BYTES);
+        pcmLoader = new PcmCacheLoader(this, this, pcmCache);
+        if (predecodeEnabled)
+        {
+            for (AudioFile a : audioFileList)
+                pcmLoader.submit(a);
+        }
+
+        loudnessScanner = new LoudnessScanner(this, this);
+        alignmentRunner = new AlignmentRunner(this, this);
+        for (AudioFile a : audioFileList)
+            loudnessScanner.submit(a);
+
+        specScanner = new SpecScanner(this, this);
+        for (AudioFile a : audioFileList)
+            specScanner.submit(a);
+
+        if (waveformCache == null)
+            waveformCache = new WaveformCache(new File(getCacheDir(), "waveforms"), WAVEFORM_CACHE_BUDGET_BYTES);
+        waveformLoader = new WaveformLoader(this, this, waveformCache);
+        for (AudioFile a : audioFileList)
+            waveformLoader.submit(a);
+
+        nullTestRunner = new NullTestRunner(this, this);
+        variantRunner = new VariantRunner(this, this);
+
+        // Results are kept with the app's data, not in the cache
+        if (trialLog == null)
+            trialLog = new TrialLog(new File(getFilesDir(), "trials.log"));
+        trialRecorder = new TrialRecorder(this, this, trialLog);
+
         // Retrieve view references
         textViewEmptyListIndicator = findViewById(R.id.textViewEmptyListIndicator);
         buttonToggleHide = findViewById(R.id.buttonToggleHide);
@@ -96,23 +248,28 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
         buttonSeekBackward = findViewById(R.id.buttonSeekBackward);
         seekBarPosition = findViewById(R.id.seekBarPosition);
         checkBoxGlobalControls = findViewById(R.id.checkBoxGlobalControls);
+        textViewSyncStats = findViewById(R.id.textViewSyncStats);
+        layoutAbx = findViewById(R.id.layoutAbx);
+        textViewAbxStatus = findViewById(R.id.textViewAbxStatus);
+        buttonAbxA = findViewById(R.id.buttonAbxA);
+        buttonAbxB = findViewById(R.id.buttonAbxB);
+        buttonAbxX = findViewById(R.id.buttonAbxX);
+        buttonAbxAnswerA = findViewById(R.id.buttonAbxAnswerA);
+        buttonAbxAnswerB = findViewById(R.id.buttonAbxAnswerB);
 
         // region Setting Listeners
         checkBoxGlobalControls.setOnCheckedChangeListener((v, checked) ->
         {
             if (checked)
             {
+                // Checked against sessions, rows may be scrolled off screen
                 int count = audioFileList.size();
-                int firstDuration = ((AudioFileListAdapter.AudioFileViewHolder)
-                        recyclerViewAudioFiles.findViewHolderForAdapterPosition(0)).mPlayer.getDuration();
+                int firstDuration = sessionManager.getSession(audioFileList.get(0)).getDurationMillis();
                 for (int i = 1; i < count; ++i)
                 {
-                    AudioFileListAdapter.AudioFileViewHolder cur = (AudioFileListAdapter.AudioFileViewHolder)
-                            recyclerViewAudioFiles.findViewHolderForAdapterPosition(i);
-
                     // Durations must be within 0.3 seconds of each other
-                    int diff = Math.abs(cur.mPlayer.getDuration() - firstDuration);
-                    if (diff > 300)
+                    int duration = sessionManager.getSession(audioFileList.get(i)).getDurationMillis();
+                    if (!ComparisonSession.durationsMatch(firstDuration, duration))
                     {
                         checkBoxGlobalControls.setChecked(false);
                         Toast.makeText(this, R.string.toast_differingdurations,
@@ -121,9 +278,13 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
                     }
                 }
 
-                // Update list items
-                for (AudioFile a : audioFileList)
-                    a.setGlobalControlsEnabled(true);
+                // Update list items, select first element automatically
+                comparison.setGlobalControlsEnabled(true);
+
+                // Individual playback stops, the mixer takes over
+                sessionManager.pauseAll();
+                globalDuration = firstDuration;
+                seekBarPosition.setMax(globalDuration);
 
                 // Show controls
                 buttonPlayPause.setVisibility(View.VISIBLE);
@@ -131,26 +292,19 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
                 buttonSeekBackward.setVisibility(View.VISIBLE);
                 seekBarPosition.setVisibility(View.VISIBLE);
 
-                // Play each audio file
-                for (int i = 0; i < count; ++i)
-                {
-                    AudioFileListAdapter.AudioFileViewHolder cur = (AudioFileListAdapter.AudioFileViewHolder)
-                            recyclerViewAudioFiles.findViewHolderForAdapterPosition(i);
+                // All tracks play through one output from here on
+                startMixer();
 
-                    if (cur.radioSelected.isChecked())
-                        cur.mPlayer.setVolume(1, 1);
-                    else
-                        cur.mPlayer.setVolume(0, 0);
-                }
-
-                mAdapter.notifyDataSetChanged();
+                mAdapter.notifyItemRangeChanged(0, count, AudioFileListAdapter.PAYLOAD_GLOBAL_CONTROLS);
             }
             else
             {
+                stopMixer();
+
                 // Update list items
-                for (AudioFile a : audioFileList)
-                    a.setGlobalControlsEnabled(false);
-                recyclerViewAudioFiles.post(() -> mAdapter.notifyDataSetChanged());
+                comparison.setGlobalControlsEnabled(false);
+                recyclerViewAudioFiles.post(() -> mAdapter.notifyItemRangeChanged(0, audioFileList.size(),
+                        AudioFileListAdapter.PAYLOAD_GLOBAL_CONTROLS));
 
                 // Hide controls
                 buttonPlayPause.setVisibility(View.GONE);
@@ -163,40 +317,45 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
         buttonToggleHide.setOnClickListener(v ->
         {
             // Toggle from files hidden to files not hidden
-            if (filesHidden)
+            if (comparison.isBlind())
             {
-                // Unhide files/update
-                for (AudioFile a : audioFileList)
-                    a.setHidden(false);
-
-                // Update button
-                buttonToggleHide.setText(R.string.buttonToggleHide_filesNotHidden);
-                filesHidden = false;
+                // The guess only counts if the reference is still one of the choices
+                if (audioFileList.size() >= 2 && audioFileList.contains(blindReference))
+                    showBlindGuessDialog();
+                else
+                    revealFiles();
             }
             else
             {
+                // Files still arriving from a folder would show up unhidden
+                folderImporter.cancel();
+
+                // Remember what was first, so the listener can find it again
+                blindReference = audioFileList.get(0);
+                blindStartMillis = SystemClock.elapsedRealtime();
+                blindSwitchCount = 0;
+
                 // Shuffle list
-                Collections.shuffle(audioFileList);
+                AudioFileDiffCallback diff = new AudioFileDiffCallback(audioFileList, audioFileList);
+                comparison.hide(new Random());
+                updateMixerSources();
 
-                // Hide files/update
-                for (AudioFile a : audioFileList)
-                    a.setHidden(true);
+                // Rows are moved and relabelled rather than rebound
+                DiffUtil.calculateDiff(diff).dispatchUpdatesTo(mAdapter);
 
                 // Update button
                 buttonToggleHide.setText(R.string.buttonToggleHide_filesHidden);
-                filesHidden = true;
             }
 
-            buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(this, R.drawable.ic_play));
-            mAdapter.notifyDataSetChanged();
+            showGlobalPlaying(false);
         });
 
         buttonPlayPause.setOnClickListener(v ->
         {
-            AudioFileListAdapter.AudioFileViewHolder first = (AudioFileListAdapter.AudioFileViewHolder)
-                    recyclerViewAudioFiles.findViewHolderForAdapterPosition(0);
+            if (mixer == null)
+                return;
 
-            if (first.mPlayer.isPlaying())
+            if (mixer.isPlaying())
                 pauseAudioGlobal();
             else
                 playAudioGlobal();
@@ -210,15 +369,9 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser)
             {
-                if (fromUser)
-                {
-                    AudioFileListAdapter.AudioFileViewHolder first = (AudioFileListAdapter.AudioFileViewHolder)
-                            recyclerViewAudioFiles.findViewHolderForAdapterPosition(0);
-
-                    // Seek on all tracks
-                    int offset = progress - first.mPlayer.getCurrentPosition();
-                    seekOffsetGlobal(offset);
-                }
+                // Seek on all tracks
+                if (fromUser && mixer != null)
+                    seekOffsetGlobal(progress - (int) mixer.getPositionMillis());
             }
 
             @Override
@@ -226,20 +379,99 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {}
         });
+
+        buttonAbxA.setOnClickListener(v -> selectAbxSlot(AbxSession.SLOT_A));
+        buttonAbxB.setOnClickListener(v -> selectAbxSlot(AbxSession.SLOT_B));
+        buttonAbxX.setOnClickListener(v -> selectAbxSlot(AbxSession.SLOT_X));
+        buttonAbxAnswerA.setOnClickListener(v -> answerAbx(AbxSession.CANDIDATE_A));
+        buttonAbxAnswerB.setOnClickListener(v -> answerAbx(AbxSession.CANDIDATE_B));
         // endregion
 
         // Load sample audio files when first opened
         if (!alreadyLoaded)
         {
             alreadyLoaded = true;
+            loadSampleFiles();
+        }
+
+        runAfterFirstFrame(StartupTrace::markFirstFrame);
+    }
 
-            Uri uri1 = Uri.parse("android.resource://" + getPackageName() + "/" + R.raw.nightingale_intro_lossless);
-            Uri uri2 = Uri.parse("android.resource://" + getPackageName() + "/" + R.raw.nightingale_intro_192k);
-            Uri uri3 = Uri.parse("android.resource://" + getPackageName() + "/" + R.raw.nightingale_intro_64k);
-            loadAudioFromFile(uri1);
-            loadAudioFromFile(uri2);
-            loadAudioFromFile(uri3);
+    // Runs once the first frame is on screen, keeps work out of the way of drawing it
+    private void runAfterFirstFrame(Runnable task)
+    {
+        View root = getWindow().getDecorView();
+        root.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener()
+        {
+            private boolean isPosted = false;
+
+            @Override
+            public void onDraw()
+            {
+                if (isPosted)
+                    return;
+
+                // Listeners can't be removed while drawing, the post runs after the frame
+                isPosted = true;
+                root.post(() ->
+                {
+                    root.getViewTreeObserver().removeOnDrawListener(this);
+                    if (!isDestroyed())
+                        task.run();
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onResume()
+    {
+        super.onResume();
+
+        // Catches up on anything that changed while in the background, stops again if nothing plays
+        ticker.start();
+    }
+
+    @Override
+    protected void onPause()
+    {
+        ticker.stop();
+        super.onPause();
+    }
+
+    @Override
+    protected void onStop()
+    {
+        // Persist anything probed this session
+        prober.saveCache();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        stopMixer();
+        prober.shutdown();
+        pcmLoader.shutdown();
+        loudnessScanner.shutdown();
+        specScanner.shutdown();
+        alignmentRunner.shutdown();
+        folderImporter.shutdown();
+        waveformLoader.shutdown();
+        nullTestRunner.shutdown();
+        variantRunner.shutdown();
+        trialRecorder.shutdown();
+        stopResidual();
+
+        // Sessions outlive rotations, but not the activity itself
+        sessionManager.setSessionCallbacks(null);
+        if (isFinishing())
+        {
+            sessionManager.release();
+            sessionManager = null;
         }
+
+        super.onDestroy();
     }
 
     @Override
@@ -250,17 +482,84 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
         // User has selected a file
         if (requestCode == SELECT_FILE && resultCode == Activity.RESULT_OK && data != null)
                 loadAudioFromFile(Uri.parse(data.getDataString()));
+
+        // User has selected a folder, files in it stay readable after the picker is gone
+        if (requestCode == SELECT_FOLDER && resultCode == Activity.RESULT_OK && data != null && data.getData() != null)
+        {
+            getContentResolver().takePersistableUriPermission(data.getData(), Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            loadAudioFromFolder(data.getData());
+        }
+
+        // User has picked where to save the results
+        if (requestCode == EXPORT_RESULTS && resultCode == Activity.RESULT_OK && data != null && data.getData() != null)
+            trialRecorder.export(data.getData());
     }
 
     private void loadAudioFromFile(Uri uri)
     {
-        // Add new file
-        AudioFile audioFile = new AudioFile(uri, this);
-        if (checkBoxGlobalControls.isChecked())
-            audioFile.setGlobalControlsEnabled(true);
-        audioFileList.add(audioFile);
-        mAdapter.notifyItemInserted(audioFileList.size());
+        // Add placeholder, properties are filled in once probing finishes
+        AudioFile audioFile = new AudioFile(uri);
+        comparison.add(audioFile);
+        mAdapter.notifyItemInserted(audioFileList.size() - 1);
+        prober.submit(audioFile);
+        loudnessScanner.submit(audioFile);
+        updateLevelMatching();
+        updateAlignment();
+        showFileList();
+    }
+
+    // Bundled files come with their properties, so the list draws without reading them.
+    // Measuring starts after the first frame, players are prepared once a file is played.
+    private void loadSampleFiles()
+    {
+        List<AudioFile> samples = SampleAudioFiles.create(this);
+        for (AudioFile a : samples)
+            comparison.add(a);
+
+        mAdapter.notifyItemRangeInserted(audioFileList.size() - samples.size(), samples.size());
+        showFileList();
 
+        runAfterFirstFrame(() ->
+        {
+            for (AudioFile a : samples)
+            {
+                // May have been deleted already
+                if (!audioFileList.contains(a))
+                    continue;
+
+                loudnessScanner.submit(a);
+                analyzeProbedFile(a);
+            }
+        });
+    }
+
+    // Files arrive in batches through onFolderBatchImported
+    private void loadAudioFromFolder(Uri treeUri)
+    {
+        ImportFilter filter = new ImportFilter(folderFilterChoices[0], folderFilterChoices[1], folderFilterChoices[2]);
+
+        // Compare against the first loaded track, otherwise the importer picks the first file it finds
+        if (!audioFileList.isEmpty() && audioFileList.get(0).getMetadata() != null)
+            filter.setReference(audioFileList.get(0).getMetadata());
+
+        folderImporter.start(treeUri, filter, MAX_LOADED_AUDIO_FILES - audioFileList.size());
+    }
+
+    // Asks what imported files have to match, then opens the folder picker
+    private void showFolderFilterDialog()
+    {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.folderFilter_title)
+                .setMultiChoiceItems(R.array.folderFilterChoices, folderFilterChoices,
+                        (dialog, which, checked) -> folderFilterChoices[which] = checked)
+                .setPositiveButton(R.string.buttonChooseFolder_text, (dialog, which) ->
+                        startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE), SELECT_FOLDER))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void showFileList()
+    {
         // Remove instruction text, show togglebutton/recyclerview
         checkBoxGlobalControls.setVisibility(View.VISIBLE);
         textViewEmptyListIndicator.setVisibility(View.INVISIBLE);
@@ -273,6 +572,10 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
     public boolean onCreateOptionsMenu(Menu menu)
     {
         getMenuInflater().inflate(R.menu.menu, menu);
+        menu.findItem(R.id.action_predecode).setChecked(predecodeEnabled);
+        menu.findItem(R.id.action_syncstats).setChecked(syncStatsShown);
+        menu.findItem(R.id.action_levelmatch).setChecked(levelMatchEnabled);
+        menu.findItem(R.id.action_abx).setChecked(abxSession != null);
         return true;
     }
 
@@ -281,18 +584,23 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
     {
         int id = item.getItemId();
 
-        if (id == R.id.action_loadfile)
+        if (id == R.id.action_loadfile || id == R.id.action_loadfolder)
         {
             // Can't add files if files are currently hidden
-            if (filesHidden)
+            if (comparison.isBlind())
                 Toast.makeText(this, getString(R.string.toastUnhideFiles), Toast.LENGTH_SHORT).show();
             else
             {
                 if (audioFileList.size() < MAX_LOADED_AUDIO_FILES)
                 {
-                    Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
-                    intent.setType("audio/*");
-                    startActivityForResult(intent, SELECT_FILE);
+                    if (id == R.id.action_loadfolder)
+                        showFolderFilterDialog();
+                    else
+                    {
+                        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                        intent.setType("audio/*");
+                        startActivityForResult(intent, SELECT_FILE);
+                    }
                 }
                 // Can't add files if limit is reached
                 else
@@ -303,119 +611,691 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
             }
         }
 
+        else if (id == R.id.action_predecode)
+        {
+            predecodeEnabled = !item.isChecked();
+            item.setChecked(predecodeEnabled);
+
+            if (predecodeEnabled)
+            {
+                for (AudioFile a : audioFileList)
+                    pcmLoader.submit(a);
+            }
+            else
+                pcmLoader.cancelAll();
+
+            // Swap the mixer over to (or back from) the decoded files
+            updateMixerSources();
+        }
+        else if (id == R.id.action_levelmatch)
+        {
+            levelMatchEnabled = !item.isChecked();
+            item.setChecked(levelMatchEnabled);
+            updateLevelMatching();
+        }
+        else if (id == R.id.action_abx)
+        {
+            if (abxSession == null)
+                startAbx();
+            else
+                stopAbx();
+        }
+        else if (id == R.id.action_nulltest)
+            startNullTest();
+        else if (id == R.id.action_variants)
+            showVariantDialog();
+        else if (id == R.id.action_exportresults)
+        {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("text/csv");
+            intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.exportResults_filename));
+            startActivityForResult(intent, EXPORT_RESULTS);
+        }
+        else if (id == R.id.action_syncstats)
+        {
+            syncStatsShown = !item.isChecked();
+            item.setChecked(syncStatsShown);
+            updateSyncStats();
+        }
+
         return super.onOptionsItemSelected(item);
     }
     // endregion
 
     // region Playback controls
-    private void updateSeekBarGlobal()
+    // Only swaps the icon when the state actually changed
+    private void showGlobalPlaying(boolean playing)
     {
-        AudioFileListAdapter.AudioFileViewHolder first = (AudioFileListAdapter.AudioFileViewHolder)
-                recyclerViewAudioFiles.findViewHolderForAdapterPosition(0);
+        if (playing == isGlobalShowingPause)
+            return;
 
-        if (first != null)
+        isGlobalShowingPause = playing;
+        buttonPlayPause.setImageResource(playing ? R.drawable.ic_pause : R.drawable.ic_play);
+    }
+
+    private void playAudioGlobal()
+    {
+        Log.d(LOG_TAG, "playAudioGlobal()");
+
+        showGlobalPlaying(true);
+        mixer.play();
+        ticker.start();
+    }
+
+    private void pauseAudioGlobal()
+    {
+        Log.d(LOG_TAG, "pauseAudioGlobal()");
+
+        showGlobalPlaying(false);
+        mixer.pause();
+    }
+
+    // Pauses playback and resets to the beginning of the tracks
+    private void stopAudioGlobal()
+    {
+        Log.d(LOG_TAG, "stopAudioGlobal()");
+
+        showGlobalPlaying(false);
+
+        if (mixer != null)
         {
-            seekBarPosition.setProgress(first.mPlayer.getCurrentPosition());
+            mixer.pause();
+            mixer.seekTo(0);
+        }
+        seekBarPosition.setProgress(0);
+    }
 
-            // Update seekbar every second while playing
-            handler.removeCallbacksAndMessages(null);
-            if (first.mPlayer.isPlaying())
-                handler.postDelayed(this::updateSeekBarGlobal, UPDATE_RATE_MILLIS);
-            else
-                buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(this, R.drawable.ic_play));
+    private void seekOffsetGlobal(int millisOffset)
+    {
+        // Cannot skip before 0
+        int newPos = (int) Math.max(mixer.getPositionMillis() + millisOffset, 0);
+
+        // Stop audio if seeking past duration
+        if (newPos > globalDuration)
+            stopAudioGlobal();
+        else
+        {
+            // Every track shares the mixer's clock, so one seek moves them all
+            mixer.seekTo(newPos);
+            seekBarPosition.setProgress(newPos);
         }
     }
+    // endregion
 
-    private void playAudioGlobal()
+    // Fills the debug overlay, only shown while the mixer is running
+    private void updateSyncStats()
     {
-        Log.d(LOG_TAG, "playAudioGlobal()");
+        if (!syncStatsShown || mixer == null)
+        {
+            textViewSyncStats.setVisibility(View.GONE);
+            return;
+        }
 
-        buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(this, R.drawable.ic_pause));
+        SyncMonitor monitor = mixer.getSyncMonitor();
+        StringBuilder text = new StringBuilder(String.format(Locale.getDefault(),
+                getString(R.string.syncStatsHeader), monitor.getThresholdMicros() / 1000f));
 
-        // Play each audio file
         int count = audioFileList.size();
         for (int i = 0; i < count; ++i)
         {
-            AudioFileListAdapter.AudioFileViewHolder cur = (AudioFileListAdapter.AudioFileViewHolder)
-                    recyclerViewAudioFiles.getChildViewHolder(recyclerViewAudioFiles.getChildAt(i));
-
-            cur.mPlayer.start();
-            cur.updateSeekBar();
+            AudioFile a = audioFileList.get(i);
+            String name = a.isHidden() || a.getFilename() == null
+                    ? getString(R.string.hiddenFilename) + (i + 1) : a.getFilename();
+            SyncMonitor.Stats stats = monitor.getStats(sessionManager.getSession(a).getMixerSource());
+
+            text.append('\n');
+            if (stats == null)
+                text.append(String.format(Locale.getDefault(), getString(R.string.syncStatsNoSamples), name));
+            else
+                text.append(String.format(Locale.getDefault(), getString(R.string.syncStatsTrack), name,
+                        stats.getMeanMicros() / 1000f, stats.getP99Micros() / 1000f,
+                        stats.getMaxMicros() / 1000f, stats.getResyncCount()));
         }
 
-        updateSeekBarGlobal();
+        textViewSyncStats.setText(text);
+        textViewSyncStats.setVisibility(View.VISIBLE);
     }
 
-    private void pauseAudioGlobal()
+    // region Mixer
+    private void startMixer()
     {
-        Log.d(LOG_TAG, "pauseAudioGlobal()");
-        buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(this, R.drawable.ic_play));
+        mixer = new MixerEngine(new AudioTrackSink(), mixerListener);
+        sessionManager.clearMixerSources();
+        updateMixerSources();
+        mixer.start();
+        updateAlignment();
+        updateSyncStats();
+    }
+
+    private void stopMixer()
+    {
+        if (mixer == null)
+            return;
+
+        stopAbx();
 
-        AudioFileListAdapter.AudioFileViewHolder first = (AudioFileListAdapter.AudioFileViewHolder)
-                recyclerViewAudioFiles.getChildViewHolder(recyclerViewAudioFiles.getChildAt(0));
+        showGlobalPlaying(false);
 
-        if (first == null)
+        alignmentRunner.cancel();
+
+        // Closes the decoders as well
+        mixer.release();
+        mixer = null;
+        sessionManager.clearMixerSources();
+        updateSyncStats();
+    }
+
+    // Hands the mixer one source per track in list order, reusing existing ones.
+    // The mixer keeps only the selected track and its neighbours open.
+    private void updateMixerSources()
+    {
+        if (mixer == null)
             return;
 
-        first.mPlayer.pause();
+        // A compared track was removed
+        if (abxSession != null && (!audioFileList.contains(abxFiles[0]) || !audioFileList.contains(abxFiles[1])))
+            stopAbx();
 
-        // Pause each audio file
         int count = audioFileList.size();
-        for (int i = 1; i < count; ++i)
+        PcmSource[] sources = new PcmSource[count];
+        float[] gains = new float[count];
+        long[] offsets = new long[count];
+        int selected = 0;
+
+        for (int i = 0; i < count; ++i)
         {
-            AudioFileListAdapter.AudioFileViewHolder cur = (AudioFileListAdapter.AudioFileViewHolder)
-                    recyclerViewAudioFiles.getChildViewHolder(recyclerViewAudioFiles.getChildAt(i));
+            AudioFile a = audioFileList.get(i);
+            TrackSession session = sessionManager.getSession(a);
+            PcmSource source = session.getMixerSource();
+            File pcmFile = predecodeEnabled ? pcmLoader.getCachedFile(a) : null;
+
+            // Decoded files are used as soon as they are ready
+            if (source == null || (source instanceof MappedPcmSource) != (pcmFile != null))
+                source = pcmFile != null ? new MappedPcmSource(pcmFile) : trackStorage.openPcm(a);
+
+            session.setMixerSource(source);
+            sources[i] = source;
+            gains[i] = session.getGain();
+            offsets[i] = a.getAlignmentOffsetFlicks();
+
+            if (a.isSelected())
+                selected = i;
+        }
 
-            // Sync up tracks just in case something weird happened
-            cur.mPlayer.seekTo(first.mPlayer.getCurrentPosition());
-            cur.mPlayer.pause();
+        mixer.setSources(sources, gains, offsets);
+
+        // ABX picks the track itself, the list's selection would give X away
+        if (abxSession != null)
+        {
+            mixer.setLockstep(new int[] { audioFileList.indexOf(abxFiles[0]), audioFileList.indexOf(abxFiles[1]) });
+            selected = audioFileList.indexOf(abxFiles[abxSession.getCandidateFor(abxSlot)]);
         }
+
+        mixer.select(selected);
     }
 
-    // NOTE:
-    // This method does not actually set each MediaPlayer's state to STOPPED.
-    // It is used to pause playback and reset to the beginning of the tracks
-    private void stopAudioGlobal()
+    // Called on the mixer's render thread
+    private final MixerEngine.Listener mixerListener = new MixerEngine.Listener()
     {
-        Log.d(LOG_TAG, "stopAudioGlobal()");
+        @Override
+        public void onPlaybackCompleted()
+        {
+            runOnUiThread(MainActivity.this::stopAudioGlobal);
+        }
 
-        buttonPlayPause.setImageDrawable(ContextCompat.getDrawable(this, R.drawable.ic_play));
+        @Override
+        public void onPlaybackError(Exception e)
+        {
+            Log.e(LOG_TAG, "Mixer playback failed: " + e.getMessage());
+            // Next tick sees the mixer stopped and resets the controls
+            runOnUiThread(ticker::start);
+        }
 
-        // Play each audio file
+        @Override
+        public void onSwitchRendered(int index, long latencyNanos)
+        {
+            Log.d(LOG_TAG, String.format(Locale.getDefault(), "Switched to track %d in %.2f ms",
+                    index, latencyNanos / 1000000f));
+
+            runOnUiThread(() ->
+            {
+                if (abxSession != null)
+                    abxSession.recordSwitch(latencyNanos);
+            });
+        }
+    };
+    // endregion
+
+    // region Level matching
+    // Gives every session its matched gain and passes them on to the mixer. Everything plays
+    // at unity until all tracks have been measured, or if matching is turned off.
+    private void updateLevelMatching()
+    {
         int count = audioFileList.size();
+        LoudnessAnalyzer.Result[] results = new LoudnessAnalyzer.Result[count];
+
+        for (int i = 0; i < count; ++i)
+            results[i] = audioFileList.get(i).getLoudness();
+
+        float[] gains = LevelMatcher.computeGains(results);
+
         for (int i = 0; i < count; ++i)
+            sessionManager.getSession(audioFileList.get(i)).setGain(levelMatchEnabled ? gains[i] : 1.0f);
+
+        updateMixerSources();
+    }
+    // endregion
+
+    // region Alignment
+    // Only the mixer plays tracks against each other, so alignment only runs while it exists
+    private void updateAlignment()
+    {
+        if (mixer != null)
+            alignmentRunner.align(audioFileList);
+    }
+
+    // Called once every track's offset is known, the mixer picks them up at the next block
+    @Override
+    public void onTracksAligned()
+    {
+        updateMixerSources();
+    }
+    // endregion
+
+    // region Null test
+    // Compares the first two tracks at the gains they are played at
+    private void startNullTest()
+    {
+        if (audioFileList.size() < 2)
         {
-            AudioFileListAdapter.AudioFileViewHolder cur = (AudioFileListAdapter.AudioFileViewHolder)
-                    recyclerViewAudioFiles.getChildViewHolder(recyclerViewAudioFiles.getChildAt(i));
+            Toast.makeText(this, R.string.toastNullTestNeedsTwoFiles, Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-            cur.mPlayer.seekTo(0);
-            cur.mPlayer.pause();
+        // The results name the files
+        if (comparison.isBlind())
+        {
+            Toast.makeText(this, R.string.toastNullTestUnhideFiles, Toast.LENGTH_SHORT).show();
+            return;
         }
+
+        AudioFile reference = audioFileList.get(0);
+        AudioFile other = audioFileList.get(1);
+        nullTestRunner.run(reference, other,
+                predecodeEnabled ? pcmLoader.getCachedFile(reference) : null,
+                predecodeEnabled ? pcmLoader.getCachedFile(other) : null,
+                sessionManager.getSession(reference).getGain(), sessionManager.getSession(other).getGain());
+
+        Toast.makeText(this, R.string.toastNullTestStarted, Toast.LENGTH_SHORT).show();
     }
 
-    private void seekOffsetGlobal(int millisOffset)
+    @Override
+    public void onNullTestFinished(AudioFile reference, AudioFile other, NullTest.Result result)
     {
-        AudioFileListAdapter.AudioFileViewHolder first = (AudioFileListAdapter.AudioFileViewHolder)
-                recyclerViewAudioFiles.findViewHolderForAdapterPosition(0);
+        StringBuilder msg = new StringBuilder();
+        msg.append(getString(R.string.nullTestFiles, reference.getFilename(), other.getFilename(),
+                result.getOffsetFrames()));
+        msg.append("\n\n");
 
-        // Cannot skip before 0
-        int newPos = Math.max(first.mPlayer.getCurrentPosition() + millisOffset, 0);
+        if (result.isIdentical())
+            msg.append(getString(R.string.nullTestIdentical));
+        else
+        {
+            msg.append(String.format(Locale.getDefault(), getString(R.string.nullTestLevels),
+                    result.getResidualRmsDbfs(), result.getResidualPeakDbfs(), result.getNullDepthDb(),
+                    result.getBandLimitedRmsDbfs()));
+            msg.append("\n\n").append(getString(R.string.nullTestSpectrumHeader));
+
+            double[] centers = result.getBandCentersHz();
+            double[] levels = result.getBandLevelsDbfs();
+            for (int i = 0; i < centers.length; ++i)
+            {
+                msg.append('\n').append(String.format(Locale.getDefault(), getString(R.string.nullTestBand),
+                        centers[i], levels[i]));
+            }
+        }
 
-        // Stop audio if seeking past duration
-        if (newPos > first.mPlayer.getDuration())
-            stopAudioGlobal();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.nulltest_title)
+                .setMessage(msg)
+                .setNegativeButton(android.R.string.ok, null);
+
+        // Nothing to hear in a perfect null
+        if (!result.isIdentical())
+        {
+            builder.setPositiveButton(R.string.buttonPlayResidual_text, (dialog, which) ->
+                    playResidual(reference, other, result.getOffsetFrames()));
+        }
+
+        builder.show();
+    }
+
+    @Override
+    public void onNullTestFailed(String message)
+    {
+        Toast.makeText(this, getString(R.string.toastNullTestFailed, message), Toast.LENGTH_LONG).show();
+    }
+
+    // Plays the difference on its own, everything else is paused while it plays
+    private void playResidual(AudioFile reference, AudioFile other, long offsetFrames)
+    {
+        stopResidual();
+
+        sessionManager.pauseAll();
+        if (mixer != null)
+            pauseAudioGlobal();
+
+        PcmSource residual = new ResidualSource(trackStorage.openPcm(reference), trackStorage.openPcm(other), offsetFrames,
+                sessionManager.getSession(reference).getGain(), sessionManager.getSession(other).getGain());
+
+        residualPlayer = new MixerEngine(new AudioTrackSink(), residualListener);
+        residualPlayer.setSources(new PcmSource[] { residual });
+        residualPlayer.start();
+        residualPlayer.play();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.nulltest_title)
+                .setMessage(R.string.nullTestPlayingResidual)
+                .setPositiveButton(R.string.buttonStopResidual_text, null)
+                .setOnDismissListener(dialog -> stopResidual())
+                .show();
+    }
+
+    private void stopResidual()
+    {
+        if (residualPlayer == null)
+            return;
+
+        // Closes both decoders as well
+        residualPlayer.release();
+        residualPlayer = null;
+    }
+
+    // Called on the residual player's render thread
+    private final MixerEngine.Listener residualListener = new MixerEngine.Listener()
+    {
+        @Override
+        public void onPlaybackCompleted()
+        {
+            runOnUiThread(MainActivity.this::stopResidual);
+        }
+
+        @Override
+        public void onPlaybackError(Exception e)
+        {
+            Log.e(LOG_TAG, "Residual playback failed: " + e.getMessage());
+            runOnUiThread(MainActivity.this::stopResidual);
+        }
+
+        @Override
+        public void onSwitchRendered(int index, long latencyNanos)
+        {
+            // Only ever one source, nothing to switch between
+        }
+    };
+    // endregion
+
+    // region Variants
+    // Asks which versions to render of the first lossless track
+    private void showVariantDialog()
+    {
+        // Loaded variants name what was done to them
+        if (comparison.isBlind())
+        {
+            Toast.makeText(this, R.string.toastUnhideFiles, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        AudioFile source = null;
+        for (AudioFile a : audioFileList)
+        {
+            if (a.getMetadata() != null && a.getMetadata().isLossless())
+            {
+                source = a;
+                break;
+            }
+        }
+
+        if (source == null)
+        {
+            Toast.makeText(this, R.string.toastVariantsNeedLossless, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        AudioFile chosen = source;
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.variants_dialogTitle, source.getFilename()))
+                .setMultiChoiceItems(R.array.variantChoices, variantChoices,
+                        (dialog, which, checked) -> variantChoices[which] = checked)
+                .setPositiveButton(R.string.buttonRenderVariants_text, (dialog, which) -> startVariants(chosen))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void startVariants(AudioFile source)
+    {
+        if (variantRunner.render(source, variantChoices) == 0)
+            Toast.makeText(this, R.string.toastVariantsNothingToRender, Toast.LENGTH_SHORT).show();
         else
+            Toast.makeText(this, R.string.toastVariantsStarted, Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onVariantsRendered(AudioFile source, List<File> files)
+    {
+        // Files stay in app storage, they can be loaded after unhiding
+        if (comparison.isBlind())
+        {
+            Toast.makeText(this, R.string.toastVariantsNotLoaded, Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        for (File file : files)
         {
-            // Seek to offset in each file
-            int count = audioFileList.size();
-            for (int i = 0; i < count; ++i)
+            if (audioFileList.size() >= MAX_LOADED_AUDIO_FILES)
             {
-                AudioFileListAdapter.AudioFileViewHolder cur = (AudioFileListAdapter.AudioFileViewHolder)
-                        recyclerViewAudioFiles.getChildViewHolder(recyclerViewAudioFiles.getChildAt(i));
+                String msg = String.format(Locale.getDefault(), getString(R.string.toastMaxFilesLoaded), MAX_LOADED_AUDIO_FILES);
+                Toast.makeText(this, msg, Toast.LENGTH_SHORT).show();
+                break;
+            }
+
+            loadAudioFromFile(Uri.fromFile(file));
+        }
+    }
+
+    @Override
+    public void onVariantsFailed(String message)
+    {
+        Toast.makeText(this, getString(R.string.toastVariantsFailed, message), Toast.LENGTH_LONG).show();
+    }
+    // endregion
+
+    // region ABX
+    private void startAbx()
+    {
+        if (mixer == null || audioFileList.size() < 2)
+        {
+            Toast.makeText(this, R.string.toastAbxNeedsGlobalControls, Toast.LENGTH_SHORT).show();
+            invalidateOptionsMenu();
+            return;
+        }
+
+        abxFiles[0] = audioFileList.get(0);
+        abxFiles[1] = audioFileList.get(1);
+        abxSession = new AbxSession(AbxSession.DEFAULT_TRIAL_COUNT, new Random());
+        abxSlot = AbxSession.SLOT_A;
+        abxHistory = null;
+        abxTrialStartMillis = SystemClock.elapsedRealtime();
+
+        layoutAbx.setVisibility(View.VISIBLE);
+        buttonAbxAnswerA.setEnabled(true);
+        buttonAbxAnswerB.setEnabled(true);
+
+        // Starts keeping both candidates in lockstep
+        updateMixerSources();
+        selectAbxSlot(AbxSession.SLOT_A);
+    }
+
+    private void stopAbx()
+    {
+        if (abxSession == null)
+            return;
+
+        abxSession = null;
+        abxFiles[0] = null;
+        abxFiles[1] = null;
+        layoutAbx.setVisibility(View.GONE);
+        invalidateOptionsMenu();
+
+        // Back to the list's selection, without lockstep decoding
+        if (mixer != null)
+        {
+            mixer.setLockstep(new int[0]);
+            updateMixerSources();
+        }
+    }
+
+    // Switching is a single command to the mixer, both candidates are already at the current position
+    private void selectAbxSlot(int slot)
+    {
+        abxSlot = slot;
+        mixer.select(audioFileList.indexOf(abxFiles[abxSession.getCandidateFor(slot)]));
+
+        // The slot that is playing can't be pressed again
+        buttonAbxA.setEnabled(slot != AbxSession.SLOT_A);
+        buttonAbxB.setEnabled(slot != AbxSession.SLOT_B);
+        buttonAbxX.setEnabled(slot != AbxSession.SLOT_X);
+        updateAbxStatus();
+    }
+
+    private void answerAbx(int candidate)
+    {
+        AbxSession.Trial trial = abxSession.getTrial(abxSession.getCurrentTrialIndex());
+        abxSession.answer(candidate);
+
+        long now = SystemClock.elapsedRealtime();
+        trialRecorder.record(new TrialRecord(TrialRecord.KIND_ABX,
+                new String[] { abxFiles[0].getKey(), abxFiles[1].getKey() },
+                new String[] { abxFiles[0].getFilename(), abxFiles[1].getFilename() },
+                trial.getXCandidate(), candidate, now - abxTrialStartMillis, trial.getSwitchCount(),
+                System.currentTimeMillis()));
+        abxTrialStartMillis = now;
+
+        if (abxSession.isFinished())
+        {
+            buttonAbxAnswerA.setEnabled(false);
+            buttonAbxAnswerB.setEnabled(false);
+            updateAbxStatus();
+        }
+        // X may be the other candidate now
+        else
+            selectAbxSlot(abxSlot);
+    }
 
-                cur.mPlayer.seekTo(newPos);
+    private void updateAbxStatus()
+    {
+        if (abxSession.isFinished())
+        {
+            String status = String.format(Locale.getDefault(), getString(R.string.abxFinished),
+                    abxSession.getCorrectCount(), abxSession.getTrialCount(), abxSession.getPValue(),
+                    abxSession.getMaxSwitchNanos() / 1000000f);
+
+            // Every session between these two tracks so far, shown once the last answer is written
+            if (abxHistory != null)
+                status += "\n" + formatStats(R.string.abxHistory, abxHistory);
+            textViewAbxStatus.setText(status);
+        }
+        else
+            textViewAbxStatus.setText(String.format(Locale.getDefault(), getString(R.string.abxTrial),
+                    abxSession.getCurrentTrialIndex() + 1, abxSession.getTrialCount()));
+    }
+    // endregion
+
+    // region Results
+    // Asks which of the hidden tracks was first before shuffling, then reveals them
+    private void showBlindGuessDialog()
+    {
+        String[] choices = new String[audioFileList.size()];
+        for (int i = 0; i < choices.length; ++i)
+            choices[i] = getString(R.string.hiddenFilename) + ComparisonSession.getBlindNumber(i);
+
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.blindGuess_title, blindReference.getFilename()))
+                .setItems(choices, (dialog, which) ->
+                {
+                    recordBlindGuess(which);
+                    revealFiles();
+                })
+                .setNeutralButton(R.string.buttonRevealWithoutGuess_text, (dialog, which) -> revealFiles())
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    // Tracks are stored in the order they were shown
+    private void recordBlindGuess(int guess)
+    {
+        int count = audioFileList.size();
+        String[] keys = new String[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; ++i)
+        {
+            keys[i] = audioFileList.get(i).getKey();
+            names[i] = audioFileList.get(i).getFilename();
+        }
+
+        trialRecorder.record(new TrialRecord(TrialRecord.KIND_BLIND, keys, names,
+                audioFileList.indexOf(blindReference), guess, SystemClock.elapsedRealtime() - blindStartMillis,
+                blindSwitchCount, System.currentTimeMillis()));
+    }
+
+    private void revealFiles()
+    {
+        // Unhide files/update, only labels change
+        comparison.reveal();
+        blindReference = null;
+        mAdapter.notifyItemRangeChanged(0, audioFileList.size(), AudioFileListAdapter.PAYLOAD_HIDDEN);
+
+        // Update button
+        buttonToggleHide.setText(R.string.buttonToggleHide_filesNotHidden);
+    }
+
+    private String formatStats(int formatId, ComparisonStats stats)
+    {
+        return String.format(Locale.getDefault(), getString(formatId), stats.getCorrectCount(),
+                stats.getTrialCount(), stats.getPValue(), stats.getConfidenceLow() * 100,
+                stats.getConfidenceHigh() * 100);
+    }
+
+    @Override
+    public void onTrialRecorded(TrialRecord record, ComparisonStats stats)
+    {
+        if (record.getKind() == TrialRecord.KIND_ABX)
+        {
+            // Only the session that wrote it shows it
+            if (abxSession != null && abxFiles[0] != null && abxFiles[0].getKey().equals(record.getTrackKey(0)))
+            {
+                abxHistory = stats;
+                updateAbxStatus();
             }
+            return;
         }
+
+        String result = getString(record.isCorrect() ? R.string.toastBlindGuessCorrect : R.string.toastBlindGuessWrong,
+                record.getTrackName(record.getCorrectIndex()), ComparisonSession.getBlindNumber(record.getCorrectIndex()));
+        Toast.makeText(this, result + "\n" + formatStats(R.string.blindHistory, stats), Toast.LENGTH_LONG).show();
+    }
+
+    @Override
+    public void onResultsExported(int trialCount)
+    {
+        Toast.makeText(this, getString(R.string.toastResultsExported, trialCount), Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onResultsFailed(String message)
+    {
+        Toast.makeText(this, getString(R.string.toastResultsFailed, message), Toast.LENGTH_LONG).show();
     }
     // endregion
 
@@ -424,8 +1304,21 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
     @Override
     public void onListItemDeleted(int index, AudioFileListAdapter.AudioFileViewHolder holder)
     {
-        // Remove item
-        audioFileList.remove(index);
+        // Remove item, no need to finish reading its properties. Selection falls back to the first track.
+        AudioFile removed = comparison.remove(index);
+        prober.cancel(removed);
+        pcmLoader.cancel(removed);
+        loudnessScanner.cancel(removed);
+        specScanner.cancel(removed);
+        waveformLoader.cancel(removed);
+        nullTestRunner.cancel(removed);
+        variantRunner.cancel(removed);
+        sessionManager.remove(removed);
+        variantRunner.delete(removed);
+
+        // The quietest track may be gone, which changes everyone's gain
+        updateLevelMatching();
+        updateAlignment();
 
         // Remove recyclerview/toggle button, show display instruction text if all items deleted
         if (audioFileList.size() == 0)
@@ -437,19 +1330,17 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
             buttonToggleHide.setVisibility(View.GONE);
 
             buttonToggleHide.setText(R.string.buttonToggleHide_filesNotHidden);
-            filesHidden = false;
         }
         else
         {
-            AudioFileListAdapter.AudioFileViewHolder last = (AudioFileListAdapter.AudioFileViewHolder)
-                    recyclerViewAudioFiles.findViewHolderForAdapterPosition(audioFileList.size());
-
-            if (last != null)
-                globalDuration = last.mPlayer.getDuration();
+            AudioFile last = audioFileList.get(audioFileList.size() - 1);
+            globalDuration = sessionManager.getSession(last).getDurationMillis();
         }
 
-        // Update list
+        // Update list, hidden rows after it are renumbered
         mAdapter.notifyItemRemoved(index);
+        if (comparison.isBlind())
+            mAdapter.notifyItemRangeChanged(index, audioFileList.size() - index, AudioFileListAdapter.PAYLOAD_HIDDEN);
     }
 
     // Allows user to reorder items with dragbutton
@@ -463,7 +1354,9 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
     @Override
     public void onItemChecked(int index, AudioFileListAdapter.AudioFileViewHolder holder)
     {
-        // Deselect/mute other items
+        // Deselect other items
+        comparison.select(index);
+
         int count = audioFileList.size();
         for (int i = 0; i < count; ++i)
         {
@@ -473,55 +1366,216 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
             AudioFileListAdapter.AudioFileViewHolder cur = (AudioFileListAdapter.AudioFileViewHolder)
                     recyclerViewAudioFiles.findViewHolderForAdapterPosition(i);
 
-            cur.mPlayer.setVolume(0, 0);
-            cur.radioSelected.setChecked(false);
+            if (cur != null)
+                cur.radioSelected.setChecked(false);
         }
 
-        // Unmute
-        holder.mPlayer.setVolume(1, 1);
+        if (comparison.isBlind())
+            ++blindSwitchCount;
+
+        // Switch output to this track at the next block boundary, unless ABX is choosing the track
+        if (mixer != null && abxSession == null)
+            mixer.select(index);
     }
 
     @Override
     public void onItemAdded(int index, AudioFileListAdapter.AudioFileViewHolder holder)
     {
-        // Store reference to shortest track if global controls enabled
-        if (checkBoxGlobalControls.isChecked())
+        checkGlobalDuration(index, holder.session.getDurationMillis());
+    }
+
+    // Rows only tick while the ticker runs, which stops by itself once nothing plays
+    @Override
+    public void onItemPlaybackStarted(AudioFileListAdapter.AudioFileViewHolder holder)
+    {
+        if (comparison.isBlind())
+            ++blindSwitchCount;
+
+        ticker.start();
+    }
+
+    // Store reference to first track if global controls enabled, turn them off on a mismatch
+    private void checkGlobalDuration(int index, int duration)
+    {
+        // Not prepared or probed yet, checked again once it is
+        if (!checkBoxGlobalControls.isChecked() || duration < 0)
+            return;
+
+        if (index == 0)
         {
-            if (index == 0)
-            {
-                holder.mPlayer.setVolume(1, 1);
+            // Update seekbar
+            globalDuration = duration;
+            seekBarPosition.setMax(globalDuration);
+        }
+        // Global controls only enabled for tracks of same length (+/-0.3sec)
+        else if (!ComparisonSession.durationsMatch(globalDuration, duration))
+            checkBoxGlobalControls.setChecked(false);
+    }
+    // endregion
 
-                // Update seekbar
-                globalDuration = holder.mPlayer.getDuration();
-                seekBarPosition.setMax(globalDuration);
-            }
-            else
-            {
-                // Global controls only enabled for tracks of same length (+/-0.3sec)
-                int diff = Math.abs(holder.mPlayer.getDuration() - globalDuration);
-                if (diff > 300)
-                {
-                    checkBoxGlobalControls.setChecked(false);
-                    recyclerViewAudioFiles.post(this::stopAudioGlobal);
-                    return;
-                }
+    // region ProbeCallbacks
+    // Called when a file's properties have been read
+    @Override
+    public void onAudioFileProbed(AudioFile audioFile)
+    {
+        int index = audioFileList.indexOf(audioFile);
 
-                AudioFileListAdapter.AudioFileViewHolder first = (AudioFileListAdapter.AudioFileViewHolder)
-                        recyclerViewAudioFiles.findViewHolderForAdapterPosition(0);
+        if (index != -1)
+        {
+            mAdapter.notifyItemChanged(index, AudioFileListAdapter.PAYLOAD_METADATA);
 
-                if (first != null)
-                {
-                    // Sync new track with those currently being played
-                    holder.mPlayer.seekTo(first.mPlayer.getCurrentPosition());
+            // Only the player can tell how long some files are
+            TrackSession session = sessionManager.getSession(audioFile);
+            if (session.getDurationMillis() < 0)
+                session.prepare();
+        }
 
-                    if (first.mPlayer.isPlaying())
-                    {
-                        holder.mPlayer.start();
-                        holder.updateSeekBar();
-                    }
-                }
+        analyzeProbedFile(audioFile);
+    }
+
+    // Cache keys need the probed size/modification time
+    private void analyzeProbedFile(AudioFile audioFile)
+    {
+        if (predecodeEnabled)
+            pcmLoader.submit(audioFile);
+        waveformLoader.submit(audioFile);
+        specScanner.submit(audioFile);
+    }
+    // endregion
+
+    // region WaveformCallbacks
+    // Called when a file's waveform overview has been built or read from the cache
+    @Override
+    public void onWaveformReady(AudioFile audioFile)
+    {
+        int index = audioFileList.indexOf(audioFile);
+
+        if (index != -1)
+            mAdapter.notifyItemChanged(index, AudioFileListAdapter.PAYLOAD_WAVEFORM);
+    }
+    // endregion
+
+    // region SessionCallbacks
+    // Called when a session's player has finished preparing
+    @Override
+    public void onSessionPrepared(TrackSession session)
+    {
+        StartupTrace.markPlayable();
+
+        int index = audioFileList.indexOf(session.getAudioFile());
+
+        if (index == -1)
+            return;
+
+        mAdapter.notifyItemChanged(index, AudioFileListAdapter.PAYLOAD_PREPARED);
+
+        // The real duration may only be known now
+        checkGlobalDuration(index, session.getDurationMillis());
+    }
+    // endregion
+
+    // region ScanCallbacks
+    // Called when a file's loudness has been measured
+    @Override
+    public void onLoudnessMeasured(AudioFile audioFile)
+    {
+        updateLevelMatching();
+    }
+
+    // Called when a file's effective specs have been measured
+    @Override
+    public void onSpecsMeasured(AudioFile audioFile)
+    {
+        int index = audioFileList.indexOf(audioFile);
+
+        if (index != -1)
+            mAdapter.notifyItemChanged(index, AudioFileListAdapter.PAYLOAD_METADATA);
+    }
+    // endregion
+
+    // region TickCallbacks
+    // Called once per display frame while ticking, all progress views are updated in one pass
+    @Override
+    public boolean onTick(long frameTimeNanos)
+    {
+        boolean needsTicks = false;
+
+        if (mixer != null)
+        {
+            seekBarPosition.setProgress((int) mixer.getPositionMillis());
+
+            boolean playing = mixer.isPlaying();
+            showGlobalPlaying(playing);
+            needsTicks = playing;
+
+            // Overlay is for debugging and formats strings, a few updates a second are plenty
+            if (frameTimeNanos - lastSyncStatsNanos >= SYNC_STATS_INTERVAL_NANOS)
+            {
+                lastSyncStatsNanos = frameTimeNanos;
+                updateSyncStats();
             }
         }
+
+        // Rows that are scrolled off screen are brought up to date when they are bound
+        int childCount = recyclerViewAudioFiles.getChildCount();
+        for (int i = 0; i < childCount; ++i)
+        {
+            AudioFileListAdapter.AudioFileViewHolder holder = (AudioFileListAdapter.AudioFileViewHolder)
+                    recyclerViewAudioFiles.getChildViewHolder(recyclerViewAudioFiles.getChildAt(i));
+
+            if (holder.session != null && holder.tick())
+                needsTicks = true;
+        }
+
+        return needsTicks;
+    }
+    // endregion
+
+    // region ImportCallbacks
+    // Called with files that are already probed, the adapter is told once per batch
+    @Override
+    public void onFolderBatchImported(List<AudioFile> batch)
+    {
+        int start = audioFileList.size();
+
+        for (AudioFile a : batch)
+        {
+            // Single files may have been added while the folder was scanned
+            if (audioFileList.size() >= MAX_LOADED_AUDIO_FILES)
+                break;
+
+            comparison.add(a);
+            loudnessScanner.submit(a);
+            waveformLoader.submit(a);
+            specScanner.submit(a);
+            if (predecodeEnabled)
+                pcmLoader.submit(a);
+        }
+
+        int added = audioFileList.size() - start;
+        if (added == 0)
+            return;
+
+        mAdapter.notifyItemRangeInserted(start, added);
+        updateLevelMatching();
+        updateAlignment();
+        showFileList();
+    }
+
+    @Override
+    public void onFolderImportFinished(int foundCount, int importedCount)
+    {
+        String msg = getString(R.string.toastFolderImported, importedCount, foundCount);
+        Toast.makeText(this, msg, Toast.LENGTH_SHORT).show();
+    }
+    // endregion
+
+    // region LoadCallbacks
+    // Called when a file has been decoded into the PCM cache
+    @Override
+    public void onPcmCached(AudioFile audioFile)
+    {
+        updateMixerSources();
     }
     // endregion
 
@@ -534,9 +1588,17 @@ public class MainActivity extends AppCompatActivity implements AudioFileListAdap
             int fromPos = viewHolder.getAdapterPosition();
             int targPos = target.getAdapterPosition();
 
-            Collections.swap(audioFileList, fromPos, targPos);
+            comparison.swap(fromPos, targPos);
             mAdapter.notifyItemMoved(fromPos, targPos);
 
+            // Hidden names follow the position
+            if (comparison.isBlind())
+            {
+                mAdapter.notifyItemChanged(fromPos, AudioFileListAdapter.PAYLOAD_HIDDEN);
+                mAdapter.notifyItemChanged(targPos, AudioFileListAdapter.PAYLOAD_HIDDEN);
+            }
+            updateMixerSources();
+
             return false;
         }
 
@@ -0,0 +1,195 @@
+//----------------------------------------------------
+//
+// Filename:    NullTestRunner.java
+// Author:      Daniel Walther
+// Brief:       Lines two AudioFiles up, subtracts
+//              them in the background and reports
+//              back on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.dsp.NullTest;
+import com.example.audiophileplacebotest.dsp.TrackAligner;
+import com.example.audiophileplacebotest.playback.MappedPcmSource;
+import com.example.audiophileplacebotest.playback.PcmSource;
+import com.example.audiophileplacebotest.playback.PositionMath;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class NullTestRunner
+{
+    private static final String LOG_TAG = NullTestRunner.class.getSimpleName();
+
+    // Used to implement null test completion in MainActivity
+    public interface NullTestCallbacks
+    {
+        void onNullTestFinished(AudioFile reference, AudioFile other, NullTest.Result result);
+        void onNullTestFailed(String message);
+    }
+
+    private final DocumentTrackStorage storage;
+    private final Handler handler;
+    private final NullTestCallbacks mNullTestCallbacks;
+
+    // One coordinating thread, the chunks of both tracks are spread over the pool
+    private final ExecutorService executor;
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors(), 1));
+    private final TrackAligner aligner = new TrackAligner(pool);
+    private final NullTest nullTest = new NullTest(pool);
+
+    // Only accessed from the UI thread. Results of older runs are dropped.
+    private Future<?> pendingTest = null;
+    private final AudioFile[] pendingFiles = new AudioFile[2];
+    private int generation = 0;
+
+    public NullTestRunner(Context context, NullTestCallbacks callbacks)
+    {
+        storage = new DocumentTrackStorage(context);
+        handler = new Handler(context.getMainLooper());
+        mNullTestCallbacks = callbacks;
+
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "NullTestRunner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Subtracts other from reference with the given gains, replacing any test still running.
+    // Pre-decoded files are read instead of decoding again when they are passed in.
+    public void run(AudioFile reference, AudioFile other, File referencePcm, File otherPcm,
+                    float referenceGain, float otherGain)
+    {
+        cancel();
+
+        NullTest.SourceFactory referenceFactory = factoryFor(reference, referencePcm);
+        NullTest.SourceFactory otherFactory = factoryFor(other, otherPcm);
+        int runGeneration = generation;
+
+        pendingFiles[0] = reference;
+        pendingFiles[1] = other;
+        pendingTest = executor.submit(() ->
+        {
+            long startMillis = SystemClock.elapsedRealtime();
+
+            try
+            {
+                long offsetFrames = findOffsetFrames(referenceFactory, otherFactory);
+                NullTest.Result result = nullTest.run(referenceFactory, otherFactory, offsetFrames,
+                        referenceGain, otherGain);
+
+                Log.d(LOG_TAG, String.format(Locale.getDefault(), "Null tested %d frames in %d ms",
+                        result.getFrameCount(), SystemClock.elapsedRealtime() - startMillis));
+
+                handler.post(() -> onTestFinished(runGeneration, reference, other, result));
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "run ERROR: " + e.getMessage());
+                handler.post(() -> onTestFailed(runGeneration, e.getMessage()));
+            }
+        });
+    }
+
+    // No callback will be fired for a test that is still running
+    public void cancel()
+    {
+        ++generation;
+
+        if (pendingTest != null)
+            pendingTest.cancel(true);
+
+        pendingTest = null;
+        pendingFiles[0] = null;
+        pendingFiles[1] = null;
+    }
+
+    // Only cancels if audioFile is one of the tracks being compared
+    public void cancel(AudioFile audioFile)
+    {
+        if (audioFile == pendingFiles[0] || audioFile == pendingFiles[1])
+            cancel();
+    }
+
+    // Runner cannot be used afterwards
+    public void shutdown()
+    {
+        cancel();
+        executor.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    public boolean isRunning()
+    {
+        return pendingTest != null;
+    }
+
+    private NullTest.SourceFactory factoryFor(AudioFile audioFile, File pcmFile)
+    {
+        if (pcmFile != null)
+            return () -> new MappedPcmSource(pcmFile);
+
+        return () -> storage.openPcm(audioFile);
+    }
+
+    // Frames other is shifted by against reference, found the same way the mixer lines tracks up
+    private long findOffsetFrames(NullTest.SourceFactory referenceFactory, NullTest.SourceFactory otherFactory)
+            throws IOException
+    {
+        PcmSource[] sources = { referenceFactory.open(), otherFactory.open() };
+
+        try
+        {
+            long[] offsets = aligner.align(sources);
+            return PositionMath.flicksToFrames(offsets[1] - offsets[0], sources[0].getSampleRate());
+        }
+        finally
+        {
+            for (PcmSource source : sources)
+                source.close();
+        }
+    }
+
+    private void onTestFinished(int runGeneration, AudioFile reference, AudioFile other, NullTest.Result result)
+    {
+        if (runGeneration != generation)
+            return;
+
+        pendingTest = null;
+        pendingFiles[0] = null;
+        pendingFiles[1] = null;
+        mNullTestCallbacks.onNullTestFinished(reference, other, result);
+    }
+
+    private void onTestFailed(int runGeneration, String message)
+    {
+        if (runGeneration != generation)
+            return;
+
+        pendingTest = null;
+        pendingFiles[0] = null;
+        pendingFiles[1] = null;
+        mNullTestCallbacks.onNullTestFailed(message);
+    }
+}
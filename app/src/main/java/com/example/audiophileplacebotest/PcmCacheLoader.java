@@ -0,0 +1,224 @@
+//----------------------------------------------------
+//
+// Filename:    PcmCacheLoader.java
+// Author:      Daniel Walther
+// Brief:       Pre-decodes AudioFiles into the PCM
+//              cache in the background and reports
+//              back on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.cache.PcmCache;
+import com.example.audiophileplacebotest.codec.FlacSource;
+import com.example.audiophileplacebotest.codec.FlacStream;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class PcmCacheLoader
+{
+    private static final String LOG_TAG = PcmCacheLoader.class.getSimpleName();
+
+    // Decoding is CPU bound, one thread keeps the UI and playback responsive
+    private static final int MAX_DECODE_THREADS = 1;
+
+    // FLAC frames of that one decode are spread over all but one core
+    private static final int FLAC_DECODE_THREADS = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+
+    // Used to implement decode completion in MainActivity
+    public interface LoadCallbacks
+    {
+        void onPcmCached(AudioFile audioFile);
+    }
+
+    private final Handler handler;
+    private final LoadCallbacks mLoadCallbacks;
+    private final ExecutorService executor;
+    private final PcmCache pcmCache;
+    private final DocumentTrackStorage storage;
+    private final ForkJoinPool flacPool = new ForkJoinPool(FLAC_DECODE_THREADS);
+
+    // Written by the decode thread, read by the UI thread
+    private final Map<AudioFile, File> cachedFiles = new ConcurrentHashMap<>();
+
+    // Only accessed from the UI thread
+    private final Map<AudioFile, Future<?>> pendingLoads = new HashMap<>();
+
+    public PcmCacheLoader(Context context, LoadCallbacks callbacks, PcmCache cache)
+    {
+        handler = new Handler(context.getMainLooper());
+        mLoadCallbacks = callbacks;
+        pcmCache = cache;
+        storage = new DocumentTrackStorage(context);
+
+        executor = new ThreadPoolExecutor(MAX_DECODE_THREADS, MAX_DECODE_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "PcmCacheLoader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Queues a probed file for decoding, callback is fired on the UI thread once it is cached
+    public void submit(AudioFile audioFile)
+    {
+        if (!audioFile.isProbed() || cachedFiles.containsKey(audioFile) || pendingLoads.containsKey(audioFile))
+            return;
+
+        // Already played straight from the file, a float copy would only be larger
+        if (DocumentTrackStorage.isMappable(audioFile))
+            return;
+
+        Future<?> future = executor.submit(() ->
+        {
+            File file = null;
+
+            try
+            {
+                file = decode(audioFile);
+            }
+            finally
+            {
+                // Failures are posted as well, or the file would stay pending for good
+                if (file != null)
+                {
+                    cachedFiles.put(audioFile, file);
+                    handler.post(() -> onLoadFinished(audioFile));
+                }
+                else
+                    handler.post(() -> onLoadFailed(audioFile));
+            }
+        });
+
+        pendingLoads.put(audioFile, future);
+    }
+
+    // Stops a queued or running decode, no callback will be fired for it
+    public void cancel(AudioFile audioFile)
+    {
+        Future<?> future = pendingLoads.remove(audioFile);
+
+        if (future != null)
+            future.cancel(true);
+    }
+
+    public void cancelAll()
+    {
+        for (Future<?> future : pendingLoads.values())
+            future.cancel(true);
+
+        pendingLoads.clear();
+    }
+
+    // Cancels all pending decodes, loader cannot be used afterwards
+    public void shutdown()
+    {
+        pendingLoads.clear();
+        executor.shutdownNow();
+        flacPool.shutdownNow();
+    }
+
+    // Decoded file for audioFile, or null if it hasn't been cached yet
+    public File getCachedFile(AudioFile audioFile)
+    {
+        File file = cachedFiles.get(audioFile);
+
+        // May have been evicted to make room for other tracks
+        if (file != null && !file.exists())
+        {
+            cachedFiles.remove(audioFile);
+            return null;
+        }
+
+        return file;
+    }
+
+    // Cached file for audioFile, decoded first if needed. Null if decoding failed.
+    private File decode(AudioFile audioFile)
+    {
+        String uri = audioFile.getUriPath().toString();
+        File file = pcmCache.get(uri, audioFile.getFileSize(), audioFile.getLastModified());
+        if (file != null)
+            return file;
+
+        PcmSource decoder = openDecoder(audioFile);
+
+        try
+        {
+            file = pcmCache.store(uri, audioFile.getFileSize(), audioFile.getLastModified(), decoder);
+
+            Log.d(LOG_TAG, String.format(Locale.getDefault(),
+                    "Decoded %s (%.0f samples/s overall, %d MB cached)", audioFile.getFilename(),
+                    pcmCache.getSamplesPerSecond(), pcmCache.getUsedBytes() >> 20));
+        }
+        catch (IOException e)
+        {
+            Log.d(LOG_TAG, "decode ERROR: " + e.getMessage());
+        }
+        finally
+        {
+            decoder.close();
+        }
+
+        return file;
+    }
+
+    // FLAC goes through the pure Java decoder, frames in parallel and checked against the
+    // MD5 signature. Anything it can't map or parse is left to MediaCodec.
+    private PcmSource openDecoder(AudioFile audioFile)
+    {
+        if ("FLAC".equals(audioFile.getFileformat()))
+        {
+            try
+            {
+                FlacSource source = new FlacSource(new FlacStream(storage.map(audioFile)), flacPool);
+                source.enableMd5Check();
+                return source;
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "openDecoder: " + e.getMessage() + ", using MediaCodec");
+            }
+        }
+
+        return storage.openPcm(audioFile);
+    }
+
+    private void onLoadFinished(AudioFile audioFile)
+    {
+        // File was deleted or pre-decoding turned off while decoding
+        if (pendingLoads.remove(audioFile) == null)
+            return;
+
+        mLoadCallbacks.onPcmCached(audioFile);
+    }
+
+    // Not cached, so the next submit tries again
+    private void onLoadFailed(AudioFile audioFile)
+    {
+        pendingLoads.remove(audioFile);
+    }
+}
@@ -0,0 +1,160 @@
+//----------------------------------------------------
+//
+// Filename:    PlaybackSessionManager.java
+// Author:      Daniel Walther
+// Brief:       Owns a TrackSession per AudioFile and
+//              a small pool of MediaPlayers shared
+//              between them, so the number of players
+//              doesn't grow with the list
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class PlaybackSessionManager
+{
+    private static final String LOG_TAG = PlaybackSessionManager.class.getSimpleName();
+
+    // Players kept prepared at once. Past this a playing session is stopped to free its player.
+    private static final int MAX_WARM_PLAYERS = 3;
+
+    // Used to implement player readiness in MainActivity
+    public interface SessionCallbacks
+    {
+        void onSessionPrepared(TrackSession session);
+    }
+
+    final Context mContext;
+    private SessionCallbacks mSessionCallbacks;
+
+    private final HashMap<AudioFile, TrackSession> sessions = new HashMap<>();
+
+    // Sessions holding a player, least recently used first
+    private final ArrayList<TrackSession> warmSessions = new ArrayList<>();
+
+    public PlaybackSessionManager(Context context)
+    {
+        mContext = context.getApplicationContext();
+    }
+
+    public void setSessionCallbacks(SessionCallbacks callbacks)
+    {
+        mSessionCallbacks = callbacks;
+    }
+
+    public TrackSession getSession(AudioFile audioFile)
+    {
+        TrackSession session = sessions.get(audioFile);
+
+        if (session == null)
+        {
+            session = new TrackSession(audioFile, this);
+            sessions.put(audioFile, session);
+        }
+
+        return session;
+    }
+
+    // Stops the file's playback and frees its player
+    public void remove(AudioFile audioFile)
+    {
+        TrackSession session = sessions.remove(audioFile);
+
+        if (session != null && warmSessions.remove(session))
+            session.detachPlayer().release();
+    }
+
+    public void pauseAll()
+    {
+        for (TrackSession session : warmSessions)
+            session.pause();
+    }
+
+    // Mixer sources are closed by the mixer itself, sessions just forget them
+    public void clearMixerSources()
+    {
+        for (TrackSession session : sessions.values())
+            session.setMixerSource(null);
+    }
+
+    public void release()
+    {
+        for (TrackSession session : warmSessions)
+            session.detachPlayer().release();
+
+        warmSessions.clear();
+        sessions.clear();
+        mSessionCallbacks = null;
+    }
+
+    public int getWarmPlayerCount()
+    {
+        return warmSessions.size();
+    }
+
+    // Marks a session's player as recently used
+    void touch(TrackSession session)
+    {
+        if (warmSessions.remove(session))
+            warmSessions.add(session);
+    }
+
+    void onSessionPrepared(TrackSession session)
+    {
+        if (mSessionCallbacks != null && sessions.get(session.getAudioFile()) == session)
+            mSessionCallbacks.onSessionPrepared(session);
+    }
+
+    // Hands session a player: its own, a new one while under the limit, or one taken
+    // from the least recently used idle session, or failing that the least recently used one
+    MediaPlayer leasePlayer(TrackSession session)
+    {
+        MediaPlayer player = session.getPlayer();
+
+        warmSessions.remove(session);
+        warmSessions.add(session);
+
+        if (player != null)
+            return player;
+
+        if (warmSessions.size() > MAX_WARM_PLAYERS)
+        {
+            TrackSession victim = null;
+            for (TrackSession candidate : warmSessions)
+            {
+                if (candidate != session && !candidate.isPlaying())
+                {
+                    victim = candidate;
+                    break;
+                }
+            }
+
+            // All of them are playing, the oldest one stops. Its row picks that up on the next tick.
+            if (victim == null)
+            {
+                victim = warmSessions.get(0);
+                victim.pause();
+                Log.d(LOG_TAG, "Stopped " + victim.getAudioFile().getFilename() + " to free its MediaPlayer");
+            }
+
+            warmSessions.remove(victim);
+            player = victim.detachPlayer();
+        }
+
+        if (player == null)
+        {
+            player = new MediaPlayer();
+            Log.d(LOG_TAG, "New MediaPlayer created, " + warmSessions.size() + " in use.");
+        }
+
+        player.setOnCompletionListener(mp -> session.onCompletion());
+        return player;
+    }
+}
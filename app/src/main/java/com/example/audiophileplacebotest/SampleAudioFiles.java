@@ -0,0 +1,61 @@
+//----------------------------------------------------
+//
+// Filename:    SampleAudioFiles.java
+// Author:      Daniel Walther
+// Brief:       Audio files bundled in res/raw and
+//              shown on first launch. Their
+//              properties are known when the app is
+//              built, so they are never probed.
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SampleAudioFiles
+{
+    // Must match the files in res/raw, SampleAudioFilesTest parses them to check
+    static final int[] RESOURCE_IDS = { R.raw.nightingale_intro_192k, R.raw.nightingale_intro_64k };
+    static final String[] FILENAMES = { "nightingale_intro_192k.mp3", "nightingale_intro_64k.mp3" };
+    static final long[] FILE_SIZES = { 4172279, 1946646 };
+    static final AudioMetadata[] METADATA =
+    {
+        new AudioMetadata("MP3", 44100, 0, 2, 6131076, 192036, 576, 1596),
+        new AudioMetadata("MP3", 44100, 0, 2, 6131076, 64011, 576, 1596)
+    };
+
+    // Ready to show right away, nothing is opened until a file is played or analysed
+    public static List<AudioFile> create(Context context)
+    {
+        // Bundled files only change with the app, so its update time stands in for theirs.
+        // Keeps the waveform and PCM caches from serving an older build's files.
+        long lastModified = 0;
+        try
+        {
+            lastModified = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        }
+        catch (PackageManager.NameNotFoundException e)
+        {
+            // Can't happen for our own package
+        }
+
+        List<AudioFile> files = new ArrayList<>();
+        for (int i = 0; i < RESOURCE_IDS.length; ++i)
+        {
+            AudioFile audioFile = new AudioFile(Uri.parse("android.resource://" + context.getPackageName()
+                    + "/" + RESOURCE_IDS[i]));
+            audioFile.setPrecomputed(FILENAMES[i], FILE_SIZES[i], lastModified, METADATA[i]);
+            files.add(audioFile);
+        }
+
+        return files;
+    }
+}
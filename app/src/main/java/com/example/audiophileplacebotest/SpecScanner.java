@@ -0,0 +1,135 @@
+//----------------------------------------------------
+//
+// Filename:    SpecScanner.java
+// Author:      Daniel Walther
+// Brief:       Decodes lossless AudioFiles once in
+//              the background to find the bit depth
+//              and bandwidth they really use,
+//              several at a time, and reports back
+//              on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.dsp.EffectiveSpecAnalyzer;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class SpecScanner
+{
+    private static final String LOG_TAG = SpecScanner.class.getSimpleName();
+
+    // Shares the cores with the loudness scan, which starts at the same time
+    private static final int MAX_SCAN_THREADS = Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
+
+    // Used to implement scan completion in MainActivity
+    public interface ScanCallbacks
+    {
+        void onSpecsMeasured(AudioFile audioFile);
+    }
+
+    private final DocumentTrackStorage storage;
+    private final Handler handler;
+    private final ScanCallbacks mScanCallbacks;
+    private final ExecutorService executor;
+
+    // Only accessed from the UI thread
+    private final Map<AudioFile, Future<?>> pendingScans = new HashMap<>();
+
+    public SpecScanner(Context context, ScanCallbacks callbacks)
+    {
+        storage = new DocumentTrackStorage(context);
+        handler = new Handler(context.getMainLooper());
+        mScanCallbacks = callbacks;
+
+        executor = new ThreadPoolExecutor(MAX_SCAN_THREADS, MAX_SCAN_THREADS,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "SpecScanner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Queues a probed file for measuring, callback is fired on the UI thread once it is done.
+    // Files that have already been measured are skipped, and so are lossy ones.
+    public void submit(AudioFile audioFile)
+    {
+        if (!audioFile.isProbed() || audioFile.getEffectiveSpecs() != null || pendingScans.containsKey(audioFile))
+            return;
+        if (audioFile.getMetadata() == null || !audioFile.getMetadata().isLossless())
+            return;
+
+        Future<?> future = executor.submit(() ->
+        {
+            PcmSource decoder = storage.openPcm(audioFile);
+            long startMillis = SystemClock.elapsedRealtime();
+
+            try
+            {
+                EffectiveSpecAnalyzer.Result result = EffectiveSpecAnalyzer.analyze(decoder);
+                audioFile.setEffectiveSpecs(result);
+
+                Log.d(LOG_TAG, String.format(Locale.getDefault(), "Measured %s: %s in %d ms",
+                        audioFile.getFilename(), result, SystemClock.elapsedRealtime() - startMillis));
+
+                handler.post(() -> onScanFinished(audioFile));
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "submit ERROR: " + e.getMessage());
+            }
+            finally
+            {
+                decoder.close();
+            }
+        });
+
+        pendingScans.put(audioFile, future);
+    }
+
+    // Stops a queued or running scan, no callback will be fired for it
+    public void cancel(AudioFile audioFile)
+    {
+        Future<?> future = pendingScans.remove(audioFile);
+
+        if (future != null)
+            future.cancel(true);
+    }
+
+    // Cancels all pending scans, scanner cannot be used afterwards
+    public void shutdown()
+    {
+        pendingScans.clear();
+        executor.shutdownNow();
+    }
+
+    private void onScanFinished(AudioFile audioFile)
+    {
+        // File was deleted while scanning
+        if (pendingScans.remove(audioFile) == null)
+            return;
+
+        mScanCallbacks.onSpecsMeasured(audioFile);
+    }
+}
@@ -0,0 +1,69 @@
+//----------------------------------------------------
+//
+// Filename:    StartupTrace.java
+// Author:      Daniel Walther
+// Brief:       Marks when the first frame was drawn
+//              and when the first track became
+//              playable, once per process
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+public class StartupTrace
+{
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    // All in SystemClock.uptimeMillis(), -1 until reached
+    private static long startMillis = -1;
+    private static volatile long firstFrameMillis = -1;
+    private static volatile long playableMillis = -1;
+
+    // Process start where the platform knows it, otherwise the first activity's onCreate
+    static void markStart()
+    {
+        if (startMillis >= 0)
+            return;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            startMillis = Process.getStartUptimeMillis();
+        else
+            startMillis = SystemClock.uptimeMillis();
+    }
+
+    static void markFirstFrame()
+    {
+        if (firstFrameMillis >= 0)
+            return;
+
+        firstFrameMillis = SystemClock.uptimeMillis();
+        Log.i(LOG_TAG, String.format(Locale.US, "First frame after %d ms", firstFrameMillis - startMillis));
+    }
+
+    // A player is ready, pressing play starts audio right away
+    static void markPlayable()
+    {
+        if (playableMillis >= 0)
+            return;
+
+        playableMillis = SystemClock.uptimeMillis();
+        Log.i(LOG_TAG, String.format(Locale.US, "Playable after %d ms", playableMillis - startMillis));
+    }
+
+    public static long getFirstFrameUptimeMillis()
+    {
+        return firstFrameMillis;
+    }
+
+    public static long getPlayableUptimeMillis()
+    {
+        return playableMillis;
+    }
+}
@@ -0,0 +1,226 @@
+//----------------------------------------------------
+//
+// Filename:    TrackSession.java
+// Author:      Daniel Walther
+// Brief:       Playback state of one AudioFile,
+//              independent of the row showing it.
+//              Players are leased from the
+//              PlaybackSessionManager and may be
+//              taken back while the track is idle.
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.media.MediaPlayer;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+public class TrackSession
+{
+    private static final String LOG_TAG = TrackSession.class.getSimpleName();
+
+    private final AudioFile audioFile;
+    private final PlaybackSessionManager manager;
+
+    // Individual controls, null while no player is leased
+    private MediaPlayer player = null;
+    private int positionMillis = 0;
+    private int durationMillis = -1;
+    private boolean isPlaying = false;
+
+    // Level matching, applied to whichever player is leased
+    private float gain = 1.0f;
+
+    // Player states that matter for reuse
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_PREPARING = 1;
+    private static final int STATE_PREPARED = 2;
+    private int state = STATE_IDLE;
+
+    // play() called before the player was ready
+    private boolean isStartPending = false;
+
+    // Global controls, owned by the mixer once handed over
+    private PcmSource mixerSource = null;
+
+    TrackSession(AudioFile audioFile_, PlaybackSessionManager manager_)
+    {
+        audioFile = audioFile_;
+        manager = manager_;
+    }
+
+    public AudioFile getAudioFile()
+    {
+        return audioFile;
+    }
+
+    // Leases a player and starts loading the file into it in the background.
+    // Does nothing if this session's player is already prepared or preparing.
+    public void prepare()
+    {
+        if (player != null && state != STATE_IDLE)
+        {
+            manager.touch(this);
+            return;
+        }
+
+        player = manager.leasePlayer(this);
+        state = STATE_PREPARING;
+
+        player.setOnPreparedListener(mp -> onPrepared());
+        player.setOnErrorListener((mp, what, extra) ->
+        {
+            Log.d(LOG_TAG, "prepare ERROR: " + what + "/" + extra);
+            state = STATE_IDLE;
+            isStartPending = false;
+            isPlaying = false;
+            return true;
+        });
+
+        try
+        {
+            player.reset();
+            player.setVolume(gain, gain);
+            player.setDataSource(manager.mContext, audioFile.getUriPath());
+            player.prepareAsync();
+        }
+        catch (Exception e)
+        {
+            Log.d(LOG_TAG, "prepare ERROR: " + e.getMessage());
+            state = STATE_IDLE;
+        }
+    }
+
+    public boolean isPrepared()
+    {
+        return player != null && state == STATE_PREPARED;
+    }
+
+    // Starts right away if prepared, otherwise as soon as the player is ready
+    public void play()
+    {
+        isPlaying = true;
+
+        if (isPrepared())
+            player.start();
+        else
+        {
+            isStartPending = true;
+            prepare();
+        }
+    }
+
+    public void pause()
+    {
+        if (isPrepared() && isPlaying)
+        {
+            player.pause();
+            positionMillis = player.getCurrentPosition();
+        }
+
+        isPlaying = false;
+        isStartPending = false;
+    }
+
+    public void seekTo(int millis)
+    {
+        positionMillis = millis;
+
+        if (isPrepared())
+            player.seekTo(millis);
+    }
+
+    public boolean isPlaying()
+    {
+        return isPlaying;
+    }
+
+    public int getPositionMillis()
+    {
+        return isPrepared() ? player.getCurrentPosition() : positionMillis;
+    }
+
+    // Falls back to the probed length if no player has been prepared yet, -1 if unknown
+    public int getDurationMillis()
+    {
+        if (durationMillis >= 0)
+            return durationMillis;
+
+        AudioMetadata metadata = audioFile.getMetadata();
+        if (metadata != null && metadata.getDurationMillis() >= 0)
+            return (int) metadata.getDurationMillis();
+
+        return -1;
+    }
+
+    public float getGain()
+    {
+        return gain;
+    }
+
+    // Linear gain for individual playback, the mixer gets its gains separately
+    public void setGain(float gain_)
+    {
+        gain = gain_;
+
+        if (player != null)
+            player.setVolume(gain, gain);
+    }
+
+    public PcmSource getMixerSource()
+    {
+        return mixerSource;
+    }
+
+    public void setMixerSource(PcmSource source)
+    {
+        mixerSource = source;
+    }
+
+    // region Called by PlaybackSessionManager
+    MediaPlayer getPlayer()
+    {
+        return player;
+    }
+
+    // Gives up the player, remembering where playback was
+    MediaPlayer detachPlayer()
+    {
+        MediaPlayer detached = player;
+
+        if (isPrepared())
+            positionMillis = player.getCurrentPosition();
+
+        player = null;
+        state = STATE_IDLE;
+        isPlaying = false;
+        isStartPending = false;
+        return detached;
+    }
+
+    private void onPrepared()
+    {
+        state = STATE_PREPARED;
+        durationMillis = player.getDuration();
+
+        if (positionMillis > 0)
+            player.seekTo(positionMillis);
+        if (isStartPending)
+        {
+            isStartPending = false;
+            player.start();
+        }
+
+        manager.onSessionPrepared(this);
+    }
+
+    void onCompletion()
+    {
+        isPlaying = false;
+        positionMillis = 0;
+    }
+    // endregion
+}
@@ -0,0 +1,138 @@
+//----------------------------------------------------
+//
+// Filename:    TrialRecorder.java
+// Author:      Daniel Walther
+// Brief:       Writes answered blind trials to the
+//              results log and exports it, off the
+//              UI thread and in order
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.results.ComparisonStats;
+import com.example.audiophileplacebotest.results.TrialLog;
+import com.example.audiophileplacebotest.results.TrialRecord;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class TrialRecorder
+{
+    private static final String LOG_TAG = TrialRecorder.class.getSimpleName();
+
+    // Used to implement result handling in MainActivity
+    public interface RecordCallbacks
+    {
+        void onTrialRecorded(TrialRecord record, ComparisonStats stats);
+        void onResultsExported(int trialCount);
+        void onResultsFailed(String message);
+    }
+
+    private final Context mContext;
+    private final Handler handler;
+    private final RecordCallbacks mRecordCallbacks;
+    private final TrialLog log;
+
+    // A single thread keeps trials in the order they were answered
+    private final ExecutorService executor;
+
+    public TrialRecorder(Context context, RecordCallbacks callbacks, TrialLog log_)
+    {
+        mContext = context.getApplicationContext();
+        handler = new Handler(context.getMainLooper());
+        mRecordCallbacks = callbacks;
+        log = log_;
+
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "TrialRecorder");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Replays the log now rather than on the first answer
+        executor.execute(log::getTrialCount);
+    }
+
+    // Reports the statistics of every trial between the same tracks once it is written
+    public void record(TrialRecord record)
+    {
+        executor.execute(() ->
+        {
+            try
+            {
+                log.append(record);
+
+                String[] keys = new String[record.getChoiceCount()];
+                for (int i = 0; i < keys.length; ++i)
+                    keys[i] = record.getTrackKey(i);
+
+                ComparisonStats stats = log.getStats(record.getKind(), keys);
+                handler.post(() -> mRecordCallbacks.onTrialRecorded(record, stats));
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "record ERROR: " + e.getMessage());
+                handler.post(() -> mRecordCallbacks.onResultsFailed(e.getMessage()));
+            }
+        });
+    }
+
+    // Streams every trial as CSV to a document the user picked
+    public void export(Uri uri)
+    {
+        executor.execute(() ->
+        {
+            try
+            {
+                OutputStream stream = mContext.getContentResolver().openOutputStream(uri);
+                if (stream == null)
+                    throw new IOException("Cannot open " + uri);
+
+                Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+                int count;
+                try
+                {
+                    count = log.exportCsv(out);
+                }
+                finally
+                {
+                    out.close();
+                }
+
+                handler.post(() -> mRecordCallbacks.onResultsExported(count));
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "export ERROR: " + e.getMessage());
+                handler.post(() -> mRecordCallbacks.onResultsFailed(e.getMessage()));
+            }
+        });
+    }
+
+    // Trials already handed over are still written, no callbacks arrive afterwards
+    public void shutdown()
+    {
+        executor.shutdown();
+        handler.removeCallbacksAndMessages(null);
+    }
+}
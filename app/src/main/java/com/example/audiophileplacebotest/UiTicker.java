@@ -0,0 +1,62 @@
+//----------------------------------------------------
+//
+// Filename:    UiTicker.java
+// Author:      Daniel Walther
+// Brief:       Calls back once per display frame
+//              for as long as something is playing,
+//              so all progress views update in one
+//              pass that lines up with drawing
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.view.Choreographer;
+
+public class UiTicker implements Choreographer.FrameCallback
+{
+    // Used to implement the per-frame update in MainActivity
+    public interface TickCallbacks
+    {
+        // Returns whether another frame is needed
+        boolean onTick(long frameTimeNanos);
+    }
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final TickCallbacks mTickCallbacks;
+
+    private boolean isRunning = false;
+
+    public UiTicker(TickCallbacks callbacks)
+    {
+        mTickCallbacks = callbacks;
+    }
+
+    // Safe to call repeatedly, ticking stops by itself once onTick() returns false
+    public void start()
+    {
+        if (isRunning)
+            return;
+
+        isRunning = true;
+        choreographer.postFrameCallback(this);
+    }
+
+    public void stop()
+    {
+        isRunning = false;
+        choreographer.removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos)
+    {
+        if (!isRunning)
+            return;
+
+        if (mTickCallbacks.onTick(frameTimeNanos))
+            choreographer.postFrameCallback(this);
+        else
+            isRunning = false;
+    }
+}
@@ -0,0 +1,238 @@
+//----------------------------------------------------
+//
+// Filename:    VariantRunner.java
+// Author:      Daniel Walther
+// Brief:       Renders lower bit depth and other
+//              rate copies of an AudioFile into app
+//              storage, reports back on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.dsp.Requantizer;
+import com.example.audiophileplacebotest.dsp.VariantRenderer;
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class VariantRunner
+{
+    private static final String LOG_TAG = VariantRunner.class.getSimpleName();
+
+    // Presets in the order of R.array.variantChoices. Rate changes are written as 32 bit float,
+    // so only the rate differs from the original.
+    public static final int PRESET_COUNT = 5;
+    private static final int[] PRESET_RATES = { 0, 0, 0, 44100, 48000 };
+    private static final int[] PRESET_BITS = { 16, 16, 16, 0, 0 };
+    private static final int[] PRESET_DITHER = { Requantizer.TRUNCATE, Requantizer.TPDF, Requantizer.NOISE_SHAPED,
+            Requantizer.TRUNCATE, Requantizer.TRUNCATE };
+    private static final String[] PRESET_SUFFIXES = { "16 bit truncated", "16 bit TPDF", "16 bit noise shaped",
+            "44.1 kHz", "48 kHz" };
+
+    // Used to implement variant completion in MainActivity
+    public interface VariantCallbacks
+    {
+        void onVariantsRendered(AudioFile source, List<File> files);
+        void onVariantsFailed(String message);
+    }
+
+    private final DocumentTrackStorage storage;
+    private final Handler handler;
+    private final VariantCallbacks mVariantCallbacks;
+    private final File directory;
+
+    // One thread decodes, the variants are rendered on the pool meanwhile
+    private final ExecutorService executor;
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1));
+    private final VariantRenderer renderer = new VariantRenderer(pool);
+
+    // Only accessed from the UI thread. Results of older runs are dropped.
+    private Future<?> pendingRender = null;
+    private AudioFile pendingFile = null;
+    private int generation = 0;
+
+    public VariantRunner(Context context, VariantCallbacks callbacks)
+    {
+        storage = new DocumentTrackStorage(context);
+        handler = new Handler(context.getMainLooper());
+        mVariantCallbacks = callbacks;
+        directory = new File(context.getFilesDir(), "variants");
+
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "VariantRunner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Renders the chosen presets that would change something, replacing any render still running.
+    // Returns how many variants were started.
+    public int render(AudioFile source, boolean[] presets)
+    {
+        AudioMetadata metadata = source.getMetadata();
+        String baseName = baseName(source.getFilename());
+        List<VariantRenderer.Variant> variants = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+
+        for (int i = 0; i < PRESET_COUNT; ++i)
+        {
+            if (!presets[i] || !changes(i, metadata))
+                continue;
+
+            // Written next to the final name, so a loaded copy of an older render is never overwritten in place
+            File file = new File(directory, baseName + " (" + PRESET_SUFFIXES[i] + ").wav");
+            variants.add(new VariantRenderer.Variant(new File(file.getPath() + ".part"),
+                    PRESET_RATES[i], PRESET_BITS[i], PRESET_DITHER[i]));
+            files.add(file);
+        }
+
+        if (variants.isEmpty())
+            return 0;
+
+        cancel();
+
+        int runGeneration = generation;
+        pendingFile = source;
+        pendingRender = executor.submit(() ->
+        {
+            long startMillis = SystemClock.elapsedRealtime();
+            PcmSource pcm = storage.openPcm(source);
+
+            try
+            {
+                if (!directory.isDirectory() && !directory.mkdirs())
+                    throw new IOException("Cannot create " + directory);
+
+                renderer.render(pcm, variants);
+
+                for (int i = 0; i < variants.size(); ++i)
+                {
+                    if (!variants.get(i).getFile().renameTo(files.get(i)))
+                        throw new IOException("Cannot rename " + variants.get(i).getFile());
+                }
+
+                Log.d(LOG_TAG, String.format(Locale.getDefault(), "Rendered %d variants in %d ms",
+                        variants.size(), SystemClock.elapsedRealtime() - startMillis));
+
+                handler.post(() -> onRenderFinished(runGeneration, source, files));
+            }
+            catch (IOException e)
+            {
+                Log.d(LOG_TAG, "render ERROR: " + e.getMessage());
+                handler.post(() -> onRenderFailed(runGeneration, e.getMessage()));
+            }
+            finally
+            {
+                pcm.close();
+            }
+        });
+
+        return variants.size();
+    }
+
+    // No callback will be fired for a render that is still running
+    public void cancel()
+    {
+        ++generation;
+
+        if (pendingRender != null)
+            pendingRender.cancel(true);
+
+        pendingRender = null;
+        pendingFile = null;
+    }
+
+    // Only cancels if audioFile is the one being rendered
+    public void cancel(AudioFile audioFile)
+    {
+        if (audioFile == pendingFile)
+            cancel();
+    }
+
+    // Removes the file behind audioFile if it is a rendered variant. Players that still have it
+    // open keep reading it until they are closed.
+    public void delete(AudioFile audioFile)
+    {
+        Uri uri = audioFile.getUriPath();
+        if (!ContentResolver.SCHEME_FILE.equals(uri.getScheme()) || uri.getPath() == null)
+            return;
+
+        File file = new File(uri.getPath());
+        if (directory.equals(file.getParentFile()) && !file.delete())
+            Log.d(LOG_TAG, "delete ERROR: " + file);
+    }
+
+    // Runner cannot be used afterwards
+    public void shutdown()
+    {
+        cancel();
+        executor.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    public boolean isRunning()
+    {
+        return pendingRender != null;
+    }
+
+    // Presets that would leave the track as it is are skipped
+    private static boolean changes(int preset, AudioMetadata metadata)
+    {
+        if (PRESET_RATES[preset] != 0)
+            return metadata.getSampleRate() != PRESET_RATES[preset];
+
+        return metadata.getBitDepth() == 0 || metadata.getBitDepth() > PRESET_BITS[preset];
+    }
+
+    private static String baseName(String filename)
+    {
+        String name = filename == null ? "variant" : filename.replace('/', '_');
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private void onRenderFinished(int runGeneration, AudioFile source, List<File> files)
+    {
+        if (runGeneration != generation)
+            return;
+
+        pendingRender = null;
+        pendingFile = null;
+        mVariantCallbacks.onVariantsRendered(source, files);
+    }
+
+    private void onRenderFailed(int runGeneration, String message)
+    {
+        if (runGeneration != generation)
+            return;
+
+        pendingRender = null;
+        pendingFile = null;
+        mVariantCallbacks.onVariantsFailed(message);
+    }
+}
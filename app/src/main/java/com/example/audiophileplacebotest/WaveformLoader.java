@@ -0,0 +1,165 @@
+//----------------------------------------------------
+//
+// Filename:    WaveformLoader.java
+// Author:      Daniel Walther
+// Brief:       Builds or loads the waveform overview
+//              of AudioFiles in the background and
+//              reports back on the UI thread
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.audiophileplacebotest.cache.WaveformCache;
+import com.example.audiophileplacebotest.dsp.WaveformPyramid;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class WaveformLoader
+{
+    private static final String LOG_TAG = WaveformLoader.class.getSimpleName();
+
+    // Used to implement waveform completion in MainActivity
+    public interface WaveformCallbacks
+    {
+        void onWaveformReady(AudioFile audioFile);
+    }
+
+    private final DocumentTrackStorage storage;
+    private final Handler handler;
+    private final WaveformCallbacks mWaveformCallbacks;
+    private final ExecutorService executor;
+    private final WaveformCache waveformCache;
+
+    // Only accessed from the UI thread
+    private final Map<AudioFile, Future<?>> pendingLoads = new HashMap<>();
+
+    public WaveformLoader(Context context, WaveformCallbacks callbacks, WaveformCache cache)
+    {
+        storage = new DocumentTrackStorage(context);
+        handler = new Handler(context.getMainLooper());
+        mWaveformCallbacks = callbacks;
+        waveformCache = cache;
+
+        // Decoding is CPU bound, one thread keeps the UI and playback responsive
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r ->
+        {
+            Thread t = new Thread(() ->
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "WaveformLoader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Queues a probed file, callback is fired on the UI thread once its waveform is set
+    public void submit(AudioFile audioFile)
+    {
+        if (!audioFile.isProbed() || audioFile.getWaveform() != null || pendingLoads.containsKey(audioFile))
+            return;
+
+        Future<?> future = executor.submit(() ->
+        {
+            WaveformPyramid pyramid = null;
+
+            try
+            {
+                pyramid = load(audioFile);
+            }
+            finally
+            {
+                // Failures are posted as well, or the file would stay pending for good
+                if (pyramid != null)
+                {
+                    audioFile.setWaveform(pyramid);
+                    handler.post(() -> onLoadFinished(audioFile));
+                }
+                else
+                    handler.post(() -> onLoadFailed(audioFile));
+            }
+        });
+
+        pendingLoads.put(audioFile, future);
+    }
+
+    // Stops a queued or running build, no callback will be fired for it
+    public void cancel(AudioFile audioFile)
+    {
+        Future<?> future = pendingLoads.remove(audioFile);
+
+        if (future != null)
+            future.cancel(true);
+    }
+
+    // Cancels all pending builds, loader cannot be used afterwards
+    public void shutdown()
+    {
+        pendingLoads.clear();
+        executor.shutdownNow();
+    }
+
+    // Cached waveform of audioFile, built first if needed. Null if it couldn't be decoded.
+    private WaveformPyramid load(AudioFile audioFile)
+    {
+        String uri = audioFile.getUriPath().toString();
+        WaveformPyramid pyramid = waveformCache.get(uri, audioFile.getFileSize(), audioFile.getLastModified());
+        if (pyramid != null)
+            return pyramid;
+
+        PcmSource decoder = storage.openPcm(audioFile);
+        long startMillis = SystemClock.elapsedRealtime();
+
+        try
+        {
+            pyramid = WaveformPyramid.build(decoder);
+
+            Log.d(LOG_TAG, String.format(Locale.getDefault(), "Built waveform of %s in %d ms",
+                    audioFile.getFilename(), SystemClock.elapsedRealtime() - startMillis));
+
+            // Still shown if it can't be written, it is just built again next time
+            waveformCache.put(uri, audioFile.getFileSize(), audioFile.getLastModified(), pyramid);
+        }
+        catch (IOException e)
+        {
+            Log.d(LOG_TAG, "load ERROR: " + e.getMessage());
+        }
+        finally
+        {
+            decoder.close();
+        }
+
+        return pyramid;
+    }
+
+    private void onLoadFinished(AudioFile audioFile)
+    {
+        // File was deleted while building
+        if (pendingLoads.remove(audioFile) == null)
+            return;
+
+        mWaveformCallbacks.onWaveformReady(audioFile);
+    }
+
+    // No waveform set, so the next submit tries again
+    private void onLoadFailed(AudioFile audioFile)
+    {
+        pendingLoads.remove(audioFile);
+    }
+}
@@ -0,0 +1,258 @@
+//--------------------------------------------------
+//
+// Filename:    WaveformView.java
+// Author:      Daniel Walther
+// Brief:       Draws a track's waveform overview
+//              from its peak pyramid, with pinch to
+//              zoom, drag to pan and tap to seek
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.core.content.ContextCompat;
+
+import com.example.audiophileplacebotest.dsp.WaveformPyramid;
+import com.example.audiophileplacebotest.playback.PositionMath;
+
+public class WaveformView extends View
+{
+    // Used to implement tap to seek in the list rows
+    public interface SeekListener
+    {
+        void onWaveformSeek(long millis);
+    }
+
+    private final Paint playedPaint = new Paint();
+    private final Paint unplayedPaint = new Paint();
+
+    private WaveformPyramid pyramid = null;
+    private SeekListener seekListener = null;
+
+    // Visible range in frames, the whole track unless zoomed
+    private long startFrame = 0;
+    private long endFrame = 0;
+    private long positionFrame = 0;
+
+    // Sized to the view, reused by every draw
+    private float[] mins = new float[0];
+    private float[] maxs = new float[0];
+    private float[] lines = new float[0];
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    public WaveformView(Context context, AttributeSet attrs)
+    {
+        super(context, attrs);
+
+        playedPaint.setColor(ContextCompat.getColor(context, R.color.waveform_played));
+        unplayedPaint.setColor(ContextCompat.getColor(context, R.color.waveform_unplayed));
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener()
+        {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector)
+            {
+                zoom(detector.getScaleFactor(), detector.getFocusX());
+                return true;
+            }
+        });
+
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener()
+        {
+            @Override
+            public boolean onDown(MotionEvent e)
+            {
+                return pyramid != null;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e)
+            {
+                if (seekListener != null && pyramid != null)
+                    seekListener.onWaveformSeek(PositionMath.framesToMillis(frameAt(e.getX()), pyramid.getSampleRate()));
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY)
+            {
+                pan(distanceX);
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e)
+            {
+                showWholeTrack();
+                return true;
+            }
+        });
+    }
+
+    // Null shows an empty view until the pyramid is ready
+    public void setPyramid(WaveformPyramid pyramid_)
+    {
+        if (pyramid_ == pyramid)
+            return;
+
+        pyramid = pyramid_;
+        showWholeTrack();
+    }
+
+    public void setSeekListener(SeekListener listener)
+    {
+        seekListener = listener;
+    }
+
+    // Called every frame while playing, only redraws when the playhead moves a pixel
+    public void setPositionMillis(long millis)
+    {
+        if (pyramid == null)
+            return;
+
+        long frame = PositionMath.millisToFrames(millis, pyramid.getSampleRate());
+        if (playedPixels(frame) != playedPixels(positionFrame))
+            invalidate();
+
+        positionFrame = frame;
+    }
+
+    private void showWholeTrack()
+    {
+        startFrame = 0;
+        endFrame = pyramid != null ? Math.max(pyramid.getFrameCount(), 1) : 0;
+        invalidate();
+    }
+
+    // Keeps the frame under the fingers in place. Can't zoom in past one bucket per pixel.
+    private void zoom(float factor, float focusX)
+    {
+        if (pyramid == null || getContentWidth() <= 0)
+            return;
+
+        long focus = frameAt(focusX);
+        long minSpan = (long) getContentWidth() * WaveformPyramid.BASE_FRAMES_PER_BUCKET;
+        long maxSpan = Math.max(pyramid.getFrameCount(), 1);
+        long span = (long) ((endFrame - startFrame) / factor);
+        span = Math.max(Math.min(span, maxSpan), Math.min(minSpan, maxSpan));
+
+        float fraction = (focusX - getPaddingLeft()) / getContentWidth();
+        startFrame = focus - (long) (span * fraction);
+        endFrame = startFrame + span;
+        clampRange();
+
+        // Gestures on a zoomed waveform shouldn't scroll the list
+        getParent().requestDisallowInterceptTouchEvent(true);
+        invalidate();
+    }
+
+    private void pan(float distanceX)
+    {
+        if (pyramid == null || getContentWidth() <= 0 || endFrame - startFrame >= pyramid.getFrameCount())
+            return;
+
+        long shift = (long) (distanceX * (endFrame - startFrame) / getContentWidth());
+        startFrame += shift;
+        endFrame += shift;
+        clampRange();
+
+        getParent().requestDisallowInterceptTouchEvent(true);
+        invalidate();
+    }
+
+    private void clampRange()
+    {
+        long span = endFrame - startFrame;
+        long frames = Math.max(pyramid.getFrameCount(), 1);
+
+        if (startFrame < 0)
+            startFrame = 0;
+        if (startFrame + span > frames)
+            startFrame = Math.max(frames - span, 0);
+
+        endFrame = startFrame + span;
+    }
+
+    private int getContentWidth()
+    {
+        return getWidth() - getPaddingLeft() - getPaddingRight();
+    }
+
+    private long frameAt(float x)
+    {
+        float fraction = Math.max(0f, Math.min(1f, (x - getPaddingLeft()) / Math.max(getContentWidth(), 1)));
+        return startFrame + (long) ((endFrame - startFrame) * fraction);
+    }
+
+    // Pixels left of the playhead, all or none if it is outside the visible range
+    private int playedPixels(long frame)
+    {
+        int pixels = mins.length;
+        if (endFrame <= startFrame)
+            return 0;
+
+        long px = (frame - startFrame) * pixels / (endFrame - startFrame);
+        return (int) Math.max(0, Math.min(px, pixels));
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event)
+    {
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh)
+    {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        int pixels = Math.max(getContentWidth(), 0);
+        mins = new float[pixels];
+        maxs = new float[pixels];
+        lines = new float[pixels * 4];
+    }
+
+    // One vertical line per pixel, played part in the accent colour
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        int pixels = mins.length;
+        if (pyramid == null || pixels == 0)
+            return;
+
+        pyramid.render(startFrame, endFrame, pixels, mins, maxs);
+
+        float top = getPaddingTop();
+        float halfHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) / 2f;
+        float center = top + halfHeight;
+        float left = getPaddingLeft() + 0.5f;
+
+        for (int px = 0; px < pixels; ++px)
+        {
+            float x = left + px;
+            lines[px * 4] = x;
+            lines[px * 4 + 1] = center - maxs[px] * halfHeight;
+            lines[px * 4 + 2] = x;
+
+            // Silence still shows as a hairline
+            lines[px * 4 + 3] = Math.max(center - mins[px] * halfHeight, lines[px * 4 + 1] + 1f);
+        }
+
+        int played = playedPixels(positionFrame);
+        canvas.drawLines(lines, 0, played * 4, playedPaint);
+        canvas.drawLines(lines, played * 4, (pixels - played) * 4, unplayedPaint);
+    }
+}
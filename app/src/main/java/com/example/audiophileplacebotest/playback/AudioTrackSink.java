@@ -0,0 +1,174 @@
+//--------------------------------------------------
+//
+// Filename:    AudioTrackSink.java
+// Author:      Daniel Walther
+// Brief:       PcmSink that streams float PCM to a
+//              single AudioTrack
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.util.Log;
+
+public class AudioTrackSink implements PcmSink
+{
+    private static final String LOG_TAG = AudioTrackSink.class.getSimpleName();
+
+    // Multiple of the minimum buffer size. Larger survives scheduling hiccups,
+    // smaller makes track switches audible sooner.
+    private static final int BUFFER_MULTIPLIER = 2;
+
+    private AudioTrack track = null;
+    private int sampleRate = 0;
+    private int channelCount = 0;
+    private int minBufferFrames = 0;
+    private boolean isPlaying = false;
+    private boolean isLowLatency = false;
+
+    // Frames written to the current track, and how many of them came before the last flush,
+    // which restarts the playback head at 0
+    private long writtenFrames = 0;
+    private long flushedFrames = 0;
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+
+    @Override
+    public void configure(int sampleRate_, int channelCount_)
+    {
+        if (track != null && sampleRate_ == sampleRate && channelCount_ == channelCount)
+            return;
+
+        // The track's rate is fixed, so a new rate means a new track
+        if (track != null)
+            track.release();
+
+        sampleRate = sampleRate_;
+        channelCount = channelCount_;
+
+        int channelMask = channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_FLOAT);
+        minBufferFrames = minBufferSize / (channelCount * 4);
+
+        track = new AudioTrack(
+                new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
+                        .build(),
+                new AudioFormat.Builder()
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(channelMask)
+                        .setEncoding(AudioFormat.ENCODING_PCM_FLOAT)
+                        .build(),
+                minBufferSize * BUFFER_MULTIPLIER,
+                AudioTrack.MODE_STREAM,
+                AudioManager.AUDIO_SESSION_ID_GENERATE);
+
+        writtenFrames = 0;
+        flushedFrames = 0;
+        applyBufferSize();
+
+        Log.d(LOG_TAG, "AudioTrack configured: " + sampleRate + " Hz, " + channelCount + " ch");
+
+        if (isPlaying)
+            track.play();
+    }
+
+    @Override
+    public int write(float[] src, int offset, int frameCount)
+    {
+        int written = track.write(src, offset * channelCount, frameCount * channelCount,
+                AudioTrack.WRITE_BLOCKING);
+
+        if (written < 0)
+            return written;
+
+        writtenFrames += written / channelCount;
+        return written / channelCount;
+    }
+
+    @Override
+    public void start()
+    {
+        isPlaying = true;
+        if (track != null)
+            track.play();
+    }
+
+    @Override
+    public void pause()
+    {
+        isPlaying = false;
+        if (track != null)
+            track.pause();
+    }
+
+    @Override
+    public void flush()
+    {
+        if (track == null)
+            return;
+
+        // AudioTrack only flushes while paused or stopped
+        track.pause();
+        track.flush();
+        flushedFrames = writtenFrames;
+        if (isPlaying)
+            track.play();
+    }
+
+    @Override
+    public long getPlayedNanos(long frame)
+    {
+        if (track == null || frame < flushedFrames)
+            return -1;
+
+        // The head only says the mixer took the frame, the timestamp says when it left the device
+        long headFrames = flushedFrames + (track.getPlaybackHeadPosition() & 0xffffffffL);
+        if (headFrames <= frame)
+            return -1;
+
+        // Without a timestamp, or one that didn't restart with the flush, the head has to do
+        long now = System.nanoTime();
+        if (!track.getTimestamp(timestamp))
+            return now;
+
+        long stampFrames = flushedFrames + timestamp.framePosition;
+        if (stampFrames > headFrames)
+            return now;
+
+        long playedNanos = timestamp.nanoTime + (frame - stampFrames) * 1000000000L / sampleRate;
+        return playedNanos <= now ? playedNanos : -1;
+    }
+
+    @Override
+    public void setLowLatency(boolean isLowLatency_)
+    {
+        isLowLatency = isLowLatency_;
+        if (track != null)
+            applyBufferSize();
+    }
+
+    // The track keeps its full capacity, only the part in use shrinks. Older versions can't
+    // resize and stay at the full buffer.
+    private void applyBufferSize()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+            track.setBufferSizeInFrames(isLowLatency ? minBufferFrames : minBufferFrames * BUFFER_MULTIPLIER);
+    }
+
+    @Override
+    public void release()
+    {
+        if (track != null)
+            track.release();
+
+        track = null;
+        isPlaying = false;
+    }
+}
@@ -0,0 +1,326 @@
+//--------------------------------------------------
+//
+// Filename:    MediaCodecSource.java
+// Author:      Daniel Walther
+// Brief:       PcmSource that decodes a file with
+//              MediaExtractor/MediaCodec. Seeks are
+//              sample accurate: decoding restarts at
+//              the previous sync point and everything
+//              before the target frame is dropped.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+public class MediaCodecSource implements PcmSource
+{
+    private static final long TIMEOUT_US = 10000;
+
+    private final Context mContext;
+    private final Uri uri;
+
+    private MediaExtractor extractor = null;
+    private MediaCodec codec = null;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    private int sampleRate = 0;
+    private int channelCount = 0;
+    private long frameCount = -1;
+    private boolean isFloatOutput = false;
+
+    private boolean isInputDone = false;
+    private boolean isOutputDone = false;
+
+    // Decoded samples not handed out yet
+    private float[] pending = new float[0];
+    private short[] shortScratch = new short[0];
+    private int pendingOffset = 0;
+    private int pendingLength = 0;
+    private long pendingStartFrame = 0;
+
+    private long position = 0;
+
+    // Nothing is opened until the render thread first touches the source
+    public MediaCodecSource(Context context, Uri uri_)
+    {
+        mContext = context.getApplicationContext();
+        uri = uri_;
+    }
+
+    @Override
+    public int getSampleRate()
+    {
+        ensureOpen();
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        ensureOpen();
+        return channelCount;
+    }
+
+    @Override
+    public long getFrameCount()
+    {
+        ensureOpen();
+        return frameCount;
+    }
+
+    // Reported from the decoder's timestamps rather than counted, so decoder
+    // hiccups show up as drift against the mixer clock
+    @Override
+    public long getPosition()
+    {
+        if (pendingLength == 0)
+            return position;
+
+        return pendingStartFrame + pendingOffset / channelCount;
+    }
+
+    @Override
+    public void seekTo(long frame) throws IOException
+    {
+        ensureOpen();
+        if (codec == null)
+            throw new IOException("Could not open " + uri);
+
+        extractor.seekTo(frame * 1000000L / sampleRate, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        codec.flush();
+
+        isInputDone = false;
+        isOutputDone = false;
+        pendingOffset = 0;
+        pendingLength = 0;
+        position = frame;
+
+        // Decode up to the buffer holding the target frame and drop the rest
+        while (!isOutputDone)
+        {
+            if (!decodeNext())
+                continue;
+
+            long endFrame = pendingStartFrame + pendingLength / channelCount;
+            if (endFrame <= frame)
+            {
+                pendingLength = 0;
+                continue;
+            }
+
+            long skip = Math.max(frame - pendingStartFrame, 0);
+            pendingOffset = (int) skip * channelCount;
+            break;
+        }
+    }
+
+    @Override
+    public int read(float[] dst, int offset, int frameCount) throws IOException
+    {
+        // Reopening after suspend() starts over at the beginning of the stream
+        if (extractor == null && position > 0)
+            seekTo(position);
+
+        ensureOpen();
+        if (codec == null)
+            throw new IOException("Could not open " + uri);
+
+        int framesRead = 0;
+
+        while (framesRead < frameCount)
+        {
+            if (pendingOffset < pendingLength)
+            {
+                int frames = Math.min(frameCount - framesRead, (pendingLength - pendingOffset) / channelCount);
+                System.arraycopy(pending, pendingOffset, dst, offset + framesRead * channelCount,
+                        frames * channelCount);
+
+                pendingOffset += frames * channelCount;
+                framesRead += frames;
+                continue;
+            }
+
+            if (isOutputDone)
+                break;
+
+            decodeNext();
+        }
+
+        position += framesRead;
+
+        return framesRead == 0 && isOutputDone ? -1 : framesRead;
+    }
+
+    @Override
+    public void warmUp() throws IOException
+    {
+        ensureOpen();
+        if (codec == null)
+            throw new IOException("Could not open " + uri);
+    }
+
+    @Override
+    public void suspend()
+    {
+        close();
+    }
+
+    // Position is kept, a closed source can still be reopened by seeking it
+    @Override
+    public void close()
+    {
+        if (codec != null)
+            codec.release();
+        if (extractor != null)
+            extractor.release();
+
+        codec = null;
+        extractor = null;
+        pendingOffset = 0;
+        pendingLength = 0;
+    }
+
+    private void ensureOpen()
+    {
+        if (extractor != null)
+            return;
+
+        extractor = new MediaExtractor();
+
+        try
+        {
+            extractor.setDataSource(mContext, uri, null);
+
+            for (int i = 0; i < extractor.getTrackCount(); ++i)
+            {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+
+                if (mime == null || !mime.startsWith("audio/"))
+                    continue;
+
+                extractor.selectTrack(i);
+                sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                if (format.containsKey(MediaFormat.KEY_DURATION))
+                    frameCount = format.getLong(MediaFormat.KEY_DURATION) * sampleRate / 1000000L;
+
+                // Ask for float output where supported, saves a conversion
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                    format.setInteger(MediaFormat.KEY_PCM_ENCODING, AudioFormat.ENCODING_PCM_FLOAT);
+
+                codec = MediaCodec.createDecoderByType(mime);
+                codec.configure(format, null, null, 0);
+                codec.start();
+                break;
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // Left closed, seekTo()/read() report the failure
+            if (codec != null)
+                codec.release();
+            codec = null;
+        }
+    }
+
+    // Feeds one input buffer and drains one output buffer.
+    // Returns true if new samples were decoded into pending.
+    private boolean decodeNext()
+    {
+        if (!isInputDone)
+        {
+            int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+            if (inIndex >= 0)
+            {
+                ByteBuffer input = codec.getInputBuffer(inIndex);
+                int size = extractor.readSampleData(input, 0);
+
+                if (size < 0)
+                {
+                    codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    isInputDone = true;
+                }
+                else
+                {
+                    codec.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                    extractor.advance();
+                }
+            }
+        }
+
+        int outIndex = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+
+        if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED)
+        {
+            readOutputFormat(codec.getOutputFormat());
+            return false;
+        }
+        if (outIndex < 0)
+            return false;
+
+        ByteBuffer output = codec.getOutputBuffer(outIndex);
+        output.position(bufferInfo.offset);
+        output.limit(bufferInfo.offset + bufferInfo.size);
+        output.order(ByteOrder.nativeOrder());
+
+        int samples;
+        if (isFloatOutput)
+        {
+            FloatBuffer floats = output.asFloatBuffer();
+            samples = floats.remaining();
+            ensurePendingCapacity(samples);
+            floats.get(pending, 0, samples);
+        }
+        else
+        {
+            ShortBuffer shorts = output.asShortBuffer();
+            samples = shorts.remaining();
+            ensurePendingCapacity(samples);
+            if (shortScratch.length < samples)
+                shortScratch = new short[samples];
+            shorts.get(shortScratch, 0, samples);
+            PcmConvert.shortToFloat(shortScratch, 0, pending, 0, samples);
+        }
+
+        pendingStartFrame = (bufferInfo.presentationTimeUs * sampleRate + 500000L) / 1000000L;
+        pendingOffset = 0;
+        pendingLength = samples;
+
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+            isOutputDone = true;
+
+        codec.releaseOutputBuffer(outIndex, false);
+        return samples > 0;
+    }
+
+    private void readOutputFormat(MediaFormat format)
+    {
+        sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+        isFloatOutput = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && format.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                && format.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT;
+    }
+
+    private void ensurePendingCapacity(int samples)
+    {
+        if (pending.length < samples)
+            pending = new float[samples];
+    }
+}
@@ -0,0 +1,68 @@
+//----------------------------------------------------
+//
+// Filename:    SampleAudioFilesTest.java
+// Author:      Daniel Walther
+// Brief:       Parses the bundled files and checks
+//              them against the properties the app
+//              shows without probing
+//
+//----------------------------------------------------
+
+package com.example.audiophileplacebotest;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+import com.example.audiophileplacebotest.parser.ContainerParser;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class SampleAudioFilesTest
+{
+    // Unit tests run from the module directory
+    private static final File RAW_DIR = new File("src/main/res/raw");
+
+    @Test
+    public void precomputedMetadataMatchesFiles() throws IOException
+    {
+        assertEquals(SampleAudioFiles.RESOURCE_IDS.length, SampleAudioFiles.FILENAMES.length);
+        assertEquals(SampleAudioFiles.RESOURCE_IDS.length, SampleAudioFiles.FILE_SIZES.length);
+        assertEquals(SampleAudioFiles.RESOURCE_IDS.length, SampleAudioFiles.METADATA.length);
+
+        for (int i = 0; i < SampleAudioFiles.FILENAMES.length; ++i)
+        {
+            String name = SampleAudioFiles.FILENAMES[i];
+            File file = new File(RAW_DIR, name);
+            assertTrue(name, file.isFile());
+            assertEquals(name, SampleAudioFiles.FILE_SIZES[i], file.length());
+
+            AudioMetadata parsed;
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try
+            {
+                parsed = new ContainerParser().parse(in, file.length());
+            }
+            finally
+            {
+                in.close();
+            }
+
+            AudioMetadata expected = SampleAudioFiles.METADATA[i];
+            assertNotNull(name, parsed);
+            assertEquals(name, expected.getFormat(), parsed.getFormat());
+            assertEquals(name, expected.getSampleRate(), parsed.getSampleRate());
+            assertEquals(name, expected.getBitDepth(), parsed.getBitDepth());
+            assertEquals(name, expected.getChannelCount(), parsed.getChannelCount());
+            assertEquals(name, expected.getTotalSamples(), parsed.getTotalSamples());
+            assertEquals(name, expected.getBitrate(), parsed.getBitrate());
+            assertEquals(name, expected.getEncoderDelay(), parsed.getEncoderDelay());
+            assertEquals(name, expected.getEncoderPadding(), parsed.getEncoderPadding());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+//--------------------------------------------------
+//
+// Filename:    FlacBenchmark.java
+// Author:      Daniel Walther
+// Brief:       Pure Java FLAC decoding of one
+//              minute of stereo: the seek table
+//              scan, and full decodes on one thread
+//              and across a pool
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.benchmark;
+
+import com.example.audiophileplacebotest.codec.FlacSource;
+import com.example.audiophileplacebotest.codec.FlacStream;
+import com.example.audiophileplacebotest.codec.FlacTestEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FlacBenchmark
+{
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int FRAMES = SAMPLE_RATE * 60;
+
+    @Param({ "16", "24" })
+    public int bitDepth;
+
+    private byte[] flac;
+    private ForkJoinPool pool;
+    private final float[] buffer = new float[4096 * CHANNELS];
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        // Music-like enough that the predictors have something to do
+        Random random = new Random(1);
+        int max = (1 << (bitDepth - 1)) - 1;
+        int[] samples = new int[FRAMES * CHANNELS];
+        for (int i = 0; i < FRAMES; ++i)
+        {
+            for (int c = 0; c < CHANNELS; ++c)
+            {
+                double x = 0.4 * Math.sin(2 * Math.PI * (220 + 3 * c) * i / SAMPLE_RATE)
+                        + 0.2 * Math.sin(2 * Math.PI * 1760 * i / SAMPLE_RATE)
+                        + 0.01 * random.nextGaussian();
+                samples[i * CHANNELS + c] = (int) Math.round(x * max);
+            }
+        }
+
+        flac = new FlacTestEncoder(SAMPLE_RATE, CHANNELS, bitDepth, 4096).encode(samples);
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    private long decode(ForkJoinPool decodePool) throws IOException
+    {
+        FlacSource source = new FlacSource(new FlacStream(ByteBuffer.wrap(flac)), decodePool);
+        source.enableMd5Check();
+
+        long frames = 0;
+        int n;
+        while ((n = source.read(buffer, 0, 4096)) > 0)
+            frames += n;
+
+        return frames;
+    }
+
+    @Benchmark
+    public int scan() throws IOException
+    {
+        FlacStream stream = new FlacStream(ByteBuffer.wrap(flac));
+        stream.scan();
+        return stream.getFrameCount();
+    }
+
+    @Benchmark
+    public long decodeSequential() throws IOException
+    {
+        return decode(null);
+    }
+
+    @Benchmark
+    public long decodeParallel() throws IOException
+    {
+        return decode(pool);
+    }
+}
@@ -0,0 +1,128 @@
+//--------------------------------------------------
+//
+// Filename:    ParserBenchmark.java
+// Author:      Daniel Walther
+// Brief:       Header parsing, from single integer
+//              reads up to whole container headers
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.benchmark;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+import com.example.audiophileplacebotest.parser.ByteReader;
+import com.example.audiophileplacebotest.parser.ContainerParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParserBenchmark
+{
+    // Integers read per readInts op, fills the reader's buffer a few times over
+    private static final int INT_COUNT = 16 * 1024;
+
+    private final ContainerParser parser = new ContainerParser();
+    private final ByteReader reader = new ByteReader();
+
+    private byte[] wav;
+    private byte[] flac;
+    private byte[] words;
+
+    @Setup
+    public void setUp()
+    {
+        wav = buildWav();
+        flac = buildFlac();
+
+        words = new byte[INT_COUNT * 4];
+        new Random(1).nextBytes(words);
+    }
+
+    // RIFF header with a LIST chunk ahead of fmt, as written by most taggers
+    private static byte[] buildWav()
+    {
+        ByteBuffer b = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        b.put("RIFF".getBytes()).putInt(0).put("WAVE".getBytes());
+        b.put("LIST".getBytes()).putInt(26).put("INFOISFT".getBytes()).putInt(14).put(new byte[14]);
+        b.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 2).putInt(44100)
+                .putInt(44100 * 4).putShort((short) 4).putShort((short) 16);
+        b.put("data".getBytes()).putInt(44100 * 4 * 60);
+        return finish(b);
+    }
+
+    // STREAMINFO followed by a Vorbis comment and padding, which the parser walks past
+    private static byte[] buildFlac()
+    {
+        ByteBuffer b = ByteBuffer.allocate(8192).order(ByteOrder.BIG_ENDIAN);
+        b.put("fLaC".getBytes());
+
+        b.putInt(34).putShort((short) 4096).putShort((short) 4096).put(new byte[6]);
+        long packed = 96000L << 44 | 1L << 41 | 23L << 36 | 96000L * 60;
+        b.putLong(packed).put(new byte[16]);
+
+        b.putInt(4 << 24 | 512).put(new byte[512]);
+        b.putInt((0x80 | 1) << 24 | 4096).put(new byte[4096]);
+        return finish(b);
+    }
+
+    private static byte[] finish(ByteBuffer b)
+    {
+        byte[] bytes = new byte[b.position()];
+        b.flip();
+        b.get(bytes);
+        return bytes;
+    }
+
+    @Benchmark
+    public AudioMetadata parseWav() throws IOException
+    {
+        return parser.parse(new ByteArrayInputStream(wav), wav.length);
+    }
+
+    @Benchmark
+    public AudioMetadata parseFlac() throws IOException
+    {
+        return parser.parse(new ByteArrayInputStream(flac), flac.length);
+    }
+
+    @Benchmark
+    public long readIntsBigEndian() throws IOException
+    {
+        reader.reset(new ByteArrayInputStream(words), words.length);
+
+        long sum = 0;
+        for (int i = 0; i < INT_COUNT; ++i)
+            sum += reader.readIntBE();
+
+        reader.release();
+        return sum;
+    }
+
+    @Benchmark
+    public long readIntsLittleEndian() throws IOException
+    {
+        reader.reset(new ByteArrayInputStream(words), words.length);
+
+        long sum = 0;
+        for (int i = 0; i < INT_COUNT; ++i)
+            sum += reader.readIntLE();
+
+        reader.release();
+        return sum;
+    }
+}
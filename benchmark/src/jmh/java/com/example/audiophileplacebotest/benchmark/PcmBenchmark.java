@@ -0,0 +1,244 @@
+//--------------------------------------------------
+//
+// Filename:    PcmBenchmark.java
+// Author:      Daniel Walther
+// Brief:       The per-block PCM loops of playback
+//              and analysis: reading decoded audio,
+//              channel conversion, gain, loudness
+//              and whole mixer blocks
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.benchmark;
+
+import com.example.audiophileplacebotest.cache.PcmCache;
+import com.example.audiophileplacebotest.codec.PcmFileSource;
+import com.example.audiophileplacebotest.dsp.LoudnessAnalyzer;
+import com.example.audiophileplacebotest.playback.MappedPcmSource;
+import com.example.audiophileplacebotest.playback.MixerEngine;
+import com.example.audiophileplacebotest.playback.PcmConvert;
+import com.example.audiophileplacebotest.playback.PcmSink;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PcmBenchmark
+{
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BLOCK_FRAMES = MixerEngine.BLOCK_FRAMES;
+
+    // Ten seconds of audio, enough that reads don't just hit the same cache lines
+    private static final long TRACK_FRAMES = SAMPLE_RATE * 10L;
+
+    @Param({ "1", "2", "6" })
+    public int channels;
+
+    private float[] source;
+    private final float[] stereo = new float[BLOCK_FRAMES * 2];
+
+    // Gain works in place, each call starts over from the same noise so it never decays into denormals
+    private final float[] gainInput = new float[BLOCK_FRAMES * 2];
+    private final float[] gainOutput = new float[BLOCK_FRAMES * 2];
+
+    private File cacheDir;
+    private MappedPcmSource mapped;
+    private PcmFileSource wav;
+    private final float[] readBuffer = new float[BLOCK_FRAMES * 8];
+
+    private LoudnessAnalyzer analyzer;
+    private MixerEngine mixer;
+
+    // Endless noise, so reads never hit the end of the track. Hands out at most one block per read.
+    private class NoiseSource implements PcmSource
+    {
+        long position = 0;
+
+        @Override public int getSampleRate() { return SAMPLE_RATE; }
+        @Override public int getChannelCount() { return channels; }
+        @Override public long getFrameCount() { return -1; }
+        @Override public long getPosition() { return position; }
+        @Override public void seekTo(long frame) { position = frame; }
+        @Override public void warmUp() {}
+        @Override public void suspend() {}
+        @Override public void close() {}
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount)
+        {
+            frameCount = Math.min(frameCount, BLOCK_FRAMES);
+            System.arraycopy(source, 0, dst, offset, frameCount * channels);
+            position += frameCount;
+            return frameCount;
+        }
+    }
+
+    // Finite copy of the noise, for storing in the PCM cache
+    private class TrackSource extends NoiseSource
+    {
+        @Override public long getFrameCount() { return TRACK_FRAMES; }
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount)
+        {
+            if (position >= TRACK_FRAMES)
+                return -1;
+
+            return super.read(dst, offset, (int) Math.min(frameCount, TRACK_FRAMES - position));
+        }
+    }
+
+    private static class NullSink implements PcmSink
+    {
+        @Override public void configure(int sampleRate, int channelCount) {}
+        @Override public int write(float[] src, int offset, int frameCount) { return frameCount; }
+        @Override public void start() {}
+        @Override public void pause() {}
+        @Override public void flush() {}
+        @Override public long getPlayedNanos(long frame) { return System.nanoTime(); }
+        @Override public void setLowLatency(boolean isLowLatency) {}
+        @Override public void release() {}
+    }
+
+    private static class NullListener implements MixerEngine.Listener
+    {
+        @Override public void onPlaybackCompleted() {}
+        @Override public void onPlaybackError(Exception e) {}
+        @Override public void onSwitchRendered(int index, long latencyNanos) {}
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        Random random = new Random(1);
+        source = new float[BLOCK_FRAMES * channels];
+        for (int i = 0; i < source.length; ++i)
+            source[i] = random.nextFloat() * 2 - 1;
+        for (int i = 0; i < gainInput.length; ++i)
+            gainInput[i] = random.nextFloat() * 2 - 1;
+
+        cacheDir = Files.createTempDirectory("pcmbench").toFile();
+        PcmCache cache = new PcmCache(cacheDir, Long.MAX_VALUE);
+        mapped = new MappedPcmSource(cache.store("bench", 0, 0, new TrackSource()));
+        wav = new PcmFileSource(writeWav24());
+
+        analyzer = new LoudnessAnalyzer(SAMPLE_RATE, channels);
+
+        mixer = new MixerEngine(new NullSink(), new NullListener());
+        mixer.setSources(new PcmSource[] { new NoiseSource(), new NoiseSource() },
+                new float[] { 0.8f, 1.0f }, null);
+        mixer.play();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        mapped.close();
+        wav.close();
+        mixer.release();
+
+        File[] files = cacheDir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+                f.delete();
+        }
+        cacheDir.delete();
+    }
+
+    // The noise as a 24 bit WAV of the same length as the cached track
+    private File writeWav24() throws IOException
+    {
+        int dataBytes = (int) (TRACK_FRAMES * channels * 3);
+        ByteBuffer wav = ByteBuffer.allocate(44 + dataBytes).order(ByteOrder.LITTLE_ENDIAN);
+        wav.putInt(0x46464952).putInt(36 + dataBytes).putInt(0x45564157);
+        wav.putInt(0x20746D66).putInt(16).putShort((short) 1).putShort((short) channels).putInt(SAMPLE_RATE)
+                .putInt(SAMPLE_RATE * channels * 3).putShort((short) (channels * 3)).putShort((short) 24);
+        wav.putInt(0x61746164).putInt(dataBytes);
+
+        for (long i = 0; i < TRACK_FRAMES * channels; ++i)
+        {
+            int sample = (int) (source[(int) (i % source.length)] * 8388607);
+            wav.put((byte) sample).put((byte) (sample >> 8)).put((byte) (sample >> 16));
+        }
+
+        File file = new File(cacheDir, "bench.wav");
+        Files.write(file.toPath(), wav.array());
+        return file;
+    }
+
+    @Benchmark
+    public float[] toStereo()
+    {
+        PcmConvert.toStereo(source, 0, channels, stereo, 0, BLOCK_FRAMES);
+        return stereo;
+    }
+
+    @Benchmark
+    public float[] applyGain()
+    {
+        System.arraycopy(gainInput, 0, gainOutput, 0, gainOutput.length);
+        PcmConvert.applyGain(gainOutput, 0, gainOutput.length, 0.999f);
+        return gainOutput;
+    }
+
+    @Benchmark
+    public int readMapped() throws IOException
+    {
+        int frames = mapped.read(readBuffer, 0, BLOCK_FRAMES);
+        if (frames < 0)
+        {
+            mapped.seekTo(0);
+            frames = mapped.read(readBuffer, 0, BLOCK_FRAMES);
+        }
+
+        return frames;
+    }
+
+    // 24 bit needs the widest conversion of the layouts served straight from a file
+    @Benchmark
+    public int readWav24() throws IOException
+    {
+        int frames = wav.read(readBuffer, 0, BLOCK_FRAMES);
+        if (frames < 0)
+        {
+            wav.seekTo(0);
+            frames = wav.read(readBuffer, 0, BLOCK_FRAMES);
+        }
+
+        return frames;
+    }
+
+    @Benchmark
+    public LoudnessAnalyzer loudnessBlock()
+    {
+        analyzer.process(source, 0, BLOCK_FRAMES);
+        return analyzer;
+    }
+
+    // Read, convert, gain and sync bookkeeping of one block, with the sink left out
+    @Benchmark
+    public int mixerBlock() throws IOException
+    {
+        return mixer.renderBlock();
+    }
+}
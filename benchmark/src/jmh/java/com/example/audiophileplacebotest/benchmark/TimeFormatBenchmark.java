@@ -0,0 +1,60 @@
+//--------------------------------------------------
+//
+// Filename:    TimeFormatBenchmark.java
+// Author:      Daniel Walther
+// Brief:       Time label formatting as done every
+//              frame by the UI ticker, against the
+//              SimpleDateFormat it replaced
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.benchmark;
+
+import com.example.audiophileplacebotest.playback.TimeFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimeFormatBenchmark
+{
+    private final char[] buffer = new char[TimeFormatter.MAX_LENGTH];
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("m:ss", Locale.US);
+
+    // Walks through a five minute track in frame sized steps
+    private long millis = 0;
+
+    private long nextMillis()
+    {
+        millis = (millis + 16) % 300000;
+        return millis;
+    }
+
+    @Benchmark
+    public int timeFormatterIntoBuffer()
+    {
+        return TimeFormatter.format(nextMillis(), buffer, 0);
+    }
+
+    @Benchmark
+    public String timeFormatterToString()
+    {
+        return TimeFormatter.format(nextMillis());
+    }
+
+    @Benchmark
+    public String simpleDateFormat()
+    {
+        return dateFormat.format(nextMillis());
+    }
+}
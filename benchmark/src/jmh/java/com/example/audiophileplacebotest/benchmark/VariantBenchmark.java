@@ -0,0 +1,157 @@
+//--------------------------------------------------
+//
+// Filename:    VariantBenchmark.java
+// Author:      Daniel Walther
+// Brief:       Variant rendering stages per block,
+//              and ten seconds of 96 kHz stereo into
+//              three variants on one thread and
+//              across a pool
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.benchmark;
+
+import com.example.audiophileplacebotest.dsp.Requantizer;
+import com.example.audiophileplacebotest.dsp.Resampler;
+import com.example.audiophileplacebotest.dsp.VariantRenderer;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VariantBenchmark
+{
+    private static final int SAMPLE_RATE = 96000;
+    private static final int CHANNELS = 2;
+    private static final int BLOCK_FRAMES = VariantRenderer.BLOCK_FRAMES;
+    private static final long TRACK_FRAMES = SAMPLE_RATE * 10L;
+
+    @Param({ "44100", "48000" })
+    public int outputRate;
+
+    private float[] source;
+    private float[] block;
+    private float[] resampled;
+    private Resampler resampler;
+    private Requantizer tpdf;
+    private Requantizer shaped;
+
+    private File dir;
+    private ForkJoinPool pool;
+    private List<VariantRenderer.Variant> variants;
+
+    // Ten seconds of the same noise block over and over
+    private class TrackSource implements PcmSource
+    {
+        long position = 0;
+
+        @Override public int getSampleRate() { return SAMPLE_RATE; }
+        @Override public int getChannelCount() { return CHANNELS; }
+        @Override public long getFrameCount() { return TRACK_FRAMES; }
+        @Override public long getPosition() { return position; }
+        @Override public void seekTo(long frame) { position = frame; }
+        @Override public void warmUp() {}
+        @Override public void suspend() {}
+        @Override public void close() {}
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount)
+        {
+            if (position >= TRACK_FRAMES)
+                return -1;
+
+            int n = (int) Math.min(Math.min(frameCount, BLOCK_FRAMES), TRACK_FRAMES - position);
+            System.arraycopy(source, 0, dst, offset, n * CHANNELS);
+            position += n;
+            return n;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        Random random = new Random(1);
+        source = new float[BLOCK_FRAMES * CHANNELS];
+        for (int i = 0; i < source.length; ++i)
+            source[i] = (random.nextFloat() * 2 - 1) * 0.5f;
+
+        block = new float[source.length];
+        resampler = new Resampler(SAMPLE_RATE, outputRate, CHANNELS);
+        resampled = new float[resampler.getMaxOutput(BLOCK_FRAMES) * CHANNELS];
+        tpdf = new Requantizer(16, Requantizer.TPDF, CHANNELS);
+        shaped = new Requantizer(16, Requantizer.NOISE_SHAPED, CHANNELS);
+
+        dir = Files.createTempDirectory("variants").toFile();
+        pool = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1));
+        variants = new ArrayList<>();
+        variants.add(new VariantRenderer.Variant(new File(dir, "tpdf.wav"), 0, 16, Requantizer.TPDF));
+        variants.add(new VariantRenderer.Variant(new File(dir, "shaped.wav"), 0, 16, Requantizer.NOISE_SHAPED));
+        variants.add(new VariantRenderer.Variant(new File(dir, "rate.wav"), outputRate, 0, Requantizer.TRUNCATE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        pool.shutdown();
+        for (VariantRenderer.Variant variant : variants)
+            variant.getFile().delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public float[] resampleBlock()
+    {
+        resampler.process(source, 0, BLOCK_FRAMES, resampled, 0);
+        return resampled;
+    }
+
+    @Benchmark
+    public float[] requantizeTpdfBlock()
+    {
+        System.arraycopy(source, 0, block, 0, block.length);
+        tpdf.process(block, 0, BLOCK_FRAMES);
+        return block;
+    }
+
+    @Benchmark
+    public float[] requantizeShapedBlock()
+    {
+        System.arraycopy(source, 0, block, 0, block.length);
+        shaped.process(block, 0, BLOCK_FRAMES);
+        return block;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void renderSequential() throws IOException
+    {
+        new VariantRenderer(null).render(new TrackSource(), variants);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void renderParallel() throws IOException
+    {
+        new VariantRenderer(pool).render(new TrackSource(), variants);
+    }
+}
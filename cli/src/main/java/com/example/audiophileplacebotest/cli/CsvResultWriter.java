@@ -0,0 +1,126 @@
+//--------------------------------------------------
+//
+// Filename:    CsvResultWriter.java
+// Author:      Daniel Walther
+// Brief:       Writes probed Tracks as CSV rows
+//              with a header line
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cli;
+
+import com.example.audiophileplacebotest.model.Track;
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+public class CsvResultWriter implements ResultWriter
+{
+    static final String HEADER = "path,format,sample_rate,bit_depth,channels,duration_ms,bitrate,lossless,"
+            + "size,probe_ms,error";
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(256);
+
+    public CsvResultWriter(Writer out_)
+    {
+        out = out_;
+    }
+
+    @Override
+    public void begin() throws IOException
+    {
+        out.write(HEADER);
+        out.write('\n');
+        out.flush();
+    }
+
+    // Unknown values are left empty
+    @Override
+    public void write(Track track) throws IOException
+    {
+        AudioMetadata m = track.getMetadata();
+        line.setLength(0);
+
+        appendText(track.getKey());
+        line.append(',');
+
+        if (m != null)
+        {
+            appendText(track.getFileformat());
+            line.append(',');
+            appendNumber(m.getSampleRate());
+            line.append(',');
+            appendNumber(m.getBitDepth() > 0 ? m.getBitDepth() : AudioMetadata.UNKNOWN);
+            line.append(',');
+            appendNumber(m.getChannelCount());
+            line.append(',');
+            appendNumber(m.getDurationMillis());
+            line.append(',');
+            appendNumber(m.getBitrate());
+            line.append(',');
+            line.append(m.isLossless());
+            line.append(',');
+        }
+        else
+        {
+            line.append(",,,,,,,");
+        }
+
+        appendNumber(track.getFileSize());
+        line.append(',');
+        line.append(String.format(Locale.ROOT, "%.3f", track.getProbeTimeNanos() / 1000000.0));
+        line.append(',');
+
+        if (track.getProbeError() != null)
+            appendText(String.valueOf(track.getProbeError().getMessage()));
+
+        line.append('\n');
+        out.append(line);
+        out.flush();
+    }
+
+    @Override
+    public void end() throws IOException
+    {
+        out.close();
+    }
+
+    private void appendNumber(long value)
+    {
+        if (value >= 0)
+            line.append(value);
+    }
+
+    // Quoted only if needed, quotes inside are doubled
+    private void appendText(String text)
+    {
+        if (text == null)
+            return;
+
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; ++i)
+        {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote)
+        {
+            line.append(text);
+            return;
+        }
+
+        line.append('"');
+        for (int i = 0; i < text.length(); ++i)
+        {
+            char c = text.charAt(i);
+            if (c == '"')
+                line.append('"');
+            line.append(c);
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,48 @@
+//--------------------------------------------------
+//
+// Filename:    FileTrackStorage.java
+// Author:      Daniel Walther
+// Brief:       Reads Tracks straight from the local
+//              file system, keyed by path
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cli;
+
+import com.example.audiophileplacebotest.model.Track;
+import com.example.audiophileplacebotest.model.TrackStorage;
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class FileTrackStorage implements TrackStorage
+{
+    // Size and modification date come from a single stat
+    @Override
+    public void queryFileInfo(Track track) throws IOException
+    {
+        Path path = Paths.get(track.getKey());
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        track.setFileInfo(path.getFileName().toString(), attributes.size(),
+                attributes.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public InputStream open(Track track) throws IOException
+    {
+        return Files.newInputStream(Paths.get(track.getKey()));
+    }
+
+    // No platform decoder to fall back on
+    @Override
+    public AudioMetadata extractMetadata(Track track)
+    {
+        return null;
+    }
+}
@@ -0,0 +1,116 @@
+//--------------------------------------------------
+//
+// Filename:    JsonlResultWriter.java
+// Author:      Daniel Walther
+// Brief:       Writes probed Tracks as one JSON
+//              object per line
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cli;
+
+import com.example.audiophileplacebotest.model.Track;
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+public class JsonlResultWriter implements ResultWriter
+{
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(256);
+
+    public JsonlResultWriter(Writer out_)
+    {
+        out = out_;
+    }
+
+    @Override
+    public void begin() {}
+
+    // Unknown values are written as null
+    @Override
+    public void write(Track track) throws IOException
+    {
+        AudioMetadata m = track.getMetadata();
+        line.setLength(0);
+
+        line.append("{\"path\":");
+        appendText(track.getKey());
+
+        if (m != null)
+        {
+            line.append(",\"format\":");
+            appendText(track.getFileformat());
+            line.append(",\"sampleRate\":");
+            appendNumber(m.getSampleRate());
+            line.append(",\"bitDepth\":");
+            appendNumber(m.getBitDepth() > 0 ? m.getBitDepth() : AudioMetadata.UNKNOWN);
+            line.append(",\"channels\":");
+            appendNumber(m.getChannelCount());
+            line.append(",\"durationMillis\":");
+            appendNumber(m.getDurationMillis());
+            line.append(",\"bitrate\":");
+            appendNumber(m.getBitrate());
+            line.append(",\"lossless\":").append(m.isLossless());
+        }
+
+        line.append(",\"size\":");
+        appendNumber(track.getFileSize());
+        line.append(",\"probeMillis\":");
+        line.append(String.format(Locale.ROOT, "%.3f", track.getProbeTimeNanos() / 1000000.0));
+
+        if (track.getProbeError() != null)
+        {
+            line.append(",\"error\":");
+            appendText(String.valueOf(track.getProbeError().getMessage()));
+        }
+
+        line.append("}\n");
+        out.append(line);
+        out.flush();
+    }
+
+    @Override
+    public void end() throws IOException
+    {
+        out.close();
+    }
+
+    private void appendNumber(long value)
+    {
+        if (value >= 0)
+            line.append(value);
+        else
+            line.append("null");
+    }
+
+    private void appendText(String text)
+    {
+        if (text == null)
+        {
+            line.append("null");
+            return;
+        }
+
+        line.append('"');
+        for (int i = 0; i < text.length(); ++i)
+        {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+                line.append('\\').append(c);
+            else if (c == '\n')
+                line.append("\\n");
+            else if (c == '\r')
+                line.append("\\r");
+            else if (c == '\t')
+                line.append("\\t");
+            else if (c < 0x20)
+                line.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            else
+                line.append(c);
+        }
+        line.append('"');
+    }
+}
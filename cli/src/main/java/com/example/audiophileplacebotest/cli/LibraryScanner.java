@@ -0,0 +1,230 @@
+//--------------------------------------------------
+//
+// Filename:    LibraryScanner.java
+// Author:      Daniel Walther
+// Brief:       Probes every audio file under a
+//              directory on a bounded pool of worker
+//              threads, handing each result to a
+//              ResultWriter as soon as it is done
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cli;
+
+import com.example.audiophileplacebotest.cache.MetadataCache;
+import com.example.audiophileplacebotest.model.Track;
+import com.example.audiophileplacebotest.parser.ContainerParser;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LibraryScanner
+{
+    // Extensions probed unless all files are asked for
+    private static final String[] AUDIO_EXTENSIONS =
+    {
+            "wav", "wave", "bwf", "rf64", "w64", "aif", "aiff", "aifc",
+            "flac", "mp3", "mp2", "m4a", "mp4", "aac", "alac"
+    };
+
+    // Files waiting for a worker. The walk blocks once this many are queued, which keeps
+    // memory flat no matter how big the tree is.
+    private static final int QUEUED_FILES_PER_THREAD = 4;
+
+    public static class Stats
+    {
+        private final long fileCount;
+        private final long errorCount;
+        private final long byteCount;
+        private final long elapsedNanos;
+
+        Stats(long fileCount_, long errorCount_, long byteCount_, long elapsedNanos_)
+        {
+            fileCount = fileCount_;
+            errorCount = errorCount_;
+            byteCount = byteCount_;
+            elapsedNanos = elapsedNanos_;
+        }
+
+        public long getFileCount()
+        {
+            return fileCount;
+        }
+
+        // Files that couldn't be read or parsed, they are still written out
+        public long getErrorCount()
+        {
+            return errorCount;
+        }
+
+        // Total size of all probed files, most of which is never read
+        public long getByteCount()
+        {
+            return byteCount;
+        }
+
+        public long getElapsedNanos()
+        {
+            return elapsedNanos;
+        }
+
+        public double getFilesPerSecond()
+        {
+            return elapsedNanos == 0 ? 0 : fileCount * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.getDefault(), "%d files (%d errors, %.1f GB) in %.2f s, %.0f files/s",
+                    fileCount, errorCount, byteCount / 1e9, elapsedNanos / 1e9, getFilesPerSecond());
+        }
+    }
+
+    private final int threadCount;
+    private final MetadataCache cache;
+    private final boolean allFiles;
+
+    private final FileTrackStorage storage = new FileTrackStorage();
+
+    // Parsers keep a read buffer around, one per worker
+    private final ThreadLocal<ContainerParser> parsers = new ThreadLocal<ContainerParser>()
+    {
+        @Override
+        protected ContainerParser initialValue()
+        {
+            return new ContainerParser();
+        }
+    };
+
+    // cache may be null. With allFiles set, files are probed whatever their extension.
+    public LibraryScanner(int threadCount_, MetadataCache cache_, boolean allFiles_)
+    {
+        threadCount = Math.max(threadCount_, 1);
+        cache = cache_;
+        allFiles = allFiles_;
+    }
+
+    // Walks the tree below root, symlinks are not followed. Returns once every file is written.
+    public Stats scan(Path root, ResultWriter writer) throws IOException, InterruptedException
+    {
+        AtomicLong fileCount = new AtomicLong();
+        AtomicLong errorCount = new AtomicLong();
+        AtomicLong byteCount = new AtomicLong();
+
+        // First failure to write, stops the scan
+        IOException[] writeError = new IOException[1];
+
+        // A full queue makes the walking thread probe the file itself, which throttles the walk
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threadCount * QUEUED_FILES_PER_THREAD), r ->
+        {
+            Thread t = new Thread(r, "LibraryScanner");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        long startNanos = System.nanoTime();
+        writer.begin();
+
+        try
+        {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                {
+                    synchronized (writeError)
+                    {
+                        if (writeError[0] != null)
+                            return FileVisitResult.TERMINATE;
+                    }
+
+                    if (!attributes.isRegularFile() || !isWanted(file))
+                        return FileVisitResult.CONTINUE;
+
+                    executor.execute(() ->
+                    {
+                        Track track = new Track(file.toString());
+                        track.probe(storage, parsers.get(), cache);
+
+                        fileCount.incrementAndGet();
+                        if (track.getFileSize() > 0)
+                            byteCount.addAndGet(track.getFileSize());
+                        if (track.getProbeError() != null)
+                            errorCount.incrementAndGet();
+
+                        synchronized (writeError)
+                        {
+                            if (writeError[0] != null)
+                                return;
+
+                            try
+                            {
+                                writer.write(track);
+                            }
+                            catch (IOException e)
+                            {
+                                writeError[0] = e;
+                            }
+                        }
+                    });
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                // Unreadable directories and files are skipped
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e)
+                {
+                    errorCount.incrementAndGet();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        finally
+        {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        synchronized (writeError)
+        {
+            if (writeError[0] != null)
+                throw writeError[0];
+        }
+
+        writer.end();
+
+        return new Stats(fileCount.get(), errorCount.get(), byteCount.get(), System.nanoTime() - startNanos);
+    }
+
+    private boolean isWanted(Path file)
+    {
+        if (allFiles)
+            return true;
+
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0)
+            return false;
+
+        String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        for (String e : AUDIO_EXTENSIONS)
+        {
+            if (e.equals(extension))
+                return true;
+        }
+
+        return false;
+    }
+}
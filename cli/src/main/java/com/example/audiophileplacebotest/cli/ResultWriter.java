@@ -0,0 +1,27 @@
+//--------------------------------------------------
+//
+// Filename:    ResultWriter.java
+// Author:      Daniel Walther
+// Brief:       Streams probed Tracks out one record
+//              at a time, in the order they finish
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cli;
+
+import com.example.audiophileplacebotest.model.Track;
+
+import java.io.IOException;
+
+public interface ResultWriter
+{
+    // Called once before the first record
+    void begin() throws IOException;
+
+    // Called from one thread at a time. Records are flushed right away so
+    // results can be followed while a scan runs.
+    void write(Track track) throws IOException;
+
+    // Flushes and closes the output
+    void end() throws IOException;
+}
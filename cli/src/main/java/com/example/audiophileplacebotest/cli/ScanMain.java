@@ -0,0 +1,134 @@
+//--------------------------------------------------
+//
+// Filename:    ScanMain.java
+// Author:      Daniel Walther
+// Brief:       Command line entry point, probes a
+//              music library and streams the
+//              results to stdout or a file
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cli;
+
+import com.example.audiophileplacebotest.cache.MetadataCache;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ScanMain
+{
+    private static final String USAGE =
+            "Usage: scan <directory> [options]\n"
+            + "  --format csv|jsonl   output format (default csv)\n"
+            + "  --output <file>      write results to a file instead of stdout\n"
+            + "  --threads <n>        worker threads (default: one per core)\n"
+            + "  --cache <file>       reuse and update a metadata cache between runs\n"
+            + "  --all                probe every file, not just known audio extensions";
+
+    // Entries kept in the metadata cache, same order of magnitude as a large library
+    private static final int MAX_CACHED_METADATA = 100000;
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            System.exit(run(args));
+        }
+        catch (Exception e)
+        {
+            System.err.println("scan ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Returns the process exit code: 0 on success, 2 on bad arguments
+    static int run(String[] args) throws IOException, InterruptedException
+    {
+        Path root = null;
+        String format = "csv";
+        String output = null;
+        String cachePath = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean allFiles = false;
+
+        for (int i = 0; i < args.length; ++i)
+        {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+
+            if (arg.equals("--format") && hasValue)
+                format = args[++i];
+            else if (arg.equals("--output") && hasValue)
+                output = args[++i];
+            else if (arg.equals("--threads") && hasValue)
+            {
+                threads = parseCount(args[++i]);
+                if (threads < 1)
+                    return usage();
+            }
+            else if (arg.equals("--cache") && hasValue)
+                cachePath = args[++i];
+            else if (arg.equals("--all"))
+                allFiles = true;
+            else if (!arg.startsWith("--") && root == null)
+                root = Paths.get(arg);
+            else
+                return usage();
+        }
+
+        if (root == null || !Files.isDirectory(root) || !(format.equals("csv") || format.equals("jsonl")))
+            return usage();
+
+        MetadataCache cache = cachePath != null ? new MetadataCache(new File(cachePath), MAX_CACHED_METADATA) : null;
+
+        OutputStream stream = output != null ? new FileOutputStream(output) : System.out;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        ResultWriter results = format.equals("csv") ? new CsvResultWriter(writer) : new JsonlResultWriter(writer);
+        LibraryScanner.Stats stats;
+
+        // The scanner only closes it once everything went through
+        try
+        {
+            stats = new LibraryScanner(threads, cache, allFiles).scan(root, results);
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if (cache != null)
+            cache.save();
+
+        // Kept off stdout so the results can be piped
+        System.err.println(stats);
+        return 0;
+    }
+
+    // The number, or -1 if it isn't one
+    private static int parseCount(String value)
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private static int usage()
+    {
+        System.err.println(USAGE);
+        return 2;
+    }
+}
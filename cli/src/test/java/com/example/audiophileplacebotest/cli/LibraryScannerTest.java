@@ -0,0 +1,105 @@
+//--------------------------------------------------
+//
+// Filename:    LibraryScannerTest.java
+// Author:      Daniel Walther
+// Brief:       Scans a small generated library and
+//              checks what ends up in the output
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cli;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class LibraryScannerTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] wav(int sampleRate, int bitDepth, int frames)
+    {
+        int blockAlign = 2 * bitDepth / 8;
+        ByteBuffer b = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        b.put("RIFF".getBytes()).putInt(36 + frames * blockAlign).put("WAVE".getBytes());
+        b.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 2).putInt(sampleRate)
+                .putInt(sampleRate * blockAlign).putShort((short) blockAlign).putShort((short) bitDepth);
+        b.put("data".getBytes()).putInt(frames * blockAlign);
+        return b.array();
+    }
+
+    // 20 WAVs spread over nested folders, one broken FLAC and a file that isn't audio
+    @Before
+    public void setUp() throws IOException
+    {
+        for (int i = 0; i < 20; ++i)
+        {
+            File dir = folder.newFolder("artist" + i % 4, "album" + i);
+            Files.write(new File(dir, "track, " + i + ".wav").toPath(), wav(44100 * (1 + i % 2), 16, 44100));
+        }
+
+        Files.write(folder.newFile("broken.flac").toPath(), new byte[100]);
+        Files.write(folder.newFile("cover.jpg").toPath(), new byte[100]);
+    }
+
+    @Test
+    public void csvHasOneRowPerAudioFile() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        LibraryScanner.Stats stats = new LibraryScanner(3, null, false)
+                .scan(folder.getRoot().toPath(), new CsvResultWriter(out));
+
+        String[] lines = out.toString().split("\n");
+
+        assertEquals(21, stats.getFileCount());
+        assertEquals(1, stats.getErrorCount());
+        assertEquals(CsvResultWriter.HEADER, lines[0]);
+        assertEquals(22, lines.length);
+
+        int quoted = 0;
+        int at88k = 0;
+        for (int i = 1; i < lines.length; ++i)
+        {
+            // Names with commas are quoted
+            if (lines[i].startsWith("\""))
+                ++quoted;
+            if (lines[i].contains(",WAV,88200,16,2,500,"))
+                ++at88k;
+        }
+
+        assertEquals(20, quoted);
+        assertEquals(10, at88k);
+    }
+
+    @Test
+    public void jsonlHasOneObjectPerFile() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        LibraryScanner.Stats stats = new LibraryScanner(2, null, true)
+                .scan(folder.getRoot().toPath(), new JsonlResultWriter(out));
+
+        String[] lines = out.toString().split("\n");
+
+        // Every file is probed, the JPEG fails like the broken FLAC
+        assertEquals(22, stats.getFileCount());
+        assertEquals(2, stats.getErrorCount());
+        assertEquals(22, lines.length);
+
+        for (String line : lines)
+        {
+            assertTrue(line.startsWith("{\"path\":\""));
+            assertTrue(line.endsWith("}"));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+//--------------------------------------------------
+//
+// Filename:    AbxSession.java
+// Author:      Daniel Walther
+// Brief:       Schedules the trials of an ABX test
+//              between two candidates, records the
+//              answers and how fast each switch was
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.abx;
+
+import java.util.Random;
+
+public class AbxSession
+{
+    // The two tracks being compared
+    public static final int CANDIDATE_A = 0;
+    public static final int CANDIDATE_B = 1;
+
+    // What the user can listen to, X being one of the candidates
+    public static final int SLOT_A = 0;
+    public static final int SLOT_B = 1;
+    public static final int SLOT_X = 2;
+
+    public static final int DEFAULT_TRIAL_COUNT = 16;
+
+    public static class Trial
+    {
+        private final int xCandidate;
+        private int answer = -1;
+
+        private int switchCount = 0;
+        private long totalSwitchNanos = 0;
+        private long maxSwitchNanos = 0;
+
+        Trial(int xCandidate_)
+        {
+            xCandidate = xCandidate_;
+        }
+
+        public int getXCandidate()
+        {
+            return xCandidate;
+        }
+
+        // Candidate the user picked for X, -1 if not answered yet
+        public int getAnswer()
+        {
+            return answer;
+        }
+
+        public boolean isAnswered()
+        {
+            return answer >= 0;
+        }
+
+        public boolean isCorrect()
+        {
+            return answer == xCandidate;
+        }
+
+        public int getSwitchCount()
+        {
+            return switchCount;
+        }
+
+        public long getMeanSwitchNanos()
+        {
+            return switchCount == 0 ? 0 : totalSwitchNanos / switchCount;
+        }
+
+        public long getMaxSwitchNanos()
+        {
+            return maxSwitchNanos;
+        }
+    }
+
+    private final Trial[] trials;
+    private int currentTrial = 0;
+
+    // X is A in exactly half of the trials (give or take one), in random order. A pure coin
+    // flip per trial can give long runs that make the pattern easier to guess.
+    public AbxSession(int trialCount, Random random)
+    {
+        int[] schedule = new int[trialCount];
+        for (int i = 0; i < trialCount; ++i)
+            schedule[i] = i < trialCount / 2 ? CANDIDATE_A : CANDIDATE_B;
+
+        if (trialCount % 2 == 1)
+            schedule[trialCount - 1] = random.nextBoolean() ? CANDIDATE_A : CANDIDATE_B;
+
+        for (int i = trialCount - 1; i > 0; --i)
+        {
+            int j = random.nextInt(i + 1);
+            int t = schedule[i];
+            schedule[i] = schedule[j];
+            schedule[j] = t;
+        }
+
+        trials = new Trial[trialCount];
+        for (int i = 0; i < trialCount; ++i)
+            trials[i] = new Trial(schedule[i]);
+    }
+
+    // Candidate to play for a slot in the current trial
+    public int getCandidateFor(int slot)
+    {
+        if (slot == SLOT_A)
+            return CANDIDATE_A;
+        if (slot == SLOT_B)
+            return CANDIDATE_B;
+
+        return trials[Math.min(currentTrial, trials.length - 1)].xCandidate;
+    }
+
+    // Adds a measured switch to the current trial
+    public void recordSwitch(long latencyNanos)
+    {
+        if (isFinished())
+            return;
+
+        Trial trial = trials[currentTrial];
+        ++trial.switchCount;
+        trial.totalSwitchNanos += latencyNanos;
+        trial.maxSwitchNanos = Math.max(trial.maxSwitchNanos, latencyNanos);
+    }
+
+    // Records the candidate the user thinks X is and moves on to the next trial
+    public void answer(int candidate)
+    {
+        if (isFinished())
+            return;
+
+        trials[currentTrial].answer = candidate;
+        ++currentTrial;
+    }
+
+    public boolean isFinished()
+    {
+        return currentTrial >= trials.length;
+    }
+
+    public int getTrialCount()
+    {
+        return trials.length;
+    }
+
+    // Zero based, equals getTrialCount() once finished
+    public int getCurrentTrialIndex()
+    {
+        return currentTrial;
+    }
+
+    public Trial getTrial(int index)
+    {
+        return trials[index];
+    }
+
+    public int getCorrectCount()
+    {
+        int correct = 0;
+        for (Trial trial : trials)
+        {
+            if (trial.isAnswered() && trial.isCorrect())
+                ++correct;
+        }
+
+        return correct;
+    }
+
+    public long getMaxSwitchNanos()
+    {
+        long max = 0;
+        for (Trial trial : trials)
+            max = Math.max(max, trial.maxSwitchNanos);
+
+        return max;
+    }
+
+    // Chance of getting at least this many answers right by guessing
+    public double getPValue()
+    {
+        int answered = Math.min(currentTrial, trials.length);
+        int correct = getCorrectCount();
+
+        double p = 0;
+        double binomial = 1;
+        for (int k = 0; k <= answered; ++k)
+        {
+            if (k >= correct)
+                p += binomial;
+
+            binomial = binomial * (answered - k) / (k + 1);
+        }
+
+        return p / Math.pow(2, answered);
+    }
+}
@@ -0,0 +1,221 @@
+//--------------------------------------------------
+//
+// Filename:    MetadataCache.java
+// Author:      Daniel Walther
+// Brief:       Remembers parsed AudioMetadata
+//              between runs, keyed by URI, file
+//              size and modification time.
+//              Stored as a small binary index,
+//              least recently used entries are
+//              dropped first.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cache;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MetadataCache
+{
+    private static final int MAGIC = 0x41504D43; // "APMC"
+    private static final int VERSION = 1;
+
+    private static final class CachedEntry
+    {
+        final long size;
+        final long lastModified;
+        final AudioMetadata metadata;
+
+        CachedEntry(long size_, long lastModified_, AudioMetadata metadata_)
+        {
+            size = size_;
+            lastModified = lastModified_;
+            metadata = metadata_;
+        }
+    }
+
+    private final File indexFile;
+    private final int maxEntries;
+
+    // Access-ordered, so iteration goes from least to most recently used
+    private final LinkedHashMap<Long, CachedEntry> entries;
+
+    private boolean isLoaded = false;
+    private boolean isDirty = false;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public MetadataCache(File indexFile_, int maxEntries_)
+    {
+        indexFile = indexFile_;
+        maxEntries = maxEntries_;
+
+        entries = new LinkedHashMap<Long, CachedEntry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedEntry> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // Returns the cached metadata, or null if the file is unknown or has changed since
+    public synchronized AudioMetadata get(String uri, long size, long lastModified)
+    {
+        ensureLoaded();
+
+        CachedEntry entry = entries.get(keyOf(uri));
+        if (entry == null || entry.size != size || entry.lastModified != lastModified)
+        {
+            ++missCount;
+            return null;
+        }
+
+        ++hitCount;
+        return entry.metadata;
+    }
+
+    public synchronized void put(String uri, long size, long lastModified, AudioMetadata metadata)
+    {
+        ensureLoaded();
+
+        entries.put(keyOf(uri), new CachedEntry(size, lastModified, metadata));
+        isDirty = true;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized int size()
+    {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    // Writes the index if anything changed. Does blocking I/O.
+    public synchronized void save() throws IOException
+    {
+        if (!isDirty)
+            return;
+
+        // Write to a temp file first so a crash can't leave a half-written index
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            for (Map.Entry<Long, CachedEntry> e : entries.entrySet())
+            {
+                CachedEntry entry = e.getValue();
+                AudioMetadata m = entry.metadata;
+
+                out.writeLong(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(m.getFormat() == null ? "" : m.getFormat());
+                out.writeInt(m.getSampleRate());
+                out.writeInt(m.getBitDepth());
+                out.writeInt(m.getChannelCount());
+                out.writeLong(m.getTotalSamples());
+                out.writeInt(m.getBitrate());
+                out.writeInt(m.getEncoderDelay());
+                out.writeInt(m.getEncoderPadding());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(indexFile))
+            throw new IOException("Could not replace " + indexFile);
+
+        isDirty = false;
+    }
+
+    // Index is read on first use so construction never touches the disk
+    private void ensureLoaded()
+    {
+        if (isLoaded)
+            return;
+
+        isLoaded = true;
+
+        if (!indexFile.exists())
+            return;
+
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    return;
+
+                int count = in.readInt();
+                for (int i = 0; i < count; ++i)
+                {
+                    long key = in.readLong();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    String format = in.readUTF();
+
+                    AudioMetadata metadata = new AudioMetadata(format.isEmpty() ? null : format,
+                            in.readInt(), in.readInt(), in.readInt(), in.readLong(), in.readInt(),
+                            in.readInt(), in.readInt());
+
+                    entries.put(key, new CachedEntry(size, lastModified, metadata));
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // Corrupt or truncated index, start over
+            entries.clear();
+            isDirty = true;
+        }
+    }
+
+    // 64-bit FNV-1a hash of the URI string
+    static long keyOf(String uri)
+    {
+        long hash = 0xCBF29CE484222325L;
+
+        for (int i = 0; i < uri.length(); ++i)
+        {
+            hash ^= uri.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,208 @@
+//--------------------------------------------------
+//
+// Filename:    PcmCache.java
+// Author:      Daniel Walther
+// Brief:       Keeps fully decoded tracks as float
+//              PCM files that MappedPcmSource can
+//              map. Bounded by a disk budget, least
+//              recently used files go first.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cache;
+
+import com.example.audiophileplacebotest.playback.MappedPcmSource;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class PcmCache
+{
+    public static final String EXTENSION = ".pcm";
+
+    private static final int CHUNK_FRAMES = 4096;
+
+    private static final FileFilter CACHE_FILES = new FileFilter()
+    {
+        @Override
+        public boolean accept(File f)
+        {
+            return f.getName().endsWith(EXTENSION);
+        }
+    };
+
+    private final File directory;
+    private long budgetBytes;
+
+    private long decodedSamples = 0;
+    private long decodeNanos = 0;
+
+    public PcmCache(File directory_, long budgetBytes_)
+    {
+        directory = directory_;
+        budgetBytes = budgetBytes_;
+    }
+
+    // Returns the decoded file, or null if the track isn't cached (or has changed since)
+    public synchronized File get(String uri, long size, long lastModified)
+    {
+        File file = fileFor(uri, size, lastModified);
+        if (!file.exists())
+            return null;
+
+        // Modification time doubles as the LRU timestamp
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    // Decodes the whole source into the cache. Blocking, and may take a while for long tracks.
+    // Returns null if the track alone would exceed the budget.
+    public File store(String uri, long size, long lastModified, PcmSource source) throws IOException
+    {
+        File file = fileFor(uri, size, lastModified);
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+
+        long startNanos = System.nanoTime();
+        long frames = 0;
+
+        RandomAccessFile out = new RandomAccessFile(tempFile, "rw");
+        boolean isComplete = false;
+        int channels = 0;
+
+        try
+        {
+            out.setLength(0);
+            out.seek(MappedPcmSource.HEADER_SIZE);
+
+            // Decoders may only settle on their output format once decoding starts
+            source.seekTo(0);
+            channels = source.getChannelCount();
+
+            float[] samples = new float[CHUNK_FRAMES * channels];
+            byte[] bytes = new byte[samples.length * 4];
+
+            int read;
+            while ((read = source.read(samples, 0, CHUNK_FRAMES)) >= 0)
+            {
+                if (Thread.interrupted())
+                    throw new InterruptedIOException("Decode cancelled");
+
+                int count = read * channels;
+                for (int i = 0; i < count; ++i)
+                {
+                    int bits = Float.floatToRawIntBits(samples[i]);
+                    bytes[i * 4] = (byte) bits;
+                    bytes[i * 4 + 1] = (byte) (bits >>> 8);
+                    bytes[i * 4 + 2] = (byte) (bits >>> 16);
+                    bytes[i * 4 + 3] = (byte) (bits >>> 24);
+                }
+
+                out.write(bytes, 0, count * 4);
+                frames += read;
+            }
+
+            // Header last, so the format reflects what the decoder actually produced
+            out.seek(0);
+            out.writeInt(MappedPcmSource.MAGIC);
+            out.writeInt(MappedPcmSource.VERSION);
+            out.writeInt(source.getSampleRate());
+            out.writeInt(channels);
+            out.writeLong(frames);
+            isComplete = true;
+        }
+        finally
+        {
+            out.close();
+            if (!isComplete)
+                tempFile.delete();
+        }
+
+        synchronized (this)
+        {
+            decodedSamples += frames * channels;
+            decodeNanos += System.nanoTime() - startNanos;
+
+            if (!tempFile.renameTo(file))
+                throw new IOException("Could not replace " + file);
+
+            trim();
+            return file.exists() ? file : null;
+        }
+    }
+
+    public synchronized void setBudgetBytes(long budgetBytes_)
+    {
+        budgetBytes = budgetBytes_;
+        trim();
+    }
+
+    public synchronized long getBudgetBytes()
+    {
+        return budgetBytes;
+    }
+
+    public synchronized long getUsedBytes()
+    {
+        long used = 0;
+        for (File f : listFiles())
+            used += f.length();
+
+        return used;
+    }
+
+    // Decode throughput over everything stored so far, in samples (not frames) per second
+    public synchronized double getSamplesPerSecond()
+    {
+        if (decodeNanos == 0)
+            return 0;
+
+        return decodedSamples * 1e9 / decodeNanos;
+    }
+
+    // Deletes least recently used files until the cache fits its budget
+    private void trim()
+    {
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        long used = 0;
+        for (File f : files)
+            used += f.length();
+
+        for (int i = 0; i < files.length && used > budgetBytes; ++i)
+        {
+            long length = files[i].length();
+            if (files[i].delete())
+                used -= length;
+        }
+    }
+
+    private File[] listFiles()
+    {
+        File[] files = directory.listFiles(CACHE_FILES);
+        return files == null ? new File[0] : files;
+    }
+
+    // A changed file gets a new name, the stale one simply ages out
+    private File fileFor(String uri, long size, long lastModified)
+    {
+        return new File(directory, Long.toHexString(MetadataCache.keyOf(uri)) + "_" + Long.toHexString(size)
+                + "_" + Long.toHexString(lastModified) + EXTENSION);
+    }
+}
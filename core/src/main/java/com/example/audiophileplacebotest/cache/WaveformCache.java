@@ -0,0 +1,149 @@
+//--------------------------------------------------
+//
+// Filename:    WaveformCache.java
+// Author:      Daniel Walther
+// Brief:       Keeps the waveform pyramid of every
+//              track on disk so it is only built
+//              once. Bounded by a disk budget, least
+//              recently used files go first.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cache;
+
+import com.example.audiophileplacebotest.dsp.WaveformPyramid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class WaveformCache
+{
+    public static final String EXTENSION = ".wfp";
+
+    private static final FileFilter CACHE_FILES = new FileFilter()
+    {
+        @Override
+        public boolean accept(File f)
+        {
+            return f.getName().endsWith(EXTENSION);
+        }
+    };
+
+    private final File directory;
+    private final long budgetBytes;
+
+    public WaveformCache(File directory_, long budgetBytes_)
+    {
+        directory = directory_;
+        budgetBytes = budgetBytes_;
+    }
+
+    // Returns the stored pyramid, or null if the track isn't cached (or has changed since).
+    // Unreadable files are deleted.
+    public WaveformPyramid get(String uri, long size, long lastModified)
+    {
+        File file = fileFor(uri, size, lastModified);
+
+        synchronized (this)
+        {
+            if (!file.exists())
+                return null;
+
+            // Modification time doubles as the LRU timestamp
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                return WaveformPyramid.readFrom(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            file.delete();
+            return null;
+        }
+    }
+
+    public void put(String uri, long size, long lastModified, WaveformPyramid pyramid) throws IOException
+    {
+        File file = fileFor(uri, size, lastModified);
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+
+        boolean isComplete = false;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try
+        {
+            pyramid.writeTo(out);
+            isComplete = true;
+        }
+        finally
+        {
+            out.close();
+            if (!isComplete)
+                tempFile.delete();
+        }
+
+        synchronized (this)
+        {
+            if (!tempFile.renameTo(file))
+                throw new IOException("Could not replace " + file);
+
+            trim();
+        }
+    }
+
+    // Deletes least recently used files until the cache fits its budget
+    private void trim()
+    {
+        File[] files = directory.listFiles(CACHE_FILES);
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        long used = 0;
+        for (File f : files)
+            used += f.length();
+
+        for (int i = 0; i < files.length && used > budgetBytes; ++i)
+        {
+            long length = files[i].length();
+            if (files[i].delete())
+                used -= length;
+        }
+    }
+
+    // A changed file gets a new name, the stale one simply ages out
+    private File fileFor(String uri, long size, long lastModified)
+    {
+        return new File(directory, Long.toHexString(MetadataCache.keyOf(uri)) + "_" + Long.toHexString(size)
+                + "_" + Long.toHexString(lastModified) + EXTENSION);
+    }
+}
@@ -0,0 +1,110 @@
+//--------------------------------------------------
+//
+// Filename:    BitReader.java
+// Author:      Daniel Walther
+// Brief:       Reads big-endian bit fields from a
+//              byte array through a 64-bit cache
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import java.io.IOException;
+
+final class BitReader
+{
+    private byte[] data;
+    private int position;
+    private int end;
+
+    // Unread bits sit at the top, everything below them is zero
+    private long cache;
+    private int cacheBits;
+
+    void reset(byte[] data_, int offset, int length)
+    {
+        data = data_;
+        position = offset;
+        end = offset + length;
+        cache = 0;
+        cacheBits = 0;
+    }
+
+    // Reads up to 32 bits as an unsigned value, 32 bits come back as the raw int
+    int readBits(int count)
+    {
+        if (count == 0)
+            return 0;
+
+        if (cacheBits < count)
+            refill();
+
+        int value = (int) (cache >>> (64 - count));
+        cache <<= count;
+        cacheBits -= count;
+        return value;
+    }
+
+    // Two's complement value of count bits
+    int readSigned(int count)
+    {
+        if (count == 0)
+            return 0;
+
+        return readBits(count) << (32 - count) >> (32 - count);
+    }
+
+    // Number of zeros before the next one, which is consumed as well
+    int readUnary() throws IOException
+    {
+        int count = 0;
+
+        while (cache == 0)
+        {
+            count += cacheBits;
+            cacheBits = 0;
+
+            if (position >= end)
+                throw new IOException("Unary code runs past the end of the frame");
+            refill();
+        }
+
+        int zeros = Long.numberOfLeadingZeros(cache);
+        cache <<= zeros + 1;
+        cacheBits -= zeros + 1;
+        return count + zeros;
+    }
+
+    // Rice code with parameter k, folded back to a signed value
+    int readRice(int k) throws IOException
+    {
+        int folded = (readUnary() << k) | readBits(k);
+        return (folded >>> 1) ^ -(folded & 1);
+    }
+
+    // Drops the bits left in the current byte
+    void alignToByte()
+    {
+        int drop = cacheBits & 7;
+        cache <<= drop;
+        cacheBits -= drop;
+    }
+
+    // Whole bytes consumed so far, past the end means the frame was cut short
+    boolean isPastEnd()
+    {
+        return position - cacheBits / 8 > end;
+    }
+
+    // Bytes past the end read as zero, isPastEnd() tells whether that happened
+    private void refill()
+    {
+        while (cacheBits <= 56)
+        {
+            long b = position < end ? data[position] & 0xFF : 0;
+            ++position;
+            cache |= b << (56 - cacheBits);
+            cacheBits += 8;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+//--------------------------------------------------
+//
+// Filename:    FlacFrameDecoder.java
+// Author:      Daniel Walther
+// Brief:       Decodes single FLAC frames from the
+//              seek table into per-channel int
+//              buffers. Buffers are allocated once,
+//              so one decoder per thread can decode
+//              any number of frames without garbage.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class FlacFrameDecoder
+{
+    private static final int SUBFRAME_CONSTANT = 0;
+    private static final int SUBFRAME_VERBATIM = 1;
+    private static final int SUBFRAME_FIXED = 8;
+    private static final int SUBFRAME_LPC = 32;
+
+    private static final int MAX_LPC_ORDER = 32;
+
+    private final FlacStream stream;
+    private final ByteBuffer view;
+    private final FrameHeader header = new FrameHeader();
+    private final BitReader reader = new BitReader();
+    private final int[][] samples;
+    private final int[] coefficients = new int[MAX_LPC_ORDER];
+    private byte[] frame = new byte[0];
+    private ByteBuffer frameView = ByteBuffer.wrap(frame);
+
+    private int blockSize = 0;
+
+    // The stream has to be scanned first
+    public FlacFrameDecoder(FlacStream stream_)
+    {
+        stream = stream_;
+        view = stream.duplicateData();
+        samples = new int[stream.getChannelCount()][stream.getMaxBlockSize()];
+    }
+
+    // Decodes one frame of the seek table, the samples stay available until the next call.
+    // Returns the number of samples per channel.
+    public int decode(int frameIndex) throws IOException
+    {
+        int offset = stream.getFrameOffset(frameIndex);
+        int length = stream.getFrameLength(frameIndex);
+
+        // Sized for the largest frame once, never shrinks
+        if (frame.length < length)
+        {
+            frame = new byte[Math.max(length, stream.getMaxFrameBytes())];
+            frameView = ByteBuffer.wrap(frame);
+        }
+
+        view.clear();
+        view.position(offset);
+        view.get(frame, 0, length);
+
+        frameView.limit(length);
+        if (!header.parse(frameView, 0, stream))
+            throw new IOException("Invalid FLAC frame header at " + offset);
+        if (header.blockSize > samples[0].length)
+            throw new IOException("FLAC frame at " + offset + " is larger than STREAMINFO allows");
+
+        blockSize = header.blockSize;
+        reader.reset(frame, header.length, length - header.length);
+
+        int channels = samples.length;
+        int assignment = header.channelAssignment;
+        for (int c = 0; c < channels; ++c)
+        {
+            // Side channels need one more bit
+            int bits = header.bitDepth;
+            if ((assignment == FrameHeader.LEFT_SIDE && c == 1) || (assignment == FrameHeader.SIDE_RIGHT && c == 0)
+                    || (assignment == FrameHeader.MID_SIDE && c == 1))
+                ++bits;
+
+            decodeSubframe(samples[c], bits);
+        }
+
+        reader.alignToByte();
+        reader.readBits(16); // CRC-16, checked while scanning
+        if (reader.isPastEnd())
+            throw new IOException("FLAC frame at " + offset + " is cut short");
+
+        decorrelate(assignment);
+        return blockSize;
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    // Samples of one channel from the last decode, at the frame's bit depth
+    public int[] getSamples(int channel)
+    {
+        return samples[channel];
+    }
+
+    // Interleaves frames samples starting at start, scaled to -1..1
+    public void toFloat(int start, int frames, float[] dst, int offset)
+    {
+        int channels = samples.length;
+        float scale = 1.0f / (1 << (stream.getBitDepth() - 1));
+
+        for (int c = 0; c < channels; ++c)
+        {
+            int[] src = samples[c];
+            int out = offset + c;
+            for (int i = start; i < start + frames; ++i, out += channels)
+                dst[out] = src[i] * scale;
+        }
+    }
+
+    // Interleaved little-endian bytes like the STREAMINFO MD5 is computed over.
+    // Returns the number of bytes written.
+    public int toBytes(byte[] dst)
+    {
+        int channels = samples.length;
+        int bytesPerSample = (stream.getBitDepth() + 7) / 8;
+        int out = 0;
+
+        for (int i = 0; i < blockSize; ++i)
+        {
+            for (int c = 0; c < channels; ++c)
+            {
+                int sample = samples[c][i];
+                for (int b = 0; b < bytesPerSample; ++b)
+                    dst[out++] = (byte) (sample >> (b * 8));
+            }
+        }
+
+        return out;
+    }
+
+    private void decodeSubframe(int[] out, int bits) throws IOException
+    {
+        if (reader.readBits(1) != 0)
+            throw new IOException("Invalid FLAC subframe padding");
+
+        int type = reader.readBits(6);
+
+        int wasted = 0;
+        if (reader.readBits(1) != 0)
+            wasted = reader.readUnary() + 1;
+        bits -= wasted;
+        if (bits <= 0)
+            throw new IOException("Invalid FLAC wasted bits");
+
+        if (type == SUBFRAME_CONSTANT)
+        {
+            int value = reader.readSigned(bits);
+            for (int i = 0; i < blockSize; ++i)
+                out[i] = value;
+        }
+        else if (type == SUBFRAME_VERBATIM)
+        {
+            for (int i = 0; i < blockSize; ++i)
+                out[i] = reader.readSigned(bits);
+        }
+        else if (type >= SUBFRAME_FIXED && type <= SUBFRAME_FIXED + 4)
+        {
+            int order = type - SUBFRAME_FIXED;
+            readWarmUp(out, order, bits);
+            readResidual(out, order);
+            restoreFixed(out, order);
+        }
+        else if (type >= SUBFRAME_LPC)
+        {
+            int order = type - SUBFRAME_LPC + 1;
+            readWarmUp(out, order, bits);
+
+            int precision = reader.readBits(4) + 1;
+            int shift = reader.readSigned(5);
+            if (precision == 16 || shift < 0)
+                throw new IOException("Invalid FLAC LPC parameters");
+
+            for (int i = 0; i < order; ++i)
+                coefficients[i] = reader.readSigned(precision);
+
+            readResidual(out, order);
+
+            // Wide samples with long filters can overflow an int while summing
+            if (bits + precision + 32 - Integer.numberOfLeadingZeros(order) > 32)
+                restoreLpcWide(out, order, shift);
+            else
+                restoreLpc(out, order, shift);
+        }
+        else
+            throw new IOException("Reserved FLAC subframe type " + type);
+
+        if (wasted > 0)
+        {
+            for (int i = 0; i < blockSize; ++i)
+                out[i] <<= wasted;
+        }
+    }
+
+    private void readWarmUp(int[] out, int order, int bits) throws IOException
+    {
+        if (order > blockSize)
+            throw new IOException("FLAC predictor order exceeds the block size");
+
+        for (int i = 0; i < order; ++i)
+            out[i] = reader.readSigned(bits);
+    }
+
+    // Partitioned Rice residual, written after the warm-up samples
+    private void readResidual(int[] out, int order) throws IOException
+    {
+        int method = reader.readBits(2);
+        if (method > 1)
+            throw new IOException("Reserved FLAC residual coding method");
+
+        int parameterBits = method == 0 ? 4 : 5;
+        int escape = method == 0 ? 15 : 31;
+        int partitionOrder = reader.readBits(4);
+        int partitionSamples = blockSize >>> partitionOrder;
+        if ((partitionSamples << partitionOrder) != blockSize || partitionSamples < order)
+            throw new IOException("Invalid FLAC partition order");
+
+        int i = order;
+        for (int partition = 0; partition < 1 << partitionOrder; ++partition)
+        {
+            int end = (partition + 1) * partitionSamples;
+            int k = reader.readBits(parameterBits);
+
+            if (k == escape)
+            {
+                int bits = reader.readBits(5);
+                for (; i < end; ++i)
+                    out[i] = reader.readSigned(bits);
+            }
+            else
+            {
+                for (; i < end; ++i)
+                    out[i] = reader.readRice(k);
+            }
+        }
+    }
+
+    private void restoreFixed(int[] out, int order)
+    {
+        switch (order)
+        {
+            case 1:
+                for (int i = 1; i < blockSize; ++i)
+                    out[i] += out[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < blockSize; ++i)
+                    out[i] += 2 * out[i - 1] - out[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < blockSize; ++i)
+                    out[i] += 3 * (out[i - 1] - out[i - 2]) + out[i - 3];
+                break;
+            case 4:
+                for (int i = 4; i < blockSize; ++i)
+                    out[i] += 4 * (out[i - 1] + out[i - 3]) - 6 * out[i - 2] - out[i - 4];
+                break;
+            default:
+                // Order 0, the residual is the signal
+                break;
+        }
+    }
+
+    private void restoreLpc(int[] out, int order, int shift)
+    {
+        for (int i = order; i < blockSize; ++i)
+        {
+            int sum = 0;
+            for (int j = 0; j < order; ++j)
+                sum += coefficients[j] * out[i - 1 - j];
+            out[i] += sum >> shift;
+        }
+    }
+
+    private void restoreLpcWide(int[] out, int order, int shift)
+    {
+        for (int i = order; i < blockSize; ++i)
+        {
+            long sum = 0;
+            for (int j = 0; j < order; ++j)
+                sum += (long) coefficients[j] * out[i - 1 - j];
+            out[i] += (int) (sum >> shift);
+        }
+    }
+
+    private void decorrelate(int assignment)
+    {
+        if (assignment < FrameHeader.LEFT_SIDE)
+            return;
+
+        int[] a = samples[0];
+        int[] b = samples[1];
+
+        if (assignment == FrameHeader.LEFT_SIDE)
+        {
+            for (int i = 0; i < blockSize; ++i)
+                b[i] = a[i] - b[i];
+        }
+        else if (assignment == FrameHeader.SIDE_RIGHT)
+        {
+            for (int i = 0; i < blockSize; ++i)
+                a[i] += b[i];
+        }
+        else
+        {
+            for (int i = 0; i < blockSize; ++i)
+            {
+                int mid = (a[i] << 1) | (b[i] & 1);
+                int side = b[i];
+                a[i] = (mid + side) >> 1;
+                b[i] = (mid - side) >> 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+//--------------------------------------------------
+//
+// Filename:    FlacSource.java
+// Author:      Daniel Walther
+// Brief:       PcmSource on top of the pure Java
+//              FLAC decoder. Seeks go through the
+//              seek table. Given a pool, batches of
+//              frames are decoded ahead in parallel
+//              for bulk decoding.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FlacSource implements PcmSource
+{
+    // Frames per pool thread in a batch, enough to even out frames that decode slower
+    private static final int FRAMES_PER_THREAD = 4;
+
+    private final FlacStream stream;
+    private final ForkJoinPool pool;
+    private final FlacFrameDecoder[] decoders;
+    private final Throwable[] errors;
+
+    // Batch being decoded, published to the workers by the reset of the claims
+    private int pendingFirst = 0;
+    // Frame count of the batch in the high half, next unclaimed slot in the low half
+    private final AtomicLong claims = new AtomicLong();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final Object lock = new Object();
+    private final Runnable worker = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            decodeSlots();
+        }
+    };
+
+    // Decoder i holds frame batchFirst + i
+    private int batchFirst = 0;
+    private int batchCount = 0;
+
+    private long position = 0;
+    private int frameIndex = 0;
+
+    // Checked while the stream is read straight through from the start
+    private MessageDigest md5 = null;
+    private byte[] md5Bytes = null;
+    private int md5NextFrame = 0;
+    private boolean isMd5Verified = false;
+
+    public FlacSource(FlacStream stream_)
+    {
+        this(stream_, null);
+    }
+
+    // Decodes on the pool if there is one, otherwise on the calling thread
+    public FlacSource(FlacStream stream_, ForkJoinPool pool_)
+    {
+        stream = stream_;
+        pool = pool_;
+
+        int slots = pool == null ? 1 : pool.getParallelism() * FRAMES_PER_THREAD;
+        decoders = new FlacFrameDecoder[slots];
+        errors = new Throwable[slots];
+    }
+
+    // Compares the decoded audio against the STREAMINFO signature once the last frame has been
+    // decoded, and fails that read if they differ. Has to be enabled before the first read,
+    // and only works if the stream is read through without seeking.
+    public void enableMd5Check()
+    {
+        if (!stream.hasMd5())
+            return;
+
+        try
+        {
+            md5 = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // True once the whole stream has been decoded and matched its signature
+    public boolean isMd5Verified()
+    {
+        return isMd5Verified;
+    }
+
+    @Override
+    public int getSampleRate()
+    {
+        return stream.getSampleRate();
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        return stream.getChannelCount();
+    }
+
+    @Override
+    public long getFrameCount()
+    {
+        if (stream.isScanned())
+            return stream.getScannedSamples();
+
+        long total = stream.getTotalSamples();
+        return total > 0 ? total : -1;
+    }
+
+    @Override
+    public long getPosition()
+    {
+        return position;
+    }
+
+    @Override
+    public void seekTo(long frame) throws IOException
+    {
+        warmUp();
+
+        position = Math.max(Math.min(frame, stream.getScannedSamples()), 0);
+        frameIndex = stream.findFrame(position);
+    }
+
+    @Override
+    public int read(float[] dst, int offset, int frameCount) throws IOException
+    {
+        warmUp();
+
+        if (frameIndex >= stream.getFrameCount())
+            return -1;
+
+        if (frameIndex < batchFirst || frameIndex >= batchFirst + batchCount)
+            decodeBatch(frameIndex);
+
+        FlacFrameDecoder decoder = decoders[frameIndex - batchFirst];
+        int start = (int) (position - stream.getFrameFirstSample(frameIndex));
+        int frames = Math.min(frameCount, decoder.getBlockSize() - start);
+
+        decoder.toFloat(start, frames, dst, offset);
+        position += frames;
+        if (start + frames == decoder.getBlockSize())
+            ++frameIndex;
+
+        return frames;
+    }
+
+    // Scans the stream the first time and sets up the decoders
+    @Override
+    public void warmUp() throws IOException
+    {
+        if (decoders[0] != null)
+            return;
+
+        stream.scan();
+
+        for (int i = 0; i < decoders.length; ++i)
+            decoders[i] = new FlacFrameDecoder(stream);
+    }
+
+    // Nothing is held open, decoded frames are simply decoded again
+    @Override
+    public void suspend()
+    {
+        batchCount = 0;
+    }
+
+    @Override
+    public void close()
+    {
+        batchCount = 0;
+    }
+
+    private void decodeBatch(int first) throws IOException
+    {
+        int count = Math.min(decoders.length, stream.getFrameCount() - first);
+
+        if (pool == null || count == 1)
+        {
+            for (int i = 0; i < count; ++i)
+                decoders[i].decode(first + i);
+        }
+        else
+        {
+            decodeParallel(first, count);
+        }
+
+        batchFirst = first;
+        batchCount = count;
+
+        if (md5 != null)
+            updateMd5(first, count);
+    }
+
+    private void updateMd5(int first, int count) throws IOException
+    {
+        // A seek skipped frames, the signature can't be checked anymore
+        if (first != md5NextFrame)
+        {
+            md5 = null;
+            return;
+        }
+
+        if (md5Bytes == null)
+            md5Bytes = new byte[stream.getMaxBlockSize() * stream.getChannelCount() * 3];
+
+        for (int i = 0; i < count; ++i)
+            md5.update(md5Bytes, 0, decoders[i].toBytes(md5Bytes));
+        md5NextFrame += count;
+
+        if (md5NextFrame == stream.getFrameCount())
+        {
+            isMd5Verified = Arrays.equals(md5.digest(), stream.getMd5());
+            md5 = null;
+
+            if (!isMd5Verified)
+                throw new IOException("Decoded audio doesn't match the FLAC MD5 signature");
+        }
+    }
+
+    // One worker per pool thread plus the calling thread, each claiming frames until the batch is
+    // used up. The same Runnable is submitted for every batch, nothing is allocated per frame.
+    private void decodeParallel(int first, int count) throws IOException
+    {
+        Arrays.fill(errors, 0, count, null);
+        pendingFirst = first;
+        remaining.set(count);
+        claims.set((long) count << 32);
+
+        int helpers = Math.min(pool.getParallelism(), count) - 1;
+        for (int i = 0; i < helpers; ++i)
+            pool.execute(worker);
+
+        decodeSlots();
+
+        // All of them, so no decoder is still busy when an error is thrown
+        boolean isInterrupted = false;
+        synchronized (lock)
+        {
+            while (remaining.get() > 0)
+            {
+                try
+                {
+                    lock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    isInterrupted = true;
+                }
+            }
+        }
+        if (isInterrupted)
+            Thread.currentThread().interrupt();
+
+        for (int i = 0; i < count; ++i)
+        {
+            Throwable error = errors[i];
+            if (error instanceof IOException)
+                throw (IOException) error;
+            if (error instanceof RuntimeException)
+                throw (RuntimeException) error;
+            if (error instanceof Error)
+                throw (Error) error;
+        }
+    }
+
+    // Count and slot are claimed together, so a worker still leaving the previous batch can only
+    // claim a slot the next one really has. It reads the batch after claiming.
+    private void decodeSlots()
+    {
+        int slot;
+        while ((slot = claimSlot()) >= 0)
+        {
+            try
+            {
+                decoders[slot].decode(pendingFirst + slot);
+            }
+            catch (Throwable e)
+            {
+                errors[slot] = e;
+            }
+            finally
+            {
+                if (remaining.decrementAndGet() == 0)
+                {
+                    synchronized (lock)
+                    {
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private int claimSlot()
+    {
+        while (true)
+        {
+            long state = claims.get();
+            int slot = (int) state;
+            if (slot >= (int) (state >>> 32))
+                return -1;
+            if (claims.compareAndSet(state, state + 1))
+                return slot;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+//--------------------------------------------------
+//
+// Filename:    FlacStream.java
+// Author:      Daniel Walther
+// Brief:       A FLAC file held in a (usually
+//              mapped) ByteBuffer. Reads STREAMINFO
+//              and, on the first scan, builds a
+//              table of where every frame starts so
+//              frames can be decoded independently.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class FlacStream
+{
+    private static final int MAGIC = 0x664C6143; // "fLaC"
+    private static final int BLOCK_STREAMINFO = 0;
+    private static final int STREAMINFO_LENGTH = 34;
+
+    // 24 bits plus one for the side channel still fits an int
+    public static final int MAX_BIT_DEPTH = 24;
+
+    private static final int[] CRC16_TABLE = new int[256];
+    static
+    {
+        for (int i = 0; i < 256; ++i)
+        {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; ++bit)
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x8005 : crc << 1;
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    // Only read with absolute gets, or through duplicates, so threads can share it
+    private final ByteBuffer data;
+
+    private final int minBlockSize;
+    private final int maxBlockSize;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bitDepth;
+    private final long totalSamples;
+    private final byte[] md5 = new byte[16];
+    private final int firstFrameOffset;
+
+    // Seek table, filled in once by scan()
+    private volatile boolean isScanned = false;
+    private int frameCount = 0;
+    private int[] frameOffsets = new int[0];
+    private long[] frameSamples = new long[0];
+    private int maxFrameBytes = 0;
+
+    // The buffer's position and byte order are left alone
+    public FlacStream(ByteBuffer data_) throws IOException
+    {
+        // Duplicates are always big-endian, like everything in FLAC
+        data = data_.duplicate();
+
+        int p = 0;
+
+        // Some taggers put ID3v2 in front of FLAC, its size is a syncsafe integer
+        if (data.limit() >= 10 && data.get(0) == 'I' && data.get(1) == 'D' && data.get(2) == '3')
+        {
+            p = 10 + (((data.get(6) & 0x7F) << 21) | ((data.get(7) & 0x7F) << 14)
+                    | ((data.get(8) & 0x7F) << 7) | (data.get(9) & 0x7F));
+        }
+
+        if (p + 4 > data.limit() || data.getInt(p) != MAGIC)
+            throw new IOException("Not a FLAC stream");
+        p += 4;
+
+        boolean hasStreamInfo = false;
+        int minBlock = 0;
+        int maxBlock = 0;
+        long packed = 0;
+
+        boolean isLast = false;
+        while (!isLast)
+        {
+            if (p + 4 > data.limit())
+                throw new IOException("FLAC metadata is cut short");
+
+            int header = data.getInt(p);
+            int blockLength = header & 0xFFFFFF;
+            isLast = header < 0;
+
+            if (((header >>> 24) & 0x7F) == BLOCK_STREAMINFO && blockLength >= STREAMINFO_LENGTH
+                    && p + 4 + STREAMINFO_LENGTH <= data.limit())
+            {
+                minBlock = data.getShort(p + 4) & 0xFFFF;
+                maxBlock = data.getShort(p + 6) & 0xFFFF;
+
+                // Sample rate (20 bits), channels - 1 (3 bits),
+                // bits per sample - 1 (5 bits), total samples (36 bits)
+                packed = data.getLong(p + 14);
+
+                for (int i = 0; i < 16; ++i)
+                    md5[i] = data.get(p + 22 + i);
+                hasStreamInfo = true;
+            }
+
+            p += 4 + blockLength;
+        }
+
+        if (!hasStreamInfo)
+            throw new IOException("FLAC file has no STREAMINFO");
+
+        minBlockSize = minBlock;
+        maxBlockSize = maxBlock;
+        sampleRate = (int) (packed >>> 44);
+        channelCount = (int) ((packed >>> 41) & 0x7) + 1;
+        bitDepth = (int) ((packed >>> 36) & 0x1F) + 1;
+        totalSamples = packed & 0xFFFFFFFFFL;
+        firstFrameOffset = p;
+
+        if (bitDepth > MAX_BIT_DEPTH)
+            throw new IOException(bitDepth + " bit FLAC isn't supported");
+        if (sampleRate == 0 || maxBlockSize < 16)
+            throw new IOException("FLAC STREAMINFO is invalid");
+    }
+
+    // Builds the seek table by walking from frame header to frame header. A frame ends where
+    // the next valid header with the expected sample number starts and the CRC-16 of
+    // everything before it checks out, so sync-like bytes inside a frame are skipped.
+    // Runs once, later calls return straight away.
+    public synchronized void scan() throws IOException
+    {
+        if (isScanned)
+            return;
+
+        FrameHeader header = new FrameHeader();
+        int offset = firstFrameOffset;
+        if (!header.parse(data, offset, this))
+            throw new IOException("No FLAC frame at " + offset);
+
+        int count = 0;
+        int[] offsets = new int[256];
+        long[] samples = new long[257];
+        int maxBytes = 0;
+
+        while (true)
+        {
+            if (count == offsets.length)
+            {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                samples = Arrays.copyOf(samples, count * 2 + 1);
+            }
+
+            offsets[count] = offset;
+            samples[count] = header.firstSample;
+            long nextSample = header.firstSample + header.blockSize;
+            ++count;
+
+            // Nothing needs to be found after the last frame, trailing tags just come along
+            int next = totalSamples > 0 && nextSample >= totalSamples
+                    ? -1 : findNextFrame(offset, header.length, nextSample, header);
+
+            int end = next < 0 ? data.limit() : next;
+            maxBytes = Math.max(maxBytes, end - offset);
+
+            if (next < 0)
+            {
+                samples[count] = nextSample;
+                break;
+            }
+
+            offset = next;
+        }
+
+        frameOffsets = Arrays.copyOf(offsets, count + 1);
+        frameOffsets[count] = data.limit();
+        frameSamples = Arrays.copyOf(samples, count + 1);
+        frameCount = count;
+        maxFrameBytes = maxBytes;
+        isScanned = true;
+    }
+
+    // Offset of the frame after the one at offset, or -1 if there is none. Fills in header.
+    private int findNextFrame(int offset, int headerLength, long expectedSample, FrameHeader header)
+    {
+        int limit = data.limit();
+        int crc = 0;
+
+        for (int i = offset; i < limit; ++i)
+        {
+            int b = data.get(i) & 0xFF;
+            if (crc == 0 && b == 0xFF && i > offset + headerLength
+                    && header.parse(data, i, this) && header.firstSample == expectedSample)
+                return i;
+
+            crc = ((crc << 8) & 0xFFFF) ^ CRC16_TABLE[(crc >>> 8) ^ b];
+        }
+
+        return -1;
+    }
+
+    // region Seek table, only valid after scan()
+    public int getFrameCount()
+    {
+        return frameCount;
+    }
+
+    public int getFrameOffset(int frame)
+    {
+        return frameOffsets[frame];
+    }
+
+    // Up to where the next frame starts, or the end of the data for the last one
+    public int getFrameLength(int frame)
+    {
+        return frameOffsets[frame + 1] - frameOffsets[frame];
+    }
+
+    public long getFrameFirstSample(int frame)
+    {
+        return frameSamples[frame];
+    }
+
+    public int getMaxFrameBytes()
+    {
+        return maxFrameBytes;
+    }
+
+    // Samples per channel across all frames, trusted over STREAMINFO
+    public long getScannedSamples()
+    {
+        return frameSamples[frameCount];
+    }
+
+    // Frame that contains sample, or getFrameCount() past the end
+    public int findFrame(long sample)
+    {
+        if (sample >= frameSamples[frameCount])
+            return frameCount;
+
+        int index = Arrays.binarySearch(frameSamples, 0, frameCount, sample);
+        return index >= 0 ? index : Math.max(-index - 2, 0);
+    }
+
+    public boolean isScanned()
+    {
+        return isScanned;
+    }
+    // endregion
+
+    // Independent view of the data for one thread's bulk reads
+    ByteBuffer duplicateData()
+    {
+        return data.duplicate();
+    }
+
+    ByteBuffer getData()
+    {
+        return data;
+    }
+
+    public int getMinBlockSize()
+    {
+        return minBlockSize;
+    }
+
+    public int getMaxBlockSize()
+    {
+        return maxBlockSize;
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    public int getChannelCount()
+    {
+        return channelCount;
+    }
+
+    public int getBitDepth()
+    {
+        return bitDepth;
+    }
+
+    // 0 if the encoder didn't know
+    public long getTotalSamples()
+    {
+        return totalSamples;
+    }
+
+    // All zero if the encoder didn't compute one
+    public boolean hasMd5()
+    {
+        for (byte b : md5)
+        {
+            if (b != 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    public byte[] getMd5()
+    {
+        return md5.clone();
+    }
+}
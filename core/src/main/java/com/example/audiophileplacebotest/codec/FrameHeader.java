@@ -0,0 +1,129 @@
+//--------------------------------------------------
+//
+// Filename:    FrameHeader.java
+// Author:      Daniel Walther
+// Brief:       Parses and validates a FLAC frame
+//              header, also used to tell real
+//              frame starts from sync-like bytes
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import java.nio.ByteBuffer;
+
+final class FrameHeader
+{
+    static final int INDEPENDENT = 0;
+    static final int LEFT_SIDE = 8;
+    static final int SIDE_RIGHT = 9;
+    static final int MID_SIDE = 10;
+
+    private static final int[] SAMPLE_SIZES = { 0, 8, 12, -1, 16, 20, 24, -1 };
+
+    private static final int[] CRC8_TABLE = new int[256];
+    static
+    {
+        for (int i = 0; i < 256; ++i)
+        {
+            int crc = i;
+            for (int bit = 0; bit < 8; ++bit)
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            CRC8_TABLE[i] = crc & 0xFF;
+        }
+    }
+
+    int blockSize;
+    int channelAssignment;
+    int bitDepth;
+    long firstSample;
+    int length;
+
+    // Fills in the fields and returns true if a valid header for stream starts at offset.
+    // Frames that change the channel count or go beyond 24 bits are rejected as well.
+    boolean parse(ByteBuffer data, int offset, FlacStream stream)
+    {
+        int limit = data.limit();
+        if (offset + 6 > limit)
+            return false;
+
+        int b1 = data.get(offset + 1) & 0xFF;
+        if ((data.get(offset) & 0xFF) != 0xFF || (b1 & 0xFE) != 0xF8)
+            return false;
+
+        int b2 = data.get(offset + 2) & 0xFF;
+        int b3 = data.get(offset + 3) & 0xFF;
+        int blockSizeCode = b2 >>> 4;
+        int sampleRateCode = b2 & 0x0F;
+        int channelCode = b3 >>> 4;
+        int sampleSize = SAMPLE_SIZES[(b3 >>> 1) & 0x07];
+
+        if (blockSizeCode == 0 || sampleRateCode == 15 || channelCode > MID_SIDE || sampleSize < 0 || (b3 & 1) != 0)
+            return false;
+
+        // Frame or sample number, coded like UTF-8 but up to 36 bits
+        int p = offset + 4;
+        int first = data.get(p++) & 0xFF;
+        long number;
+        int extraBytes;
+        if ((first & 0x80) == 0)
+        {
+            number = first;
+            extraBytes = 0;
+        }
+        else
+        {
+            extraBytes = Integer.numberOfLeadingZeros(~(first << 24)) - 1;
+            if (extraBytes < 1 || extraBytes > 6)
+                return false;
+            number = first & (0x3F >>> extraBytes);
+        }
+
+        int blockSizeBytes = blockSizeCode == 6 ? 1 : blockSizeCode == 7 ? 2 : 0;
+        int sampleRateBytes = sampleRateCode == 12 ? 1 : sampleRateCode >= 13 ? 2 : 0;
+        if (p + extraBytes + blockSizeBytes + sampleRateBytes + 1 > limit)
+            return false;
+
+        for (int i = 0; i < extraBytes; ++i)
+        {
+            int b = data.get(p++) & 0xFF;
+            if ((b & 0xC0) != 0x80)
+                return false;
+            number = (number << 6) | (b & 0x3F);
+        }
+
+        if (blockSizeCode == 1)
+            blockSize = 192;
+        else if (blockSizeCode <= 5)
+            blockSize = 576 << (blockSizeCode - 2);
+        else if (blockSizeCode == 6)
+            blockSize = (data.get(p++) & 0xFF) + 1;
+        else if (blockSizeCode == 7)
+        {
+            blockSize = (((data.get(p) & 0xFF) << 8) | (data.get(p + 1) & 0xFF)) + 1;
+            p += 2;
+        }
+        else
+            blockSize = 256 << (blockSizeCode - 8);
+
+        // The rate in the header is only informative, STREAMINFO has it
+        p += sampleRateBytes;
+
+        int crc = 0;
+        for (int i = offset; i < p; ++i)
+            crc = CRC8_TABLE[crc ^ (data.get(i) & 0xFF)];
+        if (crc != (data.get(p) & 0xFF))
+            return false;
+
+        channelAssignment = channelCode;
+        int channels = channelCode < LEFT_SIDE ? channelCode + 1 : 2;
+        if (channels != stream.getChannelCount())
+            return false;
+
+        bitDepth = sampleSize == 0 ? stream.getBitDepth() : sampleSize;
+        boolean isVariable = (b1 & 1) != 0;
+        firstSample = isVariable ? number : number * stream.getMaxBlockSize();
+        length = p + 1 - offset;
+        return true;
+    }
+}
@@ -0,0 +1,485 @@
+//--------------------------------------------------
+//
+// Filename:    PcmFileSource.java
+// Author:      Daniel Walther
+// Brief:       PcmSource for uncompressed WAV and
+//              AIFF files, served straight from a
+//              mapping of the sample data. Opening
+//              only reads the chunk headers and a
+//              seek just moves the read position.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import com.example.audiophileplacebotest.playback.PcmConvert;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+public class PcmFileSource implements PcmSource
+{
+    private static final int RIFF = 0x52494646;   // "RIFF"
+    private static final int RF64 = 0x52463634;   // "RF64"
+    private static final int WAVE = 0x57415645;   // "WAVE"
+    private static final int DS64 = 0x64733634;   // "ds64"
+    private static final int FMT = 0x666D7420;    // "fmt "
+    private static final int DATA = 0x64617461;   // "data"
+
+    private static final int FORM = 0x464F524D;   // "FORM"
+    private static final int AIFF = 0x41494646;   // "AIFF"
+    private static final int AIFC = 0x41494643;   // "AIFC"
+    private static final int COMM = 0x434F4D4D;   // "COMM"
+    private static final int SSND = 0x53534E44;   // "SSND"
+
+    private static final int NONE = 0x4E4F4E45;   // "NONE"
+    private static final int TWOS = 0x74776F73;   // "twos"
+    private static final int SOWT = 0x736F7774;   // "sowt"
+    private static final int FL32 = 0x666C3332;   // "fl32"
+    private static final int FL32_UPPER = 0x464C3332; // "FL32"
+
+    private static final int WAVE_FORMAT_PCM = 0x0001;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 0x0003;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private static final long SIZE_IN_DS64 = 0xFFFFFFFFL;
+
+    // Only one segment is mapped at a time, so even 32 bit address spaces cope with huge files
+    private static final long SEGMENT_BYTES = 1L << 28;
+
+    // Sample layouts that can be served
+    private static final int INT16 = 0;
+    private static final int INT24 = 1;
+    private static final int INT32 = 2;
+    private static final int FLOAT32 = 3;
+
+    // Used to implement opening the file on the render thread
+    public interface ChannelOpener
+    {
+        FileChannel open() throws IOException;
+    }
+
+    private final ChannelOpener opener;
+
+    private FileChannel channel = null;
+    private IOException openError = null;
+    private boolean isParsed = false;
+
+    private int sampleRate = 0;
+    private int channelCount = 0;
+    private long frameCount = 0;
+    private int encoding = INT16;
+    private int bytesPerSample = 0;
+    private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+    private long dataOffset = 0;
+    private long segmentFrames = 0;
+
+    // Views over the mapped segment, only the one matching the encoding is set
+    private int mappedSegment = -1;
+    private ByteBuffer bytes = null;
+    private ShortBuffer shorts = null;
+    private IntBuffer ints = null;
+    private FloatBuffer floats = null;
+
+    // Conversion scratch, grows to the largest read
+    private short[] shortScratch = new short[0];
+    private int[] intScratch = new int[0];
+    private byte[] byteScratch = new byte[0];
+
+    private long position = 0;
+
+    // Nothing is opened until the render thread first touches the source
+    public PcmFileSource(ChannelOpener opener_)
+    {
+        opener = opener_;
+    }
+
+    public PcmFileSource(File file)
+    {
+        this(() -> new RandomAccessFile(file, "r").getChannel());
+    }
+
+    @Override
+    public int getSampleRate()
+    {
+        ensureOpen();
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        ensureOpen();
+        return channelCount;
+    }
+
+    @Override
+    public long getFrameCount()
+    {
+        ensureOpen();
+        return frameCount;
+    }
+
+    @Override
+    public long getPosition()
+    {
+        return position;
+    }
+
+    @Override
+    public void seekTo(long frame) throws IOException
+    {
+        warmUp();
+        position = Math.max(Math.min(frame, frameCount), 0);
+    }
+
+    // Returns at most the rest of the mapped segment
+    @Override
+    public int read(float[] dst, int offset, int frameCount_) throws IOException
+    {
+        warmUp();
+        if (position >= frameCount)
+            return -1;
+
+        int segment = (int) (position / segmentFrames);
+        if (segment != mappedSegment)
+            map(segment);
+
+        int segmentOffset = (int) (position - segment * segmentFrames);
+        int frames = (int) Math.min(Math.min(frameCount_, segmentFrames - segmentOffset), frameCount - position);
+        int index = segmentOffset * channelCount;
+        int count = frames * channelCount;
+
+        switch (encoding)
+        {
+            case FLOAT32:
+                // Same layout as dst, a straight bulk copy
+                ((Buffer) floats).position(index);
+                floats.get(dst, offset, count);
+                break;
+            case INT16:
+                if (shortScratch.length < count)
+                    shortScratch = new short[count];
+                ((Buffer) shorts).position(index);
+                shorts.get(shortScratch, 0, count);
+                PcmConvert.shortToFloat(shortScratch, 0, dst, offset, count);
+                break;
+            case INT32:
+                if (intScratch.length < count)
+                    intScratch = new int[count];
+                ((Buffer) ints).position(index);
+                ints.get(intScratch, 0, count);
+                PcmConvert.intToFloat(intScratch, 0, dst, offset, count);
+                break;
+            default:
+                if (byteScratch.length < count * 3)
+                    byteScratch = new byte[count * 3];
+                ((Buffer) bytes).position(index * 3);
+                bytes.get(byteScratch, 0, count * 3);
+                PcmConvert.int24ToFloat(byteScratch, 0, order == ByteOrder.BIG_ENDIAN, dst, offset, count);
+                break;
+        }
+
+        position += frames;
+        return frames;
+    }
+
+    @Override
+    public void warmUp() throws IOException
+    {
+        ensureOpen();
+        if (openError != null)
+            throw openError;
+    }
+
+    // Closes the file, the next read opens it again without parsing the header twice
+    @Override
+    public void suspend()
+    {
+        unmap();
+        closeChannel();
+    }
+
+    @Override
+    public void close()
+    {
+        suspend();
+        openError = new IOException("Source is closed");
+    }
+
+    private void ensureOpen()
+    {
+        if (channel != null || openError != null)
+            return;
+
+        try
+        {
+            channel = opener.open();
+            if (!isParsed)
+            {
+                parse();
+                isParsed = true;
+            }
+        }
+        catch (IOException e)
+        {
+            closeChannel();
+            openError = e;
+        }
+    }
+
+    private void parse() throws IOException
+    {
+        ByteBuffer header = read(0, 12).order(ByteOrder.BIG_ENDIAN);
+        int magic = header.getInt(0);
+        int type = header.getInt(8);
+
+        if ((magic == RIFF || magic == RF64) && type == WAVE)
+            parseWave(magic == RF64);
+        else if (magic == FORM && (type == AIFF || type == AIFC))
+            parseAiff(type == AIFC);
+        else
+            throw new IOException("Not a WAV or AIFF file");
+
+        if (sampleRate <= 0 || channelCount <= 0)
+            throw new IOException("Invalid sample format");
+
+        long frameBytes = (long) bytesPerSample * channelCount;
+        segmentFrames = SEGMENT_BYTES / frameBytes;
+
+        // Headers of files that were still being written can claim more than there is
+        frameCount = Math.max(Math.min(frameCount, (channel.size() - dataOffset) / frameBytes), 0);
+    }
+
+    private void parseWave(boolean isRf64) throws IOException
+    {
+        long size = channel.size();
+        long p = 12;
+        long ds64DataSize = -1;
+        boolean hasFmt = false;
+        int formatTag = 0;
+        int bits = 0;
+        int blockAlign = 0;
+        long dataSize = -1;
+
+        // Both fmt and data are needed, data normally comes last
+        while ((!hasFmt || dataSize < 0) && p + 8 <= size)
+        {
+            ByteBuffer chunk = read(p, 8).order(ByteOrder.LITTLE_ENDIAN);
+            int id = Integer.reverseBytes(chunk.getInt(0));
+            long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+
+            if (id == DS64 && chunkSize >= 24)
+                ds64DataSize = read(p + 16, 8).order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+            else if (id == FMT && chunkSize >= 16)
+            {
+                ByteBuffer fmt = read(p + 8, (int) Math.min(chunkSize, 40)).order(ByteOrder.LITTLE_ENDIAN);
+                formatTag = fmt.getShort(0) & 0xFFFF;
+                channelCount = fmt.getShort(2) & 0xFFFF;
+                sampleRate = fmt.getInt(4);
+                blockAlign = fmt.getShort(12) & 0xFFFF;
+                bits = fmt.getShort(14) & 0xFFFF;
+
+                // Real format code is in the first two bytes of the subformat GUID
+                if (formatTag == WAVE_FORMAT_EXTENSIBLE && chunkSize >= 40)
+                    formatTag = fmt.getShort(24) & 0xFFFF;
+
+                hasFmt = true;
+            }
+            else if (id == DATA)
+            {
+                dataOffset = p + 8;
+                // Streaming writers leave the size at zero or all ones, the data then runs to the end
+                if (isRf64 && chunkSize == SIZE_IN_DS64 && ds64DataSize >= 0)
+                    dataSize = ds64DataSize;
+                else if (chunkSize == 0 || chunkSize == SIZE_IN_DS64)
+                    dataSize = size - dataOffset;
+                else
+                    dataSize = chunkSize;
+            }
+
+            p += 8 + chunkSize + (chunkSize & 1);
+        }
+
+        if (!hasFmt || dataSize < 0)
+            throw new IOException("WAVE file has no fmt or data chunk");
+
+        // Containers wider than the valid bits are read at their full width
+        bytesPerSample = channelCount > 0 ? blockAlign / channelCount : 0;
+        if (bytesPerSample * channelCount != blockAlign)
+            throw new IOException("Unsupported WAVE block alignment " + blockAlign);
+
+        if (formatTag == WAVE_FORMAT_PCM)
+            encoding = encodingForBytes(bytesPerSample, false);
+        else if (formatTag == WAVE_FORMAT_IEEE_FLOAT && bytesPerSample == 4)
+            encoding = FLOAT32;
+        else
+            throw new IOException("Unsupported WAVE format " + formatTag + ", " + bits + " bits");
+
+        order = ByteOrder.LITTLE_ENDIAN;
+        frameCount = dataSize / blockAlign;
+    }
+
+    private void parseAiff(boolean isAifc) throws IOException
+    {
+        long size = channel.size();
+        long p = 12;
+        boolean hasComm = false;
+        boolean hasData = false;
+        int bits = 0;
+        int compression = NONE;
+
+        while ((!hasComm || !hasData) && p + 8 <= size)
+        {
+            ByteBuffer chunk = read(p, 8).order(ByteOrder.BIG_ENDIAN);
+            int id = chunk.getInt(0);
+            long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+
+            if (id == COMM && chunkSize >= 18)
+            {
+                ByteBuffer comm = read(p + 8, isAifc && chunkSize >= 22 ? 22 : 18).order(ByteOrder.BIG_ENDIAN);
+                channelCount = comm.getShort(0) & 0xFFFF;
+                frameCount = comm.getInt(2) & 0xFFFFFFFFL;
+                bits = comm.getShort(6) & 0xFFFF;
+                sampleRate = (int) Math.round(extendedToDouble(comm.getShort(8) & 0xFFFF, comm.getLong(10)));
+
+                if (comm.limit() >= 22)
+                    compression = comm.getInt(18);
+                hasComm = true;
+            }
+            else if (id == SSND && chunkSize >= 8)
+            {
+                dataOffset = p + 16 + (read(p + 8, 4).order(ByteOrder.BIG_ENDIAN).getInt(0) & 0xFFFFFFFFL);
+                hasData = true;
+            }
+
+            p += 8 + chunkSize + (chunkSize & 1);
+        }
+
+        if (!hasComm || !hasData)
+            throw new IOException("AIFF file has no COMM or SSND chunk");
+
+        order = ByteOrder.BIG_ENDIAN;
+        if (compression == NONE || compression == TWOS)
+        {
+            bytesPerSample = (bits + 7) / 8;
+            encoding = encodingForBytes(bytesPerSample, true);
+        }
+        else if (compression == SOWT)
+        {
+            bytesPerSample = (bits + 7) / 8;
+            encoding = encodingForBytes(bytesPerSample, true);
+            order = ByteOrder.LITTLE_ENDIAN;
+        }
+        else if (compression == FL32 || compression == FL32_UPPER)
+        {
+            bytesPerSample = 4;
+            encoding = FLOAT32;
+        }
+        else
+            throw new IOException("Unsupported AIFC compression");
+    }
+
+    private static int encodingForBytes(int bytes, boolean isAiff) throws IOException
+    {
+        switch (bytes)
+        {
+            case 2:
+                return INT16;
+            case 3:
+                return INT24;
+            case 4:
+                return INT32;
+            default:
+                throw new IOException("Unsupported " + (isAiff ? "AIFF" : "WAVE") + " sample size of " + bytes + " bytes");
+        }
+    }
+
+    // 80 bit IEEE 754 extended float, as AIFF stores the sample rate
+    private static double extendedToDouble(int signAndExponent, long mantissa)
+    {
+        int exponent = signAndExponent & 0x7FFF;
+        if (exponent == 0 && mantissa == 0)
+            return 0;
+
+        double value = Math.scalb((double) (mantissa >>> 11), exponent - 16383 - 52);
+        return (signAndExponent & 0x8000) != 0 ? -value : value;
+    }
+
+    // Small reads for chunk headers, only while opening
+    private ByteBuffer read(long offset, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new IOException("File is cut short");
+        }
+
+        return buffer;
+    }
+
+    private void map(int segment) throws IOException
+    {
+        unmap();
+
+        long frameBytes = (long) bytesPerSample * channelCount;
+        long start = dataOffset + segment * segmentFrames * frameBytes;
+        long length = Math.min(segmentFrames, frameCount - segment * segmentFrames) * frameBytes;
+
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(order);
+        switch (encoding)
+        {
+            case INT16:
+                shorts = mapped.asShortBuffer();
+                break;
+            case INT32:
+                ints = mapped.asIntBuffer();
+                break;
+            case FLOAT32:
+                floats = mapped.asFloatBuffer();
+                break;
+            default:
+                bytes = mapped;
+                break;
+        }
+
+        mappedSegment = segment;
+    }
+
+    // Mappings are released by the garbage collector
+    private void unmap()
+    {
+        mappedSegment = -1;
+        bytes = null;
+        shorts = null;
+        ints = null;
+        floats = null;
+    }
+
+    private void closeChannel()
+    {
+        if (channel == null)
+            return;
+
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            // Read-only, nothing gets lost
+        }
+
+        channel = null;
+    }
+}
@@ -0,0 +1,124 @@
+//--------------------------------------------------
+//
+// Filename:    WavWriter.java
+// Author:      Daniel Walther
+// Brief:       Streams interleaved float samples to
+//              a 16/24 bit integer or 32 bit float
+//              WAV file. Sizes are filled in on close.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+public class WavWriter
+{
+    private static final int HEADER_SIZE = 44;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int bits;
+    private final int bytesPerSample;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long dataBytes = 0;
+
+    // bits of 0 writes 32 bit float
+    public WavWriter(File file_, int sampleRate_, int channelCount_, int bits_) throws IOException
+    {
+        if (bits_ != 0 && bits_ != 16 && bits_ != 24)
+            throw new IllegalArgumentException("Unsupported bit depth " + bits_);
+
+        sampleRate = sampleRate_;
+        channelCount = channelCount_;
+        bits = bits_;
+        bytesPerSample = bits == 0 ? 4 : bits / 8;
+
+        file = new RandomAccessFile(file_, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        buffer.put(header()).flip();
+        drain();
+    }
+
+    private byte[] header()
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int frameBytes = channelCount * bytesPerSample;
+
+        header.putInt(0x46464952).putInt((int) Math.min(HEADER_SIZE - 8 + dataBytes + (dataBytes & 1), 0xFFFFFFFFL)).putInt(0x45564157);
+        header.putInt(0x20746D66).putInt(16);
+        header.putShort((short) (bits == 0 ? 3 : 1)).putShort((short) channelCount).putInt(sampleRate)
+                .putInt(sampleRate * frameBytes).putShort((short) frameBytes).putShort((short) (bytesPerSample * 8));
+        header.putInt(0x61746164).putInt((int) Math.min(dataBytes, 0xFFFFFFFFL));
+        return header.array();
+    }
+
+    // Samples must already be on the target grid if a bit depth was given, anything else is rounded
+    public void write(float[] samples, int offset, int frames) throws IOException
+    {
+        int count = frames * channelCount;
+        int end = offset + count;
+
+        for (int i = offset; i < end; ++i)
+        {
+            if (buffer.remaining() < 4)
+            {
+                buffer.flip();
+                drain();
+            }
+
+            float x = samples[i];
+            if (bits == 0)
+                buffer.putFloat(x);
+            else if (bits == 16)
+                buffer.putShort((short) Math.max(Math.min(Math.round(x * 32768.0f), 32767), -32768));
+            else
+            {
+                int v = Math.max(Math.min(Math.round(x * 8388608.0f), 8388607), -8388608);
+                buffer.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+            }
+        }
+
+        dataBytes += (long) count * bytesPerSample;
+    }
+
+    // Writes out the rest and patches the header. Files over 4 GB get sizes capped, most readers cope.
+    public void close() throws IOException
+    {
+        try
+        {
+            // Chunks are padded to an even size
+            if ((dataBytes & 1) != 0)
+                buffer.put((byte) 0);
+
+            buffer.flip();
+            drain();
+
+            buffer.put(header()).flip();
+            channel.position(0);
+            drain();
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,288 @@
+//--------------------------------------------------
+//
+// Filename:    EffectiveSpecAnalyzer.java
+// Author:      Daniel Walther
+// Brief:       Estimates the bit depth and
+//              bandwidth a track really uses, to
+//              catch padded, upsampled or lossy
+//              sources behind a hi-res header.
+//              Single streaming pass, fixed memory.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+public class EffectiveSpecAnalyzer
+{
+    // Frames read from a source per process() call by analyze()
+    public static final int BLOCK_FRAMES = 4096;
+
+    // Float samples are exact up to 24 bits, anything finer isn't integer PCM
+    public static final int MAX_BITS = 24;
+    private static final float INT24_SCALE = 1 << (MAX_BITS - 1);
+
+    // A bit counts as used once this fraction of the non-zero samples reaches down to it
+    private static final int ACTIVE_BIT_SHIFT = 16;
+
+    private static final int FFT_SIZE = 8192;
+
+    // Spectrum is compared in bands of about this width, and edges are looked for over a few bands
+    private static final double BAND_HZ = 250.0;
+    private static final int EDGE_BANDS = 4;
+    private static final double MIN_EDGE_HZ = 5000.0;
+
+    // Drop across an edge that only a lowpass filter produces
+    private static final double MIN_EDGE_DB = 18.0;
+
+    // Lossy encoders low-pass somewhere between these. Higher edges are left alone, CD masters
+    // often roll off there too.
+    private static final double LOSSY_MIN_HZ = 11000.0;
+    private static final double LOSSY_MAX_HZ = 19600.0;
+
+    private static final int[] STANDARD_RATES =
+    {
+            8000, 11025, 16000, 22050, 32000, 44100, 48000, 88200, 96000, 176400, 192000, 352800, 384000
+    };
+
+    public static class Result
+    {
+        private final int effectiveBits;
+        private final double cutoffHz;
+        private final double cutoffDropDb;
+        private final int effectiveSampleRate;
+        private final boolean isLikelyLossy;
+
+        Result(int effectiveBits_, double cutoffHz_, double cutoffDropDb_, int effectiveSampleRate_, boolean isLikelyLossy_)
+        {
+            effectiveBits = effectiveBits_;
+            cutoffHz = cutoffHz_;
+            cutoffDropDb = cutoffDropDb_;
+            effectiveSampleRate = effectiveSampleRate_;
+            isLikelyLossy = isLikelyLossy_;
+        }
+
+        // Lowest bit any real share of the samples uses, counted from the top.
+        // 0 if the samples aren't integer PCM of 24 bits or less, like decoded lossy audio.
+        public int getEffectiveBits()
+        {
+            return effectiveBits;
+        }
+
+        // Frequency of a lowpass edge, 0 if the spectrum runs out naturally
+        public double getCutoffHz()
+        {
+            return cutoffHz;
+        }
+
+        // Level difference across the edge
+        public double getCutoffDropDb()
+        {
+            return cutoffDropDb;
+        }
+
+        // Lowest standard rate that holds everything below the cutoff, the track's own rate without one
+        public int getEffectiveSampleRate()
+        {
+            return effectiveSampleRate;
+        }
+
+        // Edge where MP3/AAC encoders typically low-pass
+        public boolean isLikelyLossy()
+        {
+            return isLikelyLossy;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "effective " + effectiveBits + " bit, " + effectiveSampleRate + " Hz, cutoff " + Math.round(cutoffHz)
+                    + " Hz (" + Math.round(cutoffDropDb) + " dB)" + (isLikelyLossy ? ", likely lossy" : "");
+        }
+    }
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final Fft fft = new Fft(FFT_SIZE);
+
+    // Samples whose lowest set bit (at 24 bits) is at each position
+    private final long[] lowestBitCounts = new long[MAX_BITS];
+    private long nonZeroSamples = 0;
+    private long inexactSamples = 0;
+
+    // Mono downmix collected until a transform's worth is there
+    private final double[] window = new double[FFT_SIZE];
+    private final double[] pending = new double[FFT_SIZE];
+    private final double[] re = new double[FFT_SIZE];
+    private final double[] im = new double[FFT_SIZE];
+    private final double[] power = new double[FFT_SIZE / 2 + 1];
+    private int pendingFrames = 0;
+    private long transforms = 0;
+
+    public EffectiveSpecAnalyzer(int sampleRate_, int channelCount_)
+    {
+        sampleRate = sampleRate_;
+        channelCount = channelCount_;
+
+        for (int i = 0; i < FFT_SIZE; ++i)
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / FFT_SIZE);
+    }
+
+    // Runs a whole source through a new analyzer
+    public static Result analyze(PcmSource source) throws IOException
+    {
+        EffectiveSpecAnalyzer analyzer = new EffectiveSpecAnalyzer(source.getSampleRate(), source.getChannelCount());
+        float[] buffer = new float[BLOCK_FRAMES * source.getChannelCount()];
+
+        source.seekTo(0);
+
+        int frames;
+        while ((frames = source.read(buffer, 0, BLOCK_FRAMES)) >= 0)
+        {
+            if (Thread.interrupted())
+                throw new InterruptedIOException("Spec analysis cancelled");
+
+            analyzer.process(buffer, 0, frames);
+        }
+
+        return analyzer.getResult();
+    }
+
+    // Feeds interleaved samples, does not allocate
+    public void process(float[] samples, int offset, int frames)
+    {
+        float mixScale = 1.0f / channelCount;
+
+        for (int i = 0; i < frames; ++i)
+        {
+            int base = offset + i * channelCount;
+            float mix = 0;
+
+            for (int c = 0; c < channelCount; ++c)
+            {
+                float x = samples[base + c];
+                mix += x;
+
+                float scaled = x * INT24_SCALE;
+                int q = (int) scaled;
+                if (q != scaled)
+                    ++inexactSamples;
+                else if (q != 0)
+                {
+                    ++nonZeroSamples;
+                    ++lowestBitCounts[Integer.numberOfTrailingZeros(q)];
+                }
+            }
+
+            pending[pendingFrames] = mix * mixScale;
+            if (++pendingFrames == FFT_SIZE)
+                transform();
+        }
+    }
+
+    private void transform()
+    {
+        for (int i = 0; i < FFT_SIZE; ++i)
+        {
+            re[i] = pending[i] * window[i];
+            im[i] = 0;
+        }
+
+        fft.forward(re, im);
+
+        for (int k = 0; k < power.length; ++k)
+            power[k] += re[k] * re[k] + im[k] * im[k];
+
+        pendingFrames = 0;
+        ++transforms;
+    }
+
+    // Looks for the steepest drop in the averaged spectrum above MIN_EDGE_HZ. Only counts as a
+    // cutoff if it is steep and nothing above it comes back up, natural roll-offs are gentle.
+    public Result getResult()
+    {
+        int bits = effectiveBits();
+        if (transforms == 0)
+            return new Result(bits, 0, 0, sampleRate, false);
+
+        double binHz = (double) sampleRate / FFT_SIZE;
+        int binsPerBand = Math.max((int) Math.round(BAND_HZ / binHz), 1);
+        int bandCount = (power.length - 1) / binsPerBand;
+        double bandHz = binsPerBand * binHz;
+
+        // DC is left out, band b starts at bin 1 + b * binsPerBand
+        double[] bandDb = new double[bandCount];
+        for (int b = 0; b < bandCount; ++b)
+        {
+            double sum = 0;
+            for (int k = 1 + b * binsPerBand; k < 1 + (b + 1) * binsPerBand; ++k)
+                sum += power[k];
+            bandDb[b] = 10 * Math.log10(sum / binsPerBand / transforms + 1e-30);
+        }
+
+        // Loudest band from each one up, so content coming back above an edge rules it out
+        double[] maxAbove = new double[bandCount + 1];
+        maxAbove[bandCount] = Double.NEGATIVE_INFINITY;
+        for (int b = bandCount - 1; b >= 0; --b)
+            maxAbove[b] = Math.max(maxAbove[b + 1], bandDb[b]);
+
+        int edgeBand = -1;
+        double edgeDrop = 0;
+        for (int b = Math.max((int) Math.ceil(MIN_EDGE_HZ / bandHz), EDGE_BANDS); b + EDGE_BANDS <= bandCount; ++b)
+        {
+            double below = 0;
+            double above = 0;
+            for (int i = 0; i < EDGE_BANDS; ++i)
+            {
+                below += bandDb[b - EDGE_BANDS + i];
+                above += bandDb[b + i];
+            }
+
+            double drop = (below - above) / EDGE_BANDS;
+            if (drop > edgeDrop && maxAbove[b + EDGE_BANDS / 2] < below / EDGE_BANDS - MIN_EDGE_DB / 2)
+            {
+                edgeDrop = drop;
+                edgeBand = b;
+            }
+        }
+
+        if (edgeBand < 0 || edgeDrop < MIN_EDGE_DB)
+            return new Result(bits, 0, edgeDrop, sampleRate, false);
+
+        double cutoffHz = (1 + edgeBand * binsPerBand) * binHz;
+
+        // Resampling filters end a little below the old Nyquist frequency
+        int effectiveRate = sampleRate;
+        for (int rate : STANDARD_RATES)
+        {
+            if (rate < sampleRate && rate / 2.0 >= cutoffHz * 0.98)
+            {
+                effectiveRate = rate;
+                break;
+            }
+        }
+
+        boolean isLossy = cutoffHz >= LOSSY_MIN_HZ && cutoffHz <= LOSSY_MAX_HZ;
+        return new Result(bits, cutoffHz, edgeDrop, effectiveRate, isLossy);
+    }
+
+    private int effectiveBits()
+    {
+        // Lossy decoders and float files put out samples off the 24 bit grid
+        if (nonZeroSamples == 0 || inexactSamples > nonZeroSamples >> 8)
+            return 0;
+
+        long threshold = Math.max(nonZeroSamples >> ACTIVE_BIT_SHIFT, 1);
+        for (int bit = 0; bit < MAX_BITS; ++bit)
+        {
+            if (lowestBitCounts[bit] >= threshold)
+                return MAX_BITS - bit;
+        }
+
+        return 1;
+    }
+}
@@ -0,0 +1,108 @@
+//--------------------------------------------------
+//
+// Filename:    Fft.java
+// Author:      Daniel Walther
+// Brief:       In-place radix-2 complex FFT of one
+//              fixed size. Tables are built once,
+//              transforms don't allocate and can
+//              run on several threads at once.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+public class Fft
+{
+    private final int size;
+    private final int[] bitReversed;
+    private final double[] cosTable;
+    private final double[] sinTable;
+
+    public Fft(int size_)
+    {
+        if (size_ < 2 || Integer.bitCount(size_) != 1)
+            throw new IllegalArgumentException("FFT size must be a power of two, not " + size_);
+
+        size = size_;
+
+        int bits = Integer.numberOfTrailingZeros(size);
+        bitReversed = new int[size];
+        for (int i = 0; i < size; ++i)
+            bitReversed[i] = Integer.reverse(i) >>> (32 - bits);
+
+        cosTable = new double[size / 2];
+        sinTable = new double[size / 2];
+        for (int i = 0; i < size / 2; ++i)
+        {
+            cosTable[i] = Math.cos(2.0 * Math.PI * i / size);
+            sinTable[i] = Math.sin(2.0 * Math.PI * i / size);
+        }
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    // Forward transform, e^(-i...) kernel, unscaled
+    public void forward(double[] re, double[] im)
+    {
+        transform(re, im, -1.0);
+    }
+
+    // Inverse transform, scaled by 1/size so forward then inverse gives back the input
+    public void inverse(double[] re, double[] im)
+    {
+        transform(re, im, 1.0);
+
+        double scale = 1.0 / size;
+        for (int i = 0; i < size; ++i)
+        {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    private void transform(double[] re, double[] im, double sign)
+    {
+        for (int i = 0; i < size; ++i)
+        {
+            int j = bitReversed[i];
+            if (j > i)
+            {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+
+        for (int half = 1; half < size; half <<= 1)
+        {
+            int tableStep = size / (half * 2);
+
+            for (int start = 0; start < size; start += half * 2)
+            {
+                for (int k = 0; k < half; ++k)
+                {
+                    double wr = cosTable[k * tableStep];
+                    double wi = sign * sinTable[k * tableStep];
+
+                    int a = start + k;
+                    int b = a + half;
+
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
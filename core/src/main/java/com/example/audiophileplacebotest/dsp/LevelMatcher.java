@@ -0,0 +1,44 @@
+//--------------------------------------------------
+//
+// Filename:    LevelMatcher.java
+// Author:      Daniel Walther
+// Brief:       Turns measured loudness into
+//              per-track playback gains, so no
+//              track wins a comparison by simply
+//              being louder
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+public final class LevelMatcher
+{
+    private LevelMatcher() {}
+
+    // Linear gain per track that brings every track down to the quietest one. Only ever
+    // attenuates, so matching can't push a track into clipping. All gains are 1 until
+    // every track has a usable measurement, matching only some of them would be misleading.
+    public static float[] computeGains(LoudnessAnalyzer.Result[] results)
+    {
+        float[] gains = new float[results.length];
+        double target = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < results.length; ++i)
+        {
+            gains[i] = 1.0f;
+
+            if (results[i] == null || Double.isInfinite(results[i].getIntegratedLufs()))
+                target = Double.NaN;
+            else
+                target = Math.min(target, results[i].getIntegratedLufs());
+        }
+
+        if (Double.isNaN(target))
+            return gains;
+
+        for (int i = 0; i < results.length; ++i)
+            gains[i] = (float) Math.pow(10.0, (target - results[i].getIntegratedLufs()) / 20.0);
+
+        return gains;
+    }
+}
@@ -0,0 +1,394 @@
+//--------------------------------------------------
+//
+// Filename:    LoudnessAnalyzer.java
+// Author:      Daniel Walther
+// Brief:       Measures integrated loudness
+//              (BS.1770 K-weighting and gating),
+//              true peak and RMS of a track in a
+//              single streaming pass
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+public class LoudnessAnalyzer
+{
+    // Frames read from a source per process() call by analyze()
+    public static final int BLOCK_FRAMES = 4096;
+
+    // Gating blocks are 400 ms long and start every 100 ms
+    private static final int STEPS_PER_BLOCK = 4;
+    private static final double ABSOLUTE_GATE_LUFS = -70.0;
+    private static final double RELATIVE_GATE_LU = -10.0;
+
+    // Block loudness is binned at 0.01 LU between the absolute gate and +10 LUFS, which keeps
+    // memory fixed for any track length and the integrated value within 0.005 LU
+    private static final double HISTOGRAM_MIN_LUFS = ABSOLUTE_GATE_LUFS;
+    private static final double HISTOGRAM_MAX_LUFS = 10.0;
+    private static final int HISTOGRAM_BINS_PER_LU = 100;
+    private static final int HISTOGRAM_SIZE =
+            (int) ((HISTOGRAM_MAX_LUFS - HISTOGRAM_MIN_LUFS) * HISTOGRAM_BINS_PER_LU);
+
+    // Mean square energy at the centre of each histogram bin
+    private static final double[] BIN_ENERGY = new double[HISTOGRAM_SIZE];
+
+    static
+    {
+        for (int i = 0; i < HISTOGRAM_SIZE; ++i)
+            BIN_ENERGY[i] = energyOf(HISTOGRAM_MIN_LUFS + (i + 0.5) / HISTOGRAM_BINS_PER_LU);
+    }
+
+    // Interpolation filter taps per output phase for the true peak estimate
+    private static final int TAPS_PER_PHASE = 12;
+
+    public static class Result
+    {
+        private final double integratedLufs;
+        private final double truePeakDbtp;
+        private final double rmsDbfs;
+        private final long frameCount;
+
+        Result(double integratedLufs_, double truePeakDbtp_, double rmsDbfs_, long frameCount_)
+        {
+            integratedLufs = integratedLufs_;
+            truePeakDbtp = truePeakDbtp_;
+            rmsDbfs = rmsDbfs_;
+            frameCount = frameCount_;
+        }
+
+        // Negative infinity if every block fell below the absolute gate, e.g. silence
+        public double getIntegratedLufs()
+        {
+            return integratedLufs;
+        }
+
+        public double getTruePeakDbtp()
+        {
+            return truePeakDbtp;
+        }
+
+        public double getRmsDbfs()
+        {
+            return rmsDbfs;
+        }
+
+        public long getFrameCount()
+        {
+            return frameCount;
+        }
+    }
+
+    private final int sampleRate;
+    private final int channelCount;
+    private final double[] channelWeights;
+
+    // K-weighting, a high shelf followed by a high pass, as two biquads per channel
+    private final double[] shelfB = new double[3];
+    private final double[] shelfA = new double[3];
+    private final double[] highPassB = new double[3];
+    private final double[] highPassA = new double[3];
+    private final double[] shelfState;
+    private final double[] highPassState;
+
+    // Gating
+    private final int stepFrames;
+    private final double[] stepEnergy = new double[STEPS_PER_BLOCK];
+    private final long[] histogram = new long[HISTOGRAM_SIZE];
+    private int stepIndex = 0;
+    private int stepsSeen = 0;
+    private int framesInStep = 0;
+    private double energyInStep = 0;
+
+    // True peak, polyphase interpolation with one history ring per channel
+    private final int oversampling;
+    private final double[] interpolationTaps;
+    private final double[] history;
+    private int historyIndex = 0;
+    private double peak = 0;
+
+    private double sumSquares = 0;
+    private long frameCount = 0;
+
+    public LoudnessAnalyzer(int sampleRate_, int channelCount_)
+    {
+        sampleRate = sampleRate_;
+        channelCount = channelCount_;
+
+        // Surround channels count for more, LFE not at all (L, R, C, LFE, Ls, Rs)
+        channelWeights = new double[channelCount];
+        for (int c = 0; c < channelCount; ++c)
+            channelWeights[c] = 1.0;
+        if (channelCount == 6)
+        {
+            channelWeights[3] = 0.0;
+            channelWeights[4] = 1.41;
+            channelWeights[5] = 1.41;
+        }
+
+        designKWeighting();
+        shelfState = new double[channelCount * 2];
+        highPassState = new double[channelCount * 2];
+
+        stepFrames = Math.max((sampleRate + 5) / 10, 1);
+
+        // 4x is enough below 96 kHz, high sample rates need less
+        oversampling = sampleRate >= 176400 ? 1 : sampleRate >= 88200 ? 2 : 4;
+        interpolationTaps = designInterpolator(oversampling);
+        history = new double[channelCount * TAPS_PER_PHASE];
+    }
+
+    // Decodes the whole source once and measures it, the source is left at its end.
+    // Checks for interruption between blocks.
+    public static Result analyze(PcmSource source) throws IOException
+    {
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(source.getSampleRate(), source.getChannelCount());
+        float[] buffer = new float[BLOCK_FRAMES * source.getChannelCount()];
+
+        source.seekTo(0);
+
+        int frames;
+        while ((frames = source.read(buffer, 0, BLOCK_FRAMES)) >= 0)
+        {
+            if (Thread.interrupted())
+                throw new InterruptedIOException("Loudness analysis cancelled");
+
+            analyzer.process(buffer, 0, frames);
+        }
+
+        return analyzer.getResult();
+    }
+
+    // Feeds interleaved samples, does not allocate
+    public void process(float[] samples, int offset, int frames)
+    {
+        for (int i = 0; i < frames; ++i)
+        {
+            int base = offset + i * channelCount;
+            double weighted = 0;
+
+            for (int c = 0; c < channelCount; ++c)
+            {
+                double x = samples[base + c];
+
+                sumSquares += x * x;
+                trackPeak(c, x);
+
+                double y = biquad(shelfB, shelfA, shelfState, c * 2, x);
+                y = biquad(highPassB, highPassA, highPassState, c * 2, y);
+                weighted += channelWeights[c] * y * y;
+            }
+
+            historyIndex = (historyIndex + 1) % TAPS_PER_PHASE;
+
+            energyInStep += weighted;
+            if (++framesInStep == stepFrames)
+                finishStep();
+        }
+
+        frameCount += frames;
+    }
+
+    public Result getResult()
+    {
+        double integrated = Double.NEGATIVE_INFINITY;
+
+        // Relative gate sits 10 LU below the mean of the blocks that passed the absolute gate
+        double ungated = meanEnergyAbove(0);
+        if (ungated > 0)
+        {
+            double relativeGate = loudnessOf(ungated) + RELATIVE_GATE_LU;
+            int firstBin = (int) Math.ceil((relativeGate - HISTOGRAM_MIN_LUFS) * HISTOGRAM_BINS_PER_LU);
+            double gated = meanEnergyAbove(Math.max(firstBin, 0));
+
+            if (gated > 0)
+                integrated = loudnessOf(gated);
+        }
+
+        long samples = frameCount * channelCount;
+        double rms = samples == 0 ? 0 : Math.sqrt(sumSquares / samples);
+
+        return new Result(integrated, toDecibels(peak), toDecibels(rms), frameCount);
+    }
+
+    public void reset()
+    {
+        Arrays.fill(shelfState, 0);
+        Arrays.fill(highPassState, 0);
+        Arrays.fill(stepEnergy, 0);
+        Arrays.fill(histogram, 0);
+        Arrays.fill(history, 0);
+        stepIndex = 0;
+        stepsSeen = 0;
+        framesInStep = 0;
+        energyInStep = 0;
+        historyIndex = 0;
+        peak = 0;
+        sumSquares = 0;
+        frameCount = 0;
+    }
+
+    // region Gating
+    private void finishStep()
+    {
+        stepEnergy[stepIndex] = energyInStep;
+        stepIndex = (stepIndex + 1) % STEPS_PER_BLOCK;
+        energyInStep = 0;
+        framesInStep = 0;
+
+        if (++stepsSeen < STEPS_PER_BLOCK)
+            return;
+
+        double blockEnergy = 0;
+        for (double e : stepEnergy)
+            blockEnergy += e;
+        blockEnergy /= (double) stepFrames * STEPS_PER_BLOCK;
+
+        double lufs = loudnessOf(blockEnergy);
+        if (lufs <= ABSOLUTE_GATE_LUFS)
+            return;
+
+        int bin = (int) ((lufs - HISTOGRAM_MIN_LUFS) * HISTOGRAM_BINS_PER_LU);
+        ++histogram[Math.min(bin, HISTOGRAM_SIZE - 1)];
+    }
+
+    // Mean block energy of the bins from firstBin up, 0 if there are none
+    private double meanEnergyAbove(int firstBin)
+    {
+        double sum = 0;
+        long count = 0;
+
+        for (int i = firstBin; i < HISTOGRAM_SIZE; ++i)
+        {
+            sum += histogram[i] * BIN_ENERGY[i];
+            count += histogram[i];
+        }
+
+        return count == 0 ? 0 : sum / count;
+    }
+
+    private static double loudnessOf(double energy)
+    {
+        return -0.691 + 10.0 * Math.log10(energy);
+    }
+
+    private static double energyOf(double lufs)
+    {
+        return Math.pow(10.0, (lufs + 0.691) / 10.0);
+    }
+    // endregion
+
+    // region Filters
+    // Transposed direct form II, state holds two values per channel
+    private static double biquad(double[] b, double[] a, double[] state, int s, double x)
+    {
+        double y = b[0] * x + state[s];
+        state[s] = b[1] * x - a[1] * y + state[s + 1];
+        state[s + 1] = b[2] * x - a[2] * y;
+        return y;
+    }
+
+    // Coefficients for any sample rate, matching the 48 kHz ones given in BS.1770
+    private void designKWeighting()
+    {
+        double f0 = 1681.974450955533;
+        double gainDb = 3.999843853973347;
+        double q = 0.7071752369554196;
+
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double vh = Math.pow(10.0, gainDb / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / q + k * k;
+
+        shelfB[0] = (vh + vb * k / q + k * k) / a0;
+        shelfB[1] = 2.0 * (k * k - vh) / a0;
+        shelfB[2] = (vh - vb * k / q + k * k) / a0;
+        shelfA[0] = 1.0;
+        shelfA[1] = 2.0 * (k * k - 1.0) / a0;
+        shelfA[2] = (1.0 - k / q + k * k) / a0;
+
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRate);
+        a0 = 1.0 + k / q + k * k;
+
+        highPassB[0] = 1.0;
+        highPassB[1] = -2.0;
+        highPassB[2] = 1.0;
+        highPassA[0] = 1.0;
+        highPassA[1] = 2.0 * (k * k - 1.0) / a0;
+        highPassA[2] = (1.0 - k / q + k * k) / a0;
+    }
+    // endregion
+
+    // region True peak
+    // Keeps the highest absolute value of the channel's samples and of the points interpolated between them
+    private void trackPeak(int channel, double x)
+    {
+        int base = channel * TAPS_PER_PHASE;
+        history[base + historyIndex] = x;
+
+        double abs = Math.abs(x);
+        if (abs > peak)
+            peak = abs;
+
+        // Interpolated points fall between the samples, none of the phases reproduces them exactly
+        if (oversampling == 1)
+            return;
+
+        for (int phase = 0; phase < oversampling; ++phase)
+        {
+            double y = 0;
+            int h = historyIndex;
+
+            for (int k = 0; k < TAPS_PER_PHASE; ++k)
+            {
+                y += interpolationTaps[phase + k * oversampling] * history[base + h];
+                h = h == 0 ? TAPS_PER_PHASE - 1 : h - 1;
+            }
+
+            abs = Math.abs(y);
+            if (abs > peak)
+                peak = abs;
+        }
+    }
+
+    // Windowed sinc low pass at the original Nyquist frequency, each phase has unity gain at DC
+    private static double[] designInterpolator(int factor)
+    {
+        int length = factor * TAPS_PER_PHASE;
+        double[] taps = new double[length];
+        double centre = (length - 1) / 2.0;
+
+        for (int n = 0; n < length; ++n)
+        {
+            double t = (n - centre) / factor;
+            double sinc = t == 0 ? 1.0 : Math.sin(Math.PI * t) / (Math.PI * t);
+            double window = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * (n + 0.5) / length);
+            taps[n] = sinc * window;
+        }
+
+        // Normalise each phase so a constant signal stays constant
+        for (int phase = 0; phase < factor; ++phase)
+        {
+            double sum = 0;
+            for (int n = phase; n < length; n += factor)
+                sum += taps[n];
+            for (int n = phase; n < length; n += factor)
+                taps[n] /= sum;
+        }
+
+        return taps;
+    }
+    // endregion
+
+    private static double toDecibels(double amplitude)
+    {
+        return amplitude > 0 ? 20.0 * Math.log10(amplitude) : Double.NEGATIVE_INFINITY;
+    }
+}
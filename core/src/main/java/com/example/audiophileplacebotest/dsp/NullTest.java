@@ -0,0 +1,440 @@
+//--------------------------------------------------
+//
+// Filename:    NullTest.java
+// Author:      Daniel Walther
+// Brief:       Subtracts one lined up track from
+//              another and measures what is left.
+//              The overlap is cut into chunks that
+//              workers decode and subtract in
+//              parallel, memory stays the same for
+//              any track length.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NullTest
+{
+    // Every worker decodes its own copy of both tracks
+    public interface SourceFactory
+    {
+        PcmSource open() throws IOException;
+    }
+
+    // Frames a worker claims at a time, about 20 s at 48 kHz. Each chunk costs one seek per track.
+    public static final int CHUNK_FRAMES = 1 << 20;
+
+    // Frames per spectrum block, a few Hz per bin so even the lowest third octaves get some
+    public static final int SPECTRUM_SIZE = 1 << 14;
+
+    // Audible band, the band-limited level only counts residual in here
+    public static final double LOW_HZ = 20.0;
+    public static final double HIGH_HZ = 20000.0;
+
+    // Third octave bands around 1 kHz, the 31 nominal bands from 20 Hz to 20 kHz
+    private static final int FIRST_BAND = -17;
+    private static final int LAST_BAND = 13;
+
+    public static class Result
+    {
+        private final long frameCount;
+        private final long offsetFrames;
+        private final double residualRmsDbfs;
+        private final double residualPeakDbfs;
+        private final double referenceRmsDbfs;
+        private final double bandLimitedRmsDbfs;
+        private final double[] bandCentersHz;
+        private final double[] bandLevelsDbfs;
+
+        Result(long frameCount_, long offsetFrames_, double residualRmsDbfs_, double residualPeakDbfs_,
+               double referenceRmsDbfs_, double bandLimitedRmsDbfs_, double[] bandCentersHz_, double[] bandLevelsDbfs_)
+        {
+            frameCount = frameCount_;
+            offsetFrames = offsetFrames_;
+            residualRmsDbfs = residualRmsDbfs_;
+            residualPeakDbfs = residualPeakDbfs_;
+            referenceRmsDbfs = referenceRmsDbfs_;
+            bandLimitedRmsDbfs = bandLimitedRmsDbfs_;
+            bandCentersHz = bandCentersHz_;
+            bandLevelsDbfs = bandLevelsDbfs_;
+        }
+
+        // Frames compared, the overlap of both tracks
+        public long getFrameCount()
+        {
+            return frameCount;
+        }
+
+        public long getOffsetFrames()
+        {
+            return offsetFrames;
+        }
+
+        // Negative infinity if every sample cancelled out
+        public double getResidualRmsDbfs()
+        {
+            return residualRmsDbfs;
+        }
+
+        public double getResidualPeakDbfs()
+        {
+            return residualPeakDbfs;
+        }
+
+        public double getReferenceRmsDbfs()
+        {
+            return referenceRmsDbfs;
+        }
+
+        // How far the residual is below the reference, more negative is a deeper null
+        public double getNullDepthDb()
+        {
+            return residualRmsDbfs - referenceRmsDbfs;
+        }
+
+        // Residual RMS counting only LOW_HZ to HIGH_HZ (or Nyquist)
+        public double getBandLimitedRmsDbfs()
+        {
+            return bandLimitedRmsDbfs;
+        }
+
+        public boolean isIdentical()
+        {
+            return residualPeakDbfs == Double.NEGATIVE_INFINITY;
+        }
+
+        // Third octave bands that have at least one bin below Nyquist
+        public double[] getBandCentersHz()
+        {
+            return bandCentersHz;
+        }
+
+        // RMS of the residual within each band
+        public double[] getBandLevelsDbfs()
+        {
+            return bandLevelsDbfs;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Fft fft = new Fft(SPECTRUM_SIZE);
+    private final double[] window = new double[SPECTRUM_SIZE];
+    private final double windowPower;
+
+    public NullTest(ForkJoinPool pool_)
+    {
+        pool = pool_;
+
+        // Hann window, keeps loud bins from leaking into the quiet bands next to them
+        double power = 0;
+        for (int i = 0; i < SPECTRUM_SIZE; ++i)
+        {
+            window[i] = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / SPECTRUM_SIZE);
+            power += window[i] * window[i];
+        }
+        windowPower = power;
+    }
+
+    // Measures reference * referenceGain - other * otherGain over the part both tracks cover.
+    // Frame t of reference lines up with frame t + offsetFrames of other. Interrupting the
+    // calling thread stops all workers with an InterruptedIOException.
+    public Result run(SourceFactory reference, SourceFactory other, long offsetFrames,
+                      float referenceGain, float otherGain) throws IOException
+    {
+        int sampleRate;
+        int channels;
+        long frameCount;
+
+        PcmSource probe = new ResidualSource(reference.open(), other.open(), offsetFrames, 1.0f, 1.0f);
+        try
+        {
+            sampleRate = probe.getSampleRate();
+            channels = probe.getChannelCount();
+            frameCount = probe.getFrameCount();
+        }
+        finally
+        {
+            probe.close();
+        }
+
+        // Unknown lengths can't be split up, one worker reads until either track ends
+        int chunkCount = frameCount < 0 ? 1 : (int) ((frameCount + CHUNK_FRAMES - 1) / CHUNK_FRAMES);
+        int workerCount = Math.max(Math.min(pool.getParallelism(), chunkCount), 1);
+
+        AtomicInteger nextChunk = new AtomicInteger();
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < workerCount; ++i)
+        {
+            workers.add(new Worker(reference, other, offsetFrames, referenceGain, otherGain,
+                    channels, frameCount, chunkCount, nextChunk, Thread.currentThread()));
+        }
+
+        for (Worker w : workers)
+            pool.execute(w);
+        for (Worker w : workers)
+            w.join();
+
+        long frames = 0;
+        double residualSum = 0;
+        double referenceSum = 0;
+        double peak = 0;
+        long spectrumBlocks = 0;
+        double[] power = new double[SPECTRUM_SIZE / 2 + 1];
+
+        for (Worker w : workers)
+        {
+            if (w.error != null)
+                throw w.error;
+
+            frames += w.frames;
+            residualSum += w.residualSum;
+            referenceSum += w.referenceSum;
+            peak = Math.max(peak, w.peak);
+            spectrumBlocks += w.spectrumBlocks;
+            for (int k = 0; k < power.length; ++k)
+                power[k] += w.power[k];
+        }
+
+        if (frames == 0)
+            throw new IOException("Tracks don't overlap");
+
+        return buildResult(sampleRate, frames, channels, offsetFrames, residualSum, referenceSum, peak,
+                power, spectrumBlocks);
+    }
+
+    private Result buildResult(int sampleRate, long frames, int channels, long offsetFrames, double residualSum,
+                               double referenceSum, double peak, double[] power, long spectrumBlocks)
+    {
+        double samples = (double) frames * channels;
+        double binHz = (double) sampleRate / SPECTRUM_SIZE;
+        double nyquist = sampleRate / 2.0;
+
+        // One-sided bins carry both halves of the spectrum, except DC and Nyquist. Scaled so the
+        // bins add up to the mean square of the windowed signal.
+        double scale = spectrumBlocks == 0 ? 0 : 1.0 / (spectrumBlocks * (double) SPECTRUM_SIZE * windowPower);
+
+        double bandLimited = 0;
+        for (int k = 0; k < power.length; ++k)
+        {
+            double hz = k * binHz;
+            if (hz >= LOW_HZ && hz < HIGH_HZ)
+                bandLimited += binPower(power, k) * scale;
+        }
+
+        List<double[]> bands = new ArrayList<>();
+        for (int n = FIRST_BAND; n <= LAST_BAND; ++n)
+        {
+            double center = 1000.0 * Math.pow(2.0, n / 3.0);
+            double lower = center * Math.pow(2.0, -1.0 / 6.0);
+            double upper = Math.min(center * Math.pow(2.0, 1.0 / 6.0), nyquist);
+
+            int first = (int) Math.ceil(lower / binHz);
+            int last = (int) Math.ceil(upper / binHz) - 1;
+            if (first > last || first >= power.length)
+                continue;
+
+            double sum = 0;
+            for (int k = first; k <= Math.min(last, power.length - 1); ++k)
+                sum += binPower(power, k) * scale;
+
+            bands.add(new double[] { center, powerToDb(sum) });
+        }
+
+        double[] centers = new double[bands.size()];
+        double[] levels = new double[bands.size()];
+        for (int i = 0; i < centers.length; ++i)
+        {
+            centers[i] = bands.get(i)[0];
+            levels[i] = bands.get(i)[1];
+        }
+
+        return new Result(frames, offsetFrames, powerToDb(residualSum / samples), 20.0 * Math.log10(peak),
+                powerToDb(referenceSum / samples), powerToDb(bandLimited), centers, levels);
+    }
+
+    private static double binPower(double[] power, int k)
+    {
+        return k == 0 || k == SPECTRUM_SIZE / 2 ? power[k] : 2.0 * power[k];
+    }
+
+    // Mean square to dB against a full scale of 1.0, silence is negative infinity
+    private static double powerToDb(double meanSquare)
+    {
+        return 10.0 * Math.log10(meanSquare);
+    }
+
+    // Claims chunks until there are none left. All buffers are allocated once up front.
+    private class Worker extends RecursiveAction
+    {
+        final SourceFactory referenceFactory;
+        final SourceFactory otherFactory;
+        final long offsetFrames;
+        final float referenceGain;
+        final float otherGain;
+        final int channels;
+        final long frameCount;
+        final int chunkCount;
+        final AtomicInteger nextChunk;
+        final Thread caller;
+
+        long frames = 0;
+        double residualSum = 0;
+        double referenceSum = 0;
+        double peak = 0;
+        long spectrumBlocks = 0;
+        final double[] power = new double[SPECTRUM_SIZE / 2 + 1];
+        IOException error = null;
+
+        Worker(SourceFactory referenceFactory_, SourceFactory otherFactory_, long offsetFrames_,
+               float referenceGain_, float otherGain_, int channels_, long frameCount_, int chunkCount_,
+               AtomicInteger nextChunk_, Thread caller_)
+        {
+            referenceFactory = referenceFactory_;
+            otherFactory = otherFactory_;
+            offsetFrames = offsetFrames_;
+            referenceGain = referenceGain_;
+            otherGain = otherGain_;
+            channels = channels_;
+            frameCount = frameCount_;
+            chunkCount = chunkCount_;
+            nextChunk = nextChunk_;
+            caller = caller_;
+        }
+
+        @Override
+        protected void compute()
+        {
+            PcmSource reference = null;
+            PcmSource other = null;
+
+            try
+            {
+                reference = referenceFactory.open();
+                other = otherFactory.open();
+
+                // Only sample for sample identical layouts can be subtracted
+                if (reference.getSampleRate() != other.getSampleRate() || reference.getChannelCount() != channels
+                        || other.getChannelCount() != channels)
+                {
+                    throw new IOException(String.format(Locale.ROOT, "Can't subtract %d Hz/%d ch from %d Hz/%d ch",
+                            other.getSampleRate(), other.getChannelCount(),
+                            reference.getSampleRate(), reference.getChannelCount()));
+                }
+
+                long referenceStart = Math.max(-offsetFrames, 0);
+                long otherStart = Math.max(offsetFrames, 0);
+
+                float[] referenceBuffer = new float[SPECTRUM_SIZE * channels];
+                float[] residualBuffer = new float[SPECTRUM_SIZE * channels];
+                double[] re = new double[SPECTRUM_SIZE];
+                double[] im = new double[SPECTRUM_SIZE];
+
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunkCount)
+                {
+                    long start = (long) chunk * CHUNK_FRAMES;
+                    long end = frameCount < 0 ? Long.MAX_VALUE : Math.min(start + CHUNK_FRAMES, frameCount);
+
+                    reference.seekTo(referenceStart + start);
+                    other.seekTo(otherStart + start);
+
+                    long position = start;
+                    while (position < end)
+                    {
+                        if (caller.isInterrupted())
+                            throw new InterruptedIOException("Null test cancelled");
+
+                        int wanted = (int) Math.min(SPECTRUM_SIZE, end - position);
+                        int read = ResidualSource.readFully(reference, referenceBuffer, 0, wanted);
+                        if (read > 0)
+                            read = ResidualSource.readFully(other, residualBuffer, 0, read);
+                        if (read <= 0)
+                            break;
+
+                        subtract(referenceBuffer, residualBuffer, read);
+
+                        // The short block at the very end is left out of the spectrum
+                        if (read == SPECTRUM_SIZE)
+                            addSpectrum(residualBuffer, re, im);
+
+                        position += read;
+                        if (read < wanted)
+                            break;
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+            finally
+            {
+                if (reference != null)
+                    reference.close();
+                if (other != null)
+                    other.close();
+            }
+        }
+
+        // Leaves the residual in residualBuffer. Sums are kept per block so long tracks don't lose
+        // precision adding tiny blocks to a huge total.
+        private void subtract(float[] referenceBuffer, float[] residualBuffer, int read)
+        {
+            double blockResidual = 0;
+            double blockReference = 0;
+            float blockPeak = 0;
+
+            for (int i = 0; i < read * channels; ++i)
+            {
+                float ref = referenceBuffer[i] * referenceGain;
+                float residual = ref - residualBuffer[i] * otherGain;
+                residualBuffer[i] = residual;
+
+                blockReference += ref * ref;
+                blockResidual += residual * residual;
+                blockPeak = Math.max(blockPeak, Math.abs(residual));
+            }
+
+            frames += read;
+            residualSum += blockResidual;
+            referenceSum += blockReference;
+            peak = Math.max(peak, blockPeak);
+        }
+
+        // Real channels go through the complex FFT two at a time, one as the real and one as the
+        // imaginary part. Their power adds up to (|Z[k]|^2 + |Z[N-k]|^2) / 2.
+        private void addSpectrum(float[] residual, double[] re, double[] im)
+        {
+            for (int c = 0; c < channels; c += 2)
+            {
+                boolean hasPair = c + 1 < channels;
+                for (int i = 0; i < SPECTRUM_SIZE; ++i)
+                {
+                    re[i] = residual[i * channels + c] * window[i];
+                    im[i] = hasPair ? residual[i * channels + c + 1] * window[i] : 0;
+                }
+
+                fft.forward(re, im);
+
+                for (int k = 0; k <= SPECTRUM_SIZE / 2; ++k)
+                {
+                    int mirror = (SPECTRUM_SIZE - k) & (SPECTRUM_SIZE - 1);
+                    power[k] += 0.5 * (re[k] * re[k] + im[k] * im[k] + re[mirror] * re[mirror] + im[mirror] * im[mirror]);
+                }
+            }
+
+            spectrumBlocks += channels;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+//--------------------------------------------------
+//
+// Filename:    Requantizer.java
+// Author:      Daniel Walther
+// Brief:       Reduces samples to a lower bit depth
+//              by truncation, TPDF dither or noise
+//              shaped dither. Keeps its error state
+//              between blocks.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+public class Requantizer
+{
+    public static final int TRUNCATE = 0;
+    public static final int TPDF = 1;
+    public static final int NOISE_SHAPED = 2;
+
+    // Lipshitz's E-weighted error filter, moves the noise up to where the ear is least sensitive
+    private static final float[] SHAPING = { 2.033f, -2.165f, 1.959f, -1.590f, 0.6149f };
+
+    private final int mode;
+    private final int channelCount;
+    private final float scale;
+    private final float maxValue;
+    private final float minValue;
+
+    // Past quantization errors per channel, newest first
+    private final float[][] errors;
+
+    private int randomState = 0x9E3779B9;
+
+    public Requantizer(int bits, int mode_, int channelCount_)
+    {
+        mode = mode_;
+        channelCount = channelCount_;
+        scale = 1 << (bits - 1);
+        maxValue = scale - 1;
+        minValue = -scale;
+        errors = new float[channelCount][SHAPING.length];
+    }
+
+    // Quantizes interleaved samples in place, they stay floats on the grid of the lower depth
+    public void process(float[] samples, int offset, int frames)
+    {
+        for (int i = 0; i < frames; ++i)
+        {
+            for (int c = 0; c < channelCount; ++c)
+            {
+                int index = offset + i * channelCount + c;
+                float x = samples[index] * scale;
+                float q;
+
+                if (mode == TRUNCATE)
+                    q = (float) Math.floor(x);
+                else if (mode == TPDF)
+                    q = Math.round(x + triangular());
+                else
+                {
+                    float[] e = errors[c];
+                    float v = x;
+                    for (int k = 0; k < SHAPING.length; ++k)
+                        v -= SHAPING[k] * e[k];
+
+                    q = Math.round(v + triangular());
+
+                    // Error taken before clipping, clipping it too would make the loop unstable
+                    System.arraycopy(e, 0, e, 1, SHAPING.length - 1);
+                    e[0] = q - v;
+                }
+
+                samples[index] = Math.max(Math.min(q, maxValue), minValue) / scale;
+            }
+        }
+    }
+
+    // Sum of two uniform values, triangular between -1 and 1 LSB
+    private float triangular()
+    {
+        return uniform() + uniform();
+    }
+
+    // Xorshift, uniform between -0.5 and 0.5
+    private float uniform()
+    {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 17;
+        randomState ^= randomState << 5;
+        return (randomState >>> 8) * (1.0f / (1 << 24)) - 0.5f;
+    }
+}
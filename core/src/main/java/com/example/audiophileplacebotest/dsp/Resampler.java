@@ -0,0 +1,223 @@
+//--------------------------------------------------
+//
+// Filename:    Resampler.java
+// Author:      Daniel Walther
+// Brief:       Streaming polyphase resampler for
+//              any ratio of integer rates, with a
+//              Kaiser-windowed sinc. The filter
+//              delay is compensated, so output
+//              lines up with the input.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+public class Resampler
+{
+    // Taps per phase at a 1:1 ratio, gives a transition band of about 4.5% of the input rate.
+    // Downsampling scales it up so the band stays the same relative to the output.
+    private static final int BASE_TAPS = 128;
+
+    // Window shape for about 90 dB stopband attenuation
+    private static final double KAISER_BETA = 9.0;
+    private static final double ATTENUATION_DB = KAISER_BETA / 0.1102 + 8.7;
+
+    private final int channelCount;
+    private final int up;
+    private final int down;
+    private final int taps;
+
+    // Coefficients of phase p are at [p * taps, (p + 1) * taps), ordered newest input first
+    private final float[] coefficients;
+
+    // Per channel input history. history[c][i] holds input frame historyStart + i.
+    private final float[][] history;
+    private long historyStart;
+    private int historyLength;
+
+    private long inputFrames = 0;
+    private long outputFrames = 0;
+    private final long delay;
+
+    public Resampler(int inputRate, int outputRate, int channelCount_)
+    {
+        channelCount = channelCount_;
+
+        int gcd = gcd(inputRate, outputRate);
+        up = outputRate / gcd;
+        down = inputRate / gcd;
+        taps = (int) Math.ceil(BASE_TAPS * Math.max(1.0, (double) down / up));
+
+        // Designed at the upsampled rate, cut off so the stopband starts at the lower Nyquist frequency
+        int length = up * taps;
+        double transition = (ATTENUATION_DB - 8) / (2.285 * 2 * Math.PI * length);
+        double cutoff = Math.max(0.5 / Math.max(up, down) - transition / 2, 0.25 / Math.max(up, down));
+
+        // Centered on a whole tap, so the delay is a whole number of upsampled frames. The first
+        // tap is at the window's edge and comes out as practically zero.
+        int center = length / 2;
+        double[] prototype = new double[length];
+        double norm = besselI0(KAISER_BETA);
+        for (int i = 0; i < length; ++i)
+        {
+            double x = i - center;
+            double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double r = x / center;
+            prototype[i] = sinc * besselI0(KAISER_BETA * Math.sqrt(Math.max(1 - r * r, 0))) / norm * up;
+        }
+
+        coefficients = new float[length];
+        for (int p = 0; p < up; ++p)
+        {
+            for (int k = 0; k < taps; ++k)
+                coefficients[p * taps + k] = (float) prototype[p + k * up];
+        }
+
+        delay = center;
+
+        // Leading zeros stand in for input before the start
+        history = new float[channelCount][taps * 4];
+        historyStart = -taps;
+        historyLength = taps;
+    }
+
+    // Frames process() can produce at most for frames of input
+    public int getMaxOutput(int frames)
+    {
+        return (int) (((long) frames + taps) * up / down) + 2;
+    }
+
+    public int getOutputRate(int inputRate)
+    {
+        return (int) ((long) inputRate * up / down);
+    }
+
+    // Takes interleaved input and writes every output frame that is complete.
+    // Returns the number of frames written to dst.
+    public int process(float[] src, int srcOffset, int frames, float[] dst, int dstOffset)
+    {
+        append(src, srcOffset, frames);
+        inputFrames += frames;
+        return produce(dst, dstOffset, Long.MAX_VALUE);
+    }
+
+    // Writes the rest after the last input, as if it were followed by silence. That is never more than
+    // getMaxOutput(0) frames, and makes the total output the input length at the new rate.
+    public int flush(float[] dst, int dstOffset)
+    {
+        long total = (inputFrames * up + down - 1) / down;
+        int written = 0;
+
+        while (outputFrames < total)
+        {
+            append(null, 0, taps);
+            written += produce(dst, dstOffset + written * channelCount, total);
+        }
+
+        return written;
+    }
+
+    private int produce(float[] dst, int dstOffset, long limit)
+    {
+        int written = 0;
+        long available = historyStart + historyLength - 1;
+
+        while (outputFrames < limit)
+        {
+            long t = outputFrames * down + delay;
+            long newest = t / up;
+            if (newest > available)
+                break;
+
+            int phase = (int) (t - newest * up);
+            int base = phase * taps;
+            int last = (int) (newest - historyStart);
+
+            for (int c = 0; c < channelCount; ++c)
+            {
+                float[] x = history[c];
+                float sum = 0;
+                for (int k = 0; k < taps; ++k)
+                    sum += coefficients[base + k] * x[last - k];
+                dst[dstOffset + written * channelCount + c] = sum;
+            }
+
+            ++written;
+            ++outputFrames;
+        }
+
+        return written;
+    }
+
+    // Appends frames of interleaved input, or silence if src is null
+    private void append(float[] src, int srcOffset, int frames)
+    {
+        int capacity = history[0].length;
+
+        // Keep only what the next outputs can still reach
+        if (historyLength + frames > capacity)
+        {
+            long t = outputFrames * down + delay;
+            long oldestNeeded = Math.min(t / up - taps + 1, historyStart + historyLength);
+            int drop = (int) Math.max(Math.min(oldestNeeded - historyStart, historyLength), 0);
+
+            if (historyLength - drop + frames > capacity)
+                capacity = Math.max(capacity * 2, historyLength - drop + frames);
+
+            for (int c = 0; c < channelCount; ++c)
+            {
+                float[] target = capacity == history[c].length ? history[c] : new float[capacity];
+                System.arraycopy(history[c], drop, target, 0, historyLength - drop);
+                history[c] = target;
+            }
+
+            historyStart += drop;
+            historyLength -= drop;
+        }
+
+        for (int c = 0; c < channelCount; ++c)
+        {
+            float[] x = history[c];
+            if (src == null)
+            {
+                for (int i = 0; i < frames; ++i)
+                    x[historyLength + i] = 0;
+            }
+            else
+            {
+                for (int i = 0; i < frames; ++i)
+                    x[historyLength + i] = src[srcOffset + i * channelCount + c];
+            }
+        }
+
+        historyLength += frames;
+    }
+
+    private static int gcd(int a, int b)
+    {
+        while (b != 0)
+        {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+
+        return a;
+    }
+
+    // Zeroth order modified Bessel function of the first kind, for the Kaiser window
+    private static double besselI0(double x)
+    {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; ++k)
+        {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12)
+                break;
+        }
+
+        return sum;
+    }
+}
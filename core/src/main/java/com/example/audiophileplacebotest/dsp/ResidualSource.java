@@ -0,0 +1,153 @@
+//--------------------------------------------------
+//
+// Filename:    ResidualSource.java
+// Author:      Daniel Walther
+// Brief:       Plays the difference between two
+//              lined up tracks, whatever is left
+//              is what one encode changed
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.IOException;
+
+public class ResidualSource implements PcmSource
+{
+    private final PcmSource reference;
+    private final PcmSource other;
+    private final long referenceStart;
+    private final long otherStart;
+    private final float referenceGain;
+    private final float otherGain;
+
+    private float[] otherBuffer = new float[0];
+    private long position = 0;
+    private boolean needsSeek = true;
+
+    // Frame t of reference lines up with frame t + offsetFrames of other. Both sources need the
+    // same sample rate and channel count, and are closed along with this one.
+    public ResidualSource(PcmSource reference_, PcmSource other_, long offsetFrames,
+                          float referenceGain_, float otherGain_)
+    {
+        reference = reference_;
+        other = other_;
+        referenceStart = Math.max(-offsetFrames, 0);
+        otherStart = Math.max(offsetFrames, 0);
+        referenceGain = referenceGain_;
+        otherGain = otherGain_;
+    }
+
+    @Override
+    public int getSampleRate()
+    {
+        return reference.getSampleRate();
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        return reference.getChannelCount();
+    }
+
+    // Only the part both tracks cover
+    @Override
+    public long getFrameCount()
+    {
+        long referenceFrames = reference.getFrameCount();
+        long otherFrames = other.getFrameCount();
+
+        if (referenceFrames < 0 || otherFrames < 0)
+            return -1;
+
+        return Math.max(Math.min(referenceFrames - referenceStart, otherFrames - otherStart), 0);
+    }
+
+    @Override
+    public long getPosition()
+    {
+        return position;
+    }
+
+    @Override
+    public void seekTo(long frame) throws IOException
+    {
+        reference.seekTo(referenceStart + frame);
+        other.seekTo(otherStart + frame);
+        position = frame;
+        needsSeek = false;
+    }
+
+    @Override
+    public int read(float[] dst, int offset, int frameCount) throws IOException
+    {
+        // Neither source starts out at the overlap
+        if (needsSeek)
+            seekTo(position);
+
+        long frames = getFrameCount();
+        if (frames >= 0)
+            frameCount = (int) Math.min(frameCount, frames - position);
+        if (frameCount <= 0)
+            return -1;
+
+        int channels = getChannelCount();
+        if (otherBuffer.length < frameCount * channels)
+            otherBuffer = new float[frameCount * channels];
+
+        int read = readFully(reference, dst, offset, frameCount);
+        if (read > 0)
+            read = readFully(other, otherBuffer, 0, read);
+        if (read <= 0)
+            return -1;
+
+        for (int i = 0; i < read * channels; ++i)
+            dst[offset + i] = dst[offset + i] * referenceGain - otherBuffer[i] * otherGain;
+
+        position += read;
+        return read;
+    }
+
+    @Override
+    public void warmUp() throws IOException
+    {
+        reference.warmUp();
+        other.warmUp();
+    }
+
+    @Override
+    public void suspend()
+    {
+        reference.suspend();
+        other.suspend();
+        needsSeek = true;
+    }
+
+    @Override
+    public void close()
+    {
+        reference.close();
+        other.close();
+    }
+
+    // Sources may return short reads, this keeps going until frameCount frames or the end.
+    // Returns the number of frames read, 0 at the end of the stream.
+    static int readFully(PcmSource source, float[] dst, int offset, int frameCount) throws IOException
+    {
+        int channels = source.getChannelCount();
+        int filled = 0;
+
+        while (filled < frameCount)
+        {
+            int read = source.read(dst, offset + filled * channels, frameCount - filled);
+            if (read < 0)
+                break;
+
+            filled += read;
+        }
+
+        return filled;
+    }
+}
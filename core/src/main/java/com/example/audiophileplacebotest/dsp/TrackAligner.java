@@ -0,0 +1,243 @@
+//--------------------------------------------------
+//
+// Filename:    TrackAligner.java
+// Author:      Daniel Walther
+// Brief:       Finds how far each track is shifted
+//              against the first one (encoder delay,
+//              padding) by cross-correlating a
+//              window of audio with FFTs. Tracks
+//              are worked on in parallel.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+import com.example.audiophileplacebotest.playback.PositionMath;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class TrackAligner
+{
+    // Frames compared per track, at the first track's sample rate. Long enough to be
+    // unambiguous on real music, short enough to decode quickly.
+    public static final int WINDOW_FRAMES = 1 << 16;
+
+    // Intros are often silent, so the window starts a little way in if the track is long enough
+    public static final long WINDOW_START_MILLIS = 5000;
+
+    // Largest shift looked for in either direction
+    public static final long MAX_OFFSET_MILLIS = 500;
+
+    private static final int FFT_SIZE = WINDOW_FRAMES * 2;
+
+    private final ForkJoinPool pool;
+    private final Fft fft = new Fft(FFT_SIZE);
+
+    public TrackAligner(ForkJoinPool pool_)
+    {
+        pool = pool_;
+    }
+
+    // Offset of every track in flicks: content heard at time t of the first track is at
+    // t + offset in the other. Shifted so the smallest offset is 0, which lets every
+    // track be lined up with the shared clock without seeking before its start.
+    // Sources are left at arbitrary positions.
+    public long[] align(PcmSource[] sources) throws IOException
+    {
+        long[] offsets = new long[sources.length];
+        if (sources.length < 2)
+            return offsets;
+
+        AlignAllTask task = new AlignAllTask(sources);
+        pool.invoke(task);
+
+        for (TrackTask t : task.tracks)
+        {
+            if (t.error != null)
+                throw t.error;
+        }
+        if (task.error != null)
+            throw task.error;
+
+        int referenceRate = sources[0].getSampleRate();
+        long min = 0;
+        for (int i = 1; i < sources.length; ++i)
+        {
+            offsets[i] = PositionMath.framesToFlicks(task.tracks.get(i - 1).lagFrames, referenceRate);
+            min = Math.min(min, offsets[i]);
+        }
+
+        for (int i = 0; i < sources.length; ++i)
+            offsets[i] -= min;
+
+        return offsets;
+    }
+
+    // Reads the reference spectrum once, then correlates every other track against it
+    private class AlignAllTask extends RecursiveAction
+    {
+        final PcmSource[] sources;
+        final List<TrackTask> tracks = new ArrayList<>();
+        IOException error = null;
+
+        AlignAllTask(PcmSource[] sources_)
+        {
+            sources = sources_;
+        }
+
+        @Override
+        protected void compute()
+        {
+            PcmSource reference = sources[0];
+            int rate = reference.getSampleRate();
+            long startMillis = windowStartMillis(reference);
+
+            double[] re = new double[FFT_SIZE];
+            double[] im = new double[FFT_SIZE];
+
+            try
+            {
+                readWindow(reference, startMillis, rate, re);
+            }
+            catch (IOException e)
+            {
+                error = e;
+                return;
+            }
+
+            fft.forward(re, im);
+
+            int maxLag = (int) PositionMath.millisToFrames(MAX_OFFSET_MILLIS, rate);
+            for (int i = 1; i < sources.length; ++i)
+                tracks.add(new TrackTask(sources[i], startMillis, rate, maxLag, re, im));
+
+            invokeAll(tracks);
+        }
+    }
+
+    private class TrackTask extends RecursiveAction
+    {
+        final PcmSource source;
+        final long startMillis;
+        final int referenceRate;
+        final int maxLag;
+        final double[] referenceRe;
+        final double[] referenceIm;
+
+        long lagFrames = 0;
+        IOException error = null;
+
+        TrackTask(PcmSource source_, long startMillis_, int referenceRate_, int maxLag_,
+                  double[] referenceRe_, double[] referenceIm_)
+        {
+            source = source_;
+            startMillis = startMillis_;
+            referenceRate = referenceRate_;
+            maxLag = maxLag_;
+            referenceRe = referenceRe_;
+            referenceIm = referenceIm_;
+        }
+
+        @Override
+        protected void compute()
+        {
+            double[] re = new double[FFT_SIZE];
+            double[] im = new double[FFT_SIZE];
+
+            try
+            {
+                readWindow(source, startMillis, referenceRate, re);
+            }
+            catch (IOException e)
+            {
+                error = e;
+                return;
+            }
+
+            // Cross-spectrum with the reference, its inverse is the correlation at every lag
+            fft.forward(re, im);
+            for (int k = 0; k < FFT_SIZE; ++k)
+            {
+                double r = re[k] * referenceRe[k] + im[k] * referenceIm[k];
+                double i = im[k] * referenceRe[k] - re[k] * referenceIm[k];
+                re[k] = r;
+                im[k] = i;
+            }
+            fft.inverse(re, im);
+
+            // Negative lags wrap around to the end
+            double best = Double.NEGATIVE_INFINITY;
+            for (int lag = -maxLag; lag <= maxLag; ++lag)
+            {
+                double value = re[lag < 0 ? FFT_SIZE + lag : lag];
+                if (value > best)
+                {
+                    best = value;
+                    lagFrames = lag;
+                }
+            }
+        }
+    }
+
+    private static long windowStartMillis(PcmSource reference)
+    {
+        long frames = reference.getFrameCount();
+        if (frames < 0)
+            return WINDOW_START_MILLIS;
+
+        // Short tracks use their middle instead
+        long spare = PositionMath.framesToMillis(frames, reference.getSampleRate())
+                - PositionMath.framesToMillis(WINDOW_FRAMES, reference.getSampleRate());
+        return Math.max(Math.min(WINDOW_START_MILLIS, spare / 2), 0);
+    }
+
+    // Fills the first WINDOW_FRAMES of dst with a mono mix of the source from startMillis on,
+    // resampled to targetRate. The rest of dst is zeroed as padding for the correlation.
+    private static void readWindow(PcmSource source, long startMillis, int targetRate, double[] dst)
+            throws IOException
+    {
+        int rate = source.getSampleRate();
+        int channels = source.getChannelCount();
+        int frames = (int) ((long) WINDOW_FRAMES * rate / targetRate) + 2;
+
+        double[] mono = new double[frames];
+        float[] buffer = new float[4096 * channels];
+
+        source.seekTo(PositionMath.millisToFrames(startMillis, rate));
+
+        int filled = 0;
+        while (filled < frames)
+        {
+            int read = source.read(buffer, 0, Math.min(4096, frames - filled));
+            if (read < 0)
+                break;
+
+            for (int i = 0; i < read; ++i)
+            {
+                double sum = 0;
+                for (int c = 0; c < channels; ++c)
+                    sum += buffer[i * channels + c];
+                mono[filled + i] = sum / channels;
+            }
+            filled += read;
+        }
+
+        // Linear interpolation is plenty for finding a peak, and exact when the rates match
+        double step = (double) rate / targetRate;
+        for (int i = 0; i < WINDOW_FRAMES; ++i)
+        {
+            double pos = i * step;
+            int index = (int) pos;
+            double frac = pos - index;
+            dst[i] = index + 1 < frames ? mono[index] * (1.0 - frac) + mono[index + 1] * frac : 0;
+        }
+
+        for (int i = WINDOW_FRAMES; i < dst.length; ++i)
+            dst[i] = 0;
+    }
+}
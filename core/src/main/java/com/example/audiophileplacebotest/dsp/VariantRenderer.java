@@ -0,0 +1,244 @@
+//--------------------------------------------------
+//
+// Filename:    VariantRenderer.java
+// Author:      Daniel Walther
+// Brief:       Renders lower bit depth and other
+//              rate versions of a track to WAV files.
+//              One decode pass feeds every variant,
+//              memory use doesn't grow with length.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.codec.WavWriter;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class VariantRenderer
+{
+    public static final int BLOCK_FRAMES = 8192;
+
+    public static class Variant
+    {
+        private final File file;
+        private final int sampleRate;
+        private final int bits;
+        private final int dither;
+
+        // sampleRate of 0 keeps the source rate, bits of 0 writes 32 bit float.
+        // dither is one of the Requantizer modes.
+        public Variant(File file_, int sampleRate_, int bits_, int dither_)
+        {
+            file = file_;
+            sampleRate = sampleRate_;
+            bits = bits_;
+            dither = dither_;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public int getSampleRate()
+        {
+            return sampleRate;
+        }
+
+        public int getBits()
+        {
+            return bits;
+        }
+
+        public int getDither()
+        {
+            return dither;
+        }
+    }
+
+    // Without a pool every variant is rendered on the calling thread, after the decode
+    private final ForkJoinPool pool;
+
+    public VariantRenderer(ForkJoinPool pool_)
+    {
+        pool = pool_;
+    }
+
+    // Writes every variant, or none of them if anything fails or the thread is interrupted
+    public void render(PcmSource source, List<Variant> variants) throws IOException
+    {
+        int channelCount = source.getChannelCount();
+        Chain[] chains = new Chain[variants.size()];
+        BlockTask[] tasks = new BlockTask[variants.size()];
+
+        // Two input blocks, the next one is decoded while the variants work on the current one
+        float[] current = new float[BLOCK_FRAMES * channelCount];
+        float[] next = new float[BLOCK_FRAMES * channelCount];
+
+        boolean isDone = false;
+        try
+        {
+            for (int i = 0; i < chains.length; ++i)
+                chains[i] = new Chain(variants.get(i), source.getSampleRate(), channelCount);
+
+            source.seekTo(0);
+            int frames = source.read(current, 0, BLOCK_FRAMES);
+
+            while (frames >= 0)
+            {
+                if (Thread.interrupted())
+                    throw new InterruptedIOException("Variant rendering cancelled");
+
+                start(chains, tasks, current, frames);
+                int nextFrames;
+                try
+                {
+                    nextFrames = source.read(next, 0, BLOCK_FRAMES);
+                }
+                finally
+                {
+                    finish(tasks);
+                }
+
+                float[] swap = current;
+                current = next;
+                next = swap;
+                frames = nextFrames;
+            }
+
+            // Flushes the resamplers
+            start(chains, tasks, current, -1);
+            finish(tasks);
+
+            for (Chain chain : chains)
+                chain.writer.close();
+
+            isDone = true;
+        }
+        finally
+        {
+            if (!isDone)
+            {
+                for (int i = 0; i < chains.length; ++i)
+                {
+                    if (chains[i] != null)
+                        chains[i].closeQuietly();
+                    variants.get(i).getFile().delete();
+                }
+            }
+        }
+    }
+
+    // One fresh task per chain and block. That's a handful of objects per block of audio, and each
+    // join then waits on a task that can only complete once.
+    private void start(Chain[] chains, BlockTask[] tasks, float[] input, int frames)
+    {
+        for (int i = 0; i < chains.length; ++i)
+        {
+            tasks[i] = new BlockTask(chains[i], input, frames);
+
+            if (pool == null)
+                tasks[i].invoke();
+            else
+                pool.execute(tasks[i]);
+        }
+    }
+
+    // Waits for all of them, so no chain is still writing when an error is thrown
+    private static void finish(BlockTask[] tasks) throws IOException
+    {
+        for (BlockTask task : tasks)
+            task.join();
+
+        for (BlockTask task : tasks)
+        {
+            if (task.error != null)
+                throw task.error;
+        }
+    }
+
+    // Resampling, requantizing and writing for one variant
+    private static class Chain
+    {
+        final int channelCount;
+        final Resampler resampler;
+        final Requantizer requantizer;
+        final WavWriter writer;
+        final float[] output;
+
+        Chain(Variant variant, int sourceRate, int channelCount_) throws IOException
+        {
+            channelCount = channelCount_;
+
+            int rate = variant.getSampleRate() == 0 ? sourceRate : variant.getSampleRate();
+            resampler = rate == sourceRate ? null : new Resampler(sourceRate, rate, channelCount);
+            requantizer = variant.getBits() == 0 ? null : new Requantizer(variant.getBits(), variant.getDither(), channelCount);
+            output = new float[(resampler == null ? BLOCK_FRAMES : resampler.getMaxOutput(BLOCK_FRAMES)) * channelCount];
+            writer = new WavWriter(variant.getFile(), rate, channelCount, variant.getBits());
+        }
+
+        // Frames of -1 flushes the resampler
+        void render(float[] input, int frames) throws IOException
+        {
+            int count;
+            if (resampler != null)
+                count = frames < 0 ? resampler.flush(output, 0) : resampler.process(input, 0, frames, output, 0);
+            else
+            {
+                count = Math.max(frames, 0);
+                System.arraycopy(input, 0, output, 0, count * channelCount);
+            }
+
+            if (requantizer != null)
+                requantizer.process(output, 0, count);
+
+            writer.write(output, 0, count);
+        }
+
+        void closeQuietly()
+        {
+            try
+            {
+                writer.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    private static class BlockTask extends RecursiveAction
+    {
+        final Chain chain;
+        final float[] input;
+        final int frames;
+        IOException error = null;
+
+        BlockTask(Chain chain_, float[] input_, int frames_)
+        {
+            chain = chain_;
+            input = input_;
+            frames = frames_;
+        }
+
+        @Override
+        protected void compute()
+        {
+            try
+            {
+                chain.render(input, frames);
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+//--------------------------------------------------
+//
+// Filename:    WaveformPyramid.java
+// Author:      Daniel Walther
+// Brief:       Min/max peaks of a whole track at
+//              several zoom levels, built in one
+//              pass over the decoded audio. Drawing
+//              any range reads only a few buckets
+//              per pixel, however long the track.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+public class WaveformPyramid
+{
+    public static final int MAGIC = 0x57465059; // "WFPY"
+    public static final int VERSION = 1;
+
+    // Frames per bucket on the finest level, about 20 ms at 48 kHz
+    public static final int BASE_FRAMES_PER_BUCKET = 1024;
+
+    // Each level has this many times fewer buckets than the one below
+    public static final int LEVEL_FACTOR = 4;
+
+    // Coarser levels aren't worth keeping, any view is wider than this
+    private static final int MIN_TOP_BUCKETS = 64;
+
+    // Peaks are stored as 8-bit values, plenty for a few dozen pixels of height
+    private static final float SCALE = 127f;
+
+    private static final int READ_FRAMES = 4096;
+
+    private final int sampleRate;
+    private final long frameCount;
+    private final byte[][] mins;
+    private final byte[][] maxs;
+
+    private WaveformPyramid(int sampleRate_, long frameCount_, byte[][] mins_, byte[][] maxs_)
+    {
+        sampleRate = sampleRate_;
+        frameCount = frameCount_;
+        mins = mins_;
+        maxs = maxs_;
+    }
+
+    // Collects peaks of interleaved samples as they are decoded
+    public static class Builder
+    {
+        private final int channelCount;
+        private final int sampleRate;
+
+        private byte[] baseMins;
+        private byte[] baseMaxs;
+        private int bucketCount = 0;
+
+        private long frameCount = 0;
+        private int bucketFrames = 0;
+        private float bucketMin = Float.MAX_VALUE;
+        private float bucketMax = -Float.MAX_VALUE;
+
+        // expectedFrames sizes the arrays up front, -1 if unknown
+        public Builder(int sampleRate_, int channelCount_, long expectedFrames)
+        {
+            sampleRate = sampleRate_;
+            channelCount = channelCount_;
+
+            int capacity = expectedFrames > 0 ? (int) (expectedFrames / BASE_FRAMES_PER_BUCKET + 1) : 1024;
+            baseMins = new byte[capacity];
+            baseMaxs = new byte[capacity];
+        }
+
+        // Does not allocate, apart from growing the arrays when the expected length was wrong
+        public void add(float[] samples, int offset, int frames)
+        {
+            int index = offset;
+
+            for (int i = 0; i < frames; ++i)
+            {
+                for (int c = 0; c < channelCount; ++c)
+                {
+                    float s = samples[index++];
+                    if (s < bucketMin)
+                        bucketMin = s;
+                    if (s > bucketMax)
+                        bucketMax = s;
+                }
+
+                if (++bucketFrames == BASE_FRAMES_PER_BUCKET)
+                    endBucket();
+            }
+
+            frameCount += frames;
+        }
+
+        public WaveformPyramid build()
+        {
+            if (bucketFrames > 0)
+                endBucket();
+
+            // Finest level first, then every coarser one from the level below it
+            int levelCount = 1;
+            for (int n = bucketCount; n > MIN_TOP_BUCKETS; n = (n + LEVEL_FACTOR - 1) / LEVEL_FACTOR)
+                ++levelCount;
+
+            byte[][] mins = new byte[levelCount][];
+            byte[][] maxs = new byte[levelCount][];
+            mins[0] = Arrays.copyOf(baseMins, bucketCount);
+            maxs[0] = Arrays.copyOf(baseMaxs, bucketCount);
+
+            for (int level = 1; level < levelCount; ++level)
+            {
+                byte[] lowerMins = mins[level - 1];
+                byte[] lowerMaxs = maxs[level - 1];
+                int count = (lowerMins.length + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+
+                mins[level] = new byte[count];
+                maxs[level] = new byte[count];
+
+                for (int i = 0; i < count; ++i)
+                {
+                    int from = i * LEVEL_FACTOR;
+                    int to = Math.min(from + LEVEL_FACTOR, lowerMins.length);
+
+                    byte min = Byte.MAX_VALUE;
+                    byte max = Byte.MIN_VALUE;
+                    for (int j = from; j < to; ++j)
+                    {
+                        if (lowerMins[j] < min)
+                            min = lowerMins[j];
+                        if (lowerMaxs[j] > max)
+                            max = lowerMaxs[j];
+                    }
+
+                    mins[level][i] = min;
+                    maxs[level][i] = max;
+                }
+            }
+
+            return new WaveformPyramid(sampleRate, frameCount, mins, maxs);
+        }
+
+        // Rounded outwards, so short peaks never disappear
+        private void endBucket()
+        {
+            if (bucketCount == baseMins.length)
+            {
+                baseMins = Arrays.copyOf(baseMins, bucketCount * 2);
+                baseMaxs = Arrays.copyOf(baseMaxs, bucketCount * 2);
+            }
+
+            baseMins[bucketCount] = quantize((float) Math.floor(clamp(bucketMin) * SCALE));
+            baseMaxs[bucketCount] = quantize((float) Math.ceil(clamp(bucketMax) * SCALE));
+            ++bucketCount;
+
+            bucketFrames = 0;
+            bucketMin = Float.MAX_VALUE;
+            bucketMax = -Float.MAX_VALUE;
+        }
+
+        private static float clamp(float s)
+        {
+            return Math.max(-1f, Math.min(1f, s));
+        }
+
+        private static byte quantize(float v)
+        {
+            return (byte) Math.max(-SCALE, Math.min(SCALE, v));
+        }
+    }
+
+    // Decodes the whole source once, the source is left at its end.
+    // Checks for interruption between blocks.
+    public static WaveformPyramid build(PcmSource source) throws IOException
+    {
+        source.seekTo(0);
+
+        int channels = source.getChannelCount();
+        Builder builder = new Builder(source.getSampleRate(), channels, source.getFrameCount());
+        float[] buffer = new float[READ_FRAMES * channels];
+
+        int frames;
+        while ((frames = source.read(buffer, 0, READ_FRAMES)) >= 0)
+        {
+            if (Thread.interrupted())
+                throw new InterruptedIOException("Waveform build cancelled");
+
+            builder.add(buffer, 0, frames);
+        }
+
+        return builder.build();
+    }
+
+    // Fills min/max (-1..1) for each of the pixels spanning [startFrame, endFrame), using
+    // the coarsest level that still has at least one bucket per pixel. Each pixel reads
+    // at most LEVEL_FACTOR + 1 buckets. Returns the level used.
+    public int render(long startFrame, long endFrame, int pixels, float[] min, float[] max)
+    {
+        int level = getLevelFor(endFrame - startFrame, pixels);
+        byte[] levelMins = mins[level];
+        byte[] levelMaxs = maxs[level];
+        long bucketFrames = getFramesPerBucket(level);
+        long span = endFrame - startFrame;
+
+        for (int px = 0; px < pixels; ++px)
+        {
+            long from = startFrame + span * px / pixels;
+            long to = startFrame + span * (px + 1) / pixels;
+
+            long first = Math.max(from, 0) / bucketFrames;
+            long last = Math.min(Math.max((to + bucketFrames - 1) / bucketFrames, first + 1), levelMins.length);
+
+            byte lo = Byte.MAX_VALUE;
+            byte hi = Byte.MIN_VALUE;
+            for (long b = first; b < last; ++b)
+            {
+                if (levelMins[(int) b] < lo)
+                    lo = levelMins[(int) b];
+                if (levelMaxs[(int) b] > hi)
+                    hi = levelMaxs[(int) b];
+            }
+
+            // Outside the track
+            if (lo > hi)
+                lo = hi = 0;
+
+            min[px] = lo / SCALE;
+            max[px] = hi / SCALE;
+        }
+
+        return level;
+    }
+
+    public int getLevelFor(long frames, int pixels)
+    {
+        long framesPerPixel = pixels > 0 ? frames / pixels : frames;
+
+        int level = 0;
+        while (level + 1 < mins.length && getFramesPerBucket(level + 1) <= framesPerPixel)
+            ++level;
+
+        return level;
+    }
+
+    public static long getFramesPerBucket(int level)
+    {
+        long frames = BASE_FRAMES_PER_BUCKET;
+        for (int i = 0; i < level; ++i)
+            frames *= LEVEL_FACTOR;
+
+        return frames;
+    }
+
+    public int getLevelCount()
+    {
+        return mins.length;
+    }
+
+    public int getBucketCount(int level)
+    {
+        return mins[level].length;
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    public long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    // region Serialization
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sampleRate);
+        out.writeLong(frameCount);
+        out.writeInt(mins.length);
+
+        for (int level = 0; level < mins.length; ++level)
+        {
+            out.writeInt(mins[level].length);
+            out.write(mins[level]);
+            out.write(maxs[level]);
+        }
+    }
+
+    public static WaveformPyramid readFrom(DataInput in) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("Not a waveform file");
+
+        int sampleRate = in.readInt();
+        long frameCount = in.readLong();
+        int levelCount = in.readInt();
+        if (levelCount < 1 || levelCount > 32)
+            throw new IOException("Bad level count " + levelCount);
+
+        byte[][] mins = new byte[levelCount][];
+        byte[][] maxs = new byte[levelCount][];
+        for (int level = 0; level < levelCount; ++level)
+        {
+            int count = in.readInt();
+            if (count < 0 || (level > 0 && count > mins[level - 1].length))
+                throw new IOException("Bad bucket count " + count);
+
+            mins[level] = new byte[count];
+            maxs[level] = new byte[count];
+            in.readFully(mins[level]);
+            in.readFully(maxs[level]);
+        }
+
+        return new WaveformPyramid(sampleRate, frameCount, mins, maxs);
+    }
+    // endregion
+}
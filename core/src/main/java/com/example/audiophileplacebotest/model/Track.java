@@ -0,0 +1,323 @@
+//--------------------------------------------------
+//
+// Filename:    Track.java
+// Author:      Daniel Walther
+// Brief:       Properties of one audio file and its
+//              state in a comparison, independent of
+//              where the file is stored
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.model;
+
+import com.example.audiophileplacebotest.cache.MetadataCache;
+import com.example.audiophileplacebotest.dsp.EffectiveSpecAnalyzer;
+import com.example.audiophileplacebotest.dsp.LoudnessAnalyzer;
+import com.example.audiophileplacebotest.dsp.WaveformPyramid;
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+import com.example.audiophileplacebotest.parser.ContainerParser;
+
+import java.io.InputStream;
+import java.util.Locale;
+
+public class Track
+{
+    // Identifies the file to its TrackStorage and the metadata cache, e.g. a URI or path
+    private final String key;
+
+    private String filename;
+    private String fileformat;
+
+    private String bitdepth;
+    private String samplerate;
+    private String bitrate;
+    private AudioMetadata metadata;
+
+    // Used to tell whether a cached probe result is still valid
+    private long fileSize = -1;
+    private long lastModified = 0;
+
+    // Metadata is only valid once probed
+    private volatile boolean isProbed;
+    private long probeTimeNanos;
+    private Exception probeError;
+
+    // Null until the decoded audio has been measured
+    private volatile LoudnessAnalyzer.Result loudness;
+
+    // Null until built or loaded from the waveform cache
+    private volatile WaveformPyramid waveform;
+
+    // Null until the decoded audio has been checked for padding, upsampling or lossy origins
+    private volatile EffectiveSpecAnalyzer.Result effectiveSpecs;
+
+    // Shift against the other loaded tracks in flicks, see TrackAligner
+    private long alignmentOffsetFlicks = 0;
+
+    // Comparison state
+    private boolean isHidden;
+    private boolean globalControlsEnabled;
+    private boolean isSelected;
+
+    // Creates a placeholder entry, call probe() off the UI thread to fill in metadata
+    public Track(String key_)
+    {
+        key = key_;
+        isHidden = false;
+        isProbed = false;
+    }
+
+    // Reads filename and file properties from the file itself, or from the cache if it has
+    // seen this file before. Does blocking I/O, so this must not be called from the UI thread.
+    // Failures leave the properties empty and are kept in getProbeError().
+    public void probe(TrackStorage storage, ContainerParser parser, MetadataCache cache)
+    {
+        long startTime = System.nanoTime();
+
+        try
+        {
+            // Get filename, size and modification date
+            storage.queryFileInfo(this);
+            formatFromExtension();
+
+            // Files without a known size can't be told apart from edited versions, never cache them
+            boolean isCacheable = cache != null && fileSize >= 0;
+
+            if (isCacheable)
+                metadata = cache.get(key, fileSize, lastModified);
+
+            if (metadata == null)
+            {
+                metadata = parseMetadata(storage, parser);
+
+                if (isCacheable)
+                    cache.put(key, fileSize, lastModified, metadata);
+            }
+
+            formatFromMetadata();
+        }
+        catch (Exception e)
+        {
+            probeError = e;
+        }
+
+        if (filename == null)
+            filename = "UNKNOWN";
+
+        probeTimeNanos = System.nanoTime() - startTime;
+
+        // Publish results last so other threads see a fully probed file
+        isProbed = true;
+    }
+
+    // Takes properties known ahead of time, e.g. of files shipped with the app, instead of
+    // probing. Does no I/O, the track counts as probed afterwards.
+    public void setPrecomputed(String filename_, long fileSize_, long lastModified_, AudioMetadata metadata_)
+    {
+        setFileInfo(filename_, fileSize_, lastModified_);
+        formatFromExtension();
+        metadata = metadata_;
+        formatFromMetadata();
+        isProbed = true;
+    }
+
+    // Determine filetype from extension
+    private void formatFromExtension()
+    {
+        if (filename != null)
+            fileformat = filename.substring(filename.lastIndexOf('.') + 1).toUpperCase();
+        else
+            fileformat = filename = "UNKNOWN";
+    }
+
+    private void formatFromMetadata()
+    {
+        // Format is determined by content, regardless of extension
+        if (metadata.getFormat() != null)
+            fileformat = metadata.getFormat();
+
+        samplerate = formatSampleRate(metadata.getSampleRate());
+
+        if (metadata.isLossless())
+            bitdepth = metadata.getBitDepth() + "-bit";
+        else if (metadata.getBitrate() > 0)
+            bitrate = metadata.getBitrate() / 1000 + " kbps";
+    }
+
+    // Reads properties straight from the container header
+    private AudioMetadata parseMetadata(TrackStorage storage, ContainerParser parser) throws Exception
+    {
+        AudioMetadata parsed;
+
+        InputStream is = storage.open(this);
+        try
+        {
+            parsed = parser.parse(is, fileSize);
+        }
+        finally
+        {
+            is.close();
+        }
+
+        // Unknown container, let the platform figure it out
+        if (parsed == null)
+            parsed = storage.extractMetadata(this);
+
+        if (parsed == null)
+            throw new IllegalStateException("Unknown format: " + filename);
+
+        return parsed;
+    }
+
+    // 44100 -> "44.1 kHz", 48000 -> "48 kHz"
+    public static String formatSampleRate(int sampleRate)
+    {
+        float sRate = sampleRate / 1000f;
+        if (sRate == (int) sRate)
+            return String.format(Locale.getDefault(), "%d kHz", (int) sRate);
+        else
+            return String.format(Locale.getDefault(), "%s kHz", sRate);
+    }
+
+    // Called by TrackStorage while probing. Size is -1 if unknown.
+    public void setFileInfo(String filename_, long fileSize_, long lastModified_)
+    {
+        filename = filename_;
+        fileSize = fileSize_;
+        lastModified = lastModified_;
+    }
+
+    // region Getters/Setters
+    public String getKey()
+    {
+        return key;
+    }
+
+    public String getFilename()
+    {
+        return filename;
+    }
+
+    public String getFileformat()
+    {
+        return fileformat;
+    }
+
+    public String getSamplerate()
+    {
+        return samplerate;
+    }
+
+    public String getBitrate()
+    {
+        return bitrate;
+    }
+
+    public String getBitdepth()
+    {
+        return bitdepth;
+    }
+
+    public AudioMetadata getMetadata()
+    {
+        return metadata;
+    }
+
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public boolean isProbed()
+    {
+        return isProbed;
+    }
+
+    public long getProbeTimeNanos()
+    {
+        return probeTimeNanos;
+    }
+
+    // Null if probing went fine
+    public Exception getProbeError()
+    {
+        return probeError;
+    }
+
+    public LoudnessAnalyzer.Result getLoudness()
+    {
+        return loudness;
+    }
+
+    public void setLoudness(LoudnessAnalyzer.Result loudness_)
+    {
+        loudness = loudness_;
+    }
+
+    public WaveformPyramid getWaveform()
+    {
+        return waveform;
+    }
+
+    public void setWaveform(WaveformPyramid waveform_)
+    {
+        waveform = waveform_;
+    }
+
+    public EffectiveSpecAnalyzer.Result getEffectiveSpecs()
+    {
+        return effectiveSpecs;
+    }
+
+    public void setEffectiveSpecs(EffectiveSpecAnalyzer.Result effectiveSpecs_)
+    {
+        effectiveSpecs = effectiveSpecs_;
+    }
+
+    public long getAlignmentOffsetFlicks()
+    {
+        return alignmentOffsetFlicks;
+    }
+
+    public void setAlignmentOffsetFlicks(long offsetFlicks)
+    {
+        alignmentOffsetFlicks = offsetFlicks;
+    }
+
+    public boolean isHidden()
+    {
+        return isHidden;
+    }
+
+    public void setHidden(boolean hidden)
+    {
+        isHidden = hidden;
+    }
+
+    public boolean isGlobalControlsEnabled()
+    {
+        return globalControlsEnabled;
+    }
+
+    public void setGlobalControlsEnabled(boolean globalControlsEnabled_)
+    {
+        globalControlsEnabled = globalControlsEnabled_;
+    }
+
+    // Whether this is the track routed to the output with global controls enabled
+    public boolean isSelected()
+    {
+        return isSelected;
+    }
+
+    public void setSelected(boolean selected)
+    {
+        isSelected = selected;
+    }
+    // endregion
+}
@@ -0,0 +1,29 @@
+//--------------------------------------------------
+//
+// Filename:    TrackStorage.java
+// Author:      Daniel Walther
+// Brief:       Access to the bytes behind a Track,
+//              implemented by whatever platform the
+//              tracks are stored on
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.model;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface TrackStorage
+{
+    // Looks up name, size and modification date and passes them to Track.setFileInfo()
+    void queryFileInfo(Track track) throws IOException;
+
+    // Opens the file from its first byte
+    InputStream open(Track track) throws IOException;
+
+    // Platform's own idea of the stream properties, for containers ContainerParser doesn't know.
+    // Returns null if the platform can't tell either.
+    AudioMetadata extractMetadata(Track track) throws IOException;
+}
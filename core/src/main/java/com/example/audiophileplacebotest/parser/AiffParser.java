@@ -0,0 +1,84 @@
+//--------------------------------------------------
+//
+// Filename:    AiffParser.java
+// Author:      Daniel Walther
+// Brief:       Walks the chunks of AIFF/AIFC
+//              files
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import java.io.IOException;
+
+final class AiffParser
+{
+    private static final int AIFF = 0x41494646;   // "AIFF"
+    private static final int AIFC = 0x41494643;   // "AIFC"
+    private static final int COMM = 0x434F4D4D;   // "COMM"
+
+    private static final int FL32 = 0x666C3332;   // "fl32"
+    private static final int FL32_UPPER = 0x464C3332; // "FL32"
+    private static final int FL64 = 0x666C3634;   // "fl64"
+
+    private AiffParser() {}
+
+    static AudioMetadata parse(ByteReader reader) throws IOException
+    {
+        reader.skip(8); // "FORM" and size
+
+        int formType = reader.readIntBE();
+        if (formType != AIFF && formType != AIFC)
+            throw new IOException("FORM file is not AIFF");
+
+        while (reader.request(8))
+        {
+            int chunkId = reader.readIntBE();
+            long chunkSize = reader.readU32BE();
+
+            if (chunkId == COMM && chunkSize >= 18)
+            {
+                int channels = reader.readU16BE();
+                long frames = reader.readU32BE();
+                int bitDepth = reader.readU16BE();
+                int sampleRate = (int) Math.round(readExtended(reader));
+
+                // AIFC stores float samples with a compression type
+                if (formType == AIFC && chunkSize >= 22)
+                {
+                    int compression = reader.readIntBE();
+
+                    if (compression == FL32 || compression == FL32_UPPER)
+                        bitDepth = 32;
+                    else if (compression == FL64)
+                        bitDepth = 64;
+                }
+
+                long bitrate = (long) sampleRate * channels * bitDepth;
+                return new AudioMetadata("AIFF", sampleRate, bitDepth, channels, frames,
+                        (int) Math.min(bitrate, Integer.MAX_VALUE));
+            }
+
+            // Chunks are padded to an even size
+            reader.skip(chunkSize + (chunkSize & 1));
+        }
+
+        throw new IOException("AIFF file has no COMM chunk");
+    }
+
+    // AIFF stores the sample rate as an 80-bit IEEE 754 extended float
+    static double readExtended(ByteReader reader) throws IOException
+    {
+        int signAndExponent = reader.readU16BE();
+        long mantissa = reader.readLongBE();
+
+        int exponent = signAndExponent & 0x7FFF;
+        if (exponent == 0 && mantissa == 0)
+            return 0;
+
+        // Mantissa has an explicit integer bit, drop the bits a double can't hold anyway
+        double value = Math.scalb((double) (mantissa >>> 11), exponent - 16383 - 52);
+
+        return (signAndExponent & 0x8000) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,108 @@
+//--------------------------------------------------
+//
+// Filename:    AudioMetadata.java
+// Author:      Daniel Walther
+// Brief:       Stream properties read from a
+//              container header by
+//              ContainerParser
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+public final class AudioMetadata
+{
+    public static final int UNKNOWN = -1;
+
+    private final String format;
+    private final int sampleRate;
+    private final int bitDepth;      // 0 for lossy formats
+    private final int channelCount;
+    private final long totalSamples; // Per channel, UNKNOWN if not stored in the header
+    private final int bitrate;       // Bits per second, UNKNOWN if it cannot be determined
+
+    // Gapless info from LAME/iTunes style tags, in samples
+    private final int encoderDelay;
+    private final int encoderPadding;
+
+    public AudioMetadata(String format_, int sampleRate_, int bitDepth_, int channelCount_,
+                         long totalSamples_, int bitrate_)
+    {
+        this(format_, sampleRate_, bitDepth_, channelCount_, totalSamples_, bitrate_, 0, 0);
+    }
+
+    public AudioMetadata(String format_, int sampleRate_, int bitDepth_, int channelCount_,
+                         long totalSamples_, int bitrate_, int encoderDelay_, int encoderPadding_)
+    {
+        format = format_;
+        sampleRate = sampleRate_;
+        bitDepth = bitDepth_;
+        channelCount = channelCount_;
+        totalSamples = totalSamples_;
+        bitrate = bitrate_;
+        encoderDelay = encoderDelay_;
+        encoderPadding = encoderPadding_;
+    }
+
+    public boolean isLossless()
+    {
+        return bitDepth > 0;
+    }
+
+    public long getDurationMillis()
+    {
+        if (totalSamples < 0 || sampleRate <= 0)
+            return UNKNOWN;
+
+        return totalSamples * 1000 / sampleRate;
+    }
+
+    // region Getters
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    public int getBitDepth()
+    {
+        return bitDepth;
+    }
+
+    public int getChannelCount()
+    {
+        return channelCount;
+    }
+
+    public long getTotalSamples()
+    {
+        return totalSamples;
+    }
+
+    public int getBitrate()
+    {
+        return bitrate;
+    }
+
+    public int getEncoderDelay()
+    {
+        return encoderDelay;
+    }
+
+    public int getEncoderPadding()
+    {
+        return encoderPadding;
+    }
+    // endregion
+
+    @Override
+    public String toString()
+    {
+        return format + " " + sampleRate + " Hz, " + bitDepth + "-bit, " + channelCount + " ch, "
+                + totalSamples + " samples, " + bitrate + " bps";
+    }
+}
@@ -0,0 +1,241 @@
+//--------------------------------------------------
+//
+// Filename:    ByteReader.java
+// Author:      Daniel Walther
+// Brief:       Forward-only reader over an
+//              InputStream through a small
+//              reusable buffer. Shared by all
+//              container parsers.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public final class ByteReader
+{
+    // Large enough to hold any single header/frame we need to look at
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private final byte[] array = new byte[BUFFER_SIZE];
+
+    // Two views over the same bytes, only absolute getters are used
+    private final ByteBuffer bigEndian = ByteBuffer.wrap(array).order(ByteOrder.BIG_ENDIAN);
+    private final ByteBuffer littleEndian = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+
+    private InputStream in;
+    private long length;
+
+    private long bufferStart; // Stream offset of array[0]
+    private int pos;
+    private int limit;
+
+    // Points the reader at a new stream, length is -1 if unknown
+    public void reset(InputStream in_, long length_)
+    {
+        in = in_;
+        length = length_;
+        bufferStart = 0;
+        pos = 0;
+        limit = 0;
+    }
+
+    // Drops the reference to the current stream
+    public void release()
+    {
+        in = null;
+    }
+
+    public long position()
+    {
+        return bufferStart + pos;
+    }
+
+    public long length()
+    {
+        return length;
+    }
+
+    // Bytes left in the stream, or -1 if the length is unknown
+    public long remaining()
+    {
+        return length < 0 ? -1 : length - position();
+    }
+
+    // Makes sure at least count bytes are buffered.
+    // Returns false if the stream ends first.
+    public boolean request(int count) throws IOException
+    {
+        if (count > BUFFER_SIZE)
+            throw new IllegalArgumentException("Cannot buffer more than " + BUFFER_SIZE + " bytes.");
+
+        if (limit - pos >= count)
+            return true;
+
+        // Move unread bytes to the front
+        if (pos > 0)
+        {
+            System.arraycopy(array, pos, array, 0, limit - pos);
+            bufferStart += pos;
+            limit -= pos;
+            pos = 0;
+        }
+
+        while (limit < count)
+        {
+            int read = in.read(array, limit, BUFFER_SIZE - limit);
+            if (read < 0)
+                return false;
+
+            limit += read;
+        }
+
+        return true;
+    }
+
+    public void require(int count) throws IOException
+    {
+        if (!request(count))
+            throw new EOFException("Unexpected end of stream at " + position());
+    }
+
+    // region Peeking (caller must request() first)
+    public int peekU8(int offset)
+    {
+        return array[pos + offset] & 0xFF;
+    }
+
+    public int peekIntBE(int offset)
+    {
+        return bigEndian.getInt(pos + offset);
+    }
+
+    public int peekIntLE(int offset)
+    {
+        return littleEndian.getInt(pos + offset);
+    }
+    // endregion
+
+    // region Reading
+    public int readU8() throws IOException
+    {
+        require(1);
+        return array[pos++] & 0xFF;
+    }
+
+    public int readU16BE() throws IOException
+    {
+        require(2);
+        int value = bigEndian.getShort(pos) & 0xFFFF;
+        pos += 2;
+        return value;
+    }
+
+    public int readU16LE() throws IOException
+    {
+        require(2);
+        int value = littleEndian.getShort(pos) & 0xFFFF;
+        pos += 2;
+        return value;
+    }
+
+    public int readU24BE() throws IOException
+    {
+        require(3);
+        int value = (array[pos] & 0xFF) << 16 | (array[pos + 1] & 0xFF) << 8 | (array[pos + 2] & 0xFF);
+        pos += 3;
+        return value;
+    }
+
+    public int readIntBE() throws IOException
+    {
+        require(4);
+        int value = bigEndian.getInt(pos);
+        pos += 4;
+        return value;
+    }
+
+    public int readIntLE() throws IOException
+    {
+        require(4);
+        int value = littleEndian.getInt(pos);
+        pos += 4;
+        return value;
+    }
+
+    public long readU32BE() throws IOException
+    {
+        return readIntBE() & 0xFFFFFFFFL;
+    }
+
+    public long readU32LE() throws IOException
+    {
+        return readIntLE() & 0xFFFFFFFFL;
+    }
+
+    public long readLongBE() throws IOException
+    {
+        require(8);
+        long value = bigEndian.getLong(pos);
+        pos += 8;
+        return value;
+    }
+
+    public long readLongLE() throws IOException
+    {
+        require(8);
+        long value = littleEndian.getLong(pos);
+        pos += 8;
+        return value;
+    }
+
+    public void readFully(byte[] dst, int offset, int count) throws IOException
+    {
+        require(count);
+        System.arraycopy(array, pos, dst, offset, count);
+        pos += count;
+    }
+    // endregion
+
+    // Skips forward without buffering the skipped bytes
+    public void skip(long count) throws IOException
+    {
+        if (count < 0)
+            throw new IOException("Negative skip at " + position());
+
+        int buffered = limit - pos;
+        if (count <= buffered)
+        {
+            pos += (int) count;
+            return;
+        }
+
+        count -= buffered;
+        bufferStart += limit;
+        pos = 0;
+        limit = 0;
+
+        while (count > 0)
+        {
+            long skipped = in.skip(count);
+
+            // Some streams refuse to skip, read and discard instead
+            if (skipped <= 0)
+            {
+                int read = in.read(array, 0, (int) Math.min(count, BUFFER_SIZE));
+                if (read < 0)
+                    throw new EOFException("Unexpected end of stream at " + bufferStart);
+
+                skipped = read;
+            }
+
+            count -= skipped;
+            bufferStart += skipped;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+//--------------------------------------------------
+//
+// Filename:    ContainerParser.java
+// Author:      Daniel Walther
+// Brief:       Detects an audio container from
+//              its first bytes and hands it to
+//              the matching format parser.
+//              Not thread-safe, use one instance
+//              per thread.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class ContainerParser
+{
+    private static final int ID3 = 0x494433;      // "ID3"
+    private static final int RIFF = 0x52494646;   // "RIFF"
+    private static final int RF64 = 0x52463634;   // "RF64"
+    private static final int BW64 = 0x42573634;   // "BW64"
+    private static final int FORM = 0x464F524D;   // "FORM"
+    private static final int FLAC = 0x664C6143;   // "fLaC"
+    private static final int FTYP = 0x66747970;   // "ftyp"
+
+    private final ByteReader reader = new ByteReader();
+
+    // Reads stream properties from the start of a file.
+    // length is the file size in bytes or -1 if unknown, it is only used for bitrate estimates.
+    // Returns null if the container is not recognized.
+    public AudioMetadata parse(InputStream in, long length) throws IOException
+    {
+        reader.reset(in, length);
+
+        try
+        {
+            boolean hasId3 = skipId3Tags();
+
+            if (!reader.request(12))
+                return null;
+
+            int magic = reader.peekIntBE(0);
+
+            if (magic == RIFF || magic == RF64 || magic == BW64)
+                return RiffParser.parse(reader);
+            if (magic == FORM)
+                return AiffParser.parse(reader);
+            if (magic == FLAC)
+                return FlacParser.parse(reader);
+            if (reader.peekIntBE(4) == FTYP)
+                return Mp4Parser.parse(reader);
+
+            // MPEG audio has no magic number, only look for frames if they are likely
+            if (hasId3 || Mp3Parser.isFrameHeader(magic))
+                return Mp3Parser.parse(reader);
+
+            return null;
+        }
+        finally
+        {
+            reader.release();
+        }
+    }
+
+    // ID3v2 tags can come before MP3 and (rarely) FLAC data
+    private boolean skipId3Tags() throws IOException
+    {
+        boolean found = false;
+
+        while (reader.request(10) && (reader.peekIntBE(0) >>> 8) == ID3)
+        {
+            int flags = reader.peekU8(5);
+
+            // Tag size is stored as a 28-bit "syncsafe" integer
+            int size = reader.peekU8(6) << 21 | reader.peekU8(7) << 14 | reader.peekU8(8) << 7 | reader.peekU8(9);
+
+            // Footer present
+            if ((flags & 0x10) != 0)
+                size += 10;
+
+            reader.skip(10 + size);
+            found = true;
+        }
+
+        return found;
+    }
+}
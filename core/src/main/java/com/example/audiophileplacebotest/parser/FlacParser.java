@@ -0,0 +1,73 @@
+//--------------------------------------------------
+//
+// Filename:    FlacParser.java
+// Author:      Daniel Walther
+// Brief:       Reads STREAMINFO from the FLAC
+//              metadata blocks
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import java.io.IOException;
+
+final class FlacParser
+{
+    private static final int BLOCK_STREAMINFO = 0;
+    private static final int STREAMINFO_LENGTH = 34;
+
+    private FlacParser() {}
+
+    static AudioMetadata parse(ByteReader reader) throws IOException
+    {
+        reader.skip(4); // "fLaC"
+
+        boolean hasStreamInfo = false;
+        int sampleRate = 0;
+        int channels = 0;
+        int bitDepth = 0;
+        long totalSamples = 0;
+
+        // Walk all blocks so we know where the audio frames start
+        boolean isLast = false;
+        while (!isLast)
+        {
+            int header = reader.readU8();
+            int blockLength = reader.readU24BE();
+            isLast = (header & 0x80) != 0;
+
+            if ((header & 0x7F) == BLOCK_STREAMINFO && blockLength >= STREAMINFO_LENGTH)
+            {
+                reader.skip(10); // Min/max block and frame sizes
+
+                // Sample rate (20 bits), channels - 1 (3 bits),
+                // bits per sample - 1 (5 bits), total samples (36 bits)
+                long packed = reader.readLongBE();
+                sampleRate = (int) (packed >>> 44);
+                channels = (int) ((packed >>> 41) & 0x7) + 1;
+                bitDepth = (int) ((packed >>> 36) & 0x1F) + 1;
+                totalSamples = packed & 0xFFFFFFFFFL;
+
+                reader.skip(blockLength - 18); // MD5 and anything after it
+                hasStreamInfo = true;
+            }
+            else
+                reader.skip(blockLength);
+        }
+
+        if (!hasStreamInfo)
+            throw new IOException("FLAC file has no STREAMINFO");
+
+        // A total of 0 means unknown
+        if (totalSamples == 0)
+            totalSamples = AudioMetadata.UNKNOWN;
+
+        // Average bitrate from the size of the frame data
+        int bitrate = AudioMetadata.UNKNOWN;
+        long audioBytes = reader.remaining();
+        if (audioBytes > 0 && totalSamples > 0 && sampleRate > 0)
+            bitrate = (int) (audioBytes * 8 * sampleRate / totalSamples);
+
+        return new AudioMetadata("FLAC", sampleRate, bitDepth, channels, totalSamples, bitrate);
+    }
+}
@@ -0,0 +1,232 @@
+//--------------------------------------------------
+//
+// Filename:    Mp3Parser.java
+// Author:      Daniel Walther
+// Brief:       Reads MPEG audio frame headers and
+//              Xing/Info, LAME and VBRI tags
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import java.io.IOException;
+
+final class Mp3Parser
+{
+    private static final int XING = 0x58696E67;   // "Xing"
+    private static final int INFO = 0x496E666F;   // "Info"
+    private static final int VBRI = 0x56425249;   // "VBRI"
+
+    private static final int XING_FRAMES = 0x1;
+    private static final int XING_BYTES = 0x2;
+    private static final int XING_TOC = 0x4;
+    private static final int XING_QUALITY = 0x8;
+
+    // How far past the start to look for the first frame
+    private static final int MAX_SYNC_SEARCH = 64 * 1024;
+
+    private static final int VERSION_1 = 3;
+
+    private static final int LAYER_3 = 1;
+    private static final int LAYER_2 = 2;
+    private static final int LAYER_1 = 3;
+
+    // Kilobits per second, indexed by [table][bitrate index]
+    private static final int[][] BITRATES =
+    {
+            { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 }, // V1 L1
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },    // V1 L2
+            { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },     // V1 L3
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },    // V2 L1
+            { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 }          // V2 L2/L3
+    };
+
+    // Indexed by [version][sample rate index]
+    private static final int[][] SAMPLE_RATES =
+    {
+            { 11025, 12000, 8000 }, // MPEG 2.5
+            { 0, 0, 0 },            // Reserved
+            { 22050, 24000, 16000 },// MPEG 2
+            { 44100, 48000, 32000 } // MPEG 1
+    };
+
+    private Mp3Parser() {}
+
+    // Checks sync word and rejects reserved/free-format values
+    static boolean isFrameHeader(int header)
+    {
+        return (header >>> 21) == 0x7FF
+                && ((header >>> 19) & 3) != 1
+                && ((header >>> 17) & 3) != 0
+                && ((header >>> 12) & 0xF) != 0
+                && ((header >>> 12) & 0xF) != 0xF
+                && ((header >>> 10) & 3) != 3;
+    }
+
+    static AudioMetadata parse(ByteReader reader) throws IOException
+    {
+        int header = findFirstFrame(reader);
+
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int sampleRate = SAMPLE_RATES[version][(header >>> 10) & 3];
+        int bitrate = bitrateOf(header);
+        int channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+        int samplesPerFrame = samplesPerFrame(version, layer);
+        int frameLength = frameLength(header);
+
+        String format = layer == LAYER_3 ? "MP3" : (layer == LAYER_2 ? "MP2" : "MP1");
+
+        long frames = -1;
+        long streamBytes = -1;
+        int delay = 0;
+        int padding = 0;
+
+        // VBR info lives inside the first frame, after the side info
+        if (layer == LAYER_3 && reader.request(Math.min(frameLength, ByteReader.BUFFER_SIZE)))
+        {
+            int sideInfo;
+            if (version == VERSION_1)
+                sideInfo = channels == 1 ? 17 : 32;
+            else
+                sideInfo = channels == 1 ? 9 : 17;
+
+            int xing = 4 + sideInfo;
+            int vbri = 4 + 32;
+
+            if (xing + 8 <= frameLength && (reader.peekIntBE(xing) == XING || reader.peekIntBE(xing) == INFO))
+            {
+                int flags = reader.peekIntBE(xing + 4);
+                int offset = xing + 8;
+
+                if ((flags & XING_FRAMES) != 0 && offset + 4 <= frameLength)
+                {
+                    frames = reader.peekIntBE(offset) & 0xFFFFFFFFL;
+                    offset += 4;
+                }
+                if ((flags & XING_BYTES) != 0 && offset + 4 <= frameLength)
+                {
+                    streamBytes = reader.peekIntBE(offset) & 0xFFFFFFFFL;
+                    offset += 4;
+                }
+                if ((flags & XING_TOC) != 0)
+                    offset += 100;
+                if ((flags & XING_QUALITY) != 0)
+                    offset += 4;
+
+                // LAME (and ffmpeg's "Lavc") extension follows directly
+                if (offset + 24 <= frameLength && isEncoderTag(reader, offset))
+                {
+                    int packed = reader.peekU8(offset + 21) << 16 | reader.peekU8(offset + 22) << 8
+                            | reader.peekU8(offset + 23);
+                    delay = packed >>> 12;
+                    padding = packed & 0xFFF;
+                }
+            }
+            else if (vbri + 18 <= frameLength && reader.peekIntBE(vbri) == VBRI)
+            {
+                streamBytes = reader.peekIntBE(vbri + 10) & 0xFFFFFFFFL;
+                frames = reader.peekIntBE(vbri + 14) & 0xFFFFFFFFL;
+            }
+        }
+
+        long totalSamples = AudioMetadata.UNKNOWN;
+        if (frames > 0)
+        {
+            totalSamples = Math.max(frames * samplesPerFrame - delay - padding, 0);
+
+            // Average bitrate of a VBR stream
+            if (streamBytes > 0)
+                bitrate = (int) (streamBytes * 8 * sampleRate / (frames * samplesPerFrame));
+        }
+        else
+        {
+            // Assume CBR and estimate from the file size
+            long audioBytes = reader.remaining();
+            if (audioBytes > 0)
+                totalSamples = audioBytes * 8 * sampleRate / bitrate;
+        }
+
+        return new AudioMetadata(format, sampleRate, 0, channels, totalSamples, bitrate, delay, padding);
+    }
+
+    // Skips to the first header that is followed by another matching header.
+    // Returns that header with the reader positioned on it.
+    private static int findFirstFrame(ByteReader reader) throws IOException
+    {
+        long searchEnd = reader.position() + MAX_SYNC_SEARCH;
+
+        while (reader.position() < searchEnd && reader.request(4))
+        {
+            int header = reader.peekIntBE(0);
+
+            if (isFrameHeader(header))
+            {
+                int next = frameLength(header);
+
+                // Last frame in a short file, or followed by a consistent header
+                if (!reader.request(next + 4))
+                    return header;
+                if (isFrameHeader(reader.peekIntBE(next))
+                        && (reader.peekIntBE(next) & 0xFFFE0C00) == (header & 0xFFFE0C00))
+                    return header;
+            }
+
+            reader.skip(1);
+        }
+
+        throw new IOException("No MPEG audio frame found");
+    }
+
+    private static boolean isEncoderTag(ByteReader reader, int offset)
+    {
+        for (int i = 0; i < 4; ++i)
+        {
+            int c = reader.peekU8(offset + i);
+            if (c < 'A' || c > 'z' || (c > 'Z' && c < 'a'))
+                return false;
+        }
+
+        return true;
+    }
+
+    // Bits per second
+    private static int bitrateOf(int header)
+    {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int table;
+
+        if (version == VERSION_1)
+            table = 3 - layer;          // L1 -> 0, L2 -> 1, L3 -> 2
+        else
+            table = layer == LAYER_1 ? 3 : 4;
+
+        return BITRATES[table][(header >>> 12) & 0xF] * 1000;
+    }
+
+    private static int samplesPerFrame(int version, int layer)
+    {
+        if (layer == LAYER_1)
+            return 384;
+        if (layer == LAYER_2 || version == VERSION_1)
+            return 1152;
+
+        return 576;
+    }
+
+    // Length in bytes including the header
+    static int frameLength(int header)
+    {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int sampleRate = SAMPLE_RATES[version][(header >>> 10) & 3];
+        int padding = (header >>> 9) & 1;
+        int bitrate = bitrateOf(header);
+
+        if (layer == LAYER_1)
+            return (12 * bitrate / sampleRate + padding) * 4;
+
+        return samplesPerFrame(version, layer) / 8 * bitrate / sampleRate + padding;
+    }
+}
@@ -0,0 +1,395 @@
+//--------------------------------------------------
+//
+// Filename:    Mp4Parser.java
+// Author:      Daniel Walther
+// Brief:       Walks MP4/M4A atoms down to the
+//              first sound track's sample entry
+//              and esds/alac configuration
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import java.io.IOException;
+
+final class Mp4Parser
+{
+    private static final int MOOV = 0x6D6F6F76;   // "moov"
+    private static final int TRAK = 0x7472616B;   // "trak"
+    private static final int MDIA = 0x6D646961;   // "mdia"
+    private static final int MINF = 0x6D696E66;   // "minf"
+    private static final int STBL = 0x7374626C;   // "stbl"
+    private static final int MDHD = 0x6D646864;   // "mdhd"
+    private static final int HDLR = 0x68646C72;   // "hdlr"
+    private static final int STSD = 0x73747364;   // "stsd"
+    private static final int SOUN = 0x736F756E;   // "soun"
+
+    private static final int MP4A = 0x6D703461;   // "mp4a"
+    private static final int ALAC = 0x616C6163;   // "alac"
+    private static final int FLAC = 0x664C6143;   // "fLaC"
+    private static final int OPUS = 0x4F707573;   // "Opus"
+    private static final int ESDS = 0x65736473;   // "esds"
+
+    // MPEG-4 descriptor tags
+    private static final int ES_DESCRIPTOR = 0x03;
+    private static final int DECODER_CONFIG = 0x04;
+    private static final int DECODER_SPECIFIC_INFO = 0x05;
+
+    // Object type indications for MP3 inside MP4
+    private static final int OTI_MPEG1_AUDIO = 0x6B;
+    private static final int OTI_MPEG2_AUDIO = 0x69;
+
+    // AAC object types that signal SBR/PS (HE-AAC)
+    private static final int AOT_SBR = 5;
+    private static final int AOT_PS = 29;
+
+    private static final int[] AAC_SAMPLE_RATES =
+    {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    // Filled in while walking the tree of a single track
+    private static final class Track
+    {
+        int handler;
+        long timescale;
+        long duration;
+        String format;
+        int sampleRate;
+        int channels;
+        int bitDepth;
+        int bitrate = AudioMetadata.UNKNOWN;
+    }
+
+    private Mp4Parser() {}
+
+    static AudioMetadata parse(ByteReader reader) throws IOException
+    {
+        long end = reader.length() < 0 ? Long.MAX_VALUE : reader.length();
+
+        // Top level: skip everything (including mdat) until moov
+        while (reader.position() < end && reader.request(8))
+        {
+            long boxStart = reader.position();
+            long size = reader.readU32BE();
+            int type = reader.readIntBE();
+            long boxEnd = boxEnd(reader, boxStart, size, end);
+
+            if (type == MOOV)
+            {
+                Track track = parseMoov(reader, boxEnd);
+                if (track == null)
+                    throw new IOException("MP4 file has no sound track");
+
+                return toMetadata(reader, track);
+            }
+
+            // mdat that runs to the end of the file, moov must have been missing
+            if (boxEnd == Long.MAX_VALUE)
+                break;
+
+            reader.skip(boxEnd - reader.position());
+        }
+
+        throw new IOException("MP4 file has no moov atom");
+    }
+
+    private static Track parseMoov(ByteReader reader, long moovEnd) throws IOException
+    {
+        while (reader.position() + 8 <= moovEnd)
+        {
+            long boxStart = reader.position();
+            long size = reader.readU32BE();
+            int type = reader.readIntBE();
+            long boxEnd = boxEnd(reader, boxStart, size, moovEnd);
+
+            if (type == TRAK)
+            {
+                Track track = new Track();
+                parseContainer(reader, boxEnd, track);
+
+                if (track.handler == SOUN && track.format != null)
+                    return track;
+            }
+
+            reader.skip(boxEnd - reader.position());
+        }
+
+        return null;
+    }
+
+    // Descends through mdia/minf/stbl collecting mdhd, hdlr and stsd
+    private static void parseContainer(ByteReader reader, long containerEnd, Track track) throws IOException
+    {
+        while (reader.position() + 8 <= containerEnd)
+        {
+            long boxStart = reader.position();
+            long size = reader.readU32BE();
+            int type = reader.readIntBE();
+            long boxEnd = boxEnd(reader, boxStart, size, containerEnd);
+
+            if (type == MDIA || type == MINF || type == STBL)
+                parseContainer(reader, boxEnd, track);
+            else if (type == MDHD)
+                parseMdhd(reader, track);
+            else if (type == HDLR)
+            {
+                reader.skip(8); // Version/flags and pre-defined
+                track.handler = reader.readIntBE();
+            }
+            else if (type == STSD)
+                parseStsd(reader, boxEnd, track);
+
+            reader.skip(boxEnd - reader.position());
+        }
+    }
+
+    private static void parseMdhd(ByteReader reader, Track track) throws IOException
+    {
+        int version = reader.readU8();
+        reader.skip(3); // Flags
+
+        if (version == 1)
+        {
+            reader.skip(16); // Creation/modification time
+            track.timescale = reader.readU32BE();
+            track.duration = reader.readLongBE();
+        }
+        else
+        {
+            reader.skip(8);
+            track.timescale = reader.readU32BE();
+            track.duration = reader.readU32BE();
+        }
+    }
+
+    private static void parseStsd(ByteReader reader, long stsdEnd, Track track) throws IOException
+    {
+        reader.skip(8); // Version/flags and entry count
+
+        // Only the first sample entry matters
+        long entryStart = reader.position();
+        long entrySize = reader.readU32BE();
+        int entryType = reader.readIntBE();
+        long entryEnd = Math.min(entryStart + entrySize, stsdEnd);
+
+        reader.skip(8); // Reserved and data reference index
+        int version = reader.readU16BE();
+        reader.skip(6); // Revision and vendor
+        track.channels = reader.readU16BE();
+        track.bitDepth = reader.readU16BE();
+        reader.skip(4); // Compression id and packet size
+        track.sampleRate = (int) (reader.readU32BE() >>> 16); // 16.16 fixed point
+
+        // QuickTime sound description extensions
+        if (version == 1)
+            reader.skip(16);
+        else if (version == 2)
+        {
+            reader.skip(4); // Struct size
+            track.sampleRate = (int) Math.round(Double.longBitsToDouble(reader.readLongBE()));
+            track.channels = reader.readIntBE();
+            reader.skip(4); // Always 0x7F000000
+            track.bitDepth = reader.readIntBE();
+            reader.skip(12); // Format flags and packet sizes
+        }
+
+        if (entryType == MP4A)
+            track.format = "AAC";
+        else if (entryType == ALAC)
+            track.format = "ALAC";
+        else if (entryType == FLAC)
+            track.format = "FLAC";
+        else if (entryType == OPUS)
+            track.format = "OPUS";
+        else
+            track.format = fourCCToString(entryType);
+
+        // Codec configuration boxes inside the sample entry
+        while (reader.position() + 8 <= entryEnd)
+        {
+            long boxStart = reader.position();
+            long size = reader.readU32BE();
+            int type = reader.readIntBE();
+            long boxEnd = boxEnd(reader, boxStart, size, entryEnd);
+
+            if (type == ESDS)
+                parseEsds(reader, boxEnd, track);
+            else if (type == ALAC && entryType == ALAC)
+                parseAlacConfig(reader, track);
+
+            reader.skip(boxEnd - reader.position());
+        }
+
+        // Only lossless codecs have a meaningful bit depth
+        if (entryType != ALAC && entryType != FLAC)
+            track.bitDepth = 0;
+    }
+
+    private static void parseEsds(ByteReader reader, long esdsEnd, Track track) throws IOException
+    {
+        reader.skip(4); // Version/flags
+
+        if (reader.readU8() != ES_DESCRIPTOR)
+            return;
+        readDescriptorLength(reader);
+
+        reader.skip(2); // ES id
+        int flags = reader.readU8();
+        if ((flags & 0x80) != 0)
+            reader.skip(2); // Depends on ES id
+        if ((flags & 0x40) != 0)
+            reader.skip(reader.readU8()); // URL
+        if ((flags & 0x20) != 0)
+            reader.skip(2); // OCR ES id
+
+        if (reader.readU8() != DECODER_CONFIG)
+            return;
+        readDescriptorLength(reader);
+
+        int objectType = reader.readU8();
+        reader.skip(4); // Stream type and buffer size
+        reader.skip(4); // Max bitrate
+        long averageBitrate = reader.readU32BE();
+
+        if (averageBitrate > 0)
+            track.bitrate = (int) Math.min(averageBitrate, Integer.MAX_VALUE);
+
+        if (objectType == OTI_MPEG1_AUDIO || objectType == OTI_MPEG2_AUDIO)
+        {
+            track.format = "MP3";
+            return;
+        }
+
+        if (reader.position() + 2 > esdsEnd || reader.readU8() != DECODER_SPECIFIC_INFO)
+            return;
+
+        int configLength = readDescriptorLength(reader);
+        if (configLength >= 2)
+            parseAudioSpecificConfig(reader, configLength, track);
+    }
+
+    // Descriptor lengths are 1-4 bytes of 7 bits each
+    private static int readDescriptorLength(ByteReader reader) throws IOException
+    {
+        int length = 0;
+
+        for (int i = 0; i < 4; ++i)
+        {
+            int b = reader.readU8();
+            length = length << 7 | (b & 0x7F);
+
+            if ((b & 0x80) == 0)
+                break;
+        }
+
+        return length;
+    }
+
+    private static void parseAudioSpecificConfig(ByteReader reader, int length, Track track) throws IOException
+    {
+        // Bit-packed, read up to 40 bits at once
+        int count = Math.min(length, 5);
+        reader.require(count);
+
+        long bits = 0;
+        for (int i = 0; i < 5; ++i)
+            bits = bits << 8 | (i < count ? reader.peekU8(i) : 0);
+
+        int bitPos = 40;
+        int firstUnavailableBit = 40 - count * 8;
+
+        bitPos -= 5;
+        int objectType = (int) (bits >>> bitPos) & 0x1F;
+        if (objectType == 31)
+        {
+            bitPos -= 6;
+            objectType = 32 + ((int) (bits >>> bitPos) & 0x3F);
+        }
+
+        // Explicit 24-bit rates are rare, keep the sample entry's value for those
+        bitPos -= 4;
+        int rateIndex = (int) (bits >>> bitPos) & 0xF;
+        if (rateIndex >= AAC_SAMPLE_RATES.length)
+            return;
+        int sampleRate = AAC_SAMPLE_RATES[rateIndex];
+
+        bitPos -= 4;
+        int channelConfig = (int) (bits >>> bitPos) & 0xF;
+
+        // HE-AAC plays back at the SBR extension rate
+        if ((objectType == AOT_SBR || objectType == AOT_PS) && bitPos - 4 >= firstUnavailableBit)
+        {
+            bitPos -= 4;
+            int extensionIndex = (int) (bits >>> bitPos) & 0xF;
+            if (extensionIndex < AAC_SAMPLE_RATES.length)
+                sampleRate = AAC_SAMPLE_RATES[extensionIndex];
+        }
+
+        track.sampleRate = sampleRate;
+
+        if (channelConfig > 0 && channelConfig < 7)
+            track.channels = channelConfig;
+        else if (channelConfig == 7)
+            track.channels = 8;
+    }
+
+    private static void parseAlacConfig(ByteReader reader, Track track) throws IOException
+    {
+        reader.skip(4); // Version/flags
+        reader.skip(5); // Frame length and compatible version
+        track.bitDepth = reader.readU8();
+        reader.skip(3); // Rice parameters
+        track.channels = reader.readU8();
+        reader.skip(6); // Max run and max frame bytes
+
+        long averageBitrate = reader.readU32BE();
+        if (averageBitrate > 0)
+            track.bitrate = (int) Math.min(averageBitrate, Integer.MAX_VALUE);
+
+        track.sampleRate = reader.readIntBE();
+    }
+
+    private static AudioMetadata toMetadata(ByteReader reader, Track track)
+    {
+        long totalSamples = AudioMetadata.UNKNOWN;
+
+        // Media duration is in timescale units, usually equal to the sample rate
+        if (track.timescale > 0 && track.sampleRate > 0)
+        {
+            if (track.timescale == track.sampleRate)
+                totalSamples = track.duration;
+            else
+                totalSamples = track.duration * track.sampleRate / track.timescale;
+        }
+
+        // Fall back to the overall file bitrate
+        int bitrate = track.bitrate;
+        if (bitrate <= 0 && reader.length() > 0 && totalSamples > 0)
+            bitrate = (int) (reader.length() * 8 * track.sampleRate / totalSamples);
+
+        return new AudioMetadata(track.format, track.sampleRate, track.bitDepth, track.channels,
+                totalSamples, bitrate);
+    }
+
+    // Resolves 64-bit and to-end-of-parent box sizes
+    private static long boxEnd(ByteReader reader, long boxStart, long size, long parentEnd) throws IOException
+    {
+        if (size == 1)
+            return boxStart + reader.readLongBE();
+        if (size == 0)
+            return parentEnd;
+        if (size < 8)
+            throw new IOException("Invalid MP4 box size at " + boxStart);
+
+        return boxStart + size;
+    }
+
+    private static String fourCCToString(int fourCC)
+    {
+        char[] chars = { (char) (fourCC >>> 24), (char) (fourCC >>> 16 & 0xFF),
+                (char) (fourCC >>> 8 & 0xFF), (char) (fourCC & 0xFF) };
+
+        return new String(chars).trim().toUpperCase();
+    }
+}
@@ -0,0 +1,128 @@
+//--------------------------------------------------
+//
+// Filename:    RiffParser.java
+// Author:      Daniel Walther
+// Brief:       Walks the chunks of RIFF/RF64
+//              WAVE files
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import java.io.IOException;
+
+final class RiffParser
+{
+    private static final int RIFF = 0x52494646;   // "RIFF"
+    private static final int WAVE = 0x57415645;   // "WAVE"
+    private static final int DS64 = 0x64733634;   // "ds64"
+    private static final int FMT = 0x666D7420;    // "fmt "
+    private static final int FACT = 0x66616374;   // "fact"
+    private static final int DATA = 0x64617461;   // "data"
+
+    private static final int WAVE_FORMAT_PCM = 0x0001;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    // RF64 stores sizes that don't fit in 32 bits in the ds64 chunk
+    private static final long SIZE_IN_DS64 = 0xFFFFFFFFL;
+
+    private RiffParser() {}
+
+    static AudioMetadata parse(ByteReader reader) throws IOException
+    {
+        boolean isRf64 = reader.readIntBE() != RIFF;
+        reader.skip(4); // RIFF size
+
+        if (reader.readIntBE() != WAVE)
+            throw new IOException("RIFF file is not WAVE");
+
+        long ds64DataSize = -1;
+        long ds64SampleCount = -1;
+        long factSampleCount = -1;
+
+        boolean hasFmt = false;
+        int formatTag = 0;
+        int channels = 0;
+        int sampleRate = 0;
+        long byteRate = 0;
+        int blockAlign = 0;
+        int bitsPerSample = 0;
+        long dataSize = -1;
+
+        // Chunks can come in any order, stop once both fmt and data have been seen
+        while (dataSize < 0 || !hasFmt)
+        {
+            if (!reader.request(8))
+                break;
+
+            int chunkId = reader.readIntBE();
+            long chunkSize = reader.readU32LE();
+            long chunkRead = 0;
+
+            if (chunkId == DS64 && chunkSize >= 24)
+            {
+                reader.skip(8); // RIFF size
+                ds64DataSize = reader.readLongLE();
+                ds64SampleCount = reader.readLongLE();
+                chunkRead = 24;
+            }
+            else if (chunkId == FMT && chunkSize >= 16)
+            {
+                formatTag = reader.readU16LE();
+                channels = reader.readU16LE();
+                sampleRate = reader.readIntLE();
+                byteRate = reader.readU32LE();
+                blockAlign = reader.readU16LE();
+                bitsPerSample = reader.readU16LE();
+                chunkRead = 16;
+
+                // Extensible format stores the real format code and valid bits separately
+                if (formatTag == WAVE_FORMAT_EXTENSIBLE && chunkSize >= 40)
+                {
+                    reader.skip(2); // cbSize
+                    int validBits = reader.readU16LE();
+                    reader.skip(4); // Channel mask
+                    formatTag = reader.readU16LE(); // First two bytes of the subformat GUID
+                    chunkRead = 26;
+
+                    if (validBits > 0)
+                        bitsPerSample = validBits;
+                }
+
+                hasFmt = true;
+            }
+            else if (chunkId == FACT && chunkSize >= 4)
+            {
+                factSampleCount = reader.readU32LE();
+                chunkRead = 4;
+            }
+            else if (chunkId == DATA)
+            {
+                dataSize = (isRf64 && chunkSize == SIZE_IN_DS64) ? ds64DataSize : chunkSize;
+
+                // Don't bother skipping sample data once we know everything
+                if (hasFmt)
+                    break;
+            }
+
+            // Chunks are padded to an even size
+            reader.skip(chunkSize - chunkRead + (chunkSize & 1));
+        }
+
+        if (!hasFmt)
+            throw new IOException("WAVE file has no fmt chunk");
+
+        long totalSamples;
+        if (ds64SampleCount > 0)
+            totalSamples = ds64SampleCount;
+        else if (formatTag != WAVE_FORMAT_PCM && factSampleCount >= 0)
+            totalSamples = factSampleCount;
+        else if (dataSize >= 0 && blockAlign > 0)
+            totalSamples = dataSize / blockAlign;
+        else
+            totalSamples = AudioMetadata.UNKNOWN;
+
+        return new AudioMetadata("WAV", sampleRate, bitsPerSample, channels, totalSamples,
+                (int) Math.min(byteRate * 8, Integer.MAX_VALUE));
+    }
+}
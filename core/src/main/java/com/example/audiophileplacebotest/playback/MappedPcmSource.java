@@ -0,0 +1,182 @@
+//--------------------------------------------------
+//
+// Filename:    MappedPcmSource.java
+// Author:      Daniel Walther
+// Brief:       PcmSource over a pre-decoded float
+//              PCM file mapped into memory. Seeking
+//              only moves the read position.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedPcmSource implements PcmSource
+{
+    // File layout: header (big endian), then interleaved little endian float samples
+    public static final int MAGIC = 0x4150434D; // "APCM"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;   // Magic, version, rate, channels, frame count, reserved
+
+    // A single mapping is limited to 2 GB, longer files are split up
+    private static final long SEGMENT_BYTES = 1L << 28;
+
+    private final File file;
+
+    private FloatBuffer[] segments = null;
+    private long segmentFrames = 0;
+    private IOException openError = null;
+
+    private int sampleRate = 0;
+    private int channelCount = 0;
+    private long frameCount = 0;
+    private long position = 0;
+
+    // The file is mapped on first use, on the thread that reads from it
+    public MappedPcmSource(File file_)
+    {
+        file = file_;
+    }
+
+    @Override
+    public int getSampleRate()
+    {
+        ensureOpen();
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannelCount()
+    {
+        ensureOpen();
+        return channelCount;
+    }
+
+    @Override
+    public long getFrameCount()
+    {
+        ensureOpen();
+        return frameCount;
+    }
+
+    @Override
+    public long getPosition()
+    {
+        return position;
+    }
+
+    @Override
+    public void seekTo(long frame) throws IOException
+    {
+        ensureOpen();
+        if (openError != null)
+            throw openError;
+
+        position = Math.max(Math.min(frame, frameCount), 0);
+    }
+
+    @Override
+    public int read(float[] dst, int offset, int frameCount_) throws IOException
+    {
+        ensureOpen();
+        if (openError != null)
+            throw openError;
+        if (position >= frameCount)
+            return -1;
+
+        int framesRead = 0;
+
+        while (framesRead < frameCount_ && position < frameCount)
+        {
+            int segment = (int) (position / segmentFrames);
+            int segmentOffset = (int) (position % segmentFrames);
+            int frames = (int) Math.min(Math.min(frameCount_ - framesRead, segmentFrames - segmentOffset),
+                    frameCount - position);
+
+            FloatBuffer samples = segments[segment];
+            ((Buffer) samples).position(segmentOffset * channelCount);
+            samples.get(dst, offset + framesRead * channelCount, frames * channelCount);
+
+            framesRead += frames;
+            position += frames;
+        }
+
+        return framesRead;
+    }
+
+    @Override
+    public void warmUp() throws IOException
+    {
+        ensureOpen();
+        if (openError != null)
+            throw openError;
+    }
+
+    // Mappings are released by the garbage collector
+    @Override
+    public void suspend()
+    {
+        segments = null;
+    }
+
+    @Override
+    public void close()
+    {
+        segments = null;
+        openError = new IOException("Source is closed");
+    }
+
+    private void ensureOpen()
+    {
+        if (segments != null || openError != null)
+            return;
+
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try
+            {
+                if (raf.readInt() != MAGIC || raf.readInt() != VERSION)
+                    throw new IOException("Not a PCM cache file: " + file);
+
+                sampleRate = raf.readInt();
+                channelCount = raf.readInt();
+                frameCount = raf.readLong();
+
+                FileChannel channel = raf.getChannel();
+                long frameBytes = 4L * channelCount;
+                segmentFrames = SEGMENT_BYTES / frameBytes;
+
+                int segmentCount = (int) ((frameCount + segmentFrames - 1) / segmentFrames);
+                segments = new FloatBuffer[segmentCount];
+
+                for (int i = 0; i < segmentCount; ++i)
+                {
+                    long start = HEADER_SIZE + i * segmentFrames * frameBytes;
+                    long length = Math.min(segmentFrames, frameCount - i * segmentFrames) * frameBytes;
+
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length)
+                            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                }
+            }
+            finally
+            {
+                // Mappings stay valid after the channel is closed
+                raf.close();
+            }
+        }
+        catch (IOException e)
+        {
+            segments = null;
+            openError = e;
+        }
+    }
+}
@@ -0,0 +1,683 @@
+//--------------------------------------------------
+//
+// Filename:    MixerEngine.java
+// Author:      Daniel Walther
+// Brief:       Renders the selected track of a set
+//              of PCM sources into one sink. All
+//              tracks share a single clock, so a
+//              switch lands on the same sample of
+//              the new track.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import java.io.IOException;
+
+public class MixerEngine
+{
+    public interface Listener
+    {
+        // Both are called on the render thread
+        void onPlaybackCompleted();
+        void onPlaybackError(Exception e);
+
+        // Time from select() until the first frame of the new track was played out
+        void onSwitchRendered(int index, long latencyNanos);
+    }
+
+    // About 20 ms at 48 kHz. Switches and seeks take effect on these boundaries.
+    public static final int BLOCK_FRAMES = 1024;
+
+    public static final int OUTPUT_CHANNELS = 2;
+
+    // Used instead while sources are kept in lockstep, so commands wait at most about 5 ms
+    public static final int LOCKSTEP_BLOCK_FRAMES = 256;
+
+    // Decoders kept open on either side of the selected track, everything else is suspended
+    public static final int WARM_NEIGHBOURS = 1;
+
+    // Largest channel count a source may have (7.1)
+    private static final int MAX_CHANNELS = 8;
+
+    private final PcmSink sink;
+    private final Listener listener;
+    private final SyncMonitor syncMonitor = new SyncMonitor();
+
+    // region Requested state, written by the UI thread and guarded by lock
+    private final Object lock = new Object();
+    private PcmSource[] requestedSources = new PcmSource[0];
+    private float[] requestedGains = new float[0];
+    private long[] requestedOffsets = new long[0];
+    private int requestedIndex = 0;
+    private long requestedSelectNanos = 0;
+    private int[] requestedLockstep = new int[0];
+    private long requestedSeekFlicks = -1;
+    private boolean isPlayRequested = false;
+    private boolean hasCommands = false;
+    private boolean isReleased = false;
+    // endregion
+
+    // region Render state, only touched by the render thread (or a test calling renderBlock)
+    private PcmSource[] sources = new PcmSource[0];
+    private float[] gains = new float[0];
+    private long[] offsets = new long[0];
+    private boolean[] isWarm = new boolean[0];
+
+    // Lockstep sources are read along with the selected one and discarded, so they are always
+    // at the clock's position and switching to them needs no seek. -1 means not lined up yet.
+    private int[] lockstep = new int[0];
+    private boolean[] isLockstep = new boolean[0];
+    private long[] lockstepFrames = new long[0];
+    private long switchStartNanos = 0;
+    // Sink frame the new track starts at, -1 until its first block is written
+    private long switchFrame = -1;
+    private long sinkFrames = 0;
+    private int selectedIndex = -1;
+    private PcmSource current = null;
+    private float currentGain = 1.0f;
+    private long currentOffsetFlicks = 0;
+    private int outputRate = 0;
+    private long clockFlicks = 0;
+    private boolean isSinkPlaying = false;
+    private int blocksSinceSyncCheck = 0;
+
+    private final float[] sourceBuffer = new float[BLOCK_FRAMES * MAX_CHANNELS];
+    private final float[] outputBuffer = new float[BLOCK_FRAMES * OUTPUT_CHANNELS];
+    // endregion
+
+    // Published for the UI
+    private volatile long positionMillis = 0;
+    private volatile long durationMillis = 0;
+
+    private Thread renderThread = null;
+
+    public MixerEngine(PcmSink sink_, Listener listener_)
+    {
+        sink = sink_;
+        listener = listener_;
+    }
+
+    // Starts the render thread. Tests and benchmarks drive renderBlock() themselves instead.
+    public void start()
+    {
+        renderThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                renderLoop();
+            }
+        }, "MixerEngine");
+
+        renderThread.setPriority(Thread.MAX_PRIORITY);
+        renderThread.start();
+    }
+
+    // region Commands
+    // The engine takes ownership of the sources and closes the ones that are dropped.
+    // The selected source stays selected if it is still part of the new set.
+    public void setSources(PcmSource[] sources_)
+    {
+        setSources(sources_, null, null);
+    }
+
+    // Same as above, with a linear gain per source for level matching, and an offset in flicks
+    // that is added to the clock when lining a source up, to make up for encoder delay.
+    // Null plays everything at unity gain, or without offsets.
+    public void setSources(PcmSource[] sources_, float[] gains_, long[] offsetsFlicks_)
+    {
+        if ((gains_ != null && gains_.length != sources_.length)
+                || (offsetsFlicks_ != null && offsetsFlicks_.length != sources_.length))
+            throw new IllegalArgumentException("Need one gain and offset per source");
+
+        synchronized (lock)
+        {
+            int index = 0;
+            if (requestedIndex < requestedSources.length)
+            {
+                PcmSource selected = requestedSources[requestedIndex];
+                for (int i = 0; i < sources_.length; ++i)
+                {
+                    if (sources_[i] == selected)
+                        index = i;
+                }
+            }
+
+            requestedSources = sources_.clone();
+            requestedIndex = index;
+
+            requestedGains = new float[sources_.length];
+            for (int i = 0; i < sources_.length; ++i)
+                requestedGains[i] = gains_ == null ? 1.0f : gains_[i];
+
+            requestedOffsets = new long[sources_.length];
+            for (int i = 0; i < sources_.length; ++i)
+                requestedOffsets[i] = offsetsFlicks_ == null ? 0 : Math.max(offsetsFlicks_[i], 0);
+            signal();
+        }
+    }
+
+    public void select(int index)
+    {
+        synchronized (lock)
+        {
+            // Timed for switch latency
+            if (index != requestedIndex)
+                requestedSelectNanos = System.nanoTime();
+
+            requestedIndex = index;
+            signal();
+        }
+    }
+
+    // Keeps the sources at these indices decoding in lockstep with the selected one, for
+    // seamless switching between a few candidates. Empty turns it off. Indices refer to the
+    // current set of sources and have to be passed again after setSources().
+    public void setLockstep(int[] indices)
+    {
+        synchronized (lock)
+        {
+            requestedLockstep = indices.clone();
+            signal();
+        }
+    }
+
+    public int getSelectedIndex()
+    {
+        synchronized (lock)
+        {
+            return requestedIndex;
+        }
+    }
+
+    public void play()
+    {
+        synchronized (lock)
+        {
+            isPlayRequested = true;
+            signal();
+        }
+    }
+
+    public void pause()
+    {
+        synchronized (lock)
+        {
+            isPlayRequested = false;
+            signal();
+        }
+    }
+
+    public boolean isPlaying()
+    {
+        synchronized (lock)
+        {
+            return isPlayRequested;
+        }
+    }
+
+    public void seekTo(long millis)
+    {
+        synchronized (lock)
+        {
+            requestedSeekFlicks = PositionMath.millisToFlicks(Math.max(millis, 0));
+            signal();
+        }
+    }
+
+    public long getPositionMillis()
+    {
+        synchronized (lock)
+        {
+            // Report a pending seek right away so the seek bar doesn't jump back
+            if (requestedSeekFlicks >= 0)
+                return PositionMath.flicksToMillis(requestedSeekFlicks);
+        }
+
+        return positionMillis;
+    }
+
+    // Duration of the selected track, 0 until it has been opened
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    // Stops rendering, closes all sources and releases the sink
+    public void release()
+    {
+        synchronized (lock)
+        {
+            isReleased = true;
+            signal();
+        }
+
+        if (renderThread == null)
+            closeAll();
+    }
+
+    private void signal()
+    {
+        hasCommands = true;
+        lock.notifyAll();
+    }
+    // endregion
+
+    // region Rendering
+    // Applies pending commands and renders one block. Returns the number of frames
+    // written, 0 while paused and -1 once the selected track has ended.
+    public int renderBlock() throws IOException
+    {
+        applyCommands();
+
+        if (!isSinkPlaying || current == null)
+            return 0;
+
+        int blockFrames = lockstep.length > 0 ? LOCKSTEP_BLOCK_FRAMES : BLOCK_FRAMES;
+        int channels = current.getChannelCount();
+        int frames = current.read(sourceBuffer, 0, Math.min(blockFrames, sourceBuffer.length / channels));
+
+        if (frames < 0)
+        {
+            synchronized (lock)
+            {
+                isPlayRequested = false;
+            }
+
+            sink.pause();
+            isSinkPlaying = false;
+            switchStartNanos = 0;
+            listener.onPlaybackCompleted();
+            return -1;
+        }
+
+        PcmConvert.toStereo(sourceBuffer, 0, channels, outputBuffer, 0, frames);
+        if (currentGain != 1.0f)
+            PcmConvert.applyGain(outputBuffer, 0, frames * OUTPUT_CHANNELS, currentGain);
+        if (switchStartNanos != 0 && switchFrame < 0)
+            switchFrame = sinkFrames;
+        sink.write(outputBuffer, 0, frames);
+        sinkFrames += frames;
+
+        checkSwitchPlayed();
+
+        clockFlicks += PositionMath.framesToFlicks(frames, outputRate);
+        positionMillis = PositionMath.flicksToMillis(clockFlicks);
+
+        checkSync();
+        advanceLockstep();
+
+        // Opening a decoder can take a while, so only one per block while playing
+        maintainWarmSet(1);
+
+        return frames;
+    }
+
+    // Writing a block only queues it, the switch counts once the sink has played its first frame
+    private void checkSwitchPlayed()
+    {
+        if (switchStartNanos == 0 || switchFrame < 0)
+            return;
+
+        long playedNanos = sink.getPlayedNanos(switchFrame);
+        if (playedNanos < 0)
+            return;
+
+        listener.onSwitchRendered(selectedIndex, Math.max(playedNanos - switchStartNanos, 0));
+        switchStartNanos = 0;
+    }
+
+    // Compares the source's own idea of its position with the clock, and re-seeks it
+    // in place if it has strayed too far. Playback carries on from the corrected frame.
+    private void checkSync() throws IOException
+    {
+        if (++blocksSinceSyncCheck < SyncMonitor.SAMPLE_INTERVAL_BLOCKS)
+            return;
+
+        blocksSinceSyncCheck = 0;
+
+        long expected = PositionMath.flicksToFrames(clockFlicks + currentOffsetFlicks, outputRate);
+        long driftMicros = (current.getPosition() - expected) * 1000000L / outputRate;
+
+        if (syncMonitor.record(current, driftMicros))
+            current.seekTo(expected);
+    }
+
+    public SyncMonitor getSyncMonitor()
+    {
+        return syncMonitor;
+    }
+
+    // Reads every lockstep source up to the clock, reusing the source buffer as scratch space
+    private void advanceLockstep() throws IOException
+    {
+        for (int i : lockstep)
+        {
+            if (i == selectedIndex)
+                continue;
+
+            PcmSource source = sources[i];
+            long target = PositionMath.flicksToFrames(clockFlicks + offsets[i], source.getSampleRate());
+
+            if (lockstepFrames[i] < 0 || lockstepFrames[i] > target)
+            {
+                source.seekTo(target);
+                lockstepFrames[i] = target;
+                isWarm[i] = true;
+                continue;
+            }
+
+            int maxFrames = sourceBuffer.length / source.getChannelCount();
+            while (lockstepFrames[i] < target)
+            {
+                int read = source.read(sourceBuffer, 0, (int) Math.min(maxFrames, target - lockstepFrames[i]));
+
+                // Ended, switching to it will end playback as well
+                if (read < 0)
+                {
+                    lockstepFrames[i] = target;
+                    break;
+                }
+
+                lockstepFrames[i] += read;
+            }
+        }
+    }
+
+    private boolean isLinedUp(int index)
+    {
+        return isLockstep[index] && lockstepFrames[index]
+                == PositionMath.flicksToFrames(clockFlicks + offsets[index], sources[index].getSampleRate());
+    }
+
+    private void applyCommands() throws IOException
+    {
+        PcmSource[] newSources;
+        float[] newGains;
+        long[] newOffsets;
+        int[] newLockstep;
+        long selectNanos;
+        int newIndex;
+        long seekFlicks;
+        boolean play;
+
+        synchronized (lock)
+        {
+            newSources = requestedSources;
+            newGains = requestedGains;
+            newOffsets = requestedOffsets;
+            newIndex = requestedIndex;
+            newLockstep = requestedLockstep;
+            selectNanos = requestedSelectNanos;
+            seekFlicks = requestedSeekFlicks;
+            play = isPlayRequested;
+
+            requestedSelectNanos = 0;
+            requestedSeekFlicks = -1;
+            hasCommands = false;
+        }
+
+        // The outgoing track has been read exactly up to the clock
+        if (current != null && selectedIndex >= 0 && isLockstep[selectedIndex])
+            lockstepFrames[selectedIndex] = PositionMath.flicksToFrames(clockFlicks + currentOffsetFlicks,
+                    current.getSampleRate());
+
+        if (newSources != sources)
+        {
+            closeDropped(sources, newSources);
+
+            // Kept sources carry their warm and lockstep state over
+            boolean[] newWarm = new boolean[newSources.length];
+            boolean[] newIsLockstep = new boolean[newSources.length];
+            long[] newLockstepFrames = new long[newSources.length];
+            for (int i = 0; i < newSources.length; ++i)
+            {
+                newLockstepFrames[i] = -1;
+
+                for (int j = 0; j < sources.length; ++j)
+                {
+                    if (sources[j] == newSources[i])
+                    {
+                        newWarm[i] = isWarm[j];
+                        newIsLockstep[i] = isLockstep[j];
+                        newLockstepFrames[i] = lockstepFrames[j];
+                    }
+                }
+            }
+
+            sources = newSources;
+            isWarm = newWarm;
+            isLockstep = newIsLockstep;
+            lockstepFrames = newLockstepFrames;
+            syncMonitor.retain(sources);
+
+            // Indices are applied again below, against the new set
+            lockstep = new int[0];
+        }
+
+        if (newLockstep != lockstep)
+        {
+            boolean[] wasLockstep = isLockstep;
+            isLockstep = new boolean[sources.length];
+
+            for (int i : newLockstep)
+            {
+                if (i < 0 || i >= sources.length)
+                    continue;
+
+                isLockstep[i] = true;
+                if (!wasLockstep[i])
+                    lockstepFrames[i] = -1;
+            }
+
+            lockstep = newLockstep;
+            sink.setLowLatency(lockstep.length > 0);
+        }
+
+        gains = newGains;
+        offsets = newOffsets;
+
+        PcmSource target = newIndex >= 0 && newIndex < sources.length ? sources[newIndex] : null;
+        selectedIndex = target == null ? -1 : newIndex;
+        currentGain = target == null ? 1.0f : gains[newIndex];
+        long targetOffset = target == null ? 0 : offsets[newIndex];
+        if (target != null)
+            isWarm[newIndex] = true;
+
+        if (seekFlicks >= 0)
+        {
+            clockFlicks = seekFlicks;
+            positionMillis = PositionMath.flicksToMillis(clockFlicks);
+            sink.flush();
+
+            // The switched frame may have been dropped
+            switchStartNanos = 0;
+
+            for (int i = 0; i < lockstepFrames.length; ++i)
+                lockstepFrames[i] = -1;
+        }
+
+        if (selectNanos != 0 && target != current && current != null && isSinkPlaying)
+        {
+            switchStartNanos = selectNanos;
+            switchFrame = -1;
+        }
+
+        // Line the new track up with the clock, converting between sample rates if needed.
+        // Lockstep sources already are and don't need the seek.
+        if (target != null && (target != current || seekFlicks >= 0 || targetOffset != currentOffsetFlicks))
+        {
+            int rate = target.getSampleRate();
+            if (seekFlicks >= 0 || !isLinedUp(newIndex))
+                target.seekTo(PositionMath.flicksToFrames(clockFlicks + targetOffset, rate));
+
+            if (rate != outputRate)
+            {
+                sink.configure(rate, OUTPUT_CHANNELS);
+                outputRate = rate;
+                sinkFrames = 0;
+
+                // An earlier switch already written went with the old output
+                if (switchFrame >= 0)
+                    switchStartNanos = 0;
+            }
+
+            long frameCount = target.getFrameCount();
+            durationMillis = frameCount < 0 ? 0 : PositionMath.framesToMillis(frameCount, rate);
+        }
+
+        current = target;
+        currentOffsetFlicks = targetOffset;
+
+        if (play && !isSinkPlaying && current != null)
+        {
+            sink.start();
+            isSinkPlaying = true;
+        }
+        else if (!play && isSinkPlaying)
+        {
+            sink.pause();
+            isSinkPlaying = false;
+
+            // Would count the pause as latency
+            switchStartNanos = 0;
+        }
+
+        // Nothing to glitch while paused
+        if (!isSinkPlaying)
+            maintainWarmSet(Integer.MAX_VALUE);
+    }
+
+    // Suspends sources outside the window around the selected track and opens the ones inside it.
+    // Does at most maxOps of either.
+    private void maintainWarmSet(int maxOps)
+    {
+        if (selectedIndex < 0)
+            return;
+
+        int ops = 0;
+
+        for (int i = 0; i < sources.length && ops < maxOps; ++i)
+        {
+            if (isWarm[i] && Math.abs(i - selectedIndex) > WARM_NEIGHBOURS && !isLockstep[i])
+            {
+                sources[i].suspend();
+                isWarm[i] = false;
+                ++ops;
+            }
+        }
+
+        int first = Math.max(selectedIndex - WARM_NEIGHBOURS, 0);
+        int last = Math.min(selectedIndex + WARM_NEIGHBOURS, sources.length - 1);
+
+        for (int i = first; i <= last && ops < maxOps; ++i)
+        {
+            if (isWarm[i])
+                continue;
+
+            try
+            {
+                sources[i].warmUp();
+            }
+            catch (IOException e)
+            {
+                // Surfaces as an error once the track is actually selected
+            }
+
+            isWarm[i] = true;
+            ++ops;
+        }
+    }
+
+    // Number of sources currently allowed to hold decoder resources. Render thread only.
+    public int getWarmSourceCount()
+    {
+        int count = 0;
+        for (boolean warm : isWarm)
+        {
+            if (warm)
+                ++count;
+        }
+
+        return count;
+    }
+
+    private void renderLoop()
+    {
+        // Play was requested but nothing is selected, only a command can change that
+        boolean isStalled = false;
+
+        while (true)
+        {
+            synchronized (lock)
+            {
+                while (!isReleased && !hasCommands && (!isPlayRequested || isStalled))
+                {
+                    try
+                    {
+                        lock.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        isReleased = true;
+                    }
+                }
+
+                if (isReleased)
+                    break;
+            }
+
+            try
+            {
+                isStalled = renderBlock() == 0 && current == null;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // Stop, and let the next pass pause the sink
+                synchronized (lock)
+                {
+                    isPlayRequested = false;
+                    hasCommands = true;
+                }
+
+                listener.onPlaybackError(e);
+            }
+        }
+
+        closeAll();
+    }
+
+    private static void closeDropped(PcmSource[] oldSources, PcmSource[] newSources)
+    {
+        for (PcmSource old : oldSources)
+        {
+            boolean isKept = false;
+            for (PcmSource source : newSources)
+            {
+                if (source == old)
+                    isKept = true;
+            }
+
+            if (!isKept)
+                old.close();
+        }
+    }
+
+    private void closeAll()
+    {
+        PcmSource[] pending;
+        synchronized (lock)
+        {
+            pending = requestedSources;
+        }
+
+        closeDropped(sources, pending);
+        closeDropped(pending, new PcmSource[0]);
+
+        sources = new PcmSource[0];
+        current = null;
+        sink.release();
+    }
+    // endregion
+}
@@ -0,0 +1,89 @@
+//--------------------------------------------------
+//
+// Filename:    PcmConvert.java
+// Author:      Daniel Walther
+// Brief:       Sample format and channel layout
+//              conversion loops
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+public final class PcmConvert
+{
+    private static final float SHORT_SCALE = 1.0f / 32768.0f;
+    private static final float INT24_SCALE = 1.0f / 8388608.0f;
+    private static final float INT_SCALE = 1.0f / 2147483648.0f;
+
+    private PcmConvert() {}
+
+    // Maps any channel count onto interleaved stereo. Mono is duplicated,
+    // anything above two channels keeps front left/right.
+    public static void toStereo(float[] src, int srcOffset, int channels, float[] dst, int dstOffset, int frames)
+    {
+        if (channels == 2)
+        {
+            System.arraycopy(src, srcOffset, dst, dstOffset, frames * 2);
+            return;
+        }
+
+        if (channels == 1)
+        {
+            for (int i = 0; i < frames; ++i)
+            {
+                float sample = src[srcOffset + i];
+                dst[dstOffset + i * 2] = sample;
+                dst[dstOffset + i * 2 + 1] = sample;
+            }
+            return;
+        }
+
+        for (int i = 0; i < frames; ++i)
+        {
+            dst[dstOffset + i * 2] = src[srcOffset + i * channels];
+            dst[dstOffset + i * 2 + 1] = src[srcOffset + i * channels + 1];
+        }
+    }
+
+    // Scales count samples in place
+    public static void applyGain(float[] samples, int offset, int count, float gain)
+    {
+        for (int i = offset; i < offset + count; ++i)
+            samples[i] *= gain;
+    }
+
+    public static void shortToFloat(short[] src, int srcOffset, float[] dst, int dstOffset, int count)
+    {
+        for (int i = 0; i < count; ++i)
+            dst[dstOffset + i] = src[srcOffset + i] * SHORT_SCALE;
+    }
+
+    public static void intToFloat(int[] src, int srcOffset, float[] dst, int dstOffset, int count)
+    {
+        for (int i = 0; i < count; ++i)
+            dst[dstOffset + i] = src[srcOffset + i] * INT_SCALE;
+    }
+
+    // Packed 24 bit samples, three bytes each
+    public static void int24ToFloat(byte[] src, int srcOffset, boolean isBigEndian, float[] dst, int dstOffset, int count)
+    {
+        if (isBigEndian)
+        {
+            for (int i = 0; i < count; ++i)
+            {
+                int p = srcOffset + i * 3;
+                int sample = (src[p] << 16) | ((src[p + 1] & 0xFF) << 8) | (src[p + 2] & 0xFF);
+                dst[dstOffset + i] = sample * INT24_SCALE;
+            }
+        }
+        else
+        {
+            for (int i = 0; i < count; ++i)
+            {
+                int p = srcOffset + i * 3;
+                int sample = (src[p + 2] << 16) | ((src[p + 1] & 0xFF) << 8) | (src[p] & 0xFF);
+                dst[dstOffset + i] = sample * INT24_SCALE;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+//--------------------------------------------------
+//
+// Filename:    PcmSink.java
+// Author:      Daniel Walther
+// Brief:       Destination for rendered,
+//              interleaved float samples.
+//              AudioTrackSink on a device, fakes
+//              in tests and benchmarks.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+public interface PcmSink
+{
+    // Called before the first write and whenever the output format changes
+    void configure(int sampleRate, int channelCount);
+
+    // Blocks until all frames are queued, returns the number of frames written
+    int write(float[] src, int offset, int frameCount);
+
+    void start();
+    void pause();
+
+    // Drops anything queued but not played yet
+    void flush();
+
+    // System.nanoTime() at which the given frame was played out, or -1 while it hasn't been yet or
+    // the sink can't tell. Frames are counted from the last configure() that changed the format,
+    // flushed ones included.
+    long getPlayedNanos(long frame);
+
+    // A smaller buffer makes switches audible sooner, but survives fewer scheduling hiccups
+    void setLowLatency(boolean isLowLatency);
+
+    void release();
+}
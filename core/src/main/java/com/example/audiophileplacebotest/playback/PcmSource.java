@@ -0,0 +1,40 @@
+//--------------------------------------------------
+//
+// Filename:    PcmSource.java
+// Author:      Daniel Walther
+// Brief:       A seekable stream of decoded,
+//              interleaved float samples
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import java.io.IOException;
+
+public interface PcmSource
+{
+    // May open the underlying decoder on first use, so only called from the render thread
+    int getSampleRate();
+    int getChannelCount();
+
+    // Total length in frames, or -1 if unknown
+    long getFrameCount();
+
+    // Frame that the next read() starts at
+    long getPosition();
+
+    // Positions the source exactly on a frame, not just the closest sync point
+    void seekTo(long frame) throws IOException;
+
+    // Reads up to frameCount frames into dst starting at offset (in samples).
+    // Returns the number of frames read, or -1 at the end of the stream.
+    int read(float[] dst, int offset, int frameCount) throws IOException;
+
+    // Opens decoders ahead of time so a later seek is cheap
+    void warmUp() throws IOException;
+
+    // Frees decoder resources but stays usable, the next seek reopens them
+    void suspend();
+
+    void close();
+}
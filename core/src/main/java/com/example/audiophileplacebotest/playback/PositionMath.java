@@ -0,0 +1,51 @@
+//--------------------------------------------------
+//
+// Filename:    PositionMath.java
+// Author:      Daniel Walther
+// Brief:       Conversions between frames,
+//              milliseconds and the shared
+//              playback clock
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+public final class PositionMath
+{
+    // Clock ticks per second. Evenly divisible by every common sample rate
+    // (8k-192k, 352.8k), so switching between tracks of different rates never drifts.
+    public static final long FLICKS_PER_SECOND = 705600000L;
+    public static final long FLICKS_PER_MILLI = FLICKS_PER_SECOND / 1000;
+
+    private PositionMath() {}
+
+    public static long framesToFlicks(long frames, int sampleRate)
+    {
+        return frames * FLICKS_PER_SECOND / sampleRate;
+    }
+
+    public static long flicksToFrames(long flicks, int sampleRate)
+    {
+        return flicks * sampleRate / FLICKS_PER_SECOND;
+    }
+
+    public static long flicksToMillis(long flicks)
+    {
+        return flicks / FLICKS_PER_MILLI;
+    }
+
+    public static long millisToFlicks(long millis)
+    {
+        return millis * FLICKS_PER_MILLI;
+    }
+
+    public static long framesToMillis(long frames, int sampleRate)
+    {
+        return frames * 1000 / sampleRate;
+    }
+
+    public static long millisToFrames(long millis, int sampleRate)
+    {
+        return millis * sampleRate / 1000;
+    }
+}
@@ -0,0 +1,144 @@
+//--------------------------------------------------
+//
+// Filename:    SyncMonitor.java
+// Author:      Daniel Walther
+// Brief:       Tracks how far each source's own
+//              position strays from the mixer
+//              clock and decides when it needs to
+//              be re-seeked
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public class SyncMonitor
+{
+    // Blocks between two samples of the selected source
+    public static final int SAMPLE_INTERVAL_BLOCKS = 4;
+
+    public static final long DEFAULT_THRESHOLD_MICROS = 2000;
+
+    // Histogram of absolute drift for the percentile, anything past the last bucket is clamped
+    private static final int BUCKET_MICROS = 50;
+    private static final int BUCKET_COUNT = 2000;
+
+    // Snapshot of one source's drift so far
+    public static final class Stats
+    {
+        private final long sampleCount;
+        private final long meanMicros;
+        private final long maxMicros;
+        private final long p99Micros;
+        private final int resyncCount;
+
+        Stats(long sampleCount_, long meanMicros_, long maxMicros_, long p99Micros_, int resyncCount_)
+        {
+            sampleCount = sampleCount_;
+            meanMicros = meanMicros_;
+            maxMicros = maxMicros_;
+            p99Micros = p99Micros_;
+            resyncCount = resyncCount_;
+        }
+
+        public long getSampleCount() { return sampleCount; }
+        public long getMeanMicros() { return meanMicros; }
+        public long getMaxMicros() { return maxMicros; }
+        public long getP99Micros() { return p99Micros; }
+        public int getResyncCount() { return resyncCount; }
+    }
+
+    private static final class Track
+    {
+        long sampleCount = 0;
+        long sumMicros = 0;
+        long maxMicros = 0;
+        int resyncCount = 0;
+        final int[] histogram = new int[BUCKET_COUNT];
+    }
+
+    private final Map<PcmSource, Track> tracks = new IdentityHashMap<>();
+    private long thresholdMicros = DEFAULT_THRESHOLD_MICROS;
+
+    // Records one sample of source's drift ahead of (+) or behind (-) the clock.
+    // Returns true if it is past the threshold and the source should be re-seeked.
+    public synchronized boolean record(PcmSource source, long driftMicros)
+    {
+        Track track = tracks.get(source);
+        if (track == null)
+        {
+            track = new Track();
+            tracks.put(source, track);
+        }
+
+        long drift = Math.abs(driftMicros);
+
+        ++track.sampleCount;
+        track.sumMicros += drift;
+        track.maxMicros = Math.max(track.maxMicros, drift);
+        ++track.histogram[(int) Math.min(drift / BUCKET_MICROS, BUCKET_COUNT - 1)];
+
+        if (drift <= thresholdMicros)
+            return false;
+
+        ++track.resyncCount;
+        return true;
+    }
+
+    // Null if the source hasn't been sampled yet
+    public synchronized Stats getStats(PcmSource source)
+    {
+        Track track = tracks.get(source);
+        if (track == null)
+            return null;
+
+        // Upper edge of the bucket holding the 99th percentile
+        long target = (track.sampleCount * 99 + 99) / 100;
+        long seen = 0;
+        long p99 = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+        {
+            seen += track.histogram[i];
+            if (seen >= target)
+            {
+                p99 = Math.min((long) (i + 1) * BUCKET_MICROS, track.maxMicros);
+                break;
+            }
+        }
+
+        return new Stats(track.sampleCount, track.sumMicros / track.sampleCount, track.maxMicros, p99,
+                track.resyncCount);
+    }
+
+    public synchronized void setThresholdMicros(long thresholdMicros_)
+    {
+        thresholdMicros = thresholdMicros_;
+    }
+
+    public synchronized long getThresholdMicros()
+    {
+        return thresholdMicros;
+    }
+
+    // Forgets sources that are no longer mixed
+    public synchronized void retain(PcmSource[] sources)
+    {
+        Map<PcmSource, Track> kept = new IdentityHashMap<>();
+        for (PcmSource source : sources)
+        {
+            Track track = tracks.get(source);
+            if (track != null)
+                kept.put(source, track);
+        }
+
+        tracks.clear();
+        tracks.putAll(kept);
+    }
+
+    public synchronized void reset()
+    {
+        tracks.clear();
+    }
+}
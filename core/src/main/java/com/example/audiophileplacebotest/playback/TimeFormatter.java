@@ -0,0 +1,52 @@
+//--------------------------------------------------
+//
+// Filename:    TimeFormatter.java
+// Author:      Daniel Walther
+// Brief:       Formats playback times as m:ss into
+//              caller-owned char buffers, so UI
+//              ticks don't allocate
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+public final class TimeFormatter
+{
+    // Longest possible output: 19 digits of minutes, ':' and two digits of seconds
+    public static final int MAX_LENGTH = 22;
+
+    private TimeFormatter() {}
+
+    // For one-off labels, not for anything called per frame
+    public static String format(long millis)
+    {
+        char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0, format(millis, buffer, 0));
+    }
+
+    // Writes millis as m:ss starting at dst[offset], returns the index after the last char.
+    // Minutes don't wrap at an hour, negative times show as 0:00.
+    public static int format(long millis, char[] dst, int offset)
+    {
+        long totalSeconds = Math.max(millis, 0) / 1000;
+        long minutes = totalSeconds / 60;
+        int seconds = (int) (totalSeconds % 60);
+
+        int digits = 1;
+        for (long m = minutes; m >= 10; m /= 10)
+            ++digits;
+
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; --i)
+        {
+            dst[i] = (char) ('0' + minutes % 10);
+            minutes /= 10;
+        }
+
+        dst[end] = ':';
+        dst[end + 1] = (char) ('0' + seconds / 10);
+        dst[end + 2] = (char) ('0' + seconds % 10);
+
+        return end + 3;
+    }
+}
@@ -0,0 +1,131 @@
+//--------------------------------------------------
+//
+// Filename:    ComparisonStats.java
+// Author:      Daniel Walther
+// Brief:       Running hit rate, binomial p-value
+//              and confidence interval of all trials
+//              between the same tracks. Each trial
+//              updates them in constant time.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.results;
+
+public class ComparisonStats
+{
+    // Two sided 95% interval
+    private static final double Z = 1.959964;
+
+    private final int choiceCount;
+    private final double chance;
+
+    private int trialCount = 0;
+    private int correctCount = 0;
+
+    // Chance of at least correctCount hits by guessing, and the log of the chance of exactly
+    // correctCount. Both follow from the previous values when a trial is added.
+    private double tail = 1;
+    private double logExact = 0;
+
+    public ComparisonStats(int choiceCount_)
+    {
+        if (choiceCount_ < 2)
+            throw new IllegalArgumentException("Need at least two choices");
+
+        choiceCount = choiceCount_;
+        chance = 1.0 / choiceCount;
+    }
+
+    private ComparisonStats(ComparisonStats other)
+    {
+        choiceCount = other.choiceCount;
+        chance = other.chance;
+        trialCount = other.trialCount;
+        correctCount = other.correctCount;
+        tail = other.tail;
+        logExact = other.logExact;
+    }
+
+    // Snapshot that doesn't change with later trials
+    public ComparisonStats copy()
+    {
+        return new ComparisonStats(this);
+    }
+
+    // With n trials and k hits, one more trial gives
+    //   P(X >= k + 1) = P(X >= k) - (1 - p) * P(X = k)           on a hit
+    //   P(X >= k)     = P(X >= k) + (1 - p) * P(X = k) * k / (n - k + 1)   on a miss
+    // and P(X = k) changes by a single binomial coefficient ratio. Rounding errors stay tiny in
+    // absolute terms, only p-values far below any meaningful threshold lose relative precision.
+    public void add(boolean isCorrect)
+    {
+        int n = trialCount;
+        int k = correctCount;
+        double exact = Math.exp(logExact);
+
+        if (isCorrect)
+        {
+            tail -= (1 - chance) * exact;
+            logExact += Math.log((n + 1.0) / (k + 1) * chance);
+            ++correctCount;
+        }
+        else
+        {
+            tail += (1 - chance) * exact * k / (n - k + 1);
+            logExact += Math.log((n + 1.0) / (n + 1 - k) * (1 - chance));
+        }
+
+        ++trialCount;
+        tail = Math.max(Math.min(tail, 1), 0);
+    }
+
+    public int getChoiceCount()
+    {
+        return choiceCount;
+    }
+
+    public int getTrialCount()
+    {
+        return trialCount;
+    }
+
+    public int getCorrectCount()
+    {
+        return correctCount;
+    }
+
+    public double getHitRate()
+    {
+        return trialCount == 0 ? 0 : (double) correctCount / trialCount;
+    }
+
+    // Chance of getting at least this many right by guessing
+    public double getPValue()
+    {
+        return tail;
+    }
+
+    // Wilson score interval of the hit rate, holds up for few trials and rates near 0 or 1
+    public double getConfidenceLow()
+    {
+        return trialCount == 0 ? 0 : Math.max(wilsonCenter() - wilsonHalfWidth(), 0);
+    }
+
+    public double getConfidenceHigh()
+    {
+        return trialCount == 0 ? 1 : Math.min(wilsonCenter() + wilsonHalfWidth(), 1);
+    }
+
+    private double wilsonCenter()
+    {
+        double n = trialCount;
+        return (getHitRate() + Z * Z / (2 * n)) / (1 + Z * Z / n);
+    }
+
+    private double wilsonHalfWidth()
+    {
+        double n = trialCount;
+        double p = getHitRate();
+        return Z * Math.sqrt(p * (1 - p) / n + Z * Z / (4 * n * n)) / (1 + Z * Z / n);
+    }
+}
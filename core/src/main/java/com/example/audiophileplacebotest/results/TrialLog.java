@@ -0,0 +1,419 @@
+//--------------------------------------------------
+//
+// Filename:    TrialLog.java
+// Author:      Daniel Walther
+// Brief:       Append-only binary log of blind
+//              trials, with statistics per set of
+//              compared tracks kept up to date as
+//              trials come in. Exports to CSV
+//              without holding the trials in memory.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.results;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+public class TrialLog
+{
+    private static final int MAGIC = 0x4150544C; // "APTL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    // Every record is a type byte, a 16 bit payload length, the payload and a CRC32 of type and
+    // payload. Tracks are written once, the first time a trial uses them, and referred to by
+    // their position in the log from then on.
+    private static final int TYPE_TRACK = 1;
+    private static final int TYPE_TRIAL = 2;
+    private static final int RECORD_OVERHEAD = 1 + 2 + 4;
+    private static final int MAX_PAYLOAD = 0xFFFF;
+
+    private static final String CSV_HEADER = "time,test,tracks,answer,guess,correct,answer_ms,switches\n";
+
+    private final File file;
+
+    private final ArrayList<String> trackKeys = new ArrayList<>();
+    private final ArrayList<String> trackNames = new ArrayList<>();
+    private final HashMap<String, Integer> trackIds = new HashMap<>();
+    private final HashMap<String, ComparisonStats> stats = new HashMap<>();
+    private int trialCount = 0;
+
+    // Bytes of intact records. Anything after it is a write that didn't finish and gets overwritten.
+    private long validLength = 0;
+    private boolean isLoaded = false;
+
+    public TrialLog(File file_)
+    {
+        file = file_;
+    }
+
+    // Writes the trial and counts it. Does blocking I/O.
+    public synchronized void append(TrialRecord record) throws IOException
+    {
+        ensureLoaded();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+
+        if (validLength == 0)
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        // Only added to the table once they're on disk
+        int count = record.getChoiceCount();
+        int[] ids = new int[count];
+        ArrayList<String> newKeys = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+        {
+            String key = record.getTrackKey(i);
+            Integer id = trackIds.get(key);
+            int newIndex = newKeys.indexOf(key);
+
+            if (id != null)
+                ids[i] = id;
+            else if (newIndex >= 0)
+                ids[i] = trackKeys.size() + newIndex;
+            else
+            {
+                ids[i] = trackKeys.size() + newKeys.size();
+                newKeys.add(key);
+
+                payload.reset();
+                payloadOut.writeUTF(key);
+                payloadOut.writeUTF(record.getTrackName(i) == null ? "" : record.getTrackName(i));
+                writeRecord(out, TYPE_TRACK, payload.toByteArray());
+            }
+        }
+
+        payload.reset();
+        payloadOut.writeByte(record.getKind());
+        payloadOut.writeLong(record.getTimestampMillis());
+        writeVarint(payloadOut, (int) Math.min(Math.max(record.getAnswerMillis(), 0), Integer.MAX_VALUE));
+        writeVarint(payloadOut, Math.max(record.getSwitchCount(), 0));
+        payloadOut.writeByte(count);
+        for (int id : ids)
+            writeVarint(payloadOut, id);
+        payloadOut.writeByte(record.getCorrectIndex());
+        payloadOut.writeByte(record.getGuessIndex());
+        writeRecord(out, TYPE_TRIAL, payload.toByteArray());
+
+        // One write, synced, so a crash loses at most this trial
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(validLength);
+            raf.seek(validLength);
+            raf.write(bytes.toByteArray());
+            raf.getFD().sync();
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        validLength += bytes.size();
+
+        for (int i = 0; i < count; ++i)
+        {
+            if (ids[i] >= trackKeys.size())
+                addTrack(record.getTrackKey(i), record.getTrackName(i) == null ? "" : record.getTrackName(i));
+        }
+        count(record.getKind(), ids, record.isCorrect());
+    }
+
+    // Statistics of every trial of this kind between exactly these tracks, in any order.
+    // Null if there are none. The result is a copy.
+    public synchronized ComparisonStats getStats(int kind, String[] keys)
+    {
+        ensureLoaded();
+
+        int[] ids = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            Integer id = trackIds.get(keys[i]);
+            if (id == null)
+                return null;
+            ids[i] = id;
+        }
+
+        ComparisonStats s = stats.get(statsKey(kind, ids));
+        return s == null ? null : s.copy();
+    }
+
+    public synchronized int getTrialCount()
+    {
+        ensureLoaded();
+        return trialCount;
+    }
+
+    // Writes one line per trial, reading the log as it goes. Returns the number of trials written.
+    public synchronized int exportCsv(Writer out) throws IOException
+    {
+        ensureLoaded();
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        out.write(CSV_HEADER);
+        if (validLength == 0)
+        {
+            out.flush();
+            return 0;
+        }
+
+        int written = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            in.skipBytes(HEADER_SIZE);
+            long position = HEADER_SIZE;
+            StringBuilder line = new StringBuilder();
+
+            while (position < validLength)
+            {
+                int type = in.readUnsignedByte();
+                byte[] payload = new byte[in.readUnsignedShort()];
+                in.readFully(payload);
+                in.readInt();
+                position += RECORD_OVERHEAD + payload.length;
+
+                if (type != TYPE_TRIAL)
+                    continue;
+
+                DataInputStream trial = new DataInputStream(new ByteArrayInputStream(payload));
+                int kind = trial.readByte();
+                long timestamp = trial.readLong();
+                int answerMillis = readVarint(trial);
+                int switchCount = readVarint(trial);
+                int[] ids = new int[trial.readUnsignedByte()];
+                for (int i = 0; i < ids.length; ++i)
+                    ids[i] = readVarint(trial);
+                int correct = trial.readUnsignedByte();
+                int guess = trial.readUnsignedByte();
+
+                line.setLength(0);
+                line.append(dateFormat.format(new Date(timestamp))).append(',');
+                line.append(kind == TrialRecord.KIND_ABX ? "abx" : "blind").append(',');
+
+                StringBuilder tracks = new StringBuilder();
+                for (int i = 0; i < ids.length; ++i)
+                    tracks.append(i == 0 ? "" : " | ").append(trackNames.get(ids[i]));
+                appendCsvField(line, tracks.toString());
+                line.append(',');
+                appendCsvField(line, trackNames.get(ids[correct]));
+                line.append(',');
+                appendCsvField(line, trackNames.get(ids[guess]));
+                line.append(',').append(correct == guess ? 1 : 0);
+                line.append(',').append(answerMillis).append(',').append(switchCount).append('\n');
+
+                out.write(line.toString());
+                ++written;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        out.flush();
+        return written;
+    }
+
+    // Replays the log once on first use, later trials only update the statistics
+    private void ensureLoaded()
+    {
+        if (isLoaded)
+            return;
+
+        isLoaded = true;
+
+        if (!file.exists())
+            return;
+
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            try
+            {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    return;
+
+                validLength = HEADER_SIZE;
+                CRC32 crc = new CRC32();
+
+                while (true)
+                {
+                    int type = in.read();
+                    if (type < 0)
+                        break;
+
+                    byte[] payload = new byte[in.readUnsignedShort()];
+                    in.readFully(payload);
+
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(payload);
+                    if (in.readInt() != (int) crc.getValue() || !replay(type, payload))
+                        break;
+
+                    validLength += RECORD_OVERHEAD + payload.length;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (EOFException e)
+        {
+            // Last write didn't finish, everything before it counts
+        }
+        catch (IOException e)
+        {
+            // Unreadable from here on, keep what was read
+        }
+    }
+
+    // False if the record doesn't make sense, it is treated like the end of the log
+    private boolean replay(int type, byte[] payload) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        if (type == TYPE_TRACK)
+        {
+            addTrack(in.readUTF(), in.readUTF());
+            return true;
+        }
+
+        if (type != TYPE_TRIAL)
+            return false;
+
+        int kind = in.readByte();
+        in.readLong();
+        readVarint(in);
+        readVarint(in);
+
+        int[] ids = new int[in.readUnsignedByte()];
+        for (int i = 0; i < ids.length; ++i)
+        {
+            ids[i] = readVarint(in);
+            if (ids[i] < 0 || ids[i] >= trackKeys.size())
+                return false;
+        }
+
+        int correct = in.readUnsignedByte();
+        int guess = in.readUnsignedByte();
+        if (ids.length < 2 || correct >= ids.length || guess >= ids.length)
+            return false;
+
+        count(kind, ids, correct == guess);
+        return true;
+    }
+
+    private void addTrack(String key, String name)
+    {
+        trackIds.put(key, trackKeys.size());
+        trackKeys.add(key);
+        trackNames.add(name);
+    }
+
+    private void count(int kind, int[] ids, boolean isCorrect)
+    {
+        String key = statsKey(kind, ids);
+        ComparisonStats s = stats.get(key);
+        if (s == null)
+        {
+            s = new ComparisonStats(ids.length);
+            stats.put(key, s);
+        }
+
+        s.add(isCorrect);
+        ++trialCount;
+    }
+
+    // Same tracks in any order count as the same comparison
+    private static String statsKey(int kind, int[] ids)
+    {
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+
+        StringBuilder key = new StringBuilder().append(kind);
+        for (int id : sorted)
+            key.append(',').append(id);
+        return key.toString();
+    }
+
+    private static void writeRecord(DataOutputStream out, int type, byte[] payload) throws IOException
+    {
+        if (payload.length > MAX_PAYLOAD)
+            throw new IOException("Trial record too large");
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        out.writeByte(type);
+        out.writeShort(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Seven bits per byte, low bits first
+    private static void writeVarint(DataOutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("Malformed varint");
+    }
+
+    private static void appendCsvField(StringBuilder line, String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+        {
+            line.append(value);
+            return;
+        }
+
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,100 @@
+//--------------------------------------------------
+//
+// Filename:    TrialRecord.java
+// Author:      Daniel Walther
+// Brief:       One answered blind trial: which
+//              tracks were compared, which one was
+//              right, what was guessed, and how long
+//              and how often the listener switched
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.results;
+
+public class TrialRecord
+{
+    // Which test the trial came from, the two are counted separately
+    public static final int KIND_ABX = 0;
+    public static final int KIND_BLIND = 1;
+
+    private final int kind;
+    private final String[] trackKeys;
+    private final String[] trackNames;
+    private final int correctIndex;
+    private final int guessIndex;
+    private final long answerMillis;
+    private final int switchCount;
+    private final long timestampMillis;
+
+    // Tracks are the choices the listener had, the indices point into them
+    public TrialRecord(int kind_, String[] trackKeys_, String[] trackNames_, int correctIndex_, int guessIndex_,
+                       long answerMillis_, int switchCount_, long timestampMillis_)
+    {
+        if (trackKeys_.length < 2 || trackKeys_.length != trackNames_.length)
+            throw new IllegalArgumentException("Need at least two named tracks");
+
+        if (correctIndex_ < 0 || correctIndex_ >= trackKeys_.length || guessIndex_ < 0 || guessIndex_ >= trackKeys_.length)
+            throw new IllegalArgumentException("Track index out of range");
+
+        kind = kind_;
+        trackKeys = trackKeys_;
+        trackNames = trackNames_;
+        correctIndex = correctIndex_;
+        guessIndex = guessIndex_;
+        answerMillis = answerMillis_;
+        switchCount = switchCount_;
+        timestampMillis = timestampMillis_;
+    }
+
+    public int getKind()
+    {
+        return kind;
+    }
+
+    public int getChoiceCount()
+    {
+        return trackKeys.length;
+    }
+
+    public String getTrackKey(int index)
+    {
+        return trackKeys[index];
+    }
+
+    public String getTrackName(int index)
+    {
+        return trackNames[index];
+    }
+
+    public int getCorrectIndex()
+    {
+        return correctIndex;
+    }
+
+    public int getGuessIndex()
+    {
+        return guessIndex;
+    }
+
+    public boolean isCorrect()
+    {
+        return guessIndex == correctIndex;
+    }
+
+    // From the start of the trial to the answer
+    public long getAnswerMillis()
+    {
+        return answerMillis;
+    }
+
+    public int getSwitchCount()
+    {
+        return switchCount;
+    }
+
+    // Wall clock time of the answer
+    public long getTimestampMillis()
+    {
+        return timestampMillis;
+    }
+}
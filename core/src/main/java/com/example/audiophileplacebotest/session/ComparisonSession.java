@@ -0,0 +1,175 @@
+//--------------------------------------------------
+//
+// Filename:    ComparisonSession.java
+// Author:      Daniel Walther
+// Brief:       The tracks being compared, in list
+//              order, with the selection, global
+//              controls and blind (shuffled and
+//              hidden) state kept consistent
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.session;
+
+import com.example.audiophileplacebotest.model.Track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+public class ComparisonSession<T extends Track>
+{
+    // Tracks only play in sync if their lengths are this close
+    public static final int MAX_DURATION_DIFFERENCE_MILLIS = 300;
+
+    private final ArrayList<T> tracks = new ArrayList<>();
+    private boolean isBlind = false;
+    private boolean globalControlsEnabled = false;
+
+    // Live list, shared with the views. Change it through the session so its flags stay consistent.
+    public ArrayList<T> getTracks()
+    {
+        return tracks;
+    }
+
+    public int size()
+    {
+        return tracks.size();
+    }
+
+    public T get(int index)
+    {
+        return tracks.get(index);
+    }
+
+    public int indexOf(T track)
+    {
+        return tracks.indexOf(track);
+    }
+
+    // New tracks are shown with their names even in a blind session
+    public void add(T track)
+    {
+        track.setGlobalControlsEnabled(globalControlsEnabled);
+        tracks.add(track);
+    }
+
+    // Falls back to the first track if the selected one is removed. Removing the last
+    // track ends blind mode and global controls.
+    public T remove(int index)
+    {
+        T removed = tracks.remove(index);
+
+        if (removed.isSelected() && !tracks.isEmpty())
+            tracks.get(0).setSelected(true);
+
+        if (tracks.isEmpty())
+        {
+            isBlind = false;
+            globalControlsEnabled = false;
+        }
+
+        return removed;
+    }
+
+    // Swaps two neighbouring rows while dragging
+    public void swap(int from, int to)
+    {
+        Collections.swap(tracks, from, to);
+    }
+
+    // region Selection
+    // Only one track is routed to the output at a time
+    public void select(int index)
+    {
+        int count = tracks.size();
+        for (int i = 0; i < count; ++i)
+            tracks.get(i).setSelected(i == index);
+    }
+
+    // -1 if nothing is selected
+    public int getSelectedIndex()
+    {
+        int count = tracks.size();
+        for (int i = 0; i < count; ++i)
+        {
+            if (tracks.get(i).isSelected())
+                return i;
+        }
+
+        return -1;
+    }
+    // endregion
+
+    // region Global controls
+    public static boolean durationsMatch(int durationMillis, int otherDurationMillis)
+    {
+        return Math.abs(durationMillis - otherDurationMillis) <= MAX_DURATION_DIFFERENCE_MILLIS;
+    }
+
+    // Whether every track can play in sync with the first, durations in list order
+    public static boolean durationsMatch(int[] durationsMillis)
+    {
+        for (int i = 1; i < durationsMillis.length; ++i)
+        {
+            if (!durationsMatch(durationsMillis[0], durationsMillis[i]))
+                return false;
+        }
+
+        return true;
+    }
+
+    // Enabling selects the first track
+    public void setGlobalControlsEnabled(boolean enabled)
+    {
+        globalControlsEnabled = enabled;
+
+        int count = tracks.size();
+        for (int i = 0; i < count; ++i)
+        {
+            tracks.get(i).setGlobalControlsEnabled(enabled);
+            if (enabled)
+                tracks.get(i).setSelected(i == 0);
+        }
+    }
+
+    public boolean isGlobalControlsEnabled()
+    {
+        return globalControlsEnabled;
+    }
+    // endregion
+
+    // region Blind mode
+    // Shuffles the tracks and hides their names. The position in the list is all
+    // that identifies a track from here on.
+    public void hide(Random random)
+    {
+        Collections.shuffle(tracks, random);
+
+        for (T track : tracks)
+            track.setHidden(true);
+
+        isBlind = true;
+    }
+
+    // Shows names again, in the shuffled order
+    public void reveal()
+    {
+        for (T track : tracks)
+            track.setHidden(false);
+
+        isBlind = false;
+    }
+
+    public boolean isBlind()
+    {
+        return isBlind;
+    }
+
+    // Number shown in place of the name of a hidden track
+    public static int getBlindNumber(int position)
+    {
+        return position + 1;
+    }
+    // endregion
+}
@@ -0,0 +1,78 @@
+//--------------------------------------------------
+//
+// Filename:    ImportFilter.java
+// Author:      Daniel Walther
+// Brief:       Decides which files of a bulk import
+//              belong in the same comparison set as
+//              a reference track
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.session;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+public class ImportFilter
+{
+    private final boolean matchFormat;
+    private final boolean matchSampleRate;
+    private final boolean matchDuration;
+
+    // Null until set, everything readable matches until then
+    private AudioMetadata reference = null;
+
+    public ImportFilter(boolean matchFormat_, boolean matchSampleRate_, boolean matchDuration_)
+    {
+        matchFormat = matchFormat_;
+        matchSampleRate = matchSampleRate_;
+        matchDuration = matchDuration_;
+    }
+
+    // Filters that match nothing specific don't need a reference
+    public boolean needsReference()
+    {
+        return matchFormat || matchSampleRate || matchDuration;
+    }
+
+    public void setReference(AudioMetadata reference_)
+    {
+        reference = reference_;
+    }
+
+    public boolean hasReference()
+    {
+        return reference != null;
+    }
+
+    // Files that couldn't be probed never match. Durations match within the tolerance
+    // global controls allow, so the whole set can be played in sync.
+    public boolean matches(AudioMetadata metadata)
+    {
+        if (metadata == null)
+            return false;
+        if (reference == null)
+            return true;
+
+        if (matchFormat && !sameFormat(reference.getFormat(), metadata.getFormat()))
+            return false;
+        if (matchSampleRate && reference.getSampleRate() != metadata.getSampleRate())
+            return false;
+
+        if (matchDuration)
+        {
+            long referenceMillis = reference.getDurationMillis();
+            long millis = metadata.getDurationMillis();
+
+            if (referenceMillis < 0 || millis < 0
+                    || Math.abs(referenceMillis - millis) > ComparisonSession.MAX_DURATION_DIFFERENCE_MILLIS)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean sameFormat(String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,99 @@
+//--------------------------------------------------
+//
+// Filename:    AbxSessionTest.java
+// Author:      Daniel Walther
+// Brief:       Checks the trial schedule, scoring
+//              and switch latency bookkeeping
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.abx;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AbxSessionTest
+{
+    @Test
+    public void scheduleIsBalanced()
+    {
+        for (long seed = 0; seed < 20; ++seed)
+        {
+            AbxSession session = new AbxSession(16, new Random(seed));
+
+            int xIsA = 0;
+            for (int i = 0; i < session.getTrialCount(); ++i)
+            {
+                if (session.getTrial(i).getXCandidate() == AbxSession.CANDIDATE_A)
+                    ++xIsA;
+            }
+
+            assertEquals(8, xIsA);
+        }
+    }
+
+    @Test
+    public void slotsMapToCandidatesForCurrentTrial()
+    {
+        AbxSession session = new AbxSession(4, new Random(1));
+
+        for (int i = 0; i < 4; ++i)
+        {
+            assertEquals(AbxSession.CANDIDATE_A, session.getCandidateFor(AbxSession.SLOT_A));
+            assertEquals(AbxSession.CANDIDATE_B, session.getCandidateFor(AbxSession.SLOT_B));
+            assertEquals(session.getTrial(i).getXCandidate(), session.getCandidateFor(AbxSession.SLOT_X));
+            session.answer(AbxSession.CANDIDATE_A);
+        }
+
+        assertTrue(session.isFinished());
+        assertEquals(4, session.getCurrentTrialIndex());
+    }
+
+    @Test
+    public void scoresAnswersAndPValue()
+    {
+        AbxSession session = new AbxSession(16, new Random(7));
+
+        // Everything right
+        for (int i = 0; i < 16; ++i)
+            session.answer(session.getCandidateFor(AbxSession.SLOT_X));
+
+        assertEquals(16, session.getCorrectCount());
+        assertEquals(1.0 / 65536, session.getPValue(), 1e-12);
+
+        // 12 of 16 by chance happens with p = 0.0384
+        session = new AbxSession(16, new Random(7));
+        for (int i = 0; i < 16; ++i)
+        {
+            int x = session.getCandidateFor(AbxSession.SLOT_X);
+            session.answer(i < 12 ? x : 1 - x);
+        }
+
+        assertEquals(12, session.getCorrectCount());
+        assertEquals(0.0384, session.getPValue(), 0.0001);
+        assertFalse(session.getTrial(15).isCorrect());
+    }
+
+    @Test
+    public void switchLatencyIsKeptPerTrial()
+    {
+        AbxSession session = new AbxSession(2, new Random(3));
+        session.recordSwitch(2000000);
+        session.recordSwitch(4000000);
+        session.answer(AbxSession.CANDIDATE_B);
+        session.recordSwitch(9000000);
+        session.answer(AbxSession.CANDIDATE_B);
+
+        // Ignored once finished
+        session.recordSwitch(50000000);
+
+        assertEquals(2, session.getTrial(0).getSwitchCount());
+        assertEquals(3000000, session.getTrial(0).getMeanSwitchNanos());
+        assertEquals(4000000, session.getTrial(0).getMaxSwitchNanos());
+        assertEquals(1, session.getTrial(1).getSwitchCount());
+        assertEquals(9000000, session.getMaxSwitchNanos());
+    }
+}
@@ -0,0 +1,101 @@
+//--------------------------------------------------
+//
+// Filename:    MetadataCacheTest.java
+// Author:      Daniel Walther
+// Brief:       Persistence, invalidation and LRU
+//              eviction of the metadata cache
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cache;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MetadataCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AudioMetadata flac()
+    {
+        return new AudioMetadata("FLAC", 96000, 24, 2, 960000, 2500000);
+    }
+
+    @Test
+    public void entriesSurviveReload() throws IOException
+    {
+        File index = new File(folder.getRoot(), "metadata.idx");
+
+        MetadataCache cache = new MetadataCache(index, 10);
+        cache.put("content://a", 1234, 5678, flac());
+        cache.put("content://b", 1, 2, new AudioMetadata(null, 44100, 0, 2, -1, 128000, 576, 1000));
+        cache.save();
+
+        MetadataCache reloaded = new MetadataCache(index, 10);
+        AudioMetadata a = reloaded.get("content://a", 1234, 5678);
+        assertNotNull(a);
+        assertEquals("FLAC", a.getFormat());
+        assertEquals(96000, a.getSampleRate());
+        assertEquals(960000, a.getTotalSamples());
+
+        AudioMetadata b = reloaded.get("content://b", 1, 2);
+        assertNull(b.getFormat());
+        assertEquals(576, b.getEncoderDelay());
+        assertEquals(1000, b.getEncoderPadding());
+        assertEquals(2, reloaded.getHitCount());
+    }
+
+    @Test
+    public void changedFileIsAMiss()
+    {
+        MetadataCache cache = new MetadataCache(new File(folder.getRoot(), "metadata.idx"), 10);
+        cache.put("content://a", 1234, 5678, flac());
+
+        assertNull(cache.get("content://a", 1234, 9999));
+        assertNull(cache.get("content://a", 4321, 5678));
+        assertNull(cache.get("content://c", 1234, 5678));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws IOException
+    {
+        File index = new File(folder.getRoot(), "metadata.idx");
+        MetadataCache cache = new MetadataCache(index, 2);
+
+        cache.put("content://a", 1, 1, flac());
+        cache.put("content://b", 1, 1, flac());
+        cache.get("content://a", 1, 1);
+        cache.put("content://c", 1, 1, flac());
+        cache.save();
+
+        // Order must survive a reload too
+        MetadataCache reloaded = new MetadataCache(index, 2);
+        assertEquals(2, reloaded.size());
+        assertNotNull(reloaded.get("content://a", 1, 1));
+        assertNull(reloaded.get("content://b", 1, 1));
+        assertNotNull(reloaded.get("content://c", 1, 1));
+    }
+
+    @Test
+    public void corruptIndexIsIgnored() throws IOException
+    {
+        File index = folder.newFile("metadata.idx");
+        Files.write(index.toPath(), new byte[] { 0x41, 0x50, 0x4D, 0x43, 0, 0, 0, 1, 0, 0 });
+
+        MetadataCache cache = new MetadataCache(index, 10);
+        assertEquals(0, cache.size());
+        assertNull(cache.get("content://a", 1, 1));
+    }
+}
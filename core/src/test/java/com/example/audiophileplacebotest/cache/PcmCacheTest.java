@@ -0,0 +1,131 @@
+//--------------------------------------------------
+//
+// Filename:    PcmCacheTest.java
+// Author:      Daniel Walther
+// Brief:       Round-trips decoded PCM through the
+//              cache and checks LRU eviction
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.cache;
+
+import com.example.audiophileplacebotest.playback.MappedPcmSource;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PcmCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Sample value encodes frame and channel
+    private static class RampSource implements PcmSource
+    {
+        final long frames;
+        long position = 0;
+
+        RampSource(long frames_)
+        {
+            frames = frames_;
+        }
+
+        @Override public int getSampleRate() { return 44100; }
+        @Override public int getChannelCount() { return 2; }
+        @Override public long getFrameCount() { return frames; }
+        @Override public long getPosition() { return position; }
+        @Override public void seekTo(long frame) { position = frame; }
+        @Override public void warmUp() {}
+        @Override public void suspend() {}
+        @Override public void close() {}
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount)
+        {
+            if (position >= frames)
+                return -1;
+
+            int n = (int) Math.min(frameCount, frames - position);
+            for (int i = 0; i < n; ++i)
+            {
+                dst[offset + i * 2] = position + i;
+                dst[offset + i * 2 + 1] = -(position + i);
+            }
+
+            position += n;
+            return n;
+        }
+    }
+
+    private static final long FILE_BYTES = MappedPcmSource.HEADER_SIZE + 10000 * 8;
+
+    @Test
+    public void storedTrackReadsBackExactly() throws IOException
+    {
+        PcmCache cache = new PcmCache(folder.newFolder("pcm"), 1 << 20);
+        assertNull(cache.get("content://a", 100, 1));
+
+        File file = cache.store("content://a", 100, 1, new RampSource(10000));
+        assertEquals(file, cache.get("content://a", 100, 1));
+        assertTrue(cache.getSamplesPerSecond() > 0);
+
+        MappedPcmSource source = new MappedPcmSource(file);
+        assertEquals(44100, source.getSampleRate());
+        assertEquals(2, source.getChannelCount());
+        assertEquals(10000, source.getFrameCount());
+
+        float[] buffer = new float[200];
+        source.seekTo(9950);
+        assertEquals(50, source.read(buffer, 0, 100));
+        assertEquals(9950f, buffer[0], 0);
+        assertEquals(-9999f, buffer[99], 0);
+        assertEquals(-1, source.read(buffer, 0, 100));
+    }
+
+    @Test
+    public void changedFileIsAMiss() throws IOException
+    {
+        PcmCache cache = new PcmCache(folder.newFolder("pcm"), 1 << 20);
+        cache.store("content://a", 100, 1, new RampSource(10));
+
+        assertNull(cache.get("content://a", 100, 2));
+        assertNull(cache.get("content://a", 101, 1));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws IOException
+    {
+        PcmCache cache = new PcmCache(folder.newFolder("pcm"), FILE_BYTES * 2);
+
+        File a = cache.store("content://a", 1, 1, new RampSource(10000));
+        File b = cache.store("content://b", 1, 1, new RampSource(10000));
+
+        // Use a after b so b is the oldest
+        a.setLastModified(System.currentTimeMillis() - 10000);
+        b.setLastModified(System.currentTimeMillis() - 20000);
+        assertNotNull(cache.get("content://a", 1, 1));
+
+        cache.store("content://c", 1, 1, new RampSource(10000));
+
+        assertNotNull(cache.get("content://a", 1, 1));
+        assertNull(cache.get("content://b", 1, 1));
+        assertNotNull(cache.get("content://c", 1, 1));
+        assertEquals(FILE_BYTES * 2, cache.getUsedBytes());
+    }
+
+    @Test
+    public void trackOverBudgetIsNotKept() throws IOException
+    {
+        PcmCache cache = new PcmCache(folder.newFolder("pcm"), FILE_BYTES - 1);
+
+        assertNull(cache.store("content://a", 1, 1, new RampSource(10000)));
+        assertEquals(0, cache.getUsedBytes());
+    }
+}
@@ -0,0 +1,239 @@
+//--------------------------------------------------
+//
+// Filename:    FlacDecoderTest.java
+// Author:      Daniel Walther
+// Brief:       Decodes streams from the test
+//              encoder and checks every sample, the
+//              MD5 check, seeking and parallel decode
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class FlacDecoderTest
+{
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+    private static final int RATE = 44100;
+
+    @AfterClass
+    public static void shutDown()
+    {
+        pool.shutdown();
+    }
+
+    // Tones and noise, with a stretch of silence and one with the low bits zeroed so the
+    // constant and wasted-bits subframes get used too
+    private static int[] signal(int frames, int channels, int bitDepth, long seed)
+    {
+        Random random = new Random(seed);
+        int max = (1 << (bitDepth - 1)) - 1;
+        int[] samples = new int[frames * channels];
+
+        for (int i = 0; i < frames; ++i)
+        {
+            for (int c = 0; c < channels; ++c)
+            {
+                double x = 0.5 * Math.sin(2 * Math.PI * (440 + 110 * c) * i / RATE)
+                        + 0.2 * Math.sin(2 * Math.PI * 3000 * i / RATE)
+                        + 0.05 * (random.nextDouble() * 2 - 1);
+                int v = (int) Math.round(x * max);
+
+                if (i >= frames / 4 && i < frames / 4 + 5000)
+                    v = 0;
+                else if (i >= frames / 2 && i < frames / 2 + 5000)
+                    v &= ~0x7;
+
+                samples[i * channels + c] = Math.max(Math.min(v, max), -max - 1);
+            }
+        }
+
+        return samples;
+    }
+
+    private static float[] decodeAll(FlacSource source, int frames, int channels) throws IOException
+    {
+        float[] out = new float[frames * channels];
+        int position = 0;
+        int n;
+
+        while ((n = source.read(out, position * channels, Math.min(1000, frames - position))) > 0)
+            position += n;
+
+        assertEquals(frames, position);
+        assertEquals(-1, source.read(new float[channels], 0, 1));
+        return out;
+    }
+
+    private static void assertSamples(int[] expected, float[] actual, int bitDepth, int from)
+    {
+        float scale = 1.0f / (1 << (bitDepth - 1));
+        for (int i = 0; i < actual.length; ++i)
+            assertEquals("sample " + (from + i), expected[from + i] * scale, actual[i], 0.0f);
+    }
+
+    private static void roundTrip(FlacTestEncoder encoder, int frames, int channels, int bitDepth, ForkJoinPool decodePool)
+            throws IOException
+    {
+        int[] samples = signal(frames, channels, bitDepth, frames);
+        FlacStream stream = new FlacStream(ByteBuffer.wrap(encoder.encode(samples)));
+
+        FlacSource source = new FlacSource(stream, decodePool);
+        source.enableMd5Check();
+        assertSamples(samples, decodeAll(source, frames, channels), bitDepth, 0);
+        assertTrue(source.isMd5Verified());
+        assertEquals(frames, source.getFrameCount());
+    }
+
+    @Test
+    public void decodesStereo16Bit() throws IOException
+    {
+        roundTrip(new FlacTestEncoder(RATE, 2, 16, 4096), 100000, 2, 16, null);
+    }
+
+    @Test
+    public void decodesStereo24BitInParallel() throws IOException
+    {
+        roundTrip(new FlacTestEncoder(RATE, 2, 24, 4096), 100000, 2, 24, pool);
+    }
+
+    @Test
+    public void decodesOddFormats() throws IOException
+    {
+        roundTrip(new FlacTestEncoder(RATE, 1, 16, 1152), 30000, 1, 16, null);
+        roundTrip(new FlacTestEncoder(RATE, 6, 20, 4096), 30000, 6, 20, pool);
+        roundTrip(new FlacTestEncoder(RATE, 2, 8, 192), 10000, 2, 8, pool);
+    }
+
+    @Test
+    public void decodesVariableBlockSize() throws IOException
+    {
+        roundTrip(new FlacTestEncoder(RATE, 2, 16, 4096).setVariable(true), 100000, 2, 16, pool);
+    }
+
+    // Without a total, the scan runs to the end and the trailing tag has to be left out
+    @Test
+    public void scansWithoutTotalSamples() throws IOException
+    {
+        byte[] tag = new byte[128];
+        tag[0] = 'T';
+        tag[1] = 'A';
+        tag[2] = 'G';
+        roundTrip(new FlacTestEncoder(RATE, 2, 16, 4096).setTotalSamples(false).setTrailer(tag), 50000, 2, 16, pool);
+    }
+
+    @Test
+    public void seeksToExactSample() throws IOException
+    {
+        int frames = 100000;
+        int[] samples = signal(frames, 2, 16, 7);
+        FlacStream stream = new FlacStream(ByteBuffer.wrap(new FlacTestEncoder(RATE, 2, 16, 4096).encode(samples)));
+
+        for (ForkJoinPool decodePool : new ForkJoinPool[] { null, pool })
+        {
+            FlacSource source = new FlacSource(stream, decodePool);
+            for (int target : new int[] { 77777, 0, 4095, 4096, 4097, 99999, 12345 })
+            {
+                source.seekTo(target);
+                assertEquals(target, source.getPosition());
+
+                float[] out = new float[200];
+                int n = source.read(out, 0, 100);
+                assertTrue(n > 0);
+
+                float[] read = new float[n * 2];
+                System.arraycopy(out, 0, read, 0, read.length);
+                assertSamples(samples, read, 16, target * 2);
+            }
+
+            source.seekTo(frames);
+            assertEquals(-1, source.read(new float[2], 0, 1));
+        }
+    }
+
+    @Test
+    public void seekSkipsMd5Check() throws IOException
+    {
+        FlacStream stream = new FlacStream(ByteBuffer.wrap(
+                new FlacTestEncoder(RATE, 2, 16, 4096).encode(signal(50000, 2, 16, 3))));
+
+        FlacSource source = new FlacSource(stream);
+        source.enableMd5Check();
+        source.seekTo(20000);
+        decodeAll(source, 30000, 2);
+        assertFalse(source.isMd5Verified());
+    }
+
+    @Test
+    public void wrongMd5Throws() throws IOException
+    {
+        byte[] flac = new FlacTestEncoder(RATE, 2, 16, 4096).encode(signal(50000, 2, 16, 5));
+        // First byte of the MD5, after the magic, the block header and 18 bytes of STREAMINFO
+        flac[4 + 4 + 18] ^= 1;
+
+        FlacSource source = new FlacSource(new FlacStream(ByteBuffer.wrap(flac)), pool);
+        source.enableMd5Check();
+        try
+        {
+            decodeAll(source, 50000, 2);
+            fail("Expected exception");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    @Test
+    public void rejectsNonFlac()
+    {
+        try
+        {
+            new FlacStream(ByteBuffer.wrap(new byte[] { 'R', 'I', 'F', 'F', 0, 0, 0, 0 }));
+            fail("Expected exception");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    // Decodes a real FLAC file given with -PflacFile and checks it against its MD5
+    @Test
+    public void realFile() throws IOException
+    {
+        String path = System.getProperty("flac.file");
+        Assume.assumeTrue(path != null && !path.isEmpty());
+
+        RandomAccessFile file = new RandomAccessFile(new File(path), "r");
+        try
+        {
+            FlacStream stream = new FlacStream(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+            Assume.assumeTrue(stream.hasMd5());
+
+            FlacSource source = new FlacSource(stream, pool);
+            source.enableMd5Check();
+            float[] buffer = new float[4096 * stream.getChannelCount()];
+            while (source.read(buffer, 0, 4096) > 0)
+            {
+            }
+
+            assertTrue(source.isMd5Verified());
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+//--------------------------------------------------
+//
+// Filename:    PcmFileSourceTest.java
+// Author:      Daniel Walther
+// Brief:       Writes WAV and AIFF files in every
+//              supported layout and reads them back
+//              through the mapping
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class PcmFileSourceTest
+{
+    private static final int RATE = 96000;
+    private static final int FRAMES = 10000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("pcmfile").toFile();
+    }
+
+    @After
+    public void tearDown()
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+
+    // Ramp through the whole range, so sign and byte order mistakes show up
+    private static float expected(int frame, int channel)
+    {
+        return ((frame * 7919 + channel * 104729) % 65536 - 32768) / 32768.0f;
+    }
+
+    private static byte[] samples(int channels, int bytes, boolean isFloat, ByteOrder order)
+    {
+        ByteBuffer out = ByteBuffer.allocate(FRAMES * channels * bytes).order(order);
+        for (int i = 0; i < FRAMES; ++i)
+        {
+            for (int c = 0; c < channels; ++c)
+            {
+                float x = expected(i, c);
+                if (isFloat)
+                    out.putFloat(x);
+                else if (bytes == 1)
+                    out.put((byte) (Math.round(x * 127) + 128));
+                else if (bytes == 2)
+                    out.putShort((short) Math.round(x * 32768));
+                else if (bytes == 4)
+                    out.putInt(Math.round(x * 32768) << 16);
+                else
+                {
+                    int v = Math.round(x * 32768) << 8;
+                    if (order == ByteOrder.BIG_ENDIAN)
+                        out.put((byte) (v >> 16)).put((byte) (v >> 8)).put((byte) v);
+                    else
+                        out.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+                }
+            }
+        }
+
+        return out.array();
+    }
+
+    private File wav(int channels, int bytes, boolean isFloat, boolean isExtensible, boolean hasJunk) throws IOException
+    {
+        byte[] data = samples(channels, bytes, isFloat, ByteOrder.LITTLE_ENDIAN);
+        int fmtSize = isExtensible ? 40 : 16;
+        ByteBuffer header = ByteBuffer.allocate(12 + (hasJunk ? 8 + 5 + 1 : 0) + 8 + fmtSize + 8)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        header.putInt(Integer.reverseBytes(0x52494646)).putInt(0).putInt(Integer.reverseBytes(0x57415645));
+        if (hasJunk)
+        {
+            // Odd sized chunk, padded to even
+            header.putInt(Integer.reverseBytes(0x4A554E4B)).putInt(5).put(new byte[6]);
+        }
+
+        header.putInt(Integer.reverseBytes(0x666D7420)).putInt(fmtSize);
+        header.putShort((short) (isExtensible ? 0xFFFE : isFloat ? 3 : 1)).putShort((short) channels)
+                .putInt(RATE).putInt(RATE * channels * bytes).putShort((short) (channels * bytes))
+                .putShort((short) (bytes * 8));
+        if (isExtensible)
+        {
+            header.putShort((short) 22).putShort((short) (bytes * 8)).putInt(0);
+            header.putShort((short) (isFloat ? 3 : 1)).put(new byte[14]);
+        }
+
+        header.putInt(Integer.reverseBytes(0x64617461)).putInt(data.length);
+        return write("test.wav", header.array(), data);
+    }
+
+    private File aiff(int channels, int bytes, int compression, ByteOrder order) throws IOException
+    {
+        boolean isFloat = compression == 0x666C3332;
+        byte[] data = samples(channels, bytes, isFloat, order);
+        boolean isAifc = compression != 0;
+        int commSize = isAifc ? 24 : 18;
+
+        ByteBuffer header = ByteBuffer.allocate(12 + 8 + commSize + 8 + 8 + 4).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(0x464F524D).putInt(0).putInt(isAifc ? 0x41494643 : 0x41494646);
+
+        header.putInt(0x434F4D4D).putInt(commSize);
+        header.putShort((short) channels).putInt(FRAMES).putShort((short) (bytes * 8));
+        // 96000 as an 80 bit extended float
+        header.putShort((short) (16383 + 16)).putLong(96000L << 47);
+        if (isAifc)
+            header.putInt(compression).putShort((short) 0);
+
+        // Four bytes of block offset before the samples
+        header.putInt(0x53534E44).putInt(8 + 4 + data.length).putInt(4).putInt(0).putInt(0);
+        return write("test.aif", header.array(), data);
+    }
+
+    private File write(String name, byte[] header, byte[] data) throws IOException
+    {
+        File file = new File(dir, name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header);
+        out.write(data);
+
+        FileOutputStream stream = new FileOutputStream(file);
+        try
+        {
+            stream.write(out.toByteArray());
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        return file;
+    }
+
+    private static void assertReads(File file, int channels, float tolerance) throws IOException
+    {
+        PcmFileSource source = new PcmFileSource(file);
+        assertEquals(RATE, source.getSampleRate());
+        assertEquals(channels, source.getChannelCount());
+        assertEquals(FRAMES, source.getFrameCount());
+
+        float[] buffer = new float[777 * channels];
+        int frame = 0;
+        int n;
+        while ((n = source.read(buffer, 0, 777)) > 0)
+        {
+            for (int i = 0; i < n; ++i)
+            {
+                for (int c = 0; c < channels; ++c)
+                    assertEquals("frame " + (frame + i), expected(frame + i, c), buffer[i * channels + c], tolerance);
+            }
+            frame += n;
+        }
+
+        assertEquals(FRAMES, frame);
+        source.close();
+    }
+
+    @Test
+    public void readsWaveLayouts() throws IOException
+    {
+        assertReads(wav(2, 2, false, false, false), 2, 0);
+        assertReads(wav(2, 3, false, false, true), 2, 0);
+        assertReads(wav(1, 4, false, true, false), 1, 0);
+        assertReads(wav(6, 4, true, false, true), 6, 0);
+        assertReads(wav(2, 4, true, true, false), 2, 0);
+    }
+
+    @Test
+    public void readsAiffLayouts() throws IOException
+    {
+        assertReads(aiff(2, 2, 0, ByteOrder.BIG_ENDIAN), 2, 0);
+        assertReads(aiff(2, 3, 0, ByteOrder.BIG_ENDIAN), 2, 0);
+        assertReads(aiff(1, 4, 0x4E4F4E45, ByteOrder.BIG_ENDIAN), 1, 0);
+        assertReads(aiff(2, 2, 0x736F7774, ByteOrder.LITTLE_ENDIAN), 2, 0);
+        assertReads(aiff(2, 4, 0x666C3332, ByteOrder.BIG_ENDIAN), 2, 0);
+    }
+
+    @Test
+    public void seeksAndSurvivesSuspend() throws IOException
+    {
+        PcmFileSource source = new PcmFileSource(wav(2, 3, false, false, false));
+        float[] buffer = new float[2];
+
+        for (int target : new int[] { 9999, 0, 5000, 1 })
+        {
+            source.seekTo(target);
+            assertEquals(1, source.read(buffer, 0, 1));
+            assertEquals(expected(target, 1), buffer[1], 0);
+
+            source.suspend();
+        }
+
+        source.seekTo(FRAMES);
+        assertEquals(-1, source.read(buffer, 0, 1));
+    }
+
+    // Header claims more than was written, like a recording that was cut off
+    @Test
+    public void clampsToFileSize() throws IOException
+    {
+        File file = wav(2, 2, false, false, false);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        byte[] cut = new byte[bytes.length - 400];
+        System.arraycopy(bytes, 0, cut, 0, cut.length);
+        Files.write(file.toPath(), cut);
+
+        PcmFileSource source = new PcmFileSource(file);
+        assertEquals(FRAMES - 100, source.getFrameCount());
+    }
+
+    @Test
+    public void rejectsUnsupportedLayouts() throws IOException
+    {
+        PcmFileSource source = new PcmFileSource(wav(2, 1, false, false, false));
+        try
+        {
+            source.warmUp();
+            fail("Expected exception");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+}
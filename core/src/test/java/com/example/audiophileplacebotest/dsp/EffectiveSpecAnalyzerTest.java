@@ -0,0 +1,110 @@
+//--------------------------------------------------
+//
+// Filename:    EffectiveSpecAnalyzerTest.java
+// Author:      Daniel Walther
+// Brief:       Feeds padded, band-limited and
+//              full-band noise and checks the
+//              effective specs found
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EffectiveSpecAnalyzerTest
+{
+    private static final int PERIOD = 1 << 16;
+
+    // Stereo noise with a flat spectrum up to cutoffHz and nothing above, quantized to bits
+    private static float[] noise(int sampleRate, double cutoffHz, int bits, double seconds)
+    {
+        Random random = new Random(sampleRate + (long) cutoffHz);
+        Fft fft = new Fft(PERIOD);
+        int frames = (int) (sampleRate * seconds);
+        float[] samples = new float[frames * 2];
+
+        for (int c = 0; c < 2; ++c)
+        {
+            // One period built in the frequency domain, then repeated
+            double[] re = new double[PERIOD];
+            double[] im = new double[PERIOD];
+            int lastBin = (int) (cutoffHz * PERIOD / sampleRate);
+            for (int k = 1; k <= Math.min(lastBin, PERIOD / 2 - 1); ++k)
+            {
+                double phase = random.nextDouble() * 2 * Math.PI;
+                re[k] = Math.cos(phase);
+                im[k] = Math.sin(phase);
+                re[PERIOD - k] = re[k];
+                im[PERIOD - k] = -im[k];
+            }
+            fft.inverse(re, im);
+
+            double peak = 0;
+            for (double x : re)
+                peak = Math.max(peak, Math.abs(x));
+
+            double scale = bits > 0 ? 1 << (bits - 1) : 1;
+            for (int i = 0; i < frames; ++i)
+            {
+                double x = 0.5 * re[i % PERIOD] / peak;
+                samples[i * 2 + c] = bits > 0 ? (float) (Math.round(x * scale) / scale) : (float) x;
+            }
+        }
+
+        return samples;
+    }
+
+    private static EffectiveSpecAnalyzer.Result analyze(float[] samples, int sampleRate)
+    {
+        EffectiveSpecAnalyzer analyzer = new EffectiveSpecAnalyzer(sampleRate, 2);
+        for (int offset = 0; offset < samples.length; offset += 4096 * 2)
+            analyzer.process(samples, offset, Math.min(4096, (samples.length - offset) / 2));
+        return analyzer.getResult();
+    }
+
+    @Test
+    public void findsPaddedBits()
+    {
+        assertEquals(16, analyze(noise(48000, 24000, 16, 2), 48000).getEffectiveBits());
+        assertEquals(24, analyze(noise(48000, 24000, 24, 2), 48000).getEffectiveBits());
+
+        // Not on any integer grid
+        assertEquals(0, analyze(noise(48000, 24000, 0, 2), 48000).getEffectiveBits());
+    }
+
+    @Test
+    public void findsUpsampledSource()
+    {
+        EffectiveSpecAnalyzer.Result result = analyze(noise(96000, 21000, 24, 3), 96000);
+
+        assertEquals(21000, result.getCutoffHz(), 500);
+        assertTrue(result.getCutoffDropDb() > 40);
+        assertEquals(44100, result.getEffectiveSampleRate());
+        assertFalse(result.isLikelyLossy());
+    }
+
+    @Test
+    public void findsLossyLowpass()
+    {
+        EffectiveSpecAnalyzer.Result result = analyze(noise(44100, 16000, 16, 3), 44100);
+
+        assertEquals(16000, result.getCutoffHz(), 500);
+        assertTrue(result.isLikelyLossy());
+    }
+
+    // Noise right up to Nyquist has no edge to find
+    @Test
+    public void keepsFullBandwidth()
+    {
+        EffectiveSpecAnalyzer.Result result = analyze(noise(96000, 48000, 24, 3), 96000);
+
+        assertEquals(0, result.getCutoffHz(), 0);
+        assertEquals(96000, result.getEffectiveSampleRate());
+        assertFalse(result.isLikelyLossy());
+    }
+}
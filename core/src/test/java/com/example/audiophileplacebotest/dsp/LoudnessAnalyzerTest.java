@@ -0,0 +1,118 @@
+//--------------------------------------------------
+//
+// Filename:    LoudnessAnalyzerTest.java
+// Author:      Daniel Walther
+// Brief:       Checks loudness, true peak and RMS
+//              against the BS.1770 reference tones,
+//              and the gains derived from them
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoudnessAnalyzerTest
+{
+    // Interleaved sine with the same signal on every channel
+    private static float[] sine(int sampleRate, int channels, double frequency, double amplitude,
+                                double phase, int frames)
+    {
+        float[] samples = new float[frames * channels];
+        for (int i = 0; i < frames; ++i)
+        {
+            float x = (float) (amplitude * Math.sin(2.0 * Math.PI * frequency * i / sampleRate + phase));
+            for (int c = 0; c < channels; ++c)
+                samples[i * channels + c] = x;
+        }
+
+        return samples;
+    }
+
+    // Feeds in uneven chunks, so block boundaries never line up with gating steps
+    private static LoudnessAnalyzer.Result measure(int sampleRate, int channels, float[] samples)
+    {
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer(sampleRate, channels);
+        int frames = samples.length / channels;
+
+        for (int pos = 0; pos < frames; pos += 1000)
+            analyzer.process(samples, pos * channels, Math.min(1000, frames - pos));
+
+        return analyzer.getResult();
+    }
+
+    @Test
+    public void referenceToneOnOneChannelReadsMinus3Lufs()
+    {
+        // BS.1770: a 0 dBFS 1 kHz sine on one channel reads -3.01 LKFS
+        float[] samples = sine(48000, 1, 1000, 1.0, 0, 48000 * 5);
+        assertEquals(-3.01, measure(48000, 1, samples).getIntegratedLufs(), 0.05);
+    }
+
+    @Test
+    public void loudnessScalesWithLevelAndChannelsAtAnyRate()
+    {
+        float[] stereo = sine(44100, 2, 1000, 0.1, 0, 44100 * 5);
+        assertEquals(-20.0, measure(44100, 2, stereo).getIntegratedLufs(), 0.05);
+
+        float[] mono = sine(96000, 1, 1000, 0.1, 0, 96000 * 5);
+        assertEquals(-23.01, measure(96000, 1, mono).getIntegratedLufs(), 0.05);
+    }
+
+    @Test
+    public void silenceIsGatedOut()
+    {
+        float[] tone = sine(48000, 2, 1000, 0.1, 0, 48000 * 4);
+        float[] withSilence = new float[tone.length * 3];
+        System.arraycopy(tone, 0, withSilence, tone.length, tone.length);
+
+        // Only the blocks straddling the edges count, without gating it would be 4.8 LU lower
+        assertEquals(measure(48000, 2, tone).getIntegratedLufs(),
+                measure(48000, 2, withSilence).getIntegratedLufs(), 0.5);
+        assertTrue(Double.isInfinite(measure(48000, 2, new float[96000]).getIntegratedLufs()));
+    }
+
+    @Test
+    public void quietPassagesBelowRelativeGateDoNotCount()
+    {
+        // 20 dB quieter than the rest, so below the relative gate
+        float[] loud = sine(48000, 1, 1000, 0.5, 0, 48000 * 4);
+        float[] quiet = sine(48000, 1, 1000, 0.05, 0, 48000 * 4);
+        float[] both = new float[loud.length + quiet.length];
+        System.arraycopy(loud, 0, both, 0, loud.length);
+        System.arraycopy(quiet, 0, both, loud.length, quiet.length);
+
+        // Again apart from the blocks straddling the change, without gating it would be 3 LU lower
+        assertEquals(measure(48000, 1, loud).getIntegratedLufs(), measure(48000, 1, both).getIntegratedLufs(), 0.5);
+    }
+
+    @Test
+    public void truePeakFindsPeaksBetweenSamples()
+    {
+        // Quarter of the sample rate at 45 degrees, every sample lands at 0.707 of the real peak
+        float[] samples = sine(48000, 2, 12000, 0.5, Math.PI / 4, 48000);
+        LoudnessAnalyzer.Result result = measure(48000, 2, samples);
+
+        assertEquals(20 * Math.log10(0.5), result.getTruePeakDbtp(), 0.5);
+        assertEquals(20 * Math.log10(0.5 / Math.sqrt(2)), result.getRmsDbfs(), 0.01);
+        assertEquals(48000, result.getFrameCount());
+    }
+
+    @Test
+    public void gainsMatchEveryTrackToTheQuietest()
+    {
+        LoudnessAnalyzer.Result loud = measure(48000, 1, sine(48000, 1, 1000, 0.5, 0, 48000 * 2));
+        LoudnessAnalyzer.Result quiet = measure(48000, 1, sine(48000, 1, 1000, 0.25, 0, 48000 * 2));
+
+        float[] gains = LevelMatcher.computeGains(new LoudnessAnalyzer.Result[] { loud, quiet });
+        assertEquals(0.5f, gains[0], 0.01f);
+        assertEquals(1.0f, gains[1], 0);
+
+        // Nothing is matched until every track has been measured
+        gains = LevelMatcher.computeGains(new LoudnessAnalyzer.Result[] { loud, null });
+        assertEquals(1.0f, gains[0], 0);
+        assertEquals(1.0f, gains[1], 0);
+    }
+}
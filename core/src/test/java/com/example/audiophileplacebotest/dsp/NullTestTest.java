@@ -0,0 +1,171 @@
+//--------------------------------------------------
+//
+// Filename:    NullTestTest.java
+// Author:      Daniel Walther
+// Brief:       Subtracts tracks with a known
+//              difference and checks the measured
+//              levels and spectrum
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class NullTestTest
+{
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+    private static final int RATE = 48000;
+
+    // Interleaved samples read straight from memory, short reads like a real decoder
+    private static class ArraySource implements PcmSource
+    {
+        final float[] samples;
+        final int sampleRate;
+        final int channels;
+        long position = 0;
+
+        ArraySource(float[] samples_, int sampleRate_, int channels_)
+        {
+            samples = samples_;
+            sampleRate = sampleRate_;
+            channels = channels_;
+        }
+
+        @Override public int getSampleRate() { return sampleRate; }
+        @Override public int getChannelCount() { return channels; }
+        @Override public long getFrameCount() { return samples.length / channels; }
+        @Override public long getPosition() { return position; }
+        @Override public void seekTo(long frame) { position = frame; }
+        @Override public void warmUp() {}
+        @Override public void suspend() {}
+        @Override public void close() {}
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount)
+        {
+            if (position >= getFrameCount())
+                return -1;
+
+            int n = (int) Math.min(Math.min(frameCount, 1000), getFrameCount() - position);
+            System.arraycopy(samples, (int) position * channels, dst, offset, n * channels);
+
+            position += n;
+            return n;
+        }
+    }
+
+    private static float[] noise(int samples, long seed)
+    {
+        Random random = new Random(seed);
+        float[] dst = new float[samples];
+        for (int i = 0; i < samples; ++i)
+            dst[i] = (float) random.nextGaussian() * 0.1f;
+
+        return dst;
+    }
+
+    @AfterClass
+    public static void shutdownPool()
+    {
+        pool.shutdown();
+    }
+
+    @Test
+    public void shiftedCopiesNullCompletelyAcrossChunks() throws IOException
+    {
+        int delay = 777;
+        int frames = NullTest.CHUNK_FRAMES * 3 + 12345;
+        float[] reference = noise(frames, 1);
+        float[] other = new float[frames + delay];
+        System.arraycopy(reference, 0, other, delay, frames);
+
+        NullTest.Result result = new NullTest(pool).run(() -> new ArraySource(reference, RATE, 1),
+                () -> new ArraySource(other, RATE, 1), delay, 1.0f, 1.0f);
+
+        assertTrue(result.isIdentical());
+        assertEquals(frames, result.getFrameCount());
+        assertEquals(Double.NEGATIVE_INFINITY, result.getResidualRmsDbfs(), 0);
+        assertEquals(-20.0, result.getReferenceRmsDbfs(), 0.1);
+    }
+
+    @Test
+    public void measuresAddedToneInLevelAndSpectrum() throws IOException
+    {
+        // 1 kHz at 0.01 on both channels: peak -40 dBFS, RMS -43 dBFS
+        int frames = RATE * 10;
+        float[] reference = noise(frames * 2, 2);
+        float[] other = new float[frames * 2];
+        for (int i = 0; i < frames; ++i)
+        {
+            float tone = (float) (0.01 * Math.sin(2.0 * Math.PI * 1000.0 * i / RATE));
+            other[i * 2] = reference[i * 2] + tone;
+            other[i * 2 + 1] = reference[i * 2 + 1] + tone;
+        }
+
+        NullTest.Result result = new NullTest(pool).run(() -> new ArraySource(reference, RATE, 2),
+                () -> new ArraySource(other, RATE, 2), 0, 1.0f, 1.0f);
+
+        assertFalse(result.isIdentical());
+        assertEquals(-43.0, result.getResidualRmsDbfs(), 0.1);
+        assertEquals(-40.0, result.getResidualPeakDbfs(), 0.1);
+        assertEquals(-23.0, result.getNullDepthDb(), 0.2);
+        assertEquals(-43.0, result.getBandLimitedRmsDbfs(), 0.2);
+
+        // All of it lands in the 1 kHz band, the others only see window leakage
+        double[] centers = result.getBandCentersHz();
+        double[] levels = result.getBandLevelsDbfs();
+        assertEquals(31, centers.length);
+        for (int i = 0; i < centers.length; ++i)
+        {
+            if (Math.abs(centers[i] - 1000.0) < 1.0)
+                assertEquals(-43.0, levels[i], 0.2);
+            else
+                assertTrue(centers[i] + " Hz at " + levels[i], levels[i] < -80.0);
+        }
+    }
+
+    @Test
+    public void residualSourcePlaysTheDifference() throws IOException
+    {
+        float[] reference = noise(5000, 3);
+        float[] other = new float[5000];
+        for (int i = 0; i < 5000; ++i)
+            other[i] = reference[i] * 0.5f;
+
+        // Unmatched gains leave half of the reference, matched ones cancel
+        PcmSource residual = new ResidualSource(new ArraySource(reference, RATE, 1),
+                new ArraySource(other, RATE, 1), 0, 1.0f, 1.0f);
+        assertEquals(5000, residual.getFrameCount());
+
+        float[] buffer = new float[5000];
+        int filled = ResidualSource.readFully(residual, buffer, 0, 5000);
+        assertEquals(5000, filled);
+        for (int i = 0; i < 5000; ++i)
+            assertEquals(reference[i] * 0.5f, buffer[i], 1e-6f);
+        assertEquals(-1, residual.read(buffer, 0, 1));
+
+        residual = new ResidualSource(new ArraySource(reference, RATE, 1),
+                new ArraySource(other, RATE, 1), 0, 0.5f, 1.0f);
+        assertEquals(5000, ResidualSource.readFully(residual, buffer, 0, 5000));
+        for (int i = 0; i < 5000; ++i)
+            assertEquals(0, buffer[i], 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void differentSampleRatesAreRejected() throws IOException
+    {
+        float[] samples = noise(RATE, 4);
+        new NullTest(pool).run(() -> new ArraySource(samples, RATE, 1),
+                () -> new ArraySource(samples, 44100, 1), 0, 1.0f, 1.0f);
+    }
+}
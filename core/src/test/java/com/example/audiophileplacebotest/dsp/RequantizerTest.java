@@ -0,0 +1,99 @@
+//--------------------------------------------------
+//
+// Filename:    RequantizerTest.java
+// Author:      Daniel Walther
+// Brief:       Checks the output grid, the error
+//              level of each mode and where noise
+//              shaping puts the noise
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RequantizerTest
+{
+    private static final int FRAMES = 1 << 16;
+
+    // Quiet sine between 16 bit steps, at 48 kHz
+    private static float[] input()
+    {
+        float[] samples = new float[FRAMES];
+        for (int i = 0; i < FRAMES; ++i)
+            samples[i] = (float) (0.01 * Math.sin(2 * Math.PI * 997 * i / 48000.0));
+        return samples;
+    }
+
+    private static float[] error(int mode)
+    {
+        float[] original = input();
+        float[] samples = original.clone();
+        new Requantizer(16, mode, 1).process(samples, 0, FRAMES);
+
+        float[] error = new float[FRAMES];
+        for (int i = 0; i < FRAMES; ++i)
+        {
+            float scaled = samples[i] * 32768;
+            assertEquals(Math.round(scaled), scaled, 0);
+            error[i] = (samples[i] - original[i]) * 32768;
+        }
+        return error;
+    }
+
+    private static double rms(float[] x)
+    {
+        double sum = 0;
+        for (float v : x)
+            sum += v * v;
+        return Math.sqrt(sum / x.length);
+    }
+
+    // Error power below and above split of the spectrum
+    private static double[] bandPower(float[] error, int split)
+    {
+        double[] re = new double[FRAMES];
+        double[] im = new double[FRAMES];
+        for (int i = 0; i < FRAMES; ++i)
+            re[i] = error[i];
+        new Fft(FRAMES).forward(re, im);
+
+        double[] power = new double[2];
+        for (int k = 1; k < FRAMES / 2; ++k)
+            power[k < split ? 0 : 1] += re[k] * re[k] + im[k] * im[k];
+        return power;
+    }
+
+    @Test
+    public void errorLevels()
+    {
+        // Truncation error is between 0 and -1 LSB, TPDF adds two uniform variances to rounding
+        assertEquals(Math.sqrt(1 / 3.0), rms(error(Requantizer.TRUNCATE)), 0.05);
+        assertEquals(Math.sqrt(1 / 12.0 + 2 / 12.0), rms(error(Requantizer.TPDF)), 0.05);
+    }
+
+    @Test
+    public void shapesNoiseUpwards()
+    {
+        // Below and above 9 kHz
+        int split = 9000 * FRAMES / 48000;
+        double[] flat = bandPower(error(Requantizer.TPDF), split);
+        double[] shaped = bandPower(error(Requantizer.NOISE_SHAPED), split);
+
+        assertTrue(shaped[0] < flat[0] / 4);
+        assertTrue(shaped[1] > flat[1]);
+    }
+
+    @Test
+    public void clipsAtFullScale()
+    {
+        float[] samples = { 1.0f, -1.0f, 0.99999f };
+        new Requantizer(16, Requantizer.NOISE_SHAPED, 1).process(samples, 0, 3);
+
+        assertEquals(32767 / 32768.0f, samples[0], 0);
+        assertEquals(-1.0f, samples[1], 0);
+        assertTrue(samples[2] <= 32767 / 32768.0f);
+    }
+}
@@ -0,0 +1,88 @@
+//--------------------------------------------------
+//
+// Filename:    ResamplerTest.java
+// Author:      Daniel Walther
+// Brief:       Converts sines between common rates
+//              and checks length, alignment and
+//              rejection above the new Nyquist
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResamplerTest
+{
+    private static float[] sine(int rate, double hz, int frames, int channels)
+    {
+        float[] samples = new float[frames * channels];
+        for (int i = 0; i < frames; ++i)
+        {
+            for (int c = 0; c < channels; ++c)
+                samples[i * channels + c] = (float) (0.5 * Math.sin(2 * Math.PI * hz * i / rate + c));
+        }
+        return samples;
+    }
+
+    // Runs the whole input through in uneven blocks
+    private static float[] resample(float[] input, int inRate, int outRate, int channels)
+    {
+        Resampler resampler = new Resampler(inRate, outRate, channels);
+        int frames = input.length / channels;
+        float[] output = new float[(resampler.getMaxOutput(frames) + resampler.getMaxOutput(0)) * channels];
+
+        int written = 0;
+        int block = 1000;
+        for (int offset = 0; offset < frames; offset += block, block = block * 3 % 2011 + 1)
+        {
+            int n = Math.min(block, frames - offset);
+            written += resampler.process(input, offset * channels, n, output, written * channels);
+        }
+        written += resampler.flush(output, written * channels);
+
+        float[] result = new float[written * channels];
+        System.arraycopy(output, 0, result, 0, result.length);
+        return result;
+    }
+
+    private static void assertMatches(int inRate, int outRate, double hz)
+    {
+        int frames = inRate / 2;
+        float[] output = resample(sine(inRate, hz, frames, 2), inRate, outRate, 2);
+
+        assertEquals(((long) frames * outRate + inRate - 1) / inRate, output.length / 2);
+
+        // Away from the edges, where the filter sees the zeros around the signal
+        float[] expected = sine(outRate, hz, output.length / 2, 2);
+        for (int i = outRate / 100; i < output.length / 2 - outRate / 100; ++i)
+        {
+            for (int c = 0; c < 2; ++c)
+                assertEquals("frame " + i, expected[i * 2 + c], output[i * 2 + c], 1e-3);
+        }
+    }
+
+    @Test
+    public void keepsInBandSignal()
+    {
+        assertMatches(96000, 44100, 1000);
+        assertMatches(44100, 48000, 15000);
+        assertMatches(48000, 44100, 19000);
+        assertMatches(192000, 48000, 5000);
+    }
+
+    @Test
+    public void rejectsAboveNyquist()
+    {
+        float[] output = resample(sine(96000, 30000, 48000, 1), 96000, 44100, 1);
+
+        double peak = 0;
+        for (int i = 441; i < output.length - 441; ++i)
+            peak = Math.max(peak, Math.abs(output[i]));
+
+        // Would alias down to 14.1 kHz
+        assertTrue("peak " + peak, peak < 1e-3);
+    }
+}
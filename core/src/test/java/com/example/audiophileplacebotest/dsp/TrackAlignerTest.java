@@ -0,0 +1,184 @@
+//--------------------------------------------------
+//
+// Filename:    TrackAlignerTest.java
+// Author:      Daniel Walther
+// Brief:       Shifts copies of one noise signal
+//              and checks that the aligner finds
+//              the shifts again
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.playback.PcmSource;
+import com.example.audiophileplacebotest.playback.PositionMath;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class TrackAlignerTest
+{
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+    // Same signal on every channel, read straight from memory
+    private static class ArraySource implements PcmSource
+    {
+        final float[] mono;
+        final int sampleRate;
+        final int channels;
+        long position = 0;
+
+        ArraySource(float[] mono_, int sampleRate_, int channels_)
+        {
+            mono = mono_;
+            sampleRate = sampleRate_;
+            channels = channels_;
+        }
+
+        @Override public int getSampleRate() { return sampleRate; }
+        @Override public int getChannelCount() { return channels; }
+        @Override public long getFrameCount() { return mono.length; }
+        @Override public long getPosition() { return position; }
+        @Override public void seekTo(long frame) { position = frame; }
+        @Override public void warmUp() {}
+        @Override public void suspend() {}
+        @Override public void close() {}
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount)
+        {
+            if (position >= mono.length)
+                return -1;
+
+            int n = (int) Math.min(frameCount, mono.length - position);
+            for (int i = 0; i < n; ++i)
+            {
+                for (int c = 0; c < channels; ++c)
+                    dst[offset + i * channels + c] = mono[(int) position + i];
+            }
+
+            position += n;
+            return n;
+        }
+    }
+
+    // Music stand-in: low passed noise, so neighbouring samples are correlated like in real audio
+    private static float[] noise(int frames, long seed)
+    {
+        Random random = new Random(seed);
+        float[] samples = new float[frames];
+        float state = 0;
+
+        for (int i = 0; i < frames; ++i)
+        {
+            state = 0.7f * state + 0.3f * (float) random.nextGaussian() * 0.2f;
+            samples[i] = state;
+        }
+
+        return samples;
+    }
+
+    // Copy of src that starts delay frames later, padded with silence at the front
+    private static float[] delayed(float[] src, int delay)
+    {
+        float[] dst = new float[src.length];
+        for (int i = 0; i < src.length; ++i)
+        {
+            int from = i - delay;
+            dst[i] = from >= 0 && from < src.length ? src[from] : 0;
+        }
+
+        return dst;
+    }
+
+    @AfterClass
+    public static void shutdownPool()
+    {
+        pool.shutdown();
+    }
+
+    @Test
+    public void fftRoundTripAndSingleTone()
+    {
+        Fft fft = new Fft(64);
+        double[] re = new double[64];
+        double[] im = new double[64];
+        for (int i = 0; i < 64; ++i)
+            re[i] = Math.cos(2 * Math.PI * 5 * i / 64);
+
+        fft.forward(re, im);
+        assertEquals(32, re[5], 1e-9);
+        assertEquals(32, re[59], 1e-9);
+        assertEquals(0, re[6], 1e-9);
+
+        fft.inverse(re, im);
+        assertEquals(1, re[0], 1e-9);
+        assertEquals(Math.cos(2 * Math.PI * 5 * 7 / 64), re[7], 1e-9);
+    }
+
+    @Test
+    public void findsSampleAccurateOffsets() throws IOException
+    {
+        int rate = 44100;
+        float[] reference = noise(rate * 10, 1);
+
+        PcmSource[] sources =
+        {
+                new ArraySource(reference, rate, 2),
+                new ArraySource(delayed(reference, 1105), rate, 2),
+                new ArraySource(delayed(reference, 576), rate, 1),
+                new ArraySource(delayed(reference, -300), rate, 2)
+        };
+
+        long[] offsets = new TrackAligner(pool).align(sources);
+
+        // Shifted so the earliest track, the one 300 frames ahead, is at 0
+        assertEquals(PositionMath.framesToFlicks(300, rate), offsets[0]);
+        assertEquals(PositionMath.framesToFlicks(1405, rate), offsets[1]);
+        assertEquals(PositionMath.framesToFlicks(876, rate), offsets[2]);
+        assertEquals(0, offsets[3]);
+    }
+
+    @Test
+    public void alignsAcrossSampleRates() throws IOException
+    {
+        float[] reference = noise(48000 * 10, 2);
+
+        // Same content at half the rate, starting 480 reference frames (10 ms) late
+        float[] halfRate = new float[reference.length / 2];
+        for (int i = 0; i < halfRate.length; ++i)
+            halfRate[i] = reference[i * 2];
+
+        PcmSource[] sources =
+        {
+                new ArraySource(reference, 48000, 2),
+                new ArraySource(delayed(halfRate, 240), 24000, 2)
+        };
+
+        long[] offsets = new TrackAligner(pool).align(sources);
+
+        assertEquals(0, offsets[0]);
+        assertEquals(10, PositionMath.flicksToMillis(offsets[1]));
+    }
+
+    @Test
+    public void shortTracksUseTheirMiddle() throws IOException
+    {
+        float[] reference = noise(TrackAligner.WINDOW_FRAMES + 4000, 3);
+
+        PcmSource[] sources =
+        {
+                new ArraySource(reference, 48000, 1),
+                new ArraySource(delayed(reference, 50), 48000, 1)
+        };
+
+        long[] offsets = new TrackAligner(pool).align(sources);
+        assertEquals(PositionMath.framesToFlicks(50, 48000), offsets[1]);
+    }
+}
@@ -0,0 +1,165 @@
+//--------------------------------------------------
+//
+// Filename:    VariantRendererTest.java
+// Author:      Daniel Walther
+// Brief:       Renders several variants from one
+//              source and reads the WAV files back
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.codec.PcmFileSource;
+import com.example.audiophileplacebotest.playback.PcmSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class VariantRendererTest
+{
+    private static final int RATE = 96000;
+    private static final int FRAMES = 100000;
+
+    private File dir;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("variants").toFile();
+        pool = new ForkJoinPool(2);
+    }
+
+    @After
+    public void tearDown()
+    {
+        pool.shutdown();
+
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+                f.delete();
+        }
+        dir.delete();
+    }
+
+    private static class ArraySource implements PcmSource
+    {
+        final float[] samples;
+        final int channels;
+        long position = 0;
+        boolean isBroken = false;
+
+        ArraySource(float[] samples_, int channels_)
+        {
+            samples = samples_;
+            channels = channels_;
+        }
+
+        @Override public int getSampleRate() { return RATE; }
+        @Override public int getChannelCount() { return channels; }
+        @Override public long getFrameCount() { return samples.length / channels; }
+        @Override public long getPosition() { return position; }
+        @Override public void seekTo(long frame) { position = frame; }
+        @Override public void warmUp() {}
+        @Override public void suspend() {}
+        @Override public void close() {}
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount) throws IOException
+        {
+            if (isBroken && position > getFrameCount() / 2)
+                throw new IOException("Broken stream");
+
+            if (position >= getFrameCount())
+                return -1;
+
+            int n = (int) Math.min(frameCount, getFrameCount() - position);
+            System.arraycopy(samples, (int) position * channels, dst, offset, n * channels);
+
+            position += n;
+            return n;
+        }
+    }
+
+    private static float[] sine()
+    {
+        float[] samples = new float[FRAMES * 2];
+        for (int i = 0; i < FRAMES; ++i)
+        {
+            samples[i * 2] = (float) (0.5 * Math.sin(2 * Math.PI * 1000 * i / RATE));
+            samples[i * 2 + 1] = -samples[i * 2];
+        }
+        return samples;
+    }
+
+    @Test
+    public void rendersAllVariants() throws IOException
+    {
+        float[] samples = sine();
+        List<VariantRenderer.Variant> variants = new ArrayList<VariantRenderer.Variant>();
+        variants.add(new VariantRenderer.Variant(new File(dir, "16.wav"), 0, 16, Requantizer.TPDF));
+        variants.add(new VariantRenderer.Variant(new File(dir, "44k.wav"), 44100, 0, Requantizer.TRUNCATE));
+        variants.add(new VariantRenderer.Variant(new File(dir, "48k16.wav"), 48000, 16, Requantizer.NOISE_SHAPED));
+
+        new VariantRenderer(pool).render(new ArraySource(samples, 2), variants);
+
+        PcmFileSource requantized = new PcmFileSource(variants.get(0).getFile());
+        assertEquals(RATE, requantized.getSampleRate());
+        assertEquals(FRAMES, requantized.getFrameCount());
+
+        float[] buffer = new float[FRAMES * 2];
+        assertEquals(FRAMES, requantized.read(buffer, 0, FRAMES));
+        for (int i = 0; i < FRAMES * 2; ++i)
+        {
+            assertEquals(samples[i], buffer[i], 2 / 32768.0);
+            assertEquals(Math.round(buffer[i] * 32768), buffer[i] * 32768, 0);
+        }
+        requantized.close();
+
+        PcmFileSource resampled = new PcmFileSource(variants.get(1).getFile());
+        assertEquals(44100, resampled.getSampleRate());
+        assertEquals(2, resampled.getChannelCount());
+        assertEquals((FRAMES * 44100L + RATE - 1) / RATE, resampled.getFrameCount());
+        resampled.close();
+
+        PcmFileSource both = new PcmFileSource(variants.get(2).getFile());
+        assertEquals(48000, both.getSampleRate());
+        assertEquals(FRAMES / 2, both.getFrameCount());
+        both.close();
+    }
+
+    @Test
+    public void deletesEverythingOnFailure() throws IOException
+    {
+        ArraySource source = new ArraySource(sine(), 2);
+        source.isBroken = true;
+
+        List<VariantRenderer.Variant> variants = new ArrayList<VariantRenderer.Variant>();
+        variants.add(new VariantRenderer.Variant(new File(dir, "a.wav"), 0, 16, Requantizer.TPDF));
+        variants.add(new VariantRenderer.Variant(new File(dir, "b.wav"), 44100, 24, Requantizer.TPDF));
+
+        try
+        {
+            new VariantRenderer(pool).render(source, variants);
+            fail("Expected exception");
+        }
+        catch (IOException expected)
+        {
+        }
+
+        assertFalse(variants.get(0).getFile().exists());
+        assertFalse(variants.get(1).getFile().exists());
+    }
+}
@@ -0,0 +1,142 @@
+//--------------------------------------------------
+//
+// Filename:    WaveformPyramidTest.java
+// Author:      Daniel Walther
+// Brief:       Checks that peaks survive every
+//              zoom level, level choice and the
+//              on-disk round trip
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.dsp;
+
+import com.example.audiophileplacebotest.cache.WaveformCache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class WaveformPyramidTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int RATE = 48000;
+    private static final int FRAMES = RATE * 60;
+    private static final int CLICK_FRAME = RATE * 37 + 123;
+
+    // A minute of quiet stereo noise with one full scale click on the right channel,
+    // fed in odd sized blocks so buckets straddle them
+    private static WaveformPyramid buildWithClick()
+    {
+        WaveformPyramid.Builder builder = new WaveformPyramid.Builder(RATE, 2, -1);
+        float[] block = new float[777 * 2];
+        java.util.Random random = new java.util.Random(5);
+
+        for (int frame = 0; frame < FRAMES; frame += 777)
+        {
+            int frames = Math.min(777, FRAMES - frame);
+            for (int i = 0; i < frames; ++i)
+            {
+                block[i * 2] = (random.nextFloat() - 0.5f) * 0.1f;
+                block[i * 2 + 1] = frame + i == CLICK_FRAME ? 1.0f : (random.nextFloat() - 0.5f) * 0.1f;
+            }
+            builder.add(block, 0, frames);
+        }
+
+        return builder.build();
+    }
+
+    @Test
+    public void clickIsVisibleAtEveryLevel()
+    {
+        WaveformPyramid pyramid = buildWithClick();
+
+        assertEquals(FRAMES, pyramid.getFrameCount());
+        assertTrue(pyramid.getLevelCount() > 3);
+
+        for (int level = 0; level < pyramid.getLevelCount(); ++level)
+        {
+            int pixels = pyramid.getBucketCount(level);
+            long span = pixels * WaveformPyramid.getFramesPerBucket(level);
+            float[] min = new float[pixels];
+            float[] max = new float[pixels];
+
+            assertEquals(level, pyramid.render(0, span, pixels, min, max));
+
+            int clickPixel = (int) (CLICK_FRAME / WaveformPyramid.getFramesPerBucket(level));
+            assertEquals(1.0f, max[clickPixel], 1e-6);
+
+            // Neighbours only have the noise, rounded outwards by one step at most
+            int other = clickPixel > 0 ? clickPixel - 1 : clickPixel + 1;
+            assertTrue(max[other] < 0.06f);
+            assertTrue(min[other] > -0.06f);
+        }
+    }
+
+    @Test
+    public void renderUsesCoarsestLevelThatFillsThePixels()
+    {
+        WaveformPyramid pyramid = buildWithClick();
+        float[] min = new float[1000];
+        float[] max = new float[1000];
+
+        int whole = pyramid.render(0, FRAMES, 300, min, max);
+        int zoomed = pyramid.render(CLICK_FRAME - 50000, CLICK_FRAME + 50000, 1000, min, max);
+
+        // 9600 frames per pixel fit level 1 (4096 per bucket), 100 per pixel only level 0
+        assertEquals(1, whole);
+        assertEquals(0, zoomed);
+        assertEquals(1.0f, max[500], 1e-6);
+
+        // Past the end is flat
+        pyramid.render(FRAMES, FRAMES * 2L, 1000, min, max);
+        assertEquals(0f, max[999], 0f);
+    }
+
+    @Test
+    public void cacheRoundTrip() throws Exception
+    {
+        WaveformCache cache = new WaveformCache(folder.newFolder("waveforms"), 1 << 20);
+        WaveformPyramid pyramid = buildWithClick();
+
+        assertNull(cache.get("content://track", 100, 5));
+        cache.put("content://track", 100, 5, pyramid);
+
+        WaveformPyramid loaded = cache.get("content://track", 100, 5);
+        assertNotNull(loaded);
+        assertNull(cache.get("content://track", 100, 6));
+
+        assertEquals(pyramid.getLevelCount(), loaded.getLevelCount());
+        assertEquals(pyramid.getFrameCount(), loaded.getFrameCount());
+        assertEquals(RATE, loaded.getSampleRate());
+
+        float[] min = new float[100];
+        float[] max = new float[100];
+        loaded.render(CLICK_FRAME - 1000, CLICK_FRAME + 1000, 100, min, max);
+        assertEquals(1.0f, max[50], 1e-6);
+    }
+
+    // Ten minutes of 192 kHz stereo in one pass, well under the few seconds decoding takes
+    @Test
+    public void buildKeepsUpWithHiResAudio()
+    {
+        int rate = 192000;
+        long frames = rate * 600L;
+        WaveformPyramid.Builder builder = new WaveformPyramid.Builder(rate, 2, frames);
+        float[] block = new float[4096 * 2];
+        for (int i = 0; i < block.length; ++i)
+            block[i] = (float) Math.sin(i * 0.01);
+
+        long start = System.nanoTime();
+        for (long f = 0; f < frames; f += 4096)
+            builder.add(block, 0, 4096);
+        WaveformPyramid pyramid = builder.build();
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(pyramid.getBucketCount(0) >= frames / WaveformPyramid.BASE_FRAMES_PER_BUCKET);
+        assertTrue("took " + millis + " ms", millis < 3000);
+    }
+}
@@ -0,0 +1,140 @@
+//--------------------------------------------------
+//
+// Filename:    TrackTest.java
+// Author:      Daniel Walther
+// Brief:       Checks probing through a storage
+//              that lives in memory
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.model;
+
+import com.example.audiophileplacebotest.cache.MetadataCache;
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+import com.example.audiophileplacebotest.parser.ContainerParser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class TrackTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Serves one file from memory and counts how often it was opened
+    private static class MemoryStorage implements TrackStorage
+    {
+        final String name;
+        final byte[] data;
+        int openCount = 0;
+
+        MemoryStorage(String name_, byte[] data_)
+        {
+            name = name_;
+            data = data_;
+        }
+
+        @Override
+        public void queryFileInfo(Track track)
+        {
+            track.setFileInfo(name, data.length, 1234);
+        }
+
+        @Override
+        public InputStream open(Track track)
+        {
+            ++openCount;
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public AudioMetadata extractMetadata(Track track)
+        {
+            return null;
+        }
+    }
+
+    private static byte[] wav(int sampleRate, int bitDepth)
+    {
+        ByteBuffer b = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        int blockAlign = 2 * bitDepth / 8;
+        b.put("RIFF".getBytes()).putInt(36).put("WAVE".getBytes());
+        b.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 2).putInt(sampleRate)
+                .putInt(sampleRate * blockAlign).putShort((short) blockAlign).putShort((short) bitDepth);
+        b.put("data".getBytes()).putInt(0);
+        return b.array();
+    }
+
+    @Test
+    public void probeFillsLabelsFromHeader()
+    {
+        // Extension says otherwise, content wins
+        MemoryStorage storage = new MemoryStorage("song.flac", wav(44100, 24));
+        Track track = new Track("mem://song");
+
+        track.probe(storage, new ContainerParser(), null);
+
+        assertTrue(track.isProbed());
+        assertNull(track.getProbeError());
+        assertEquals("song.flac", track.getFilename());
+        assertEquals("WAV", track.getFileformat());
+        assertEquals("44.1 kHz", track.getSamplerate());
+        assertEquals("24-bit", track.getBitdepth());
+    }
+
+    @Test
+    public void secondProbeIsServedFromCache() throws IOException
+    {
+        MetadataCache cache = new MetadataCache(new File(folder.getRoot(), "metadata.idx"), 10);
+        MemoryStorage storage = new MemoryStorage("song.wav", wav(48000, 16));
+
+        new Track("mem://song").probe(storage, new ContainerParser(), cache);
+        Track again = new Track("mem://song");
+        again.probe(storage, new ContainerParser(), cache);
+
+        assertEquals(1, storage.openCount);
+        assertEquals("48 kHz", again.getSamplerate());
+    }
+
+    @Test
+    public void precomputedLabelsMatchProbe()
+    {
+        MemoryStorage storage = new MemoryStorage("song.flac", wav(96000, 24));
+        Track probed = new Track("mem://song");
+        probed.probe(storage, new ContainerParser(), null);
+
+        // Same properties, without a storage to read from
+        Track precomputed = new Track("mem://song");
+        precomputed.setPrecomputed("song.flac", 44, 1234, probed.getMetadata());
+
+        assertTrue(precomputed.isProbed());
+        assertEquals(probed.getFileformat(), precomputed.getFileformat());
+        assertEquals(probed.getSamplerate(), precomputed.getSamplerate());
+        assertEquals(probed.getBitdepth(), precomputed.getBitdepth());
+        assertEquals(probed.getFileSize(), precomputed.getFileSize());
+        assertEquals(probed.getLastModified(), precomputed.getLastModified());
+    }
+
+    @Test
+    public void unknownFormatIsReportedNotThrown()
+    {
+        MemoryStorage storage = new MemoryStorage("noise.bin", new byte[64]);
+        Track track = new Track("mem://noise");
+
+        track.probe(storage, new ContainerParser(), null);
+
+        assertTrue(track.isProbed());
+        assertNotNull(track.getProbeError());
+        assertEquals("noise.bin", track.getFilename());
+    }
+}
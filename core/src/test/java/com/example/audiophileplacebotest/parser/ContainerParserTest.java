@@ -0,0 +1,380 @@
+//--------------------------------------------------
+//
+// Filename:    ContainerParserTest.java
+// Author:      Daniel Walther
+// Brief:       Parses hand-built headers for each
+//              supported container. Set
+//              -PparserCorpus=<dir> to also run
+//              over a folder of real files.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.parser;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ContainerParserTest
+{
+    private final ContainerParser parser = new ContainerParser();
+
+    // region Builders
+    // Minimal big/little endian writer for building test files
+    private static class Bytes
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Bytes tag(String fourCC)
+        {
+            for (int i = 0; i < fourCC.length(); ++i)
+                out.write(fourCC.charAt(i));
+            return this;
+        }
+
+        Bytes u8(int v)
+        {
+            out.write(v);
+            return this;
+        }
+
+        Bytes u16le(int v)
+        {
+            return u8(v & 0xFF).u8(v >>> 8 & 0xFF);
+        }
+
+        Bytes u32le(long v)
+        {
+            return u16le((int) (v & 0xFFFF)).u16le((int) (v >>> 16 & 0xFFFF));
+        }
+
+        Bytes u64le(long v)
+        {
+            return u32le(v & 0xFFFFFFFFL).u32le(v >>> 32);
+        }
+
+        Bytes u16be(int v)
+        {
+            return u8(v >>> 8 & 0xFF).u8(v & 0xFF);
+        }
+
+        Bytes u24be(int v)
+        {
+            return u8(v >>> 16 & 0xFF).u16be(v & 0xFFFF);
+        }
+
+        Bytes u32be(long v)
+        {
+            return u16be((int) (v >>> 16 & 0xFFFF)).u16be((int) (v & 0xFFFF));
+        }
+
+        Bytes u64be(long v)
+        {
+            return u32be(v >>> 32).u32be(v & 0xFFFFFFFFL);
+        }
+
+        Bytes zeros(int count)
+        {
+            for (int i = 0; i < count; ++i)
+                out.write(0);
+            return this;
+        }
+
+        Bytes bytes(byte[] b)
+        {
+            out.write(b, 0, b.length);
+            return this;
+        }
+
+        // MP4 box with 32-bit size
+        Bytes box(String type, Bytes content)
+        {
+            return u32be(8 + content.size()).tag(type).bytes(content.toByteArray());
+        }
+
+        int size()
+        {
+            return out.size();
+        }
+
+        byte[] toByteArray()
+        {
+            return out.toByteArray();
+        }
+    }
+
+    private AudioMetadata parse(Bytes file) throws IOException
+    {
+        byte[] data = file.toByteArray();
+        return parser.parse(new ByteArrayInputStream(data), data.length);
+    }
+
+    private static Bytes wavFmt(int formatTag, int channels, int sampleRate, int bits)
+    {
+        int blockAlign = channels * bits / 8;
+        return new Bytes().tag("fmt ").u32le(16).u16le(formatTag).u16le(channels).u32le(sampleRate)
+                .u32le((long) sampleRate * blockAlign).u16le(blockAlign).u16le(bits);
+    }
+    // endregion
+
+    @Test
+    public void wav_chunksInAnyOrder() throws IOException
+    {
+        // LIST chunk before fmt with an odd size to check padding
+        Bytes file = new Bytes().tag("RIFF").u32le(0).tag("WAVE")
+                .tag("LIST").u32le(3).zeros(4)
+                .bytes(wavFmt(1, 2, 44100, 16).toByteArray())
+                .tag("data").u32le(44100 * 4).zeros(64);
+
+        AudioMetadata m = parse(file);
+        assertEquals("WAV", m.getFormat());
+        assertEquals(44100, m.getSampleRate());
+        assertEquals(16, m.getBitDepth());
+        assertEquals(2, m.getChannelCount());
+        assertEquals(44100, m.getTotalSamples());
+        assertEquals(1411200, m.getBitrate());
+        assertEquals(1000, m.getDurationMillis());
+    }
+
+    @Test
+    public void wav_extensibleUsesValidBits() throws IOException
+    {
+        Bytes file = new Bytes().tag("RIFF").u32le(0).tag("WAVE")
+                .tag("fmt ").u32le(40).u16le(0xFFFE).u16le(2).u32le(96000).u32le(96000 * 8).u16le(8).u16le(32)
+                .u16le(22).u16le(24).u32le(3).u16le(1).zeros(14)
+                .tag("data").u32le(96000 * 8 * 2);
+
+        AudioMetadata m = parse(file);
+        assertEquals(96000, m.getSampleRate());
+        assertEquals(24, m.getBitDepth());
+        assertEquals(192000, m.getTotalSamples());
+    }
+
+    @Test
+    public void rf64_readsSizesFromDs64() throws IOException
+    {
+        long samples = 3_000_000_000L;
+        Bytes file = new Bytes().tag("RF64").u32le(0xFFFFFFFFL).tag("WAVE")
+                .tag("ds64").u32le(28).u64le(0).u64le(samples * 6).u64le(0).u32le(0)
+                .bytes(wavFmt(1, 2, 192000, 24).toByteArray())
+                .tag("data").u32le(0xFFFFFFFFL);
+
+        AudioMetadata m = parse(file);
+        assertEquals(192000, m.getSampleRate());
+        assertEquals(24, m.getBitDepth());
+        assertEquals(samples, m.getTotalSamples());
+    }
+
+    @Test
+    public void aiff_readsExtendedSampleRate() throws IOException
+    {
+        // 88200 = 1.3458251953125 * 2^16
+        Bytes file = new Bytes().tag("FORM").u32be(0).tag("AIFF")
+                .tag("COMM").u32be(18).u16be(2).u32be(123456).u16be(24)
+                .u16be(16383 + 16).u64be(88200L << 47)
+                .tag("SSND").u32be(8).zeros(8);
+
+        AudioMetadata m = parse(file);
+        assertEquals("AIFF", m.getFormat());
+        assertEquals(88200, m.getSampleRate());
+        assertEquals(24, m.getBitDepth());
+        assertEquals(2, m.getChannelCount());
+        assertEquals(123456, m.getTotalSamples());
+    }
+
+    @Test
+    public void flac_readsStreamInfoAndAverageBitrate() throws IOException
+    {
+        int sampleRate = 96000;
+        long totalSamples = 96000 * 10;
+        long packed = (long) sampleRate << 44 | (2L - 1) << 41 | (24L - 1) << 36 | totalSamples;
+
+        Bytes file = new Bytes().tag("fLaC")
+                .u8(0).u24be(34).u16be(4096).u16be(4096).u24be(0).u24be(0).u64be(packed).zeros(16)
+                .u8(0x80 | 1).u24be(100).zeros(100)   // Last block: padding
+                .zeros(1000000);                      // 1 MB of "frames" over 10 seconds
+
+        AudioMetadata m = parse(file);
+        assertEquals("FLAC", m.getFormat());
+        assertEquals(96000, m.getSampleRate());
+        assertEquals(24, m.getBitDepth());
+        assertEquals(2, m.getChannelCount());
+        assertEquals(totalSamples, m.getTotalSamples());
+        assertEquals(800000, m.getBitrate());
+    }
+
+    @Test
+    public void mp3_xingAndLameGaplessInfo() throws IOException
+    {
+        // MPEG-1 layer III, 128 kbps, 44.1 kHz, stereo: 417 byte frames
+        int header = 0xFFFB9000;
+        int frameLength = 417;
+        int frames = 100;
+
+        Bytes xingFrame = new Bytes().u32be(header).zeros(32)
+                .tag("Xing").u32be(0xF).u32be(frames).u32be(frames * 200L).zeros(100).u32be(0)
+                .tag("LAME").tag("3.10").u8(0).zeros(12)
+                .u24be(576 << 12 | 1000);
+        xingFrame.zeros(frameLength - xingFrame.size());
+
+        // ID3v2 tag with a syncsafe size of 200 bytes, followed by some junk
+        Bytes file = new Bytes().tag("ID3").u8(4).u8(0).u8(0).u8(0).u8(0).u8(1).u8(0x48).zeros(200)
+                .zeros(3).bytes(xingFrame.toByteArray());
+        for (int i = 0; i < 3; ++i)
+            file.u32be(header).zeros(frameLength - 4);
+
+        AudioMetadata m = parse(file);
+        assertEquals("MP3", m.getFormat());
+        assertEquals(44100, m.getSampleRate());
+        assertEquals(0, m.getBitDepth());
+        assertEquals(2, m.getChannelCount());
+        assertEquals(576, m.getEncoderDelay());
+        assertEquals(1000, m.getEncoderPadding());
+        assertEquals(frames * 1152L - 576 - 1000, m.getTotalSamples());
+        assertEquals(200 * 8 * 44100 / 1152, m.getBitrate());
+    }
+
+    @Test
+    public void mp3_cbrEstimateFromLength() throws IOException
+    {
+        // MPEG-2 layer III, 64 kbps, 22.05 kHz, mono (header byte 4 = 0xC0)
+        int header = 0xFFF380C0;
+        int frameLength = 72 * 64000 / 22050;
+
+        Bytes file = new Bytes();
+        for (int i = 0; i < 50; ++i)
+            file.u32be(header).zeros(frameLength - 4);
+
+        AudioMetadata m = parser.parse(new ByteArrayInputStream(file.toByteArray()), -1);
+        assertEquals(22050, m.getSampleRate());
+        assertEquals(1, m.getChannelCount());
+        assertEquals(64000, m.getBitrate());
+        assertEquals(AudioMetadata.UNKNOWN, m.getTotalSamples());
+
+        m = parse(file);
+        assertEquals(frameLength * 50L * 8 * 22050 / 64000, m.getTotalSamples());
+    }
+
+    @Test
+    public void mp4_aacAfterMdat() throws IOException
+    {
+        // AAC-LC, 48 kHz (index 3), stereo: 00010 0011 0010 000
+        Bytes asc = new Bytes().u16be(0x1190);
+        Bytes esds = new Bytes().u32be(0)
+                .u8(0x03).u8(0x80).u8(0x80).u8(0x80).u8(25).u16be(1).u8(0)
+                .u8(0x04).u8(17).u8(0x40).u8(0x15).u24be(0).u32be(320000).u32be(256000)
+                .u8(0x05).u8(2).bytes(asc.toByteArray());
+        Bytes mp4a = new Bytes().zeros(6).u16be(1).u16be(0).zeros(6).u16be(2).u16be(16).zeros(4)
+                .u32be(48000L << 16).box("esds", esds);
+        Bytes stsd = new Bytes().u32be(0).u32be(1).box("mp4a", mp4a);
+        Bytes mdhd = new Bytes().u32be(0).zeros(8).u32be(48000).u32be(48000 * 30);
+        Bytes hdlr = new Bytes().u32be(0).u32be(0).tag("soun").zeros(12);
+
+        Bytes stbl = new Bytes().box("stsd", stsd);
+        Bytes minf = new Bytes().box("stbl", stbl);
+        Bytes mdia = new Bytes().box("mdhd", mdhd).box("hdlr", hdlr).box("minf", minf);
+        Bytes trak = new Bytes().box("mdia", mdia);
+        Bytes moov = new Bytes().box("trak", trak);
+
+        Bytes file = new Bytes().box("ftyp", new Bytes().tag("M4A ").u32be(0))
+                .box("mdat", new Bytes().zeros(5000))
+                .box("moov", moov);
+
+        AudioMetadata m = parse(file);
+        assertEquals("AAC", m.getFormat());
+        assertEquals(48000, m.getSampleRate());
+        assertEquals(2, m.getChannelCount());
+        assertEquals(0, m.getBitDepth());
+        assertEquals(48000 * 30, m.getTotalSamples());
+        assertEquals(256000, m.getBitrate());
+    }
+
+    @Test
+    public void unknownContainerReturnsNull() throws IOException
+    {
+        assertNull(parse(new Bytes().tag("OggS").zeros(100)));
+    }
+
+    @Test
+    public void truncatedHeaderThrows()
+    {
+        try
+        {
+            parse(new Bytes().tag("fLaC").u8(0).u24be(34).zeros(10));
+            fail("Expected exception");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    // Runs over every file in the corpus folder, checking for sane values
+    @Test
+    public void corpus() throws IOException
+    {
+        String corpusDir = System.getProperty("parser.corpus");
+        Assume.assumeTrue(corpusDir != null && !corpusDir.isEmpty());
+
+        int parsed = 0;
+        int unrecognized = 0;
+
+        for (File file : listFilesRecursive(new File(corpusDir)))
+        {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try
+            {
+                AudioMetadata m = parser.parse(in, file.length());
+                if (m == null)
+                {
+                    ++unrecognized;
+                    continue;
+                }
+
+                assertTrue(file + ": " + m, m.getSampleRate() > 0 && m.getSampleRate() <= 768000);
+                assertTrue(file + ": " + m, m.getChannelCount() > 0);
+                ++parsed;
+            }
+            catch (IOException e)
+            {
+                throw new IOException(file + ": " + e.getMessage(), e);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        // A folder without a single audio file is most likely the wrong one
+        assertTrue("Corpus: parsed " + parsed + " files, " + unrecognized + " unrecognized", parsed > 0);
+    }
+
+    private static List<File> listFilesRecursive(File dir)
+    {
+        List<File> files = new ArrayList<>();
+        File[] children = dir.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                if (child.isDirectory())
+                    files.addAll(listFilesRecursive(child));
+                else
+                    files.add(child);
+            }
+        }
+
+        return files;
+    }
+}
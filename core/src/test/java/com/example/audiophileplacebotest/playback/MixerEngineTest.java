@@ -0,0 +1,545 @@
+//--------------------------------------------------
+//
+// Filename:    MixerEngineTest.java
+// Author:      Daniel Walther
+// Brief:       Drives the mixer block by block
+//              against ramp sources and a fake sink
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MixerEngineTest
+{
+    // Every sample holds sign * (frame index + 1), so the output shows exactly which frame of which source was played
+    private static class RampSource implements PcmSource
+    {
+        final int sampleRate;
+        final int channels;
+        final long frames;
+        final float sign;
+
+        long position = 0;
+        int readCount = 0;
+        boolean isClosed = false;
+        boolean isOpen = false;
+
+        // Added to the reported position to fake a decoder running ahead, cleared by a seek
+        long reportedOffset = 0;
+        int seekCount = 0;
+
+        RampSource(int sampleRate_, int channels_, long frames_, float sign_)
+        {
+            sampleRate = sampleRate_;
+            channels = channels_;
+            frames = frames_;
+            sign = sign_;
+        }
+
+        @Override public int getSampleRate() { return sampleRate; }
+        @Override public int getChannelCount() { return channels; }
+        @Override public long getFrameCount() { return frames; }
+        @Override public long getPosition() { return position + reportedOffset; }
+
+        @Override
+        public void seekTo(long frame)
+        {
+            position = frame;
+            isOpen = true;
+            reportedOffset = 0;
+            ++seekCount;
+        }
+
+        @Override public void warmUp() { isOpen = true; }
+        @Override public void suspend() { isOpen = false; }
+        @Override public void close() { isClosed = true; }
+
+        @Override
+        public int read(float[] dst, int offset, int frameCount)
+        {
+            ++readCount;
+
+            if (position >= frames)
+                return -1;
+
+            int n = (int) Math.min(frameCount, frames - position);
+            for (int i = 0; i < n; ++i)
+            {
+                for (int c = 0; c < channels; ++c)
+                    dst[offset + i * channels + c] = sign * (position + i + 1);
+            }
+
+            position += n;
+            return n;
+        }
+    }
+
+    private static class FakeSink implements PcmSink
+    {
+        float[] written = new float[0];
+        int writtenFrames = 0;
+        int sampleRate = 0;
+        int configureCount = 0;
+        boolean isPlaying = false;
+        boolean isReleased = false;
+        boolean isLowLatency = false;
+
+        // Frames the fake device has played out so far, everything written unless a test holds it back
+        long playedFrames = Long.MAX_VALUE;
+
+        @Override
+        public void configure(int sampleRate_, int channelCount)
+        {
+            assertEquals(MixerEngine.OUTPUT_CHANNELS, channelCount);
+            sampleRate = sampleRate_;
+            ++configureCount;
+        }
+
+        @Override
+        public int write(float[] src, int offset, int frameCount)
+        {
+            assertTrue(isPlaying);
+
+            int samples = frameCount * 2;
+            written = Arrays.copyOf(written, writtenFrames * 2 + samples);
+            System.arraycopy(src, offset * 2, written, writtenFrames * 2, samples);
+            writtenFrames += frameCount;
+            return frameCount;
+        }
+
+        @Override public void start() { isPlaying = true; }
+        @Override public void pause() { isPlaying = false; }
+        @Override public void flush() {}
+        @Override public void setLowLatency(boolean isLowLatency_) { isLowLatency = isLowLatency_; }
+        @Override public void release() { isReleased = true; }
+
+        @Override
+        public long getPlayedNanos(long frame)
+        {
+            return frame < playedFrames ? System.nanoTime() : -1;
+        }
+
+        float left(int frame)
+        {
+            return written[frame * 2];
+        }
+    }
+
+    private static class CountingListener implements MixerEngine.Listener
+    {
+        int completedCount = 0;
+        int switchCount = 0;
+        int lastSwitchIndex = -1;
+
+        @Override public void onPlaybackCompleted() { ++completedCount; }
+        @Override public void onPlaybackError(Exception e) { fail(e.toString()); }
+
+        @Override
+        public void onSwitchRendered(int index, long latencyNanos)
+        {
+            assertTrue(latencyNanos >= 0);
+            ++switchCount;
+            lastSwitchIndex = index;
+        }
+    }
+
+    private final FakeSink sink = new FakeSink();
+    private final CountingListener listener = new CountingListener();
+    private final MixerEngine engine = new MixerEngine(sink, listener);
+
+    @Test
+    public void onlySelectedSourceIsRendered() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 48000, 1);
+        RampSource b = new RampSource(48000, 2, 48000, -1);
+        engine.setSources(new PcmSource[] { a, b });
+        engine.play();
+
+        assertEquals(MixerEngine.BLOCK_FRAMES, engine.renderBlock());
+        assertEquals(MixerEngine.BLOCK_FRAMES, engine.renderBlock());
+
+        assertEquals(2 * MixerEngine.BLOCK_FRAMES, sink.writtenFrames);
+        assertEquals(1f, sink.left(0), 0);
+        assertEquals(2 * MixerEngine.BLOCK_FRAMES, sink.left(2 * MixerEngine.BLOCK_FRAMES - 1), 0);
+        assertEquals(0, b.readCount);
+    }
+
+    private static Thread findRenderThread()
+    {
+        for (Thread t : Thread.getAllStackTraces().keySet())
+        {
+            if (t.getName().equals("MixerEngine"))
+                return t;
+        }
+
+        return null;
+    }
+
+    @Test
+    public void playWithoutSelectionParksRenderThread() throws InterruptedException
+    {
+        engine.start();
+        try
+        {
+            engine.play();
+
+            Thread renderThread = findRenderThread();
+            assertNotNull(renderThread);
+
+            // Waiting for a command, not rendering empty blocks in a loop
+            int waitingCount = 0;
+            for (int i = 0; i < 200 && waitingCount < 10; ++i)
+            {
+                Thread.sleep(5);
+                waitingCount = renderThread.getState() == Thread.State.WAITING ? waitingCount + 1 : 0;
+            }
+            assertEquals(10, waitingCount);
+
+            // Playback starts as soon as there is something to play
+            engine.setSources(new PcmSource[] { new RampSource(48000, 2, 480000, 1) });
+            engine.select(0);
+            for (int i = 0; i < 200 && sink.writtenFrames == 0; ++i)
+                Thread.sleep(5);
+            assertTrue(sink.writtenFrames > 0);
+        }
+        finally
+        {
+            engine.release();
+        }
+    }
+
+    @Test
+    public void switchContinuesOnNextSample() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 48000, 1);
+        RampSource b = new RampSource(48000, 2, 48000, -1);
+        engine.setSources(new PcmSource[] { a, b });
+        engine.play();
+
+        for (int i = 0; i < 3; ++i)
+            engine.renderBlock();
+
+        engine.select(1);
+        engine.renderBlock();
+
+        int switchFrame = 3 * MixerEngine.BLOCK_FRAMES;
+        assertEquals(switchFrame, sink.left(switchFrame - 1), 0);
+        assertEquals(-(switchFrame + 1), sink.left(switchFrame), 0);
+        assertEquals(1, sink.configureCount);
+    }
+
+    @Test
+    public void gainFollowsTheSelectedSource() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 48000, 1);
+        RampSource b = new RampSource(48000, 2, 48000, -1);
+        engine.setSources(new PcmSource[] { a, b }, new float[] { 0.5f, 0.25f }, null);
+        engine.play();
+
+        engine.renderBlock();
+        assertEquals(0.5f, sink.left(0), 0);
+
+        engine.select(1);
+        engine.renderBlock();
+        assertEquals(-(MixerEngine.BLOCK_FRAMES + 1) * 0.25f, sink.left(MixerEngine.BLOCK_FRAMES), 0);
+
+        // Same sources, new gains, nothing is reopened
+        engine.setSources(new PcmSource[] { a, b }, null, null);
+        engine.renderBlock();
+        assertEquals(-(2 * MixerEngine.BLOCK_FRAMES + 1), sink.left(2 * MixerEngine.BLOCK_FRAMES), 0);
+        assertFalse(a.isClosed || b.isClosed);
+    }
+
+    @Test
+    public void offsetsAreAddedWhenLiningUp() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 48000, 1);
+        RampSource b = new RampSource(48000, 2, 48000, -1);
+        long[] offsets = { 0, PositionMath.framesToFlicks(100, 48000) };
+        engine.setSources(new PcmSource[] { a, b }, null, offsets);
+        engine.play();
+
+        engine.renderBlock();
+        engine.select(1);
+        engine.renderBlock();
+        assertEquals(-(MixerEngine.BLOCK_FRAMES + 100 + 1), sink.left(MixerEngine.BLOCK_FRAMES), 0);
+
+        // Resync keeps the offset, a source that is exactly where it should be is left alone
+        for (int i = 0; i < SyncMonitor.SAMPLE_INTERVAL_BLOCKS; ++i)
+            engine.renderBlock();
+        assertEquals(1, b.seekCount);
+    }
+
+    @Test
+    public void lockstepSourcesSwitchWithoutSeeking() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 480000, 1);
+        RampSource b = new RampSource(48000, 2, 480000, -1);
+        RampSource c = new RampSource(48000, 2, 480000, -1);
+        engine.setSources(new PcmSource[] { a, b, c });
+        engine.setLockstep(new int[] { 0, 2 });
+        engine.play();
+
+        // Smaller blocks, the other candidate is read along and lined up once
+        assertEquals(MixerEngine.LOCKSTEP_BLOCK_FRAMES, engine.renderBlock());
+        for (int i = 0; i < 3; ++i)
+            engine.renderBlock();
+        assertEquals(1, c.seekCount);
+        assertEquals(4 * MixerEngine.LOCKSTEP_BLOCK_FRAMES, c.position);
+        assertEquals(0, b.readCount);
+
+        // Back and forth, every switch lands on the next sample without another seek
+        int frame = 4 * MixerEngine.LOCKSTEP_BLOCK_FRAMES;
+        engine.select(2);
+        engine.renderBlock();
+        assertEquals(-(frame + 1), sink.left(frame), 0);
+        assertEquals(1, c.seekCount);
+        assertEquals(1, listener.switchCount);
+        assertEquals(2, listener.lastSwitchIndex);
+
+        frame += MixerEngine.LOCKSTEP_BLOCK_FRAMES;
+        int seeksOfA = a.seekCount;
+        engine.select(0);
+        engine.renderBlock();
+        assertEquals(frame + 1, sink.left(frame), 0);
+        assertEquals(seeksOfA, a.seekCount);
+        assertEquals(2, listener.switchCount);
+
+        // A non-lockstep source still has to seek
+        engine.select(1);
+        engine.renderBlock();
+        assertEquals(1, b.seekCount);
+    }
+
+    @Test
+    public void switchIsReportedOncePlayedOut() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 480000, 1);
+        RampSource b = new RampSource(48000, 2, 480000, -1);
+        engine.setSources(new PcmSource[] { a, b });
+        engine.setLockstep(new int[] { 0, 1 });
+        engine.play();
+        engine.renderBlock();
+        assertTrue(sink.isLowLatency);
+
+        // Written, but still queued in the sink
+        sink.playedFrames = MixerEngine.LOCKSTEP_BLOCK_FRAMES;
+        engine.select(1);
+        engine.renderBlock();
+        engine.renderBlock();
+        assertEquals(0, listener.switchCount);
+
+        sink.playedFrames = MixerEngine.LOCKSTEP_BLOCK_FRAMES + 1;
+        engine.renderBlock();
+        assertEquals(1, listener.switchCount);
+        assertEquals(1, listener.lastSwitchIndex);
+
+        engine.setLockstep(new int[0]);
+        engine.renderBlock();
+        assertFalse(sink.isLowLatency);
+    }
+
+    @Test
+    public void lockstepSurvivesNewSourceSet() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 480000, 1);
+        RampSource b = new RampSource(48000, 2, 480000, -1);
+        engine.setSources(new PcmSource[] { a, b });
+        engine.setLockstep(new int[] { 0, 1 });
+        engine.play();
+
+        for (int i = 0; i < 3; ++i)
+            engine.renderBlock();
+
+        // Same sources in a new order, e.g. gains were updated, and the indices passed again
+        engine.setSources(new PcmSource[] { b, a });
+        engine.setLockstep(new int[] { 0, 1 });
+        engine.renderBlock();
+        engine.select(0);
+        engine.renderBlock();
+
+        assertEquals(1, b.seekCount);
+        assertEquals(-(4 * MixerEngine.LOCKSTEP_BLOCK_FRAMES + 1), sink.left(4 * MixerEngine.LOCKSTEP_BLOCK_FRAMES), 0);
+    }
+
+    @Test
+    public void switchBetweenSampleRatesKeepsTime() throws IOException
+    {
+        RampSource a = new RampSource(44100, 2, 441000, 1);
+        RampSource b = new RampSource(88200, 2, 882000, -1);
+        engine.setSources(new PcmSource[] { a, b });
+        engine.play();
+
+        // 1024 frames at 44.1 kHz line up with frame 2048 at 88.2 kHz
+        engine.renderBlock();
+        engine.select(1);
+        engine.renderBlock();
+        assertEquals(88200, sink.sampleRate);
+        assertEquals(-2049, sink.left(MixerEngine.BLOCK_FRAMES), 0);
+
+        // And back, without drifting
+        engine.select(0);
+        engine.renderBlock();
+        assertEquals(44100, sink.sampleRate);
+        assertEquals(MixerEngine.BLOCK_FRAMES + MixerEngine.BLOCK_FRAMES / 2 + 1,
+                sink.left(2 * MixerEngine.BLOCK_FRAMES), 0);
+    }
+
+    @Test
+    public void seekAppliesAtNextBlock() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 480000, 1);
+        engine.setSources(new PcmSource[] { a });
+        engine.play();
+
+        engine.seekTo(1000);
+        assertEquals(1000, engine.getPositionMillis());
+
+        engine.renderBlock();
+        assertEquals(48001, sink.left(0), 0);
+        assertEquals(1000 + MixerEngine.BLOCK_FRAMES * 1000 / 48000, engine.getPositionMillis());
+    }
+
+    @Test
+    public void monoIsUpmixed() throws IOException
+    {
+        engine.setSources(new PcmSource[] { new RampSource(48000, 1, 48000, 1) });
+        engine.play();
+        engine.renderBlock();
+
+        for (int i = 0; i < MixerEngine.BLOCK_FRAMES; ++i)
+        {
+            assertEquals(i + 1, sink.written[i * 2], 0);
+            assertEquals(i + 1, sink.written[i * 2 + 1], 0);
+        }
+    }
+
+    @Test
+    public void pausedEngineRendersNothing() throws IOException
+    {
+        engine.setSources(new PcmSource[] { new RampSource(48000, 2, 48000, 1) });
+
+        assertEquals(0, engine.renderBlock());
+        assertEquals(0, sink.writtenFrames);
+
+        engine.play();
+        engine.renderBlock();
+        engine.pause();
+        assertEquals(0, engine.renderBlock());
+        assertFalse(sink.isPlaying);
+    }
+
+    @Test
+    public void endOfTrackStopsPlayback() throws IOException
+    {
+        engine.setSources(new PcmSource[] { new RampSource(48000, 2, 1500, 1) });
+        engine.play();
+
+        assertEquals(MixerEngine.BLOCK_FRAMES, engine.renderBlock());
+        assertEquals(1500 - MixerEngine.BLOCK_FRAMES, engine.renderBlock());
+        assertEquals(-1, engine.renderBlock());
+
+        assertEquals(1, listener.completedCount);
+        assertFalse(engine.isPlaying());
+        assertFalse(sink.isPlaying);
+    }
+
+    @Test
+    public void droppedSourcesAreClosed() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 48000, 1);
+        RampSource b = new RampSource(48000, 2, 48000, -1);
+        engine.setSources(new PcmSource[] { a, b });
+        engine.select(1);
+        engine.renderBlock();
+
+        // Selection follows the selected source to its new index
+        engine.setSources(new PcmSource[] { b });
+        assertEquals(0, engine.getSelectedIndex());
+        engine.renderBlock();
+        assertTrue(a.isClosed);
+        assertFalse(b.isClosed);
+
+        engine.release();
+        assertTrue(b.isClosed);
+        assertTrue(sink.isReleased);
+    }
+
+    @Test
+    public void onlyNeighboursOfSelectionStayWarm() throws IOException
+    {
+        RampSource[] sources = new RampSource[50];
+        for (int i = 0; i < sources.length; ++i)
+            sources[i] = new RampSource(48000, 2, 48000, i);
+
+        engine.setSources(sources);
+        engine.select(20);
+        engine.renderBlock();
+
+        assertEquals(1 + 2 * MixerEngine.WARM_NEIGHBOURS, engine.getWarmSourceCount());
+        assertTrue(sources[19].isOpen && sources[20].isOpen && sources[21].isOpen);
+
+        // Jumping elsewhere suspends the old window while playing, one source per block
+        engine.play();
+        engine.select(40);
+        for (int i = 0; i < 10; ++i)
+            engine.renderBlock();
+
+        assertFalse(sources[19].isOpen || sources[20].isOpen || sources[21].isOpen);
+        assertTrue(sources[39].isOpen && sources[40].isOpen && sources[41].isOpen);
+        assertEquals(1 + 2 * MixerEngine.WARM_NEIGHBOURS, engine.getWarmSourceCount());
+    }
+
+    @Test
+    public void driftPastThresholdIsResynced() throws IOException
+    {
+        RampSource a = new RampSource(48000, 2, 480000, 1);
+        engine.setSources(new PcmSource[] { a });
+        engine.play();
+
+        // 1 ms ahead, within the default threshold
+        engine.renderBlock();
+        a.reportedOffset = 48;
+        for (int i = 0; i < SyncMonitor.SAMPLE_INTERVAL_BLOCKS; ++i)
+            engine.renderBlock();
+        assertEquals(1, a.seekCount);
+
+        // 10 ms ahead gets corrected without stopping
+        a.reportedOffset = 480;
+        for (int i = 0; i < SyncMonitor.SAMPLE_INTERVAL_BLOCKS; ++i)
+            engine.renderBlock();
+        assertEquals(2, a.seekCount);
+        assertTrue(engine.isPlaying());
+
+        SyncMonitor.Stats stats = engine.getSyncMonitor().getStats(a);
+        assertEquals(2, stats.getSampleCount());
+        assertEquals(10000, stats.getMaxMicros());
+        assertEquals(5500, stats.getMeanMicros());
+        assertEquals(10000, stats.getP99Micros());
+        assertEquals(1, stats.getResyncCount());
+    }
+
+    @Test
+    public void p99IgnoresRareOutliers()
+    {
+        SyncMonitor monitor = new SyncMonitor();
+        PcmSource source = new RampSource(48000, 2, 0, 1);
+
+        for (int i = 0; i < 995; ++i)
+            monitor.record(source, i % 2 == 0 ? 100 : -100);
+        for (int i = 0; i < 5; ++i)
+            monitor.record(source, 50000);
+
+        SyncMonitor.Stats stats = monitor.getStats(source);
+        assertEquals(50000, stats.getMaxMicros());
+        assertTrue(stats.getP99Micros() <= 150);
+        assertEquals(5, stats.getResyncCount());
+    }
+}
@@ -0,0 +1,68 @@
+//--------------------------------------------------
+//
+// Filename:    TimeFormatterTest.java
+// Author:      Daniel Walther
+// Brief:       Checks m:ss output written into
+//              reused char buffers
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.playback;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimeFormatterTest
+{
+    private static String formatAt(long millis, int offset)
+    {
+        char[] buffer = new char[offset + TimeFormatter.MAX_LENGTH];
+        int end = TimeFormatter.format(millis, buffer, offset);
+        return new String(buffer, offset, end - offset);
+    }
+
+    @Test
+    public void formatsMinutesAndPaddedSeconds()
+    {
+        assertEquals("0:00", formatAt(0, 0));
+        assertEquals("0:00", formatAt(999, 0));
+        assertEquals("0:05", formatAt(5000, 0));
+        assertEquals("1:00", formatAt(60000, 0));
+        assertEquals("12:34", formatAt((12 * 60 + 34) * 1000 + 567, 0));
+    }
+
+    @Test
+    public void minutesDoNotWrapAtAnHour()
+    {
+        assertEquals("61:01", formatAt((61 * 60 + 1) * 1000, 0));
+        assertEquals(String.valueOf(Long.MAX_VALUE / 60000) + ":55", formatAt(Long.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void negativeTimesShowAsZero()
+    {
+        assertEquals("0:00", formatAt(-1500, 0));
+    }
+
+    @Test
+    public void writesAtOffsetAndLeavesTheRestAlone()
+    {
+        char[] buffer = "/  xxxxxxxxxxxxxxxxxxxxxxx".toCharArray();
+        int end = TimeFormatter.format(83000, buffer, 3);
+
+        assertEquals(7, end);
+        assertEquals("/  1:23xxxxxxxxxxxxxxxxxxx", new String(buffer));
+    }
+
+    @Test
+    public void reusedBufferIsOverwrittenCleanly()
+    {
+        char[] buffer = new char[TimeFormatter.MAX_LENGTH];
+        TimeFormatter.format(600000, buffer, 0);
+        int end = TimeFormatter.format(9000, buffer, 0);
+
+        assertEquals("0:09", new String(buffer, 0, end));
+        assertEquals("0:09", TimeFormatter.format(9000));
+    }
+}
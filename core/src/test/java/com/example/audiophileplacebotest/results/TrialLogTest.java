@@ -0,0 +1,173 @@
+//--------------------------------------------------
+//
+// Filename:    TrialLogTest.java
+// Author:      Daniel Walther
+// Brief:       Appends trials, reopens the log and
+//              checks the running statistics against
+//              direct computation and the CSV export
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.results;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrialLogTest
+{
+    private static final String[] PAIR = { "content://a.flac", "content://b.flac" };
+    private static final String[] NAMES = { "a.flac", "b, \"remaster\".flac" };
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("trials").toFile();
+        file = new File(dir, "trials.log");
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+        dir.delete();
+    }
+
+    private static TrialRecord abx(boolean isSwapped, int correct, int guess)
+    {
+        String[] keys = isSwapped ? new String[] { PAIR[1], PAIR[0] } : PAIR;
+        String[] names = isSwapped ? new String[] { NAMES[1], NAMES[0] } : NAMES;
+        return new TrialRecord(TrialRecord.KIND_ABX, keys, names, correct, guess, 1234, 7, 0);
+    }
+
+    // P(X >= k) for n trials at the given chance, summed directly
+    private static double tail(int n, int k, double chance)
+    {
+        double p = 0;
+        for (int j = k; j <= n; ++j)
+        {
+            double logBinomial = 0;
+            for (int i = 0; i < j; ++i)
+                logBinomial += Math.log((double) (n - i) / (i + 1));
+            p += Math.exp(logBinomial + j * Math.log(chance) + (n - j) * Math.log(1 - chance));
+        }
+        return p;
+    }
+
+    @Test
+    public void pValueMatchesBinomial()
+    {
+        Random random = new Random(3);
+
+        for (int choices : new int[] { 2, 3, 5 })
+        {
+            ComparisonStats stats = new ComparisonStats(choices);
+            for (int n = 1; n <= 400; ++n)
+            {
+                // Better than chance, so the p-value heads towards zero
+                stats.add(random.nextDouble() < 1.5 / choices);
+
+                double expected = tail(n, stats.getCorrectCount(), 1.0 / choices);
+                assertEquals("n " + n, expected, stats.getPValue(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void confidenceInterval()
+    {
+        ComparisonStats stats = new ComparisonStats(2);
+        assertEquals(0, stats.getConfidenceLow(), 0);
+        assertEquals(1, stats.getConfidenceHigh(), 0);
+
+        for (int i = 0; i < 20; ++i)
+            stats.add(i < 15);
+
+        // Wilson interval of 15 out of 20
+        assertEquals(0.75, stats.getHitRate(), 0);
+        assertEquals(0.5313, stats.getConfidenceLow(), 1e-4);
+        assertEquals(0.8881, stats.getConfidenceHigh(), 1e-4);
+    }
+
+    @Test
+    public void survivesReopen() throws IOException
+    {
+        TrialLog log = new TrialLog(file);
+        for (int i = 0; i < 10; ++i)
+            log.append(abx(i % 2 == 0, i % 2, i < 8 ? i % 2 : 1 - i % 2));
+        log.append(new TrialRecord(TrialRecord.KIND_BLIND, new String[] { PAIR[0], PAIR[1], "content://c.wav" },
+                new String[] { NAMES[0], NAMES[1], "c.wav" }, 2, 0, 50000, 30, 0));
+
+        ComparisonStats before = log.getStats(TrialRecord.KIND_ABX, PAIR);
+        assertEquals(10, before.getTrialCount());
+        assertEquals(8, before.getCorrectCount());
+
+        // Order of the tracks doesn't matter, the kind does
+        TrialLog reopened = new TrialLog(file);
+        ComparisonStats after = reopened.getStats(TrialRecord.KIND_ABX, new String[] { PAIR[1], PAIR[0] });
+        assertEquals(11, reopened.getTrialCount());
+        assertEquals(8, after.getCorrectCount());
+        assertEquals(before.getPValue(), after.getPValue(), 0);
+        assertNull(reopened.getStats(TrialRecord.KIND_BLIND, PAIR));
+        assertEquals(3, reopened.getStats(TrialRecord.KIND_BLIND,
+                new String[] { "content://c.wav", PAIR[0], PAIR[1] }).getChoiceCount());
+
+        // Three tracks plus eleven trials, each a handful of bytes
+        assertTrue(file.length() < 400);
+    }
+
+    @Test
+    public void dropsUnfinishedWrite() throws IOException
+    {
+        TrialLog log = new TrialLog(file);
+        log.append(abx(false, 0, 0));
+        log.append(abx(false, 1, 1));
+        long intact = file.length();
+        log.append(abx(false, 1, 0));
+        long trialSize = file.length() - intact;
+
+        // Cut the last trial short, as if the app died while writing it
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 3);
+        raf.close();
+
+        TrialLog reopened = new TrialLog(file);
+        assertEquals(2, reopened.getTrialCount());
+
+        // The next trial replaces the broken one
+        reopened.append(abx(false, 0, 1));
+        assertEquals(intact + trialSize, file.length());
+        assertEquals(3, new TrialLog(file).getTrialCount());
+        assertEquals(2, new TrialLog(file).getStats(TrialRecord.KIND_ABX, PAIR).getCorrectCount());
+    }
+
+    @Test
+    public void exportsCsv() throws IOException
+    {
+        TrialLog log = new TrialLog(file);
+        log.append(abx(false, 1, 1));
+        log.append(abx(true, 0, 1));
+
+        StringWriter out = new StringWriter();
+        assertEquals(2, new TrialLog(file).exportCsv(out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("time,test,tracks,answer,guess,correct,answer_ms,switches", lines[0]);
+        assertEquals("1970-01-01T00:00:00.000Z,abx,\"a.flac | b, \"\"remaster\"\".flac\",\"b, \"\"remaster\"\".flac\","
+                + "\"b, \"\"remaster\"\".flac\",1,1234,7", lines[1]);
+        assertTrue(lines[2].endsWith(",a.flac,0,1234,7"));
+    }
+}
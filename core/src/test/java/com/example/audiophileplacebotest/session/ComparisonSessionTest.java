@@ -0,0 +1,127 @@
+//--------------------------------------------------
+//
+// Filename:    ComparisonSessionTest.java
+// Author:      Daniel Walther
+// Brief:       Checks selection, global controls
+//              and blind mode of a comparison
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.session;
+
+import com.example.audiophileplacebotest.model.Track;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ComparisonSessionTest
+{
+    private static ComparisonSession<Track> withTracks(int count)
+    {
+        ComparisonSession<Track> session = new ComparisonSession<>();
+        for (int i = 0; i < count; ++i)
+            session.add(new Track("track" + i));
+        return session;
+    }
+
+    @Test
+    public void enablingGlobalControlsSelectsFirstTrack()
+    {
+        ComparisonSession<Track> session = withTracks(3);
+        session.setGlobalControlsEnabled(true);
+
+        assertEquals(0, session.getSelectedIndex());
+        for (Track t : session.getTracks())
+            assertTrue(t.isGlobalControlsEnabled());
+
+        // Tracks added later follow the session
+        Track added = new Track("late");
+        session.add(added);
+        assertTrue(added.isGlobalControlsEnabled());
+        assertFalse(added.isSelected());
+    }
+
+    @Test
+    public void onlyOneTrackIsSelected()
+    {
+        ComparisonSession<Track> session = withTracks(4);
+        session.select(2);
+        session.select(3);
+
+        int selected = 0;
+        for (Track t : session.getTracks())
+        {
+            if (t.isSelected())
+                ++selected;
+        }
+
+        assertEquals(1, selected);
+        assertEquals(3, session.getSelectedIndex());
+    }
+
+    @Test
+    public void removingSelectedTrackFallsBackToFirst()
+    {
+        ComparisonSession<Track> session = withTracks(3);
+        session.select(1);
+
+        Track removed = session.remove(1);
+
+        assertEquals("track1", removed.getKey());
+        assertEquals(0, session.getSelectedIndex());
+    }
+
+    @Test
+    public void removingLastTrackEndsBlindMode()
+    {
+        ComparisonSession<Track> session = withTracks(1);
+        session.setGlobalControlsEnabled(true);
+        session.hide(new Random(1));
+        assertTrue(session.isBlind());
+
+        session.remove(0);
+
+        assertFalse(session.isBlind());
+        assertFalse(session.isGlobalControlsEnabled());
+    }
+
+    @Test
+    public void hideShufflesAndRevealKeepsOrder()
+    {
+        ComparisonSession<Track> session = withTracks(8);
+        session.hide(new Random(3));
+
+        HashSet<String> keys = new HashSet<>();
+        boolean moved = false;
+        for (int i = 0; i < session.size(); ++i)
+        {
+            Track t = session.get(i);
+            assertTrue(t.isHidden());
+            keys.add(t.getKey());
+            moved |= !t.getKey().equals("track" + i);
+        }
+
+        // Same tracks, different order
+        assertEquals(8, keys.size());
+        assertTrue(moved);
+
+        Track first = session.get(0);
+        session.reveal();
+
+        assertFalse(session.isBlind());
+        assertFalse(first.isHidden());
+        assertSame(first, session.get(0));
+    }
+
+    @Test
+    public void durationsMatchWithinTolerance()
+    {
+        assertTrue(ComparisonSession.durationsMatch(new int[] { 60000, 60300, 59700 }));
+        assertFalse(ComparisonSession.durationsMatch(new int[] { 60000, 60000, 60301 }));
+        assertTrue(ComparisonSession.durationsMatch(new int[] { 60000 }));
+    }
+}
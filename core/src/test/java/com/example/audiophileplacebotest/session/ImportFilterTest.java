@@ -0,0 +1,57 @@
+//--------------------------------------------------
+//
+// Filename:    ImportFilterTest.java
+// Author:      Daniel Walther
+// Brief:       Checks matching of imported files
+//              against a reference track
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.session;
+
+import com.example.audiophileplacebotest.parser.AudioMetadata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImportFilterTest
+{
+    private static AudioMetadata meta(String format, int sampleRate, long durationMillis)
+    {
+        return new AudioMetadata(format, sampleRate, 16, 2, durationMillis * sampleRate / 1000, 0);
+    }
+
+    @Test
+    public void everythingReadableMatchesWithoutReference()
+    {
+        ImportFilter filter = new ImportFilter(true, true, true);
+
+        assertTrue(filter.matches(meta("FLAC", 44100, 1000)));
+        assertFalse(filter.matches(null));
+    }
+
+    @Test
+    public void formatAndRateMustMatchReference()
+    {
+        ImportFilter filter = new ImportFilter(true, true, false);
+        filter.setReference(meta("FLAC", 96000, 60000));
+
+        assertTrue(filter.matches(meta("FLAC", 96000, 1000)));
+        assertFalse(filter.matches(meta("WAV", 96000, 60000)));
+        assertFalse(filter.matches(meta("FLAC", 48000, 60000)));
+    }
+
+    @Test
+    public void durationsMatchWithinGlobalControlsTolerance()
+    {
+        ImportFilter filter = new ImportFilter(false, false, true);
+        filter.setReference(meta("FLAC", 44100, 60000));
+
+        assertTrue(filter.matches(meta("MP3", 48000, 60250)));
+        assertFalse(filter.matches(meta("FLAC", 44100, 60400)));
+
+        // Unknown length can't be shown to match
+        assertFalse(filter.matches(new AudioMetadata("MP3", 44100, 0, 2, AudioMetadata.UNKNOWN, 320000)));
+    }
+}
@@ -0,0 +1,493 @@
+//--------------------------------------------------
+//
+// Filename:    FlacTestEncoder.java
+// Author:      Daniel Walther
+// Brief:       Small FLAC encoder for tests and
+//              benchmarks. Not tuned for size, but
+//              cycles through every subframe type,
+//              stereo mode and residual coding so
+//              the decoder sees all of them.
+//
+//--------------------------------------------------
+
+package com.example.audiophileplacebotest.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class FlacTestEncoder
+{
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+    static
+    {
+        for (int i = 0; i < 256; ++i)
+        {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; ++bit)
+            {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xFF;
+            CRC16_TABLE[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    // Quantized predictors for LPC subframes, stored with 14 bit precision and a shift of 10
+    private static final int[][] LPC_COEFFICIENTS =
+    {
+            { 1946 },
+            { 2048, -1024 },
+            { 2600, -1900, 500, -120, 40, -10 },
+            { 1700, -300, 200, -150, 100, -80, 60, -40, 30, -20, 15, -10 }
+    };
+    private static final int LPC_PRECISION = 14;
+    private static final int LPC_SHIFT = 10;
+
+    private final int sampleRate;
+    private final int channels;
+    private final int bitDepth;
+    private final int blockSize;
+    private boolean isVariable = false;
+    private boolean hasMd5 = true;
+    private boolean hasTotalSamples = true;
+    private byte[] trailer = new byte[0];
+
+    public FlacTestEncoder(int sampleRate_, int channels_, int bitDepth_, int blockSize_)
+    {
+        sampleRate = sampleRate_;
+        channels = channels_;
+        bitDepth = bitDepth_;
+        blockSize = blockSize_;
+    }
+
+    // Variable block size stream, frames alternate between blockSize and about 3/4 of it
+    public FlacTestEncoder setVariable(boolean isVariable_)
+    {
+        isVariable = isVariable_;
+        return this;
+    }
+
+    public FlacTestEncoder setMd5(boolean hasMd5_)
+    {
+        hasMd5 = hasMd5_;
+        return this;
+    }
+
+    public FlacTestEncoder setTotalSamples(boolean hasTotalSamples_)
+    {
+        hasTotalSamples = hasTotalSamples_;
+        return this;
+    }
+
+    // Bytes written after the last frame, like an ID3v1 tag
+    public FlacTestEncoder setTrailer(byte[] trailer_)
+    {
+        trailer = trailer_;
+        return this;
+    }
+
+    // Interleaved samples within bitDepth
+    public byte[] encode(int[] samples)
+    {
+        int frames = samples.length / channels;
+        BitWriter out = new BitWriter();
+
+        out.writeBits(0x664C6143, 32); // "fLaC"
+
+        // STREAMINFO, the only metadata block
+        out.writeBits(0x80, 8);
+        out.writeBits(34, 24);
+        out.writeBits(isVariable ? blockSize * 3 / 4 : blockSize, 16);
+        out.writeBits(blockSize, 16);
+        out.writeBits(0, 24);
+        out.writeBits(0, 24);
+        out.writeBits(sampleRate, 20);
+        out.writeBits(channels - 1, 3);
+        out.writeBits(bitDepth - 1, 5);
+        out.writeBits(hasTotalSamples ? frames >>> 4 : 0, 32);
+        out.writeBits(hasTotalSamples ? frames & 0xF : 0, 4);
+
+        byte[] md5 = hasMd5 ? md5Of(samples) : new byte[16];
+        for (byte b : md5)
+            out.writeBits(b & 0xFF, 8);
+
+        int frameIndex = 0;
+        for (int start = 0; start < frames; ++frameIndex)
+        {
+            int size = isVariable && (frameIndex & 1) == 1 ? blockSize * 3 / 4 : blockSize;
+            size = Math.min(size, frames - start);
+            writeFrame(out, samples, start, size, frameIndex);
+            start += size;
+        }
+
+        for (byte b : trailer)
+            out.writeBits(b & 0xFF, 8);
+
+        return out.toByteArray();
+    }
+
+    private void writeFrame(BitWriter out, int[] samples, int start, int size, int frameIndex)
+    {
+        out.resetCrc();
+
+        int[][] channelSamples = new int[channels][size];
+        for (int i = 0; i < size; ++i)
+        {
+            for (int c = 0; c < channels; ++c)
+                channelSamples[c][i] = samples[(start + i) * channels + c];
+        }
+
+        // Stereo frames go through every decorrelation mode in turn
+        int assignment = channels - 1;
+        int[] sideBits = new int[channels];
+        if (channels == 2 && frameIndex % 4 != 0)
+        {
+            int[] left = channelSamples[0];
+            int[] right = channelSamples[1];
+            int[] side = new int[size];
+            for (int i = 0; i < size; ++i)
+                side[i] = left[i] - right[i];
+
+            if (frameIndex % 4 == 1)
+            {
+                assignment = 8;
+                channelSamples[1] = side;
+                sideBits[1] = 1;
+            }
+            else if (frameIndex % 4 == 2)
+            {
+                assignment = 9;
+                channelSamples[0] = side;
+                sideBits[0] = 1;
+            }
+            else
+            {
+                assignment = 10;
+                int[] mid = new int[size];
+                for (int i = 0; i < size; ++i)
+                    mid[i] = (left[i] + right[i]) >> 1;
+                channelSamples[0] = mid;
+                channelSamples[1] = side;
+                sideBits[1] = 1;
+            }
+        }
+
+        // Header
+        out.writeBits(0x3FFE, 14);
+        out.writeBits(0, 1);
+        out.writeBits(isVariable ? 1 : 0, 1);
+
+        int blockSizeCode;
+        if (size == 4096)
+            blockSizeCode = 12;
+        else if (size == 1152)
+            blockSizeCode = 3;
+        else if (size <= 256)
+            blockSizeCode = 6;
+        else
+            blockSizeCode = 7;
+        out.writeBits(blockSizeCode, 4);
+        out.writeBits(0, 4); // Sample rate from STREAMINFO
+
+        out.writeBits(assignment, 4);
+        out.writeBits(bitDepth == 16 ? 4 : bitDepth == 24 ? 6 : 0, 3);
+        out.writeBits(0, 1);
+
+        writeUtf8(out, isVariable ? start : frameIndex);
+
+        if (blockSizeCode == 6)
+            out.writeBits(size - 1, 8);
+        else if (blockSizeCode == 7)
+            out.writeBits(size - 1, 16);
+
+        out.writeBits(out.getCrc8(), 8);
+
+        for (int c = 0; c < channels; ++c)
+            writeSubframe(out, channelSamples[c], bitDepth + sideBits[c], frameIndex + c);
+
+        out.alignToByte();
+        out.writeBits(out.getCrc16(), 16);
+    }
+
+    private static void writeUtf8(BitWriter out, long value)
+    {
+        if (value < 0x80)
+        {
+            out.writeBits((int) value, 8);
+            return;
+        }
+
+        int extraBytes = 1;
+        while (value >= 1L << (6 + 5 * extraBytes))
+            ++extraBytes;
+
+        int lead = (0xFF00 >> (extraBytes + 1)) & 0xFF;
+        out.writeBits(lead | (int) (value >>> (6 * extraBytes)), 8);
+        for (int i = extraBytes - 1; i >= 0; --i)
+            out.writeBits(0x80 | (int) ((value >>> (6 * i)) & 0x3F), 8);
+    }
+
+    private void writeSubframe(BitWriter out, int[] x, int bits, int variant)
+    {
+        int size = x.length;
+
+        boolean isConstant = true;
+        for (int i = 1; i < size; ++i)
+            isConstant &= x[i] == x[0];
+
+        // Trailing zero bits every sample shares
+        int wasted = 0;
+        int or = 0;
+        for (int v : x)
+            or |= v;
+        if (or != 0)
+            wasted = Math.min(Integer.numberOfTrailingZeros(or), bits - 1);
+
+        int[] shifted = new int[size];
+        for (int i = 0; i < size; ++i)
+            shifted[i] = x[i] >> wasted;
+        int shiftedBits = bits - wasted;
+
+        out.writeBits(0, 1);
+        int type;
+        int order = 0;
+        int[] coefficients = null;
+
+        if (isConstant)
+            type = 0;
+        else
+        {
+            switch (variant % 8)
+            {
+                case 0:
+                    type = 1;
+                    break;
+                case 1: case 2: case 3: case 4: case 5:
+                    order = Math.min(variant % 8 - 1, size);
+                    type = 8 + order;
+                    break;
+                default:
+                    coefficients = LPC_COEFFICIENTS[(variant / 8) % LPC_COEFFICIENTS.length];
+                    order = coefficients.length;
+                    if (order > size)
+                    {
+                        coefficients = null;
+                        order = 0;
+                        type = 1;
+                    }
+                    else
+                        type = 32 + order - 1;
+                    break;
+            }
+        }
+
+        out.writeBits(type, 6);
+        if (wasted > 0)
+        {
+            out.writeBits(1, 1);
+            for (int i = 0; i < wasted - 1; ++i)
+                out.writeBits(0, 1);
+            out.writeBits(1, 1);
+        }
+        else
+            out.writeBits(0, 1);
+
+        if (type == 0)
+        {
+            out.writeSigned(shifted[0], shiftedBits);
+            return;
+        }
+
+        if (type == 1)
+        {
+            for (int v : shifted)
+                out.writeSigned(v, shiftedBits);
+            return;
+        }
+
+        for (int i = 0; i < order; ++i)
+            out.writeSigned(shifted[i], shiftedBits);
+
+        int[] residual = new int[size];
+        if (coefficients == null)
+        {
+            for (int i = order; i < size; ++i)
+                residual[i] = shifted[i] - fixedPrediction(shifted, i, order);
+        }
+        else
+        {
+            out.writeBits(LPC_PRECISION - 1, 4);
+            out.writeSigned(LPC_SHIFT, 5);
+            for (int c : coefficients)
+                out.writeSigned(c, LPC_PRECISION);
+
+            for (int i = order; i < size; ++i)
+            {
+                long sum = 0;
+                for (int j = 0; j < order; ++j)
+                    sum += (long) coefficients[j] * shifted[i - 1 - j];
+                residual[i] = shifted[i] - (int) (sum >> LPC_SHIFT);
+            }
+        }
+
+        writeResidual(out, residual, order, variant);
+    }
+
+    private static int fixedPrediction(int[] x, int i, int order)
+    {
+        switch (order)
+        {
+            case 1:
+                return x[i - 1];
+            case 2:
+                return 2 * x[i - 1] - x[i - 2];
+            case 3:
+                return 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+            case 4:
+                return 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+            default:
+                return 0;
+        }
+    }
+
+    // Picks the partition order and coding method from variant, escapes every seventh partition
+    private static void writeResidual(BitWriter out, int[] residual, int order, int variant)
+    {
+        int size = residual.length;
+        int method = (variant / 3) % 2;
+        int parameterBits = method == 0 ? 4 : 5;
+        int escape = method == 0 ? 15 : 31;
+
+        int partitionOrder = variant % 5;
+        while (partitionOrder > 0 && ((size >> partitionOrder) << partitionOrder != size
+                || (size >> partitionOrder) < order))
+            --partitionOrder;
+
+        out.writeBits(method, 2);
+        out.writeBits(partitionOrder, 4);
+
+        int partitionSamples = size >> partitionOrder;
+        int i = order;
+        for (int p = 0; p < 1 << partitionOrder; ++p)
+        {
+            int end = (p + 1) * partitionSamples;
+
+            long sum = 0;
+            int maxBits = 0;
+            for (int j = i; j < end; ++j)
+            {
+                sum += Math.abs((long) residual[j]);
+                maxBits = Math.max(maxBits, 33 - Integer.numberOfLeadingZeros(Math.abs(residual[j])));
+            }
+
+            int count = Math.max(end - i, 1);
+            int k = 0;
+            while (k < escape - 1 && ((long) count << (k + 1)) < sum)
+                ++k;
+
+            if ((p + variant) % 7 == 6 || k >= escape - 1)
+            {
+                out.writeBits(escape, parameterBits);
+                out.writeBits(maxBits, 5);
+                for (; i < end; ++i)
+                    out.writeSigned(residual[i], maxBits);
+            }
+            else
+            {
+                out.writeBits(k, parameterBits);
+                for (; i < end; ++i)
+                {
+                    int folded = (residual[i] << 1) ^ (residual[i] >> 31);
+                    int quotient = folded >>> k;
+                    for (int q = 0; q < quotient; ++q)
+                        out.writeBits(0, 1);
+                    out.writeBits(1, 1);
+                    out.writeBits(folded & ((1 << k) - 1), k);
+                }
+            }
+        }
+    }
+
+    private byte[] md5Of(int[] samples)
+    {
+        int bytesPerSample = (bitDepth + 7) / 8;
+        byte[] bytes = new byte[samples.length * bytesPerSample];
+        for (int i = 0; i < samples.length; ++i)
+        {
+            for (int b = 0; b < bytesPerSample; ++b)
+                bytes[i * bytesPerSample + b] = (byte) (samples[i] >> (b * 8));
+        }
+
+        try
+        {
+            return MessageDigest.getInstance("MD5").digest(bytes);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class BitWriter
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private long accumulator = 0;
+        private int bitCount = 0;
+        private int crc8 = 0;
+        private int crc16 = 0;
+
+        void writeBits(int value, int count)
+        {
+            for (int i = count - 1; i >= 0; --i)
+            {
+                accumulator = (accumulator << 1) | ((value >>> i) & 1);
+                if (++bitCount == 8)
+                {
+                    int b = (int) accumulator;
+                    bytes.write(b);
+                    crc8 = CRC8_TABLE[crc8 ^ b];
+                    crc16 = ((crc16 << 8) & 0xFFFF) ^ CRC16_TABLE[(crc16 >>> 8) ^ b];
+                    accumulator = 0;
+                    bitCount = 0;
+                }
+            }
+        }
+
+        void writeSigned(int value, int count)
+        {
+            writeBits(count == 32 ? value : value & ((1 << count) - 1), count);
+        }
+
+        void alignToByte()
+        {
+            while (bitCount != 0)
+                writeBits(0, 1);
+        }
+
+        // Both CRCs run over the bytes written since the last reset
+        void resetCrc()
+        {
+            crc8 = 0;
+            crc16 = 0;
+        }
+
+        int getCrc8()
+        {
+            return crc8;
+        }
+
+        int getCrc16()
+        {
+            return crc16;
+        }
+
+        byte[] toByteArray()
+        {
+            return bytes.toByteArray();
+        }
+    }
+}